@@ -0,0 +1,170 @@
+package client;
+
+import core.ChessModel;
+import core.Move;
+import core.Player;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+// one game between two headless bots, each with its own connection (or both on one multiplexed
+// connection) and its own copy of the board
+class BotGame {
+    private final LoadGenerator generator;
+    // set on a multiplexed run; the bots' channels are opened in connect()
+    private final ChessClient mux;
+    private MoveChannel white;
+    private MoveChannel black;
+    private final ChessModel whiteModel = new ChessModel();
+    private final ChessModel blackModel = new ChessModel();
+    private final List<Move> script;
+    private final Random random;
+    private final int maxPlies;
+
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private volatile boolean over = false;
+    private volatile long sentAt;
+    private volatile int ply = 0;
+
+    BotGame(LoadGenerator generator, List<Move> script, Random random, int maxPlies, ChessClient mux) {
+        this.generator = generator;
+        this.script = script;
+        this.random = random;
+        this.maxPlies = maxPlies;
+        this.mux = mux;
+        whiteModel.reset();
+        blackModel.reset();
+    }
+
+    // white's socket must be accepted right before black's, so the caller serializes the pair
+    boolean connect() {
+        if (mux != null) {
+            if (!mux.isConnected()) return false;
+            GameChannel[] pair = mux.newPair();
+            white = pair[0];
+            black = pair[1];
+        } else {
+            ChessClient whiteClient = generator.newClient();
+            ChessClient blackClient = generator.newClient();
+            if (!whiteClient.connect()) return false;
+            if (!blackClient.connect()) {
+                whiteClient.disconnect();
+                return false;
+            }
+            white = whiteClient;
+            black = blackClient;
+        }
+        white.setOnMoveReceived(move -> onMoveReceived(whiteModel, white, move));
+        black.setOnMoveReceived(move -> onMoveReceived(blackModel, black, move));
+        white.setOnDisconnected(this::onDisconnected);
+        black.setOnDisconnected(this::onDisconnected);
+        return true;
+    }
+
+    // returns false if the game did not finish within the timeout
+    boolean play(long timeoutMillis) throws InterruptedException {
+        makeMove(whiteModel, white);
+        boolean done = finished.await(timeoutMillis, TimeUnit.MILLISECONDS);
+        over = true;
+        white.disconnect();
+        black.disconnect();
+        return done;
+    }
+
+    private void onMoveReceived(ChessModel model, MoveChannel client, String moveStr) {
+        if (moveStr.startsWith("CLOCK")) {
+            return;
+        }
+        if (moveStr.startsWith("FLAG")) {
+            finish();
+            return;
+        }
+        if (moveStr.startsWith("SYNC")) {
+            onSync(model, client, moveStr);
+            return;
+        }
+        generator.getRelayLatency().record((System.nanoTime() - sentAt) / 1000);
+        generator.getMovesRelayed().increment();
+
+        ChessModel.MoveResult result;
+        try {
+            result = model.movePiece(Move.parse(moveStr));
+        } catch (RuntimeException e) {
+            result = ChessModel.MoveResult.INVALID_MOVE;
+        }
+        if (result == ChessModel.MoveResult.INVALID_MOVE || result == ChessModel.MoveResult.STILL_IN_CHECK) {
+            generator.getInvalidMoves().increment();
+            finish();
+            return;
+        }
+        if (result.isGameOver()) {
+            finish();
+            return;
+        }
+        makeMove(model, client);
+    }
+
+    // the server replaced a backlog with the whole game: replay it and carry on if it is our turn
+    private void onSync(ChessModel model, MoveChannel client, String syncStr) {
+        generator.getSyncs().increment();
+        model.reset();
+        ChessModel.MoveResult result = null;
+        for (Move move : Move.parseSync(syncStr)) {
+            result = model.movePiece(move);
+        }
+        if (result != null && result.isGameOver()) {
+            finish();
+            return;
+        }
+        Player own = client == white ? Player.WHITE : Player.BLACK;
+        if (model.getPlayerInTurn() == own) {
+            makeMove(model, client);
+        }
+    }
+
+    private void makeMove(ChessModel model, MoveChannel client) {
+        Move move = nextMove(model);
+        if (move == null) {
+            finish();
+            return;
+        }
+        ChessModel.MoveResult result = model.movePiece(move);
+        if (result == ChessModel.MoveResult.INVALID_MOVE || result == ChessModel.MoveResult.STILL_IN_CHECK) {
+            generator.getInvalidMoves().increment();
+            finish();
+            return;
+        }
+        ply++;
+        sentAt = System.nanoTime();
+        // a game-ending move is still sent; the game finishes when the opponent applies it
+        client.sendMove(move.toString());
+    }
+
+    private Move nextMove(ChessModel model) {
+        if (ply >= maxPlies) return null;
+        if (script != null) {
+            return ply < script.size() ? script.get(ply) : null;
+        }
+        List<Move> moves = model.getLegalMoves();
+        if (moves.isEmpty()) return null;
+        return moves.get(random.nextInt(moves.size()));
+    }
+
+    private void onDisconnected() {
+        if (!over) {
+            generator.getDisconnects().increment();
+            finish();
+        }
+    }
+
+    private void finish() {
+        over = true;
+        finished.countDown();
+    }
+
+    int getPly() {
+        return ply;
+    }
+}
@@ -1,19 +1,57 @@
 package client;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.net.Socket;
-import java.util.Scanner;
+import java.net.SocketTimeoutException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 
-public class ChessClient {
+import core.PingEstimator;
+import core.Player;
+
+// a connection to a ChessServer. on a server's multiplexed port ("HELLO MUX") one connection
+// carries any number of games, each a GameChannel; otherwise the connection is one game
+public class ChessClient implements MoveChannel {
+    private static final int HANDSHAKE_TIMEOUT_MS = 5000;
+    // one thread sends the pings of every client in the process
+    private static final ScheduledExecutorService PINGER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "client-ping");
+        t.setDaemon(true);
+        return t;
+    });
+
     private String serverAddress;
     private int port;
     private Socket socket;
     private PrintWriter out;
-    private Scanner in;
+    private BufferedReader in;
     private Consumer<String> onMoveReceived;
-    private boolean isConnected = false;
+    private Consumer<String> onAnalysis;
+    private Runnable onDisconnected;
+    private ThreadFactory threadFactory = Thread::new;
+    private boolean logging = true;
+    private volatile boolean isConnected = false;
+
+    private volatile boolean multiplexed = false;
+    private final Map<String, GameChannel> channels = new ConcurrentHashMap<>();
+    private final AtomicInteger nextTag = new AtomicInteger();
+
+    private final PingEstimator pings = new PingEstimator();
+    private long pingIntervalMillis = 2000;
+    private ScheduledFuture<?> pinger;
+    // a one-game server reads our lines only once the game started; until it has said something
+    // after its greeting, a ping would sit unread and come back as a bogus round trip
+    private volatile boolean serverListening = false;
 
     public ChessClient(String serverAddress, int port) {
         this.serverAddress = serverAddress;
@@ -23,63 +61,245 @@ public class ChessClient {
 
     public boolean connect() {
         try {
-            socket = new Socket(serverAddress, port);
-            out = new PrintWriter(socket.getOutputStream(), true);
-            in = new Scanner(socket.getInputStream());
+            String host = serverAddress;
+            int targetPort = port;
+            String greeting = open(host, targetPort);
+            if (greeting != null && greeting.startsWith("REDIRECT")) {
+                // "REDIRECT <host> <port>" from a session router
+                String[] parts = greeting.split(" ");
+                socket.close();
+                host = parts[1];
+                targetPort = Integer.parseInt(parts[2]);
+                greeting = open(host, targetPort);
+            }
+            if (greeting == null || !greeting.startsWith("HELLO")) {
+                if (logging) System.err.println("Server refused connection: " + greeting);
+                socket.close();
+                return false;
+            }
+            multiplexed = greeting.startsWith("HELLO MUX");
+            serverListening = multiplexed;
             isConnected = true;
             
-            new Thread(this::listenForMoves).start();
+            threadFactory.newThread(this::listenForMoves).start();
+            if (pingIntervalMillis > 0) {
+                pinger = PINGER.scheduleWithFixedDelay(this::sendPing, pingIntervalMillis, pingIntervalMillis, TimeUnit.MILLISECONDS);
+            }
             
-            System.out.println("Connected to server: " + serverAddress + ":" + port);
+            if (logging) System.out.println("Connected to server: " + host + ":" + targetPort);
             return true;
-        } catch (IOException e) {
-            System.err.println("Cannot connect to server: " + e.getMessage());
+        } catch (IOException | RuntimeException e) {
+            if (logging) System.err.println("Cannot connect to server: " + e.getMessage());
             return false;
         }
     }
 
+    private String open(String host, int targetPort) throws IOException {
+        socket = new Socket(host, targetPort);
+        out = new PrintWriter(socket.getOutputStream(), true);
+        in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+        return readGreeting();
+    }
+
+    // servers greet with "HELLO", routers with "REDIRECT <host> <port>"; a silent peer is an older server
+    private String readGreeting() throws IOException {
+        socket.setSoTimeout(HANDSHAKE_TIMEOUT_MS);
+        try {
+            return in.readLine();
+        } catch (SocketTimeoutException e) {
+            return "HELLO";
+        } finally {
+            socket.setSoTimeout(0);
+        }
+    }
+
 
     public void sendMove(String move) {
         if (isConnected && out != null) {
             out.println(move);
-            System.out.println("Sent move: " + move);
-        } else {
+            if (logging) System.out.println("Sent move: " + move);
+        } else if (logging) {
             System.err.println("Not connected to server!");
         }
     }
 
 
+    private void sendPing() {
+        PrintWriter o = out;
+        if (isConnected && serverListening && o != null) o.println(pings.ping());
+    }
+
+    // asks the server to search this game's position, or the one options names ("startpos moves
+    // ...", "fen ..."). priority: hint, review or bulk; options may also hold "depth n", "movetime ms".
+    // the answer ("ANALYSIS <id> ...") goes to setOnAnalysis, not to the move callback. on a
+    // multiplexed connection every line belongs to a game: use GameChannel.requestAnalysis
+    public void requestAnalysis(String id, String priority, String options) {
+        if (multiplexed) throw new IllegalStateException("multiplexed connection: analysis goes through a GameChannel");
+        sendMove("ANALYZE " + id + " " + priority + (options.isEmpty() ? "" : " " + options));
+    }
+
+    public void cancelAnalysis(String id) {
+        if (multiplexed) throw new IllegalStateException("multiplexed connection: analysis goes through a GameChannel");
+        sendMove("CANCEL " + id);
+    }
+
+    // multiplexed connections only: plays the next game the server pairs
+    public GameChannel newGame() {
+        GameChannel channel = openChannel();
+        sendTagged(channel.getTag(), "NEW");
+        return channel;
+    }
+
+    // multiplexed connections only: a game between two channels of this connection, {white, black}
+    public GameChannel[] newPair() {
+        GameChannel white = openChannel();
+        GameChannel black = openChannel();
+        sendTagged(white.getTag(), "PAIR " + black.getTag());
+        return new GameChannel[] {white, black};
+    }
+
+    // multiplexed connections only: onMoveReceived gets a SYNC line with the game so far, then
+    // every move; it is set before asking, as the SYNC line may come back right away
+    public GameChannel watch(long gameId, Consumer<String> onMoveReceived) {
+        GameChannel channel = openChannel();
+        channel.setOnMoveReceived(onMoveReceived);
+        sendTagged(channel.getTag(), "WATCH " + gameId);
+        return channel;
+    }
+
+    // multiplexed connections only: plays on in a game the server answered "ADJOURNED <id>" to
+    // (after ADJOURN from both players), as color; it starts once the other color asks too, with
+    // a SYNC line of the game so far
+    public GameChannel resume(long gameId, Player color) {
+        GameChannel channel = openChannel();
+        sendTagged(channel.getTag(), "RESUME " + gameId + " " + color.name());
+        return channel;
+    }
+
+    public boolean isMultiplexed() {
+        return multiplexed;
+    }
+
+    private GameChannel openChannel() {
+        if (!multiplexed) throw new IllegalStateException("not a multiplexed connection");
+        GameChannel channel = new GameChannel(this, String.valueOf(nextTag.incrementAndGet()));
+        channels.put(channel.getTag(), channel);
+        return channel;
+    }
+
+    void sendTagged(String tag, String line) {
+        if (isConnected && out != null) {
+            out.println(tag + " " + line);
+        }
+    }
+
+
     private void listenForMoves() {
         try {
-            while (isConnected && in.hasNextLine()) {
-                String move = in.nextLine();
-                System.out.println("Received move: " + move);
+            String move;
+            while (isConnected && (move = in.readLine()) != null) {
+                // ping traffic is answered here and never reaches the game
+                if (move.startsWith("PING ")) {
+                    String pong = PingEstimator.pong(move, PingEstimator.nowMicros());
+                    if (pong != null) out.println(pong);
+                    continue;
+                }
+                if (move.startsWith("PONG ")) {
+                    pings.onPong(move);
+                    continue;
+                }
+                serverListening = true;
+                if (logging) System.out.println("Received move: " + move);
+
+                if (multiplexed) {
+                    deliver(move);
+                    continue;
+                }
                 
+                if (move.startsWith("ANALYSIS ")) {
+                    if (onAnalysis != null) onAnalysis.accept(move);
+                    continue;
+                }
+
                 if (onMoveReceived != null) {
                     onMoveReceived.accept(move);
                 }
             }
         } catch (Exception e) {
-            System.err.println("Connection lost: " + e.getMessage());
+            if (logging) System.err.println("Connection lost: " + e.getMessage());
             isConnected = false;
+        } finally {
+            if (pinger != null) pinger.cancel(false);
+            for (GameChannel channel : channels.values()) {
+                channel.closed();
+            }
+            channels.clear();
+            if (onDisconnected != null) {
+                onDisconnected.run();
+            }
         }
     }
 
+    // "<tag> <line>" to the channel with that tag
+    private void deliver(String line) {
+        int space = line.indexOf(' ');
+        if (space <= 0) return;
+        String tag = line.substring(0, space);
+        String rest = line.substring(space + 1);
+        GameChannel channel = channels.get(tag);
+        if (channel == null) return;
+        if (rest.equals("END") || rest.startsWith("ERROR")) {
+            channels.remove(tag);
+        }
+        channel.receive(rest);
+    }
+
 
     public void setOnMoveReceived(Consumer<String> callback) {
         this.onMoveReceived = callback;
     }
 
+    // answers to requestAnalysis, on the listener thread
+    public void setOnAnalysis(Consumer<String> callback) {
+        this.onAnalysis = callback;
+    }
+
+    // called from the listener thread once the connection is closed, by either side
+    public void setOnDisconnected(Runnable callback) {
+        this.onDisconnected = callback;
+    }
+
+    // lets headless callers (bots, load tools) run the listener on their own threads
+    public void setThreadFactory(ThreadFactory threadFactory) {
+        this.threadFactory = threadFactory;
+    }
+
+    // how often to ping the server, 0 for never; takes effect on connect
+    public void setPingInterval(long millis) {
+        this.pingIntervalMillis = millis;
+    }
+
+    // round-trip time, jitter and clock offset to the server
+    public PingEstimator getPingStats() {
+        return pings;
+    }
+
+    public void setLogging(boolean logging) {
+        this.logging = logging;
+    }
+
 
     public void disconnect() {
         isConnected = false;
+        if (pinger != null) pinger.cancel(false);
         try {
+            // closing the socket first unblocks the listener thread, which holds the reader's lock
+            if (socket != null) socket.close();
             if (in != null) in.close();
             if (out != null) out.close();
-            if (socket != null) socket.close();
-            System.out.println("Disconnected from server");
+            if (logging) System.out.println("Disconnected from server");
         } catch (IOException e) {
-            System.err.println("Error while disconnecting: " + e.getMessage());
+            if (logging) System.err.println("Error while disconnecting: " + e.getMessage());
         }
     }
 
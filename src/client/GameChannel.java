@@ -0,0 +1,110 @@
+package client;
+
+import core.Player;
+
+import java.util.function.Consumer;
+
+// one game on a multiplexed ChessClient connection, played or watched. the listener thread of
+// the connection delivers its lines; disconnect() leaves the game but keeps the connection
+public class GameChannel implements MoveChannel {
+    private final ChessClient client;
+    private final String tag;
+    private volatile Consumer<String> onMoveReceived;
+    private volatile Consumer<String> onAnalysis;
+    private volatile Runnable onDisconnected;
+    private volatile Player color;
+    private volatile long gameId = -1;
+    private volatile boolean open = true;
+
+    GameChannel(ChessClient client, String tag) {
+        this.client = client;
+        this.tag = tag;
+    }
+
+    @Override
+    public void sendMove(String move) {
+        if (open) client.sendTagged(tag, move);
+    }
+
+    @Override
+    public void setOnMoveReceived(Consumer<String> callback) {
+        this.onMoveReceived = callback;
+    }
+
+    // called once the game is over for this channel, or the connection is lost
+    @Override
+    public void setOnDisconnected(Runnable callback) {
+        this.onDisconnected = callback;
+    }
+
+    // as ChessClient.requestAnalysis, for this channel's game ("game", the default, is the game
+    // played or watched here); the answer goes to setOnAnalysis
+    public void requestAnalysis(String id, String priority, String options) {
+        sendMove("ANALYZE " + id + " " + priority + (options.isEmpty() ? "" : " " + options));
+    }
+
+    public void cancelAnalysis(String id) {
+        sendMove("CANCEL " + id);
+    }
+
+    // answers to requestAnalysis ("ANALYSIS <id> ..."), on the connection's listener thread
+    public void setOnAnalysis(Consumer<String> callback) {
+        this.onAnalysis = callback;
+    }
+
+    @Override
+    public void disconnect() {
+        if (open) client.sendTagged(tag, "LEAVE");
+    }
+
+    // null until the server started the game (and always for observers)
+    public Player getColor() {
+        return color;
+    }
+
+    // the server's id for the game, which others can WATCH; -1 until started
+    public long getGameId() {
+        return gameId;
+    }
+
+    public boolean isOpen() {
+        return open;
+    }
+
+    String getTag() {
+        return tag;
+    }
+
+    void receive(String line) {
+        if (line.startsWith("ANALYSIS ")) {
+            Consumer<String> callback = onAnalysis;
+            if (callback != null) callback.accept(line);
+            return;
+        }
+        if (line.startsWith("START ")) {
+            String[] parts = line.split(" ");
+            color = Player.valueOf(parts[1]);
+            gameId = Long.parseLong(parts[2]);
+            return;
+        }
+        if (line.equals("END")) {
+            closed();
+            return;
+        }
+        if (line.startsWith("ERROR")) {
+            System.err.println("Game " + tag + ": " + line);
+            client.sendTagged(tag, "LEAVE");
+            closed();
+            return;
+        }
+        Consumer<String> callback = onMoveReceived;
+        if (callback != null) callback.accept(line);
+    }
+
+    void closed() {
+        if (!open) return;
+        open = false;
+        Runnable callback = onDisconnected;
+        if (callback != null) callback.run();
+    }
+}
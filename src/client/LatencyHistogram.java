@@ -0,0 +1,67 @@
+package client;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// log-linear histogram of microsecond values, ~1.5% precision, safe for concurrent recording
+public class LatencyHistogram {
+    private static final int SUB_BUCKETS = 64;
+    private static final int MAX_SHIFT = 34;
+    private static final long MAX_VALUE = (1L << (MAX_SHIFT + 7)) - 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(2 * SUB_BUCKETS + MAX_SHIFT * SUB_BUCKETS);
+
+    public void record(long micros) {
+        if (micros < 0) micros = 0;
+        if (micros > MAX_VALUE) micros = MAX_VALUE;
+        counts.incrementAndGet(indexOf(micros));
+    }
+
+    public long getCount() {
+        long total = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    // value in microseconds below which the given fraction (0..1) of samples fall
+    public long percentile(double fraction) {
+        long total = getCount();
+        if (total == 0) return 0;
+        long target = Math.max(1, (long) Math.ceil(fraction * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return valueOf(i);
+            }
+        }
+        return MAX_VALUE;
+    }
+
+    public long max() {
+        for (int i = counts.length() - 1; i >= 0; i--) {
+            if (counts.get(i) > 0) return valueOf(i);
+        }
+        return 0;
+    }
+
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+    }
+
+    private static int indexOf(long value) {
+        if (value < 2 * SUB_BUCKETS) return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - 6;
+        return 2 * SUB_BUCKETS + (shift - 1) * SUB_BUCKETS + (int) ((value >> shift) - SUB_BUCKETS);
+    }
+
+    private static long valueOf(int index) {
+        if (index < 2 * SUB_BUCKETS) return index;
+        int shift = (index - 2 * SUB_BUCKETS) / SUB_BUCKETS + 1;
+        long sub = (index - 2 * SUB_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+        return sub << shift;
+    }
+}
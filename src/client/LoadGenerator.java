@@ -0,0 +1,258 @@
+package client;
+
+import core.Move;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// headless load tool: many bot pairs playing through ChessServer, reporting relay latency
+public class LoadGenerator {
+    private final String host;
+    private final int port;
+    private final int games;
+    private final int durationSeconds;
+    private final int maxPlies;
+    private final List<List<Move>> scripts;
+    private final ThreadFactory threadFactory = botThreadFactory();
+    // > 0: games share this many multiplexed connections (port must be the server's --mux-port)
+    private final int muxConnections;
+    private final List<ChessClient> muxClients = new ArrayList<>();
+
+    // ChessServer pairs sockets in accept order, so each white/black pair connects under this lock
+    private final Object connectLock = new Object();
+
+    private final LatencyHistogram relayLatency = new LatencyHistogram();
+    private final LongAdder movesRelayed = new LongAdder();
+    private final LongAdder gamesCompleted = new LongAdder();
+    private final LongAdder connectErrors = new LongAdder();
+    private final LongAdder invalidMoves = new LongAdder();
+    private final LongAdder disconnects = new LongAdder();
+    // SYNC snapshots received after a bot fell behind
+    private final LongAdder syncs = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+
+    public LoadGenerator(String host, int port, int games, int durationSeconds, int maxPlies, List<List<Move>> scripts) {
+        this(host, port, games, durationSeconds, maxPlies, scripts, 0);
+    }
+
+    public LoadGenerator(String host, int port, int games, int durationSeconds, int maxPlies, List<List<Move>> scripts,
+                         int muxConnections) {
+        this.muxConnections = muxConnections;
+        this.host = host;
+        this.port = port;
+        this.games = games;
+        this.durationSeconds = durationSeconds;
+        this.maxPlies = maxPlies;
+        this.scripts = scripts;
+    }
+
+    public void run() throws InterruptedException {
+        System.out.println("Load generator: " + games + " concurrent games against " + host + ":" + port
+                + " for " + durationSeconds + "s" + (scripts != null ? " (" + scripts.size() + " scripted games)" : " (random games)"));
+
+        for (int i = 0; i < muxConnections; i++) {
+            ChessClient client = newClient();
+            if (!client.connect() || !client.isMultiplexed()) {
+                System.err.println("No multiplexed server at " + host + ":" + port);
+                client.disconnect();
+                return;
+            }
+            muxClients.add(client);
+        }
+        if (muxConnections > 0) {
+            System.out.println("Games share " + muxConnections + " multiplexed connections");
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(durationSeconds);
+        long startedAt = System.nanoTime();
+
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+        long[] lastMoves = {0};
+        reporter.scheduleAtFixedRate(() -> {
+            long moves = movesRelayed.sum();
+            System.out.println(String.format("moves/s: %d  games: %d  p50: %dus  p99: %dus  errors: %d",
+                    moves - lastMoves[0], gamesCompleted.sum(), relayLatency.percentile(0.50),
+                    relayLatency.percentile(0.99), getErrorCount()));
+            lastMoves[0] = moves;
+        }, 1, 1, TimeUnit.SECONDS);
+
+        ExecutorService drivers = Executors.newFixedThreadPool(games, threadFactory);
+        AtomicInteger gameNumber = new AtomicInteger();
+        for (int i = 0; i < games; i++) {
+            drivers.execute(() -> {
+                while (System.nanoTime() < deadline) {
+                    int n = gameNumber.getAndIncrement();
+                    if (!playOneGame(n, deadline)) {
+                        return;
+                    }
+                }
+            });
+        }
+        drivers.shutdown();
+        drivers.awaitTermination(durationSeconds + 60L, TimeUnit.SECONDS);
+        reporter.shutdownNow();
+        for (ChessClient client : muxClients) {
+            client.disconnect();
+        }
+
+        double seconds = (System.nanoTime() - startedAt) / 1e9;
+        printSummary(seconds);
+    }
+
+    private boolean playOneGame(int n, long deadline) {
+        List<Move> script = scripts != null ? scripts.get(n % scripts.size()) : null;
+        ChessClient mux = muxClients.isEmpty() ? null : muxClients.get(n % muxClients.size());
+        BotGame game = new BotGame(this, script, new Random(n), maxPlies, mux);
+
+        boolean connected;
+        if (mux != null) {
+            // the server pairs a PAIR request by itself
+            connected = game.connect();
+        } else {
+            synchronized (connectLock) {
+                connected = game.connect();
+            }
+        }
+        if (!connected) {
+            connectErrors.increment();
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            return true;
+        }
+
+        try {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (game.play(Math.max(remaining, 1000))) {
+                gamesCompleted.increment();
+            } else if (System.nanoTime() < deadline) {
+                timeouts.increment();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return true;
+    }
+
+    private void printSummary(double seconds) {
+        long moves = movesRelayed.sum();
+        System.out.println("----------------------------------------");
+        System.out.println(String.format("Duration:         %.1fs", seconds));
+        System.out.println("Games completed:  " + gamesCompleted.sum());
+        System.out.println("Moves relayed:    " + moves);
+        System.out.println(String.format("Throughput:       %.0f moves/s", moves / seconds));
+        System.out.println("Relay latency:    p50 " + relayLatency.percentile(0.50) + "us"
+                + ", p99 " + relayLatency.percentile(0.99) + "us"
+                + ", p999 " + relayLatency.percentile(0.999) + "us"
+                + ", max " + relayLatency.max() + "us");
+        System.out.println("Connect errors:   " + connectErrors.sum());
+        System.out.println("Invalid moves:    " + invalidMoves.sum());
+        System.out.println("Disconnects:      " + disconnects.sum());
+        System.out.println("Snapshots:        " + syncs.sum());
+        System.out.println("Timeouts:         " + timeouts.sum());
+    }
+
+    ChessClient newClient() {
+        ChessClient client = new ChessClient(host, port);
+        client.setLogging(false);
+        client.setThreadFactory(threadFactory);
+        return client;
+    }
+
+    long getErrorCount() {
+        return connectErrors.sum() + invalidMoves.sum() + disconnects.sum() + timeouts.sum();
+    }
+
+    LatencyHistogram getRelayLatency() {
+        return relayLatency;
+    }
+
+    LongAdder getMovesRelayed() {
+        return movesRelayed;
+    }
+
+    LongAdder getInvalidMoves() {
+        return invalidMoves;
+    }
+
+    LongAdder getDisconnects() {
+        return disconnects;
+    }
+
+    LongAdder getSyncs() {
+        return syncs;
+    }
+
+    // virtual threads when the runtime has them (JDK 21+), otherwise daemon platform threads
+    static ThreadFactory botThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            return r -> {
+                Thread t = new Thread(null, r, "bot", 256 * 1024);
+                t.setDaemon(true);
+                return t;
+            };
+        }
+    }
+
+    // one game per line, moves in wire format separated by spaces
+    private static List<List<Move>> loadScripts(String path) throws IOException {
+        List<List<Move>> scripts = new ArrayList<>();
+        for (String line : Files.readAllLines(Paths.get(path))) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            List<Move> moves = new ArrayList<>();
+            for (String token : line.split("\\s+")) {
+                moves.add(Move.parse(token));
+            }
+            scripts.add(moves);
+        }
+        return scripts;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String host = "localhost";
+        int port = 50000;
+        int games = 500;
+        int duration = 30;
+        int maxPlies = 200;
+        String scriptFile = null;
+        int mux = 0;
+
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--host": host = args[i + 1]; break;
+                case "--port": port = Integer.parseInt(args[i + 1]); break;
+                case "--games": games = Integer.parseInt(args[i + 1]); break;
+                case "--duration": duration = Integer.parseInt(args[i + 1]); break;
+                case "--max-plies": maxPlies = Integer.parseInt(args[i + 1]); break;
+                case "--script": scriptFile = args[i + 1]; break;
+                case "--mux": mux = Integer.parseInt(args[i + 1]); break;
+                default:
+                    System.err.println("Unknown option: " + args[i]);
+                    System.err.println("Usage: LoadGenerator [--host h] [--port p] [--games n] [--duration s] [--max-plies n] [--script file] [--mux connections]");
+                    return;
+            }
+        }
+
+        List<List<Move>> scripts = scriptFile != null ? loadScripts(scriptFile) : null;
+        new LoadGenerator(host, port, games, duration, maxPlies, scripts, mux).run();
+    }
+}
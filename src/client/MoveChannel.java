@@ -0,0 +1,15 @@
+package client;
+
+import java.util.function.Consumer;
+
+// where a game's lines go and come from: a whole ChessClient connection, or one GameChannel of a
+// multiplexed connection
+public interface MoveChannel {
+    void sendMove(String move);
+
+    void setOnMoveReceived(Consumer<String> callback);
+
+    void setOnDisconnected(Runnable callback);
+
+    void disconnect();
+}
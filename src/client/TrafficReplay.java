@@ -0,0 +1,352 @@
+package client;
+
+import core.Player;
+import core.TrafficReader;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+// plays a traffic capture (see core.TrafficReader) back against a server: every recorded session
+// connects, sends the same lines in the same order and disconnects, at the recorded pace (or n
+// times faster), or with --speed max as fast as the server relays. reports relay latency and
+// throughput like LoadGenerator; --report saves the numbers and --baseline compares against a
+// saved report. the capture is streamed, so its size does not matter: one thread reads events in
+// order and hands each to its session's queue
+public class TrafficReplay {
+    private static final long RELAY_TIMEOUT_MS = 10000;
+    // events read ahead for running sessions before the reader waits for them to catch up
+    private static final int BUFFERED_EVENTS = 1 << 16;
+
+    private final String host;
+    private final int port;
+    // 0 = as fast as possible
+    private final double speed;
+    private final int maxSessions;
+    private final ThreadFactory threadFactory = LoadGenerator.botThreadFactory();
+
+    // ChessServer pairs sockets in accept order, so each white/black pair connects under this lock
+    private final Object connectLock = new Object();
+
+    private final Semaphore buffered = new Semaphore(BUFFERED_EVENTS);
+    // sessions started and not finished yet, by recorded id
+    private final Map<Long, Session> sessions = new ConcurrentHashMap<>();
+    // guarded by this: sessions over maxSessions wait here, in recorded order
+    private final ArrayDeque<Session> pending = new ArrayDeque<>();
+    private int running = 0;
+
+    private final LatencyHistogram relayLatency = new LatencyHistogram();
+    private final LongAdder movesRelayed = new LongAdder();
+    private final LongAdder sessionsCompleted = new LongAdder();
+    private final LongAdder connectErrors = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    // how far behind the recorded schedule lines were sent, because the server was slower
+    private final LatencyHistogram scheduleSlip = new LatencyHistogram();
+
+    // an event on its way to a session; event null marks the end of the capture
+    private static class Queued {
+        final TrafficReader.Event event;
+        // holds a permit of buffered
+        final boolean counted;
+
+        Queued(TrafficReader.Event event, boolean counted) {
+            this.event = event;
+            this.counted = counted;
+        }
+    }
+
+    private static class Session {
+        final long id;
+        final BlockingQueue<Queued> queue = new LinkedBlockingQueue<>();
+        // once set, its events count against buffered; a session waiting for a slot buffers
+        // without limit, or it could hold every permit while the running ones starve
+        volatile boolean running = false;
+        // guarded by this
+        boolean finished = false;
+
+        Session(long id) {
+            this.id = id;
+        }
+    }
+
+    public TrafficReplay(String host, int port, double speed, int maxSessions) {
+        this.host = host;
+        this.port = port;
+        this.speed = speed;
+        this.maxSessions = maxSessions;
+    }
+
+    // returns the summary numbers, see printSummary
+    public Map<String, Double> run(TrafficReader reader) throws IOException, InterruptedException {
+        System.out.println("Replaying against " + host + ":" + port + " at " + (speed > 0 ? speed + "x" : "max speed"));
+
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+        long[] lastMoves = {0};
+        reporter.scheduleAtFixedRate(() -> {
+            long moves = movesRelayed.sum();
+            System.out.println(String.format("moves/s: %d  sessions: %d  p50: %dus  p99: %dus  errors: %d",
+                    moves - lastMoves[0], sessionsCompleted.sum(), relayLatency.percentile(0.50),
+                    relayLatency.percentile(0.99), connectErrors.sum() + timeouts.sum()));
+            lastMoves[0] = moves;
+        }, 1, 1, TimeUnit.SECONDS);
+
+        long start = System.nanoTime();
+        long sessionsRead = 0;
+        TrafficReader.Event event = reader.next();
+        long firstMicros = event != null ? event.getMicros() : 0;
+        for (; event != null; event = reader.next()) {
+            Session session = sessions.get(event.getSession());
+            if (session == null) {
+                // the capture writes white's CONNECT first; anything else is left over from a
+                // session that already finished
+                if (event.getType() != TrafficReader.CONNECT || event.getPlayer() != Player.WHITE) continue;
+                sleepUntil(start, event.getMicros() - firstMicros);
+                session = new Session(event.getSession());
+                sessions.put(session.id, session);
+                sessionsRead++;
+                startOrQueue(session, start, firstMicros);
+                continue;
+            }
+            if (event.getType() == TrafficReader.CONNECT) continue;
+            sleepUntil(start, event.getMicros() - firstMicros);
+            boolean counted = session.running;
+            if (counted) buffered.acquire();
+            offer(session, new Queued(event, counted));
+        }
+        for (Session session : sessions.values()) {
+            offer(session, new Queued(null, false));
+        }
+        synchronized (this) {
+            while (running > 0 || !pending.isEmpty()) wait();
+        }
+        reporter.shutdownNow();
+        System.out.println("Capture: " + sessionsRead + " sessions, " + reader.getEventsRead() + " events");
+        return printSummary((System.nanoTime() - start) / 1e9);
+    }
+
+    private synchronized void startOrQueue(Session session, long start, long firstMicros) {
+        if (running < maxSessions) startSession(session, start, firstMicros);
+        else pending.add(session);
+    }
+
+    // called holding this
+    private void startSession(Session session, long start, long firstMicros) {
+        running++;
+        session.running = true;
+        threadFactory.newThread(() -> {
+            try {
+                replay(session, start, firstMicros);
+            } finally {
+                finish(session, start, firstMicros);
+            }
+        }).start();
+    }
+
+    private void offer(Session session, Queued queued) {
+        synchronized (session) {
+            if (!session.finished) {
+                session.queue.add(queued);
+                return;
+            }
+        }
+        if (queued.counted) buffered.release();
+    }
+
+    // drops what the session did not play, and hands its slot to the next waiting session
+    private void finish(Session session, long start, long firstMicros) {
+        synchronized (session) {
+            session.finished = true;
+            Queued queued;
+            while ((queued = session.queue.poll()) != null) {
+                if (queued.counted) buffered.release();
+            }
+        }
+        sessions.remove(session.id, session);
+        synchronized (this) {
+            running--;
+            Session next = pending.poll();
+            if (next != null) startSession(next, start, firstMicros);
+            notifyAll();
+        }
+    }
+
+    private void replay(Session session, long start, long firstMicros) {
+        ChessClient white = newClient();
+        ChessClient black = newClient();
+        Semaphore relayed = new Semaphore(0);
+        AtomicLong sentAt = new AtomicLong();
+        Consumer<String> onLine = line -> {
+            if (line.startsWith("CLOCK") || line.startsWith("FLAG") || line.startsWith("SYNC")) return;
+            relayLatency.record((System.nanoTime() - sentAt.get()) / 1000);
+            movesRelayed.increment();
+            relayed.release();
+        };
+        white.setOnMoveReceived(onLine);
+        black.setOnMoveReceived(onLine);
+
+        synchronized (connectLock) {
+            if (!white.connect()) {
+                connectErrors.increment();
+                return;
+            }
+            if (!black.connect()) {
+                connectErrors.increment();
+                white.disconnect();
+                return;
+            }
+        }
+        try {
+            while (true) {
+                Queued queued = session.queue.take();
+                if (queued.counted) buffered.release();
+                TrafficReader.Event event = queued.event;
+                if (event == null) break;
+                long slip = sleepUntil(start, event.getMicros() - firstMicros);
+                if (event.getType() == TrafficReader.DISCONNECT) break;
+
+                if (speed > 0) scheduleSlip.record(slip / 1000);
+                ChessClient mover = event.getPlayer() == Player.WHITE ? white : black;
+                sentAt.set(System.nanoTime());
+                mover.sendMove(event.getLine());
+                // one line in flight per session keeps the server's view in recorded order
+                if (!relayed.tryAcquire(RELAY_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                    timeouts.increment();
+                    return;
+                }
+            }
+            sessionsCompleted.increment();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            white.disconnect();
+            black.disconnect();
+        }
+    }
+
+    // waits for the recorded offset scaled by speed; returns how late we already were, in nanos
+    private long sleepUntil(long start, long recordedMicros) throws InterruptedException {
+        if (speed <= 0) return 0;
+        long target = start + (long) (recordedMicros * 1000 / speed);
+        long wait = target - System.nanoTime();
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+            return 0;
+        }
+        return -wait;
+    }
+
+    private ChessClient newClient() {
+        ChessClient client = new ChessClient(host, port);
+        client.setLogging(false);
+        client.setThreadFactory(threadFactory);
+        return client;
+    }
+
+    private Map<String, Double> printSummary(double seconds) {
+        long moves = movesRelayed.sum();
+        Map<String, Double> summary = new LinkedHashMap<>();
+        summary.put("duration-s", seconds);
+        summary.put("moves", (double) moves);
+        summary.put("moves-per-s", moves / seconds);
+        summary.put("p50-us", (double) relayLatency.percentile(0.50));
+        summary.put("p99-us", (double) relayLatency.percentile(0.99));
+        summary.put("p999-us", (double) relayLatency.percentile(0.999));
+        summary.put("max-us", (double) relayLatency.max());
+        summary.put("errors", (double) (connectErrors.sum() + timeouts.sum()));
+
+        System.out.println("----------------------------------------");
+        System.out.println(String.format("Duration:         %.1fs", seconds));
+        System.out.println("Sessions:         " + sessionsCompleted.sum());
+        System.out.println("Moves relayed:    " + moves);
+        System.out.println(String.format("Throughput:       %.0f moves/s", moves / seconds));
+        System.out.println("Relay latency:    p50 " + relayLatency.percentile(0.50) + "us"
+                + ", p99 " + relayLatency.percentile(0.99) + "us"
+                + ", p999 " + relayLatency.percentile(0.999) + "us"
+                + ", max " + relayLatency.max() + "us");
+        if (speed > 0) {
+            System.out.println("Behind schedule:  p50 " + scheduleSlip.percentile(0.50) + "us"
+                    + ", p99 " + scheduleSlip.percentile(0.99) + "us");
+        }
+        System.out.println("Connect errors:   " + connectErrors.sum());
+        System.out.println("Timeouts:         " + timeouts.sum());
+        return summary;
+    }
+
+    // "key value" lines, one per summary number
+    private static void writeReport(Path path, Map<String, Double> summary) throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (Map.Entry<String, Double> e : summary.entrySet()) {
+            lines.add(e.getKey() + " " + e.getValue());
+        }
+        Files.write(path, lines, StandardCharsets.UTF_8);
+    }
+
+    private static void compare(Path baselinePath, Map<String, Double> summary) throws IOException {
+        Map<String, Double> baseline = new LinkedHashMap<>();
+        for (String line : Files.readAllLines(baselinePath, StandardCharsets.UTF_8)) {
+            String[] parts = line.trim().split(" ");
+            if (parts.length == 2) baseline.put(parts[0], Double.parseDouble(parts[1]));
+        }
+        System.out.println("Compared with " + baselinePath + ":");
+        for (Map.Entry<String, Double> e : summary.entrySet()) {
+            Double before = baseline.get(e.getKey());
+            if (before == null) continue;
+            double after = e.getValue();
+            String change = before != 0 ? String.format("%+.1f%%", (after - before) * 100 / before) : "-";
+            System.out.println(String.format("  %-12s %12.1f -> %12.1f  %s", e.getKey(), before, after, change));
+        }
+    }
+
+    // usage: TrafficReplay <capture.bin> [--host h] [--port p] [--speed 1|n|max] [--sessions n]
+    //                      [--report out.txt] [--baseline old.txt]
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: TrafficReplay <capture.bin> [--host h] [--port p] [--speed 1|n|max] [--sessions n] [--report out.txt] [--baseline old.txt]");
+            return;
+        }
+        String host = "localhost";
+        int port = 50000;
+        double speed = 1;
+        int sessions = 1000;
+        String report = null;
+        String baseline = null;
+        for (int i = 1; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--host": host = args[i + 1]; break;
+                case "--port": port = Integer.parseInt(args[i + 1]); break;
+                case "--speed": speed = args[i + 1].equals("max") ? 0 : Double.parseDouble(args[i + 1]); break;
+                case "--sessions": sessions = Integer.parseInt(args[i + 1]); break;
+                case "--report": report = args[i + 1]; break;
+                case "--baseline": baseline = args[i + 1]; break;
+                default:
+                    System.err.println("Unknown option: " + args[i]);
+                    return;
+            }
+        }
+
+        Map<String, Double> summary;
+        try (TrafficReader reader = new TrafficReader(Paths.get(args[0]))) {
+            summary = new TrafficReplay(host, port, speed, sessions).run(reader);
+        }
+        if (report != null) writeReport(Paths.get(report), summary);
+        if (baseline != null) compare(Paths.get(baseline), summary);
+    }
+}
@@ -0,0 +1,295 @@
+package core;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// headless self-play: worker threads play games between two MoveChoosers (colors swap every game)
+// and every move goes through both a ChessModel and a Board. the Board is the reference: when
+// ChessModel rejects a move the Board generated, reports a different MoveResult than the Board's
+// status, or a game runs past the draw rules, the game is saved as PGN with the reason in a tag.
+// game n is seeded with seed + n, so --seed s --game n replays it alone
+public class Arena {
+    private final String chooser1;
+    private final String chooser2;
+    private final long seed;
+    private final int maxPlies;
+    private final boolean checkMoves;
+    private final PgnWriter saved;
+    // null = every model works legality out itself
+    private PositionCache positionCache;
+
+    private final AtomicLong nextGame = new AtomicLong();
+    private final AtomicLong gamesDone = new AtomicLong();
+    private final AtomicLong plies = new AtomicLong();
+    private final AtomicLong unexpected = new AtomicLong();
+    // games by final MoveResult
+    private final AtomicLongArray endings = new AtomicLongArray(ChessModel.MoveResult.values().length);
+    // {chooser1 wins, chooser2 wins, draws}
+    private final AtomicLongArray score = new AtomicLongArray(3);
+
+    // saved may be null
+    public Arena(String chooser1, String chooser2, long seed, int maxPlies, boolean checkMoves, PgnWriter saved) {
+        this.chooser1 = chooser1;
+        this.chooser2 = chooser2;
+        this.seed = seed;
+        this.maxPlies = maxPlies;
+        this.checkMoves = checkMoves;
+        this.saved = saved;
+    }
+
+    // shared by the ChessModels of all workers
+    public void setPositionCache(PositionCache positionCache) {
+        this.positionCache = positionCache;
+    }
+
+    private static class Game {
+        final List<Move> moves = new ArrayList<>();
+        ChessModel.MoveResult result;
+        Player winner;
+        String problem;
+    }
+
+    public void run(long games, int threads) throws InterruptedException {
+        long start = System.nanoTime();
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            Thread t = new Thread(() -> {
+                ChessModel model = new ChessModel();
+                model.setPositionCache(positionCache);
+                Board board = new Board();
+                long n;
+                while ((n = nextGame.getAndIncrement()) < games) {
+                    record(n, play(n, model, board));
+                }
+            }, "arena-" + (i + 1));
+            workers.add(t);
+            t.start();
+        }
+        Thread reporter = new Thread(() -> {
+            try {
+                while (true) {
+                    Thread.sleep(1000);
+                    report(start);
+                }
+            } catch (InterruptedException e) {
+                // done
+            }
+        }, "arena-reporter");
+        reporter.setDaemon(true);
+        reporter.start();
+        for (Thread t : workers) {
+            t.join();
+        }
+        reporter.interrupt();
+        report(start);
+        printSummary();
+    }
+
+    private Game play(long n, ChessModel model, Board board) {
+        Random random = new Random(seed + n);
+        model.reset();
+        board.reset();
+        // chooser1 has white in even games
+        MoveChooser first = MoveChooser.create(chooser1, board, random);
+        MoveChooser second = MoveChooser.create(chooser2, board, random);
+        MoveChooser white = n % 2 == 0 ? first : second;
+        MoveChooser black = n % 2 == 0 ? second : first;
+
+        Game game = new Game();
+        int[] moves = new int[Board.MAX_MOVES];
+        while (game.problem == null) {
+            if (game.moves.size() >= maxPlies) {
+                game.problem = "no result after " + maxPlies + " plies";
+                break;
+            }
+            int count = board.generateLegalMoves(moves);
+            if (checkMoves) {
+                game.problem = compareLegalMoves(model, board, moves, count);
+                if (game.problem != null) break;
+            }
+            int move = (board.getSideToMove() == Board.WHITE ? white : black).choose(board, moves, count);
+            Move m = board.toMove(move);
+            String before = board.toFen();
+            ChessModel.MoveResult result;
+            try {
+                result = model.movePiece(m);
+            } catch (RuntimeException e) {
+                game.problem = ply(game) + Board.toUci(move) + " threw " + e + " in " + before;
+                break;
+            }
+            board.makeMove(move);
+            game.moves.add(m);
+            ChessModel.MoveResult expected = board.getStatus();
+            if (expected == ChessModel.MoveResult.SUCCESS && Board.promotion(move) >= 0) {
+                expected = ChessModel.MoveResult.PROMOTION;
+            }
+            if (result != expected) {
+                game.problem = ply(game) + Board.toUci(move) + ": ChessModel " + result + ", expected " + expected + " in " + before;
+                break;
+            }
+            if (result.isGameOver()) {
+                game.result = result;
+                // the side to move now is the one that got mated
+                if (result == ChessModel.MoveResult.CHECKMATE) {
+                    game.winner = board.getSideToMove() == Board.WHITE ? Player.BLACK : Player.WHITE;
+                }
+                break;
+            }
+        }
+        return game;
+    }
+
+    private static String ply(Game game) {
+        int ply = game.moves.size();
+        return (ply / 2 + 1) + (ply % 2 == 0 ? ". " : "... ");
+    }
+
+    // null if ChessModel and Board agree on the legal moves
+    private static String compareLegalMoves(ChessModel model, Board board, int[] moves, int count) {
+        Set<String> expected = new HashSet<>();
+        for (int i = 0; i < count; i++) {
+            expected.add(board.toMove(moves[i]).toString());
+        }
+        Set<String> actual = new HashSet<>();
+        for (Move m : model.getLegalMoves()) {
+            actual.add(m.toString());
+        }
+        if (actual.equals(expected)) return null;
+        Set<String> missing = new HashSet<>(expected);
+        missing.removeAll(actual);
+        actual.removeAll(expected);
+        return "legal moves differ in " + board.toFen() + ": ChessModel misses " + missing + ", adds " + actual;
+    }
+
+    private void record(long n, Game game) {
+        gamesDone.incrementAndGet();
+        plies.addAndGet(game.moves.size());
+        if (game.problem != null) {
+            unexpected.incrementAndGet();
+            System.err.println("Game " + n + ": " + game.problem);
+            save(n, game);
+            return;
+        }
+        endings.incrementAndGet(game.result.ordinal());
+        if (game.winner == null) {
+            score.incrementAndGet(2);
+        } else {
+            boolean firstIsWhite = n % 2 == 0;
+            score.incrementAndGet((game.winner == Player.WHITE) == firstIsWhite ? 0 : 1);
+        }
+    }
+
+    private void save(long n, Game game) {
+        if (saved == null) return;
+        Map<String, String> tags = new LinkedHashMap<>();
+        tags.put("Event", "Arena");
+        tags.put("Round", String.valueOf(n));
+        tags.put("White", n % 2 == 0 ? chooser1 : chooser2);
+        tags.put("Black", n % 2 == 0 ? chooser2 : chooser1);
+        tags.put("Result", "*");
+        tags.put("Seed", String.valueOf(seed));
+        tags.put("Unexpected", game.problem);
+        try {
+            synchronized (saved) {
+                saved.write(PgnGame.fromMoves(game.moves, tags));
+                saved.flush();
+            }
+        } catch (IOException e) {
+            System.err.println("Could not save game " + n + ": " + e.getMessage());
+        }
+    }
+
+    private void report(long start) {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println(String.format("%d games (%d unexpected), %.1f games/s, %.0f plies/s",
+                gamesDone.get(), unexpected.get(), gamesDone.get() / seconds, plies.get() / seconds));
+    }
+
+    private void printSummary() {
+        long done = gamesDone.get();
+        System.out.println(String.format("%s vs %s: %d-%d, %d draws, %.1f plies/game",
+                chooser1, chooser2, score.get(0), score.get(1), score.get(2),
+                done > 0 ? plies.get() / (double) done : 0.0));
+        for (ChessModel.MoveResult result : ChessModel.MoveResult.values()) {
+            long count = endings.get(result.ordinal());
+            if (count > 0) System.out.println(String.format("  %-28s %d", result, count));
+        }
+        if (unexpected.get() > 0) System.out.println(String.format("  %-28s %d", "unexpected", unexpected.get()));
+        if (positionCache != null) System.out.println("Position cache: " + positionCache);
+    }
+
+    public long getUnexpected() {
+        return unexpected.get();
+    }
+
+    // one game, printed as PGN, for reproducing a saved one
+    public void replay(long n) throws IOException {
+        Game game = play(n, new ChessModel(), new Board());
+        Map<String, String> tags = new LinkedHashMap<>();
+        tags.put("Round", String.valueOf(n));
+        if (game.problem != null) {
+            tags.put("Result", "*");
+            tags.put("Unexpected", game.problem);
+        }
+        PgnWriter out = new PgnWriter(new OutputStreamWriter(System.out));
+        out.write(PgnGame.fromMoves(game.moves, tags));
+        out.flush();
+    }
+
+    // usage: Arena [--games n] [--threads n] [--p1 chooser] [--p2 chooser] [--seed s] [--max-plies n]
+    //              [--check-moves] [--save unexpected.pgn] [--game n] [--cache positions]
+    // choosers: random, greedy, engine[:depth[:nodes]]
+    public static void main(String[] args) throws Exception {
+        long games = 1000;
+        int threads = Runtime.getRuntime().availableProcessors();
+        String p1 = "random";
+        String p2 = "random";
+        long seed = System.nanoTime();
+        int maxPlies = 6000;
+        boolean checkMoves = false;
+        Path save = null;
+        long only = -1;
+        int cache = 0;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--games") && i + 1 < args.length) games = Long.parseLong(args[++i]);
+            else if (args[i].equals("--threads") && i + 1 < args.length) threads = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--p1") && i + 1 < args.length) p1 = args[++i];
+            else if (args[i].equals("--p2") && i + 1 < args.length) p2 = args[++i];
+            else if (args[i].equals("--seed") && i + 1 < args.length) seed = Long.parseLong(args[++i]);
+            else if (args[i].equals("--max-plies") && i + 1 < args.length) maxPlies = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--check-moves")) checkMoves = true;
+            else if (args[i].equals("--save") && i + 1 < args.length) save = Paths.get(args[++i]);
+            else if (args[i].equals("--game") && i + 1 < args.length) only = Long.parseLong(args[++i]);
+            else if (args[i].equals("--cache") && i + 1 < args.length) cache = Integer.parseInt(args[++i]);
+        }
+        // fail on a bad chooser before starting threads
+        MoveChooser.create(p1, new Board(), new Random());
+        MoveChooser.create(p2, new Board(), new Random());
+
+        if (only >= 0) {
+            new Arena(p1, p2, seed, maxPlies, checkMoves, null).replay(only);
+            return;
+        }
+        System.out.println("Seed " + seed + ", " + games + " games " + p1 + " vs " + p2 + " on " + threads + " threads"
+                + (checkMoves ? ", checking legal moves" : ""));
+        PgnWriter saved = save != null ? PgnWriter.open(save, true) : null;
+        try {
+            Arena arena = new Arena(p1, p2, seed, maxPlies, checkMoves, saved);
+            if (cache > 0) arena.setPositionCache(new PositionCache(cache));
+            arena.run(games, threads);
+        } finally {
+            if (saved != null) saved.close();
+        }
+    }
+}
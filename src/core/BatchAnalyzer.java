@@ -0,0 +1,249 @@
+package core;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// annotates a whole PGN archive: one thread reads games, a fixed pool analyses them (one
+// GameAnalyzer, so one Board, per worker), and a writer thread streams the annotated games out in
+// input order. the queue between reader and writer is bounded, so a slow pool or disk stalls the
+// reader instead of filling the heap. every few seconds the writer saves a checkpoint (input
+// offset, games done, output size) next to the output, which --resume continues from
+public class BatchAnalyzer {
+    private static final long CHECKPOINT_INTERVAL_NANOS = 5_000_000_000L;
+
+    private final int threads;
+    private final AtomicLong gamesDone = new AtomicLong();
+    private final AtomicLong positions = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final ThreadLocal<GameAnalyzer> analyzers;
+
+    private static class Analyzed {
+        final PgnGame game;
+        final long endOffset;
+        final int positions;
+
+        Analyzed(PgnGame game, long endOffset, int positions) {
+            this.game = game;
+            this.endOffset = endOffset;
+            this.positions = positions;
+        }
+    }
+
+    public BatchAnalyzer(int threads, int depth, long nodesPerPosition) {
+        this.threads = threads;
+        this.analyzers = ThreadLocal.withInitial(() -> new GameAnalyzer(depth, nodesPerPosition));
+    }
+
+    public void run(Path input, Path output, boolean resume) throws IOException, InterruptedException {
+        Path checkpoint = output.resolveSibling(output.getFileName() + ".checkpoint");
+        long startOffset = 0;
+        long startGame = 0;
+        if (resume && Files.exists(checkpoint) && Files.exists(output)) {
+            long[] saved = readCheckpoint(checkpoint);
+            startOffset = saved[0];
+            startGame = saved[1];
+            // drop whatever was written after the checkpoint
+            try (FileChannel channel = FileChannel.open(output, StandardOpenOption.WRITE)) {
+                channel.truncate(saved[2]);
+            }
+            System.out.println("Resuming at game " + startGame + " (byte " + startOffset + ")");
+        } else {
+            Files.deleteIfExists(output);
+            Files.deleteIfExists(checkpoint);
+        }
+        gamesDone.set(startGame);
+
+        AtomicInteger threadId = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "analysis-" + threadId.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        BlockingQueue<Future<Analyzed>> pending = new ArrayBlockingQueue<>(threads * 4);
+        Future<Analyzed> endOfInput = CompletableFuture.completedFuture(null);
+        Writer writer = new Writer(output, checkpoint, pending);
+        writer.start();
+        Reporter reporter = new Reporter(input);
+        reporter.start();
+
+        try (PgnReader reader = new PgnReader(input, startOffset, startGame)) {
+            PgnGame game;
+            while (writer.failure == null && (game = reader.next()) != null) {
+                PgnGame next = game;
+                long endOffset = reader.getPosition();
+                reporter.inputOffset = endOffset;
+                // blocks while the writer is threads * 4 games behind
+                pending.put(pool.submit(() -> new Analyzed(next, endOffset, analyzers.get().analyze(next))));
+            }
+        } finally {
+            pending.put(endOfInput);
+            writer.join();
+            reporter.interrupt();
+            pool.shutdownNow();
+        }
+        if (writer.failure != null) throw writer.failure;
+        Files.deleteIfExists(checkpoint);
+        reporter.report();
+    }
+
+    private class Writer extends Thread {
+        private final Path output;
+        private final Path checkpoint;
+        private final BlockingQueue<Future<Analyzed>> pending;
+        volatile IOException failure;
+
+        Writer(Path output, Path checkpoint, BlockingQueue<Future<Analyzed>> pending) {
+            super("analysis-writer");
+            this.output = output;
+            this.checkpoint = checkpoint;
+            this.pending = pending;
+        }
+
+        @Override
+        public void run() {
+            long lastCheckpoint = System.nanoTime();
+            PgnWriter writer = null;
+            try {
+                writer = PgnWriter.open(output, true);
+            } catch (IOException e) {
+                failure = e;
+            }
+            // after a failure keep draining, so the reader never blocks on a full queue
+            while (true) {
+                Analyzed done;
+                try {
+                    done = pending.take().get();
+                } catch (ExecutionException e) {
+                    if (failure == null) failure = new IOException("analysis failed", e.getCause());
+                    continue;
+                } catch (InterruptedException e) {
+                    failure = new IOException("interrupted");
+                    break;
+                }
+                if (done == null) break;
+                if (failure != null) continue;
+                try {
+                    // games with illegal moves are passed through unannotated
+                    if (done.positions < 0) skipped.incrementAndGet();
+                    else positions.addAndGet(done.positions);
+                    writer.write(done.game);
+                    gamesDone.incrementAndGet();
+
+                    if (System.nanoTime() - lastCheckpoint >= CHECKPOINT_INTERVAL_NANOS) {
+                        writer.flush();
+                        writeCheckpoint(checkpoint, done.endOffset, done.game.getNumber() + 1, Files.size(output));
+                        lastCheckpoint = System.nanoTime();
+                    }
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    if (failure == null) failure = e;
+                }
+            }
+        }
+    }
+
+    private class Reporter extends Thread {
+        private final long inputSize;
+        private final long startNanos = System.nanoTime();
+        volatile long inputOffset;
+
+        Reporter(Path input) throws IOException {
+            super("analysis-reporter");
+            setDaemon(true);
+            inputSize = Files.size(input);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!isInterrupted()) {
+                    Thread.sleep(1000);
+                    report();
+                }
+            } catch (InterruptedException e) {
+                // done
+            }
+        }
+
+        void report() {
+            double seconds = (System.nanoTime() - startNanos) / 1e9;
+            System.out.println(String.format("%d games (%d skipped), %d positions, %.0f positions/s, %.1f%% of input",
+                    gamesDone.get(), skipped.get(), positions.get(), positions.get() / seconds,
+                    inputSize > 0 ? inputOffset * 100.0 / inputSize : 100.0));
+        }
+    }
+
+    private static void writeCheckpoint(Path checkpoint, long inputOffset, long games, long outputBytes) throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add("input-offset " + inputOffset);
+        lines.add("games " + games);
+        lines.add("output-bytes " + outputBytes);
+        Path tmp = checkpoint.resolveSibling(checkpoint.getFileName() + ".tmp");
+        Files.write(tmp, lines, StandardCharsets.UTF_8);
+        Files.move(tmp, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // {input offset, games, output bytes}
+    private static long[] readCheckpoint(Path checkpoint) throws IOException {
+        long[] values = new long[3];
+        for (String line : Files.readAllLines(checkpoint, StandardCharsets.UTF_8)) {
+            String[] parts = line.trim().split(" ");
+            if (parts.length != 2) continue;
+            long value = Long.parseLong(parts[1]);
+            if (parts[0].equals("input-offset")) values[0] = value;
+            else if (parts[0].equals("games")) values[1] = value;
+            else if (parts[0].equals("output-bytes")) values[2] = value;
+        }
+        return values;
+    }
+
+    public long getGamesDone() {
+        return gamesDone.get();
+    }
+
+    public long getPositions() {
+        return positions.get();
+    }
+
+    // usage: BatchAnalyzer <in.pgn> <out.pgn> [--threads n] [--depth d] [--nodes n] [--resume]
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: BatchAnalyzer <in.pgn> <out.pgn> [--threads n] [--depth d] [--nodes n] [--resume]");
+            return;
+        }
+        int threads = Runtime.getRuntime().availableProcessors();
+        int depth = 3;
+        long nodes = 0;
+        boolean resume = false;
+        for (int i = 2; i < args.length; i++) {
+            if (args[i].equals("--threads") && i + 1 < args.length) threads = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--depth") && i + 1 < args.length) depth = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--nodes") && i + 1 < args.length) nodes = Long.parseLong(args[++i]);
+            else if (args[i].equals("--resume")) resume = true;
+        }
+        new BatchAnalyzer(threads, depth, nodes).run(Paths.get(args[0]), Paths.get(args[1]), resume);
+    }
+}
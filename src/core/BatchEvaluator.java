@@ -0,0 +1,247 @@
+package core;
+
+import java.util.Random;
+
+// scores a whole PositionBatch at once, giving the same numbers as Evaluator.evaluate.
+// two ways to get there:
+// - scalar: Evaluator's loop over the pieces of each position (the default)
+// - kernel: each piece-square table is split into bit planes (value = base + sum of 2^b over the
+//   planes the square is in), so a piece kind scores as popcounts of its bitboard masked by each
+//   plane. every pass is one branch-free loop over one array, the shape a JIT turns into vector
+//   popcounts; the C2 of JDK 11-17 keeps it scalar, where it loses to the piece loop, so it is
+//   only used with -Dchess.batchEval=kernel. main() benchmarks both on the running JVM
+public final class BatchEvaluator {
+    private static final boolean KERNEL = "kernel".equals(System.getProperty("chess.batchEval"));
+
+    private static final int BLOCK = 512;
+
+    private static final long NOT_FILE_A = ~0x0101010101010101L;
+    private static final long NOT_FILE_H = ~0x8080808080808080L;
+
+    // per piece kind (Board order: white king .. black pawn): lowest table value, and one mask
+    // per bit of (value - base)
+    private static final int[] BASE = new int[12];
+    private static final long[][] MASKS = new long[12][];
+
+    static {
+        for (int color = 0; color < 2; color++) {
+            for (int type = 0; type < 6; type++) {
+                int kind = color * 6 + type;
+                int base = Integer.MAX_VALUE;
+                int max = Integer.MIN_VALUE;
+                for (int sq = 0; sq < 64; sq++) {
+                    base = Math.min(base, Evaluator.score(color, type, sq));
+                    max = Math.max(max, Evaluator.score(color, type, sq));
+                }
+                long[] masks = new long[32 - Integer.numberOfLeadingZeros(max - base)];
+                for (int sq = 0; sq < 64; sq++) {
+                    int rest = Evaluator.score(color, type, sq) - base;
+                    for (int b = 0; b < masks.length; b++) {
+                        if ((rest >>> b & 1) != 0) masks[b] |= 1L << sq;
+                    }
+                }
+                BASE[kind] = base;
+                MASKS[kind] = masks;
+            }
+        }
+    }
+
+    private BatchEvaluator() {
+    }
+
+    // scores[i] = Evaluator.evaluate of position i: centipawns from the side to move's view
+    public static void evaluate(PositionBatch batch, int[] scores) {
+        if (KERNEL) evaluateKernel(batch, scores);
+        else evaluateScalar(batch, scores);
+    }
+
+    public static void evaluateKernel(PositionBatch batch, int[] scores) {
+        int n = batch.size();
+        // a block of scores stays in the L1 cache across the passes over it
+        for (int from = 0; from < n; from += BLOCK) {
+            evaluateBlock(batch, scores, from, Math.min(n, from + BLOCK));
+        }
+        flipForSideToMove(batch, scores);
+    }
+
+    private static void evaluateBlock(PositionBatch batch, int[] scores, int from, int to) {
+        for (int i = from; i < to; i++) {
+            scores[i] = 0;
+        }
+        for (int color = 0; color < 2; color++) {
+            for (int type = 0; type < 6; type++) {
+                int kind = color * 6 + type;
+                int base = BASE[kind];
+                long[] masks = MASKS[kind];
+                long[] pieces = batch.plane(color, type);
+                int sign = color == Board.WHITE ? 1 : -1;
+                for (int i = from; i < to; i++) {
+                    long x = pieces[i];
+                    int sum = base * Long.bitCount(x);
+                    for (int bit = 0; bit < masks.length; bit++) {
+                        sum += Long.bitCount(x & masks[bit]) << bit;
+                    }
+                    scores[i] += sign * sum;
+                }
+            }
+        }
+    }
+
+    // the per-piece loop of Evaluator.evaluate over the batch
+    public static void evaluateScalar(PositionBatch batch, int[] scores) {
+        int n = batch.size();
+        for (int i = 0; i < n; i++) {
+            int score = 0;
+            for (int type = 0; type < 6; type++) {
+                long white = batch.getPieces(i, Board.WHITE, type);
+                while (white != 0) {
+                    score += Evaluator.score(Board.WHITE, type, Long.numberOfTrailingZeros(white));
+                    white &= white - 1;
+                }
+                long black = batch.getPieces(i, Board.BLACK, type);
+                while (black != 0) {
+                    score -= Evaluator.score(Board.BLACK, type, Long.numberOfTrailingZeros(black));
+                    black &= black - 1;
+                }
+            }
+            scores[i] = batch.getSideToMove(i) == Board.WHITE ? score : -score;
+        }
+    }
+
+    // adds weight * (mobility of the side to move - mobility of the other side). mobility is the
+    // number of squares not holding an own piece that the side's knights, bishops, rooks and
+    // queens attack, counting a square once per group of pieces (attacks are computed for all
+    // pieces of a kind at once by shifting and flood-filling whole bitboards)
+    public static void addMobility(PositionBatch batch, int[] scores, int weight) {
+        int n = batch.size();
+        int[] sides = batch.sides();
+        for (int i = 0; i < n; i++) {
+            long white = 0;
+            long black = 0;
+            for (int type = 0; type < 6; type++) {
+                white |= batch.plane(Board.WHITE, type)[i];
+                black |= batch.plane(Board.BLACK, type)[i];
+            }
+            long empty = ~(white | black);
+            int mobility = mobility(batch, i, Board.WHITE, white, empty) - mobility(batch, i, Board.BLACK, black, empty);
+            scores[i] += sides[i] == Board.WHITE ? weight * mobility : -weight * mobility;
+        }
+    }
+
+    private static int mobility(PositionBatch batch, int i, int color, long own, long empty) {
+        long queens = batch.plane(color, Board.QUEEN)[i];
+        long diagonal = batch.plane(color, Board.BISHOP)[i] | queens;
+        long straight = batch.plane(color, Board.ROOK)[i] | queens;
+        long knights = knightAttacks(batch.plane(color, Board.KNIGHT)[i]);
+        long diagonals = fillLeft(diagonal, empty, 9, NOT_FILE_A) | fillLeft(diagonal, empty, 7, NOT_FILE_H)
+                | fillRight(diagonal, empty, 7, NOT_FILE_A) | fillRight(diagonal, empty, 9, NOT_FILE_H);
+        long lines = fillLeft(straight, empty, 8, -1L) | fillRight(straight, empty, 8, -1L)
+                | fillLeft(straight, empty, 1, NOT_FILE_A) | fillRight(straight, empty, 1, NOT_FILE_H);
+        return Long.bitCount(knights & ~own) + Long.bitCount(diagonals & ~own) + Long.bitCount(lines & ~own);
+    }
+
+    private static long knightAttacks(long knights) {
+        long l1 = knights >>> 1 & NOT_FILE_H;
+        long l2 = knights >>> 2 & ~0xC0C0C0C0C0C0C0C0L;
+        long r1 = knights << 1 & NOT_FILE_A;
+        long r2 = knights << 2 & ~0x0303030303030303L;
+        long h1 = l1 | r1;
+        long h2 = l2 | r2;
+        return h1 << 16 | h1 >>> 16 | h2 << 8 | h2 >>> 8;
+    }
+
+    // squares attacked by sliders moving toward higher squares by shift, stopping at the first
+    // piece (which is attacked); wrap clears squares a step would have wrapped around the board to
+    private static long fillLeft(long sliders, long empty, int shift, long wrap) {
+        long open = empty & wrap;
+        sliders |= open & sliders << shift;
+        open &= open << shift;
+        sliders |= open & sliders << 2 * shift;
+        open &= open << 2 * shift;
+        sliders |= open & sliders << 4 * shift;
+        return sliders << shift & wrap;
+    }
+
+    private static long fillRight(long sliders, long empty, int shift, long wrap) {
+        long open = empty & wrap;
+        sliders |= open & sliders >>> shift;
+        open &= open >>> shift;
+        sliders |= open & sliders >>> 2 * shift;
+        open &= open >>> 2 * shift;
+        sliders |= open & sliders >>> 4 * shift;
+        return sliders >>> shift & wrap;
+    }
+
+    private static void flipForSideToMove(PositionBatch batch, int[] scores) {
+        int[] sides = batch.sides();
+        int n = batch.size();
+        for (int i = 0; i < n; i++) {
+            // 1 - 2 * side is 1 for white, -1 for black
+            scores[i] *= 1 - 2 * sides[i];
+        }
+    }
+
+    // usage: BatchEvaluator [--positions n] [--seconds s] [--seed s]
+    // fills a batch from random games, checks both paths against Evaluator.evaluate, then times them
+    public static void main(String[] args) {
+        int positions = 1 << 16;
+        double seconds = 3;
+        long seed = 1;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--positions") && i + 1 < args.length) positions = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--seconds") && i + 1 < args.length) seconds = Double.parseDouble(args[++i]);
+            else if (args[i].equals("--seed") && i + 1 < args.length) seed = Long.parseLong(args[++i]);
+        }
+        PositionBatch batch = new PositionBatch(positions);
+        int[] expected = new int[positions];
+        Random random = new Random(seed);
+        Board board = new Board();
+        int[] moves = new int[Board.MAX_MOVES];
+        while (!batch.isFull()) {
+            int count = board.generateLegalMoves(moves);
+            if (count == 0 || board.getHalfMoveClock() >= 100 || board.getPly() >= 300) {
+                board.reset();
+                continue;
+            }
+            board.makeMove(moves[random.nextInt(count)]);
+            expected[batch.add(board)] = Evaluator.evaluate(board);
+        }
+
+        int[] scores = new int[positions];
+        evaluateScalar(batch, scores);
+        check("scalar", expected, scores);
+        evaluateKernel(batch, scores);
+        check("kernel", expected, scores);
+
+        System.out.println(positions + " positions, evaluate() uses the " + (KERNEL ? "kernel" : "scalar loop"));
+        bench("scalar", seconds, positions, () -> evaluateScalar(batch, scores));
+        bench("kernel", seconds, positions, () -> evaluateKernel(batch, scores));
+        bench("evaluate + mobility", seconds, positions, () -> {
+            evaluate(batch, scores);
+            addMobility(batch, scores, 2);
+        });
+    }
+
+    private static void check(String name, int[] expected, int[] actual) {
+        for (int i = 0; i < expected.length; i++) {
+            if (expected[i] != actual[i]) {
+                throw new IllegalStateException(name + " differs at position " + i + ": " + actual[i] + " != " + expected[i]);
+            }
+        }
+    }
+
+    private static void bench(String name, double seconds, int positions, Runnable run) {
+        // warm up first so the timed part runs compiled code
+        long end = System.nanoTime() + (long) (seconds * 0.3e9);
+        while (System.nanoTime() < end) run.run();
+        long start = System.nanoTime();
+        end = start + (long) (seconds * 1e9);
+        long rounds = 0;
+        while (System.nanoTime() < end) {
+            run.run();
+            rounds++;
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        System.out.println(String.format("  %-20s %6.1f M positions/s", name, rounds * positions / elapsed / 1e6));
+    }
+}
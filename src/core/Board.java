@@ -0,0 +1,700 @@
+package core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// fast board for search and bulk analysis, next to the rule-book ChessModel: mailbox plus one
+// bitboard per piece, make/unmake with an undo stack and an incremental Zobrist hash (same keys
+// as ChessModel.getPositionHash()). squares are row * 8 + col, moves are packed ints (see move()).
+// unlike ChessModel, a rook captured on its corner ends that castling right and castling needs the
+// rook and unattacked squares, so those rare positions hash differently. not thread safe: use one Board per thread
+public class Board {
+    public static final int WHITE = 0;
+    public static final int BLACK = 1;
+
+    // piece types follow Rank.ordinal(); a square holds 0 (empty) or 1 + color * 6 + type
+    public static final int KING = 0;
+    public static final int QUEEN = 1;
+    public static final int BISHOP = 2;
+    public static final int ROOK = 3;
+    public static final int KNIGHT = 4;
+    public static final int PAWN = 5;
+
+    public static final int FLAG_EN_PASSANT = 1;
+    public static final int FLAG_CASTLE = 2;
+    public static final int FLAG_DOUBLE_PUSH = 3;
+
+    public static final int MAX_MOVES = 256;
+    public static final String START_FEN = "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1";
+
+    private static final int[][] KNIGHT_TARGETS = new int[64][];
+    private static final int[][] KING_TARGETS = new int[64][];
+    private static final int[][] DIAGONALS = {{1, 1}, {1, -1}, {-1, 1}, {-1, -1}};
+    private static final int[][] ORTHOGONALS = {{1, 0}, {-1, 0}, {0, 1}, {0, -1}};
+    // castling rights kept when a move touches a square: bit 0 white king side, 1 white queen side,
+    // 2 black king side, 3 black queen side (same order as Zobrist.castling)
+    private static final int[] CASTLE_MASK = new int[64];
+    private static final String PIECE_CHARS = "KQBRNP";
+
+    static {
+        int[][] knight = {{1, 2}, {2, 1}, {2, -1}, {1, -2}, {-1, -2}, {-2, -1}, {-2, 1}, {-1, 2}};
+        int[][] king = {{1, 0}, {1, 1}, {0, 1}, {-1, 1}, {-1, 0}, {-1, -1}, {0, -1}, {1, -1}};
+        for (int sq = 0; sq < 64; sq++) {
+            KNIGHT_TARGETS[sq] = targets(sq, knight);
+            KING_TARGETS[sq] = targets(sq, king);
+            CASTLE_MASK[sq] = 15;
+        }
+        CASTLE_MASK[4] = 15 & ~3;
+        CASTLE_MASK[7] = 15 & ~1;
+        CASTLE_MASK[0] = 15 & ~2;
+        CASTLE_MASK[60] = 15 & ~12;
+        CASTLE_MASK[63] = 15 & ~4;
+        CASTLE_MASK[56] = 15 & ~8;
+    }
+
+    private static int[] targets(int sq, int[][] deltas) {
+        List<Integer> list = new ArrayList<>();
+        for (int[] d : deltas) {
+            int col = (sq & 7) + d[0];
+            int row = (sq >> 3) + d[1];
+            if (col >= 0 && col < 8 && row >= 0 && row < 8) list.add(row * 8 + col);
+        }
+        int[] result = new int[list.size()];
+        for (int i = 0; i < result.length; i++) result[i] = list.get(i);
+        return result;
+    }
+
+    private final int[] squares = new int[64];
+    private final long[] pieceBits = new long[12];
+    private final long[] colorBits = new long[2];
+    private int side;
+    private int castling;
+    private int epSquare = -1;
+    private int halfMoveClock;
+    private int fullMoveNumber = 1;
+    private long hash;
+
+    // undo stack, one entry per move made
+    private int ply;
+    private long[] hashHistory = new long[256];
+    private int[] stateHistory = new int[256];
+    private int[] moveHistory = new int[256];
+
+    public Board() {
+        reset();
+    }
+
+    public void reset() {
+        setFen(START_FEN);
+    }
+
+    public static int move(int from, int to, int promotionType, int flag) {
+        return from | to << 6 | (promotionType < 0 ? 0 : promotionType + 1) << 12 | flag << 15;
+    }
+
+    public static int from(int move) {
+        return move & 63;
+    }
+
+    public static int to(int move) {
+        return move >>> 6 & 63;
+    }
+
+    // piece type promoted to, or -1
+    public static int promotion(int move) {
+        return (move >>> 12 & 7) - 1;
+    }
+
+    public static int flag(int move) {
+        return move >>> 15 & 3;
+    }
+
+    public static int pieceType(int piece) {
+        return (piece - 1) % 6;
+    }
+
+    public static int pieceColor(int piece) {
+        return (piece - 1) / 6;
+    }
+
+    private static int piece(int color, int type) {
+        return 1 + color * 6 + type;
+    }
+
+    public int pieceAt(int square) {
+        return squares[square];
+    }
+
+    public long getPieces(int color, int type) {
+        return pieceBits[color * 6 + type];
+    }
+
+    public long getOccupied(int color) {
+        return colorBits[color];
+    }
+
+    public int getSideToMove() {
+        return side;
+    }
+
+    public Player getPlayerInTurn() {
+        return side == WHITE ? Player.WHITE : Player.BLACK;
+    }
+
+    public long getHash() {
+        return hash;
+    }
+
+    public int getHalfMoveClock() {
+        return halfMoveClock;
+    }
+
+    // moves made since the position was set up
+    public int getPly() {
+        return ply;
+    }
+
+    public int kingSquare(int color) {
+        long king = pieceBits[color * 6 + KING];
+        return king == 0 ? -1 : Long.numberOfTrailingZeros(king);
+    }
+
+    private void put(int sq, int piece) {
+        squares[sq] = piece;
+        pieceBits[piece - 1] |= 1L << sq;
+        colorBits[pieceColor(piece)] |= 1L << sq;
+        hash ^= Zobrist.piece(piece - 1, sq);
+    }
+
+    private void remove(int sq) {
+        int piece = squares[sq];
+        squares[sq] = 0;
+        pieceBits[piece - 1] &= ~(1L << sq);
+        colorBits[pieceColor(piece)] &= ~(1L << sq);
+        hash ^= Zobrist.piece(piece - 1, sq);
+    }
+
+    private void setCastling(int rights) {
+        int changed = castling ^ rights;
+        for (int i = 0; i < 4; i++) {
+            if ((changed >> i & 1) != 0) hash ^= Zobrist.castling(i);
+        }
+        castling = rights;
+    }
+
+    private void setEpSquare(int sq) {
+        if (epSquare >= 0) hash ^= Zobrist.enPassant(epSquare & 7);
+        epSquare = sq;
+        if (epSquare >= 0) hash ^= Zobrist.enPassant(epSquare & 7);
+    }
+
+    public void makeMove(int move) {
+        if (ply == moveHistory.length) {
+            hashHistory = Arrays.copyOf(hashHistory, ply * 2);
+            stateHistory = Arrays.copyOf(stateHistory, ply * 2);
+            moveHistory = Arrays.copyOf(moveHistory, ply * 2);
+        }
+        int from = from(move);
+        int to = to(move);
+        int flag = flag(move);
+        int piece = squares[from];
+        int captureSq = flag == FLAG_EN_PASSANT ? (side == WHITE ? to - 8 : to + 8) : to;
+        int captured = squares[captureSq];
+
+        hashHistory[ply] = hash;
+        stateHistory[ply] = captured | castling << 4 | (epSquare + 1) << 8 | halfMoveClock << 15;
+        moveHistory[ply] = move;
+        ply++;
+
+        if (captured != 0) remove(captureSq);
+        remove(from);
+        int promotion = promotion(move);
+        put(to, promotion >= 0 ? piece(side, promotion) : piece);
+
+        if (flag == FLAG_CASTLE) {
+            int rank = from & ~7;
+            if ((to & 7) == 6) {
+                int rook = squares[rank + 7];
+                remove(rank + 7);
+                put(rank + 5, rook);
+            } else {
+                int rook = squares[rank];
+                remove(rank);
+                put(rank + 3, rook);
+            }
+        }
+
+        setCastling(castling & CASTLE_MASK[from] & CASTLE_MASK[to]);
+        // like ChessModel, every double push sets the en passant square, capturable or not
+        setEpSquare(flag == FLAG_DOUBLE_PUSH ? (from + to) / 2 : -1);
+        halfMoveClock = pieceType(piece) == PAWN || captured != 0 ? 0 : halfMoveClock + 1;
+        if (side == BLACK) fullMoveNumber++;
+        side ^= 1;
+        hash ^= Zobrist.blackToMove();
+    }
+
+    public void unmakeMove() {
+        ply--;
+        int move = moveHistory[ply];
+        int state = stateHistory[ply];
+        side ^= 1;
+        if (side == BLACK) fullMoveNumber--;
+
+        int from = from(move);
+        int to = to(move);
+        int flag = flag(move);
+        int piece = squares[to];
+        remove(to);
+        put(from, promotion(move) >= 0 ? piece(side, PAWN) : piece);
+
+        if (flag == FLAG_CASTLE) {
+            int rank = from & ~7;
+            if ((to & 7) == 6) {
+                int rook = squares[rank + 5];
+                remove(rank + 5);
+                put(rank + 7, rook);
+            } else {
+                int rook = squares[rank + 3];
+                remove(rank + 3);
+                put(rank, rook);
+            }
+        }
+        int captured = state & 15;
+        if (captured != 0) {
+            put(flag == FLAG_EN_PASSANT ? (side == WHITE ? to - 8 : to + 8) : to, captured);
+        }
+
+        castling = state >> 4 & 15;
+        epSquare = (state >> 8 & 127) - 1;
+        halfMoveClock = state >>> 15;
+        hash = hashHistory[ply];
+    }
+
+    public boolean isSquareAttacked(int sq, int byColor) {
+        int col = sq & 7;
+        int row = sq >> 3;
+        int pawn = piece(byColor, PAWN);
+        int pawnRow = byColor == WHITE ? row - 1 : row + 1;
+        if (pawnRow >= 0 && pawnRow < 8) {
+            if (col > 0 && squares[pawnRow * 8 + col - 1] == pawn) return true;
+            if (col < 7 && squares[pawnRow * 8 + col + 1] == pawn) return true;
+        }
+        int knight = piece(byColor, KNIGHT);
+        for (int t : KNIGHT_TARGETS[sq]) {
+            if (squares[t] == knight) return true;
+        }
+        int king = piece(byColor, KING);
+        for (int t : KING_TARGETS[sq]) {
+            if (squares[t] == king) return true;
+        }
+        int queen = piece(byColor, QUEEN);
+        if (rayHits(col, row, DIAGONALS, piece(byColor, BISHOP), queen)) return true;
+        return rayHits(col, row, ORTHOGONALS, piece(byColor, ROOK), queen);
+    }
+
+    private boolean rayHits(int col, int row, int[][] directions, int slider, int queen) {
+        for (int[] d : directions) {
+            int c = col + d[0];
+            int r = row + d[1];
+            while (c >= 0 && c < 8 && r >= 0 && r < 8) {
+                int p = squares[r * 8 + c];
+                if (p != 0) {
+                    if (p == slider || p == queen) return true;
+                    break;
+                }
+                c += d[0];
+                r += d[1];
+            }
+        }
+        return false;
+    }
+
+    public boolean isInCheck() {
+        int king = kingSquare(side);
+        return king >= 0 && isSquareAttacked(king, side ^ 1);
+    }
+
+    // pseudo-legal moves (may leave the own king in check) into moves[], returns the count.
+    // capturesOnly also keeps promotions, for quiescence search
+    public int generateMoves(int[] moves, boolean capturesOnly) {
+        int n = 0;
+        long own = colorBits[side];
+        while (own != 0) {
+            int from = Long.numberOfTrailingZeros(own);
+            own &= own - 1;
+            int type = pieceType(squares[from]);
+            int col = from & 7;
+            int row = from >> 3;
+            switch (type) {
+                case PAWN:
+                    n = generatePawnMoves(moves, n, from, capturesOnly);
+                    break;
+                case KNIGHT:
+                    n = generateTargets(moves, n, from, KNIGHT_TARGETS[from], capturesOnly);
+                    break;
+                case KING:
+                    n = generateTargets(moves, n, from, KING_TARGETS[from], capturesOnly);
+                    if (!capturesOnly) n = generateCastling(moves, n, from);
+                    break;
+                default:
+                    if (type != ROOK) n = generateSlides(moves, n, from, col, row, DIAGONALS, capturesOnly);
+                    if (type != BISHOP) n = generateSlides(moves, n, from, col, row, ORTHOGONALS, capturesOnly);
+                    break;
+            }
+        }
+        return n;
+    }
+
+    private int generateTargets(int[] moves, int n, int from, int[] targets, boolean capturesOnly) {
+        for (int to : targets) {
+            int p = squares[to];
+            if (p == 0 ? !capturesOnly : pieceColor(p) != side) moves[n++] = move(from, to, -1, 0);
+        }
+        return n;
+    }
+
+    private int generateSlides(int[] moves, int n, int from, int col, int row, int[][] directions, boolean capturesOnly) {
+        for (int[] d : directions) {
+            int c = col + d[0];
+            int r = row + d[1];
+            while (c >= 0 && c < 8 && r >= 0 && r < 8) {
+                int to = r * 8 + c;
+                int p = squares[to];
+                if (p != 0) {
+                    if (pieceColor(p) != side) moves[n++] = move(from, to, -1, 0);
+                    break;
+                }
+                if (!capturesOnly) moves[n++] = move(from, to, -1, 0);
+                c += d[0];
+                r += d[1];
+            }
+        }
+        return n;
+    }
+
+    private int generatePawnMoves(int[] moves, int n, int from, boolean capturesOnly) {
+        int dir = side == WHITE ? 8 : -8;
+        int row = from >> 3;
+        int col = from & 7;
+        int lastRow = side == WHITE ? 7 : 0;
+        int to = from + dir;
+        boolean promotes = (to >> 3) == lastRow;
+        if (squares[to] == 0) {
+            if (promotes) {
+                n = addPromotions(moves, n, from, to);
+            } else if (!capturesOnly) {
+                moves[n++] = move(from, to, -1, 0);
+                int startRow = side == WHITE ? 1 : 6;
+                if (row == startRow && squares[to + dir] == 0) moves[n++] = move(from, to + dir, -1, FLAG_DOUBLE_PUSH);
+            }
+        }
+        for (int dc = -1; dc <= 1; dc += 2) {
+            if (col + dc < 0 || col + dc > 7) continue;
+            int target = to + dc;
+            int p = squares[target];
+            if (p != 0 && pieceColor(p) != side) {
+                if (promotes) n = addPromotions(moves, n, from, target);
+                else moves[n++] = move(from, target, -1, 0);
+            } else if (p == 0 && target == epSquare && squares[target - dir] == piece(side ^ 1, PAWN)) {
+                moves[n++] = move(from, target, -1, FLAG_EN_PASSANT);
+            }
+        }
+        return n;
+    }
+
+    private static int addPromotions(int[] moves, int n, int from, int to) {
+        moves[n++] = move(from, to, QUEEN, 0);
+        moves[n++] = move(from, to, ROOK, 0);
+        moves[n++] = move(from, to, BISHOP, 0);
+        moves[n++] = move(from, to, KNIGHT, 0);
+        return n;
+    }
+
+    private int generateCastling(int[] moves, int n, int from) {
+        int rank = side == WHITE ? 0 : 56;
+        if (from != rank + 4) return n;
+        int rook = piece(side, ROOK);
+        int enemy = side ^ 1;
+        int kingSide = side == WHITE ? 1 : 4;
+        int queenSide = side == WHITE ? 2 : 8;
+        if ((castling & kingSide) != 0 && squares[rank + 7] == rook
+                && squares[rank + 5] == 0 && squares[rank + 6] == 0
+                && !isSquareAttacked(rank + 4, enemy) && !isSquareAttacked(rank + 5, enemy)
+                && !isSquareAttacked(rank + 6, enemy)) {
+            moves[n++] = move(from, rank + 6, -1, FLAG_CASTLE);
+        }
+        if ((castling & queenSide) != 0 && squares[rank] == rook
+                && squares[rank + 1] == 0 && squares[rank + 2] == 0 && squares[rank + 3] == 0
+                && !isSquareAttacked(rank + 4, enemy) && !isSquareAttacked(rank + 3, enemy)
+                && !isSquareAttacked(rank + 2, enemy)) {
+            moves[n++] = move(from, rank + 2, -1, FLAG_CASTLE);
+        }
+        return n;
+    }
+
+    // true if the side that just moved left its king attacked
+    public boolean leftKingInCheck() {
+        int king = kingSquare(side ^ 1);
+        return king >= 0 && isSquareAttacked(king, side);
+    }
+
+    public int generateLegalMoves(int[] moves) {
+        int n = generateMoves(moves, false);
+        int legal = 0;
+        for (int i = 0; i < n; i++) {
+            makeMove(moves[i]);
+            if (!leftKingInCheck()) moves[legal++] = moves[i];
+            unmakeMove();
+        }
+        return legal;
+    }
+
+    public boolean hasLegalMove() {
+        int[] moves = new int[MAX_MOVES];
+        int n = generateMoves(moves, false);
+        for (int i = 0; i < n; i++) {
+            makeMove(moves[i]);
+            boolean legal = !leftKingInCheck();
+            unmakeMove();
+            if (legal) return true;
+        }
+        return false;
+    }
+
+    // true if the current position already occurred since the last capture or pawn move
+    public boolean isRepetition() {
+        return repetitions() >= 1;
+    }
+
+    // earlier occurrences of the current position (threefold repetition = 2)
+    public int repetitions() {
+        int count = 0;
+        int stop = Math.max(0, ply - halfMoveClock);
+        for (int i = ply - 2; i >= stop; i -= 2) {
+            if (hashHistory[i] == hash) count++;
+        }
+        return count;
+    }
+
+    // K vs K, K+minor vs K, and K+B vs K+B with same-colored bishops, as in ChessModel
+    public boolean isInsufficientMaterial() {
+        int count = Long.bitCount(colorBits[WHITE] | colorBits[BLACK]);
+        if (count == 2) return true;
+        long minors = pieceBits[BISHOP] | pieceBits[KNIGHT] | pieceBits[6 + BISHOP] | pieceBits[6 + KNIGHT];
+        if (count == 3) return Long.bitCount(minors) == 1;
+        if (count == 4) {
+            long bishops = pieceBits[BISHOP] | pieceBits[6 + BISHOP];
+            if (Long.bitCount(bishops) != 2) return false;
+            long dark = 0xAA55AA55AA55AA55L;
+            return (bishops & dark) == 0 || (bishops & ~dark) == 0;
+        }
+        return false;
+    }
+
+    // same outcome ChessModel.movePiece reports for the move that reached this position
+    public ChessModel.MoveResult getStatus() {
+        boolean hasMove = hasLegalMove();
+        boolean check = isInCheck();
+        if (!hasMove && !check) return ChessModel.MoveResult.STALEMATE;
+        if (isInsufficientMaterial()) return ChessModel.MoveResult.DRAW_INSUFFICIENT_MATERIAL;
+        if (repetitions() >= 2) return ChessModel.MoveResult.DRAW_THREEFOLD_REPETITION;
+        if (halfMoveClock >= 100) return ChessModel.MoveResult.DRAW_50_MOVES;
+        if (!hasMove) return ChessModel.MoveResult.CHECKMATE;
+        return ChessModel.MoveResult.SUCCESS;
+    }
+
+    public Move toMove(int move) {
+        int promotion = promotion(move);
+        return new Move(from(move) & 7, from(move) >> 3, to(move) & 7, to(move) >> 3,
+                promotion >= 0 ? Rank.values()[promotion] : null);
+    }
+
+    // the legal move matching a Move (a pawn reaching the last row without a rank promotes to a queen), or 0
+    public int findMove(Move move) {
+        int from = move.getFromRow() * 8 + move.getFromCol();
+        int to = move.getToRow() * 8 + move.getToCol();
+        int promotion = move.getPromotionRank() != null ? move.getPromotionRank().ordinal() : QUEEN;
+        int[] moves = new int[MAX_MOVES];
+        int n = generateLegalMoves(moves);
+        for (int i = 0; i < n; i++) {
+            int m = moves[i];
+            if (from(m) == from && to(m) == to && (promotion(m) < 0 || promotion(m) == promotion)) return m;
+        }
+        return 0;
+    }
+
+    public String toSan(int move) {
+        int from = from(move);
+        int to = to(move);
+        int type = pieceType(squares[from]);
+        StringBuilder sb = new StringBuilder(8);
+        if (flag(move) == FLAG_CASTLE) {
+            sb.append((to & 7) == 6 ? "O-O" : "O-O-O");
+        } else {
+            boolean capture = squares[to] != 0 || flag(move) == FLAG_EN_PASSANT;
+            if (type == PAWN) {
+                if (capture) sb.append((char) ('a' + (from & 7)));
+            } else {
+                sb.append(PIECE_CHARS.charAt(type));
+                // disambiguate between pieces of the same kind that can reach the same square
+                boolean sameCol = false;
+                boolean sameRow = false;
+                boolean ambiguous = false;
+                int[] moves = new int[MAX_MOVES];
+                int n = generateLegalMoves(moves);
+                for (int i = 0; i < n; i++) {
+                    int other = from(moves[i]);
+                    if (to(moves[i]) == to && other != from && squares[other] == squares[from]) {
+                        ambiguous = true;
+                        if ((other & 7) == (from & 7)) sameCol = true;
+                        if ((other >> 3) == (from >> 3)) sameRow = true;
+                    }
+                }
+                if (ambiguous) {
+                    if (!sameCol) sb.append((char) ('a' + (from & 7)));
+                    else if (!sameRow) sb.append((char) ('1' + (from >> 3)));
+                    else sb.append((char) ('a' + (from & 7))).append((char) ('1' + (from >> 3)));
+                }
+            }
+            if (capture) sb.append('x');
+            sb.append((char) ('a' + (to & 7))).append((char) ('1' + (to >> 3)));
+            if (promotion(move) >= 0) sb.append('=').append(PIECE_CHARS.charAt(promotion(move)));
+        }
+        makeMove(move);
+        if (isInCheck()) sb.append(hasLegalMove() ? '+' : '#');
+        unmakeMove();
+        return sb.toString();
+    }
+
+    // the legal move written as SAN (check marks and annotations are ignored), or 0
+    public int parseSan(String san) {
+        String wanted = stripSan(san);
+        boolean castle = wanted.startsWith("O-O");
+        int[] moves = new int[MAX_MOVES];
+        int n = generateLegalMoves(moves);
+        for (int i = 0; i < n; i++) {
+            // cheap filter first, toSan() generates moves itself
+            if (castle != (flag(moves[i]) == FLAG_CASTLE)) continue;
+            if (!castle && !wanted.contains(squareName(to(moves[i])))) continue;
+            if (stripSan(toSan(moves[i])).equals(wanted)) return moves[i];
+        }
+        return 0;
+    }
+
+    private static String stripSan(String san) {
+        int end = san.length();
+        while (end > 0 && "+#!?".indexOf(san.charAt(end - 1)) >= 0) end--;
+        String s = san.substring(0, end).replace('0', 'O');
+        // "e8Q" is sometimes written without '='
+        if (s.length() >= 3 && Character.isUpperCase(s.charAt(s.length() - 1)) && Character.isDigit(s.charAt(s.length() - 2))) {
+            s = s.substring(0, s.length() - 1) + "=" + s.charAt(s.length() - 1);
+        }
+        return s;
+    }
+
+    public void setFen(String fen) {
+        String[] parts = fen.trim().split("\\s+");
+        Arrays.fill(squares, 0);
+        Arrays.fill(pieceBits, 0);
+        colorBits[WHITE] = 0;
+        colorBits[BLACK] = 0;
+        hash = 0;
+        castling = 0;
+        epSquare = -1;
+        ply = 0;
+
+        int row = 7;
+        int col = 0;
+        for (char c : parts[0].toCharArray()) {
+            if (c == '/') {
+                row--;
+                col = 0;
+            } else if (Character.isDigit(c)) {
+                col += c - '0';
+            } else {
+                int type = PIECE_CHARS.indexOf(Character.toUpperCase(c));
+                if (type < 0 || row < 0 || col > 7) throw new IllegalArgumentException("bad FEN: " + fen);
+                put(row * 8 + col, piece(Character.isUpperCase(c) ? WHITE : BLACK, type));
+                col++;
+            }
+        }
+        side = parts.length > 1 && parts[1].equals("b") ? BLACK : WHITE;
+        if (side == BLACK) hash ^= Zobrist.blackToMove();
+        int rights = 0;
+        if (parts.length > 2) {
+            if (parts[2].indexOf('K') >= 0) rights |= 1;
+            if (parts[2].indexOf('Q') >= 0) rights |= 2;
+            if (parts[2].indexOf('k') >= 0) rights |= 4;
+            if (parts[2].indexOf('q') >= 0) rights |= 8;
+        }
+        setCastling(rights);
+        if (parts.length > 3 && !parts[3].equals("-")) {
+            setEpSquare((parts[3].charAt(1) - '1') * 8 + parts[3].charAt(0) - 'a');
+        }
+        halfMoveClock = parts.length > 4 ? Integer.parseInt(parts[4]) : 0;
+        fullMoveNumber = parts.length > 5 ? Integer.parseInt(parts[5]) : 1;
+    }
+
+    public String toFen() {
+        StringBuilder sb = new StringBuilder(90);
+        for (int row = 7; row >= 0; row--) {
+            int empty = 0;
+            for (int col = 0; col < 8; col++) {
+                int p = squares[row * 8 + col];
+                if (p == 0) {
+                    empty++;
+                    continue;
+                }
+                if (empty > 0) sb.append(empty);
+                empty = 0;
+                char c = PIECE_CHARS.charAt(pieceType(p));
+                sb.append(pieceColor(p) == WHITE ? c : Character.toLowerCase(c));
+            }
+            if (empty > 0) sb.append(empty);
+            if (row > 0) sb.append('/');
+        }
+        sb.append(side == WHITE ? " w " : " b ");
+        if (castling == 0) sb.append('-');
+        if ((castling & 1) != 0) sb.append('K');
+        if ((castling & 2) != 0) sb.append('Q');
+        if ((castling & 4) != 0) sb.append('k');
+        if ((castling & 8) != 0) sb.append('q');
+        sb.append(' ').append(epSquare < 0 ? "-" : squareName(epSquare));
+        sb.append(' ').append(halfMoveClock).append(' ').append(fullMoveNumber);
+        return sb.toString();
+    }
+
+    public static String squareName(int sq) {
+        return "" + (char) ('a' + (sq & 7)) + (char) ('1' + (sq >> 3));
+    }
+
+    // long algebraic ("e2e4", "e7e8q"), as used by UCI
+    public static String toUci(int move) {
+        String s = squareName(from(move)) + squareName(to(move));
+        return promotion(move) >= 0 ? s + Character.toLowerCase(PIECE_CHARS.charAt(promotion(move))) : s;
+    }
+
+    // the legal move for a UCI string, or 0
+    public int parseUci(String uci) {
+        int[] moves = new int[MAX_MOVES];
+        int n = generateLegalMoves(moves);
+        for (int i = 0; i < n; i++) {
+            if (toUci(moves[i]).equals(uci)) return moves[i];
+        }
+        return 0;
+    }
+
+    public long perft(int depth) {
+        if (depth == 0) return 1;
+        int[] moves = new int[MAX_MOVES];
+        int n = generateMoves(moves, false);
+        long nodes = 0;
+        for (int i = 0; i < n; i++) {
+            makeMove(moves[i]);
+            if (!leftKingInCheck()) nodes += depth == 1 ? 1 : perft(depth - 1);
+            unmakeMove();
+        }
+        return nodes;
+    }
+}
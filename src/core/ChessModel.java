@@ -13,7 +13,20 @@ public class ChessModel {
         STALEMATE,
         DRAW_50_MOVES,
         DRAW_INSUFFICIENT_MATERIAL,
-        DRAW_THREEFOLD_REPETITION
+        DRAW_THREEFOLD_REPETITION;
+
+        public boolean isGameOver() {
+            switch (this) {
+                case CHECKMATE:
+                case STALEMATE:
+                case DRAW_50_MOVES:
+                case DRAW_INSUFFICIENT_MATERIAL:
+                case DRAW_THREEFOLD_REPETITION:
+                    return true;
+                default:
+                    return false;
+            }
+        }
     }
 
     private Set<ChessPiece> piecesBox = new HashSet<>();
@@ -30,9 +43,42 @@ public class ChessModel {
     private int enPassantRow = -1;
 
     private int halfMoveClock = 0;
-    private Map<String, Integer> positionCount = new HashMap<>();
+    // repetition key -> times seen; only positions since the last pawn move or capture can recur,
+    // so older ones are dropped
+    private Map<Long, Integer> positionCount = new HashMap<>();
+
+    // null = legality and status are worked out from the pieces every time
+    private static volatile PositionCache defaultCache;
+    private PositionCache positionCache = defaultCache;
+    // the cache entry of the position on the board, once looked up
+    private PositionCache.Entry currentEntry;
+
+    // plies between two position checkpoints of the move history
+    public static final int CHECKPOINT_INTERVAL = 16;
+
+    // moves since the last reset, packed as in CompactGame, and the result each one had. the first
+    // ply of them are on the board; the rest were stepped back over by goToPly and stay until a
+    // different move is played
+    private short[] historyMoves = new short[64];
+    private byte[] historyResults = new byte[64];
+    private int historySize = 0;
+    private int ply = 0;
+    // checkpoints.get(k) is the position after k * CHECKPOINT_INTERVAL plies; empty = no history
+    // is kept (a model restored to a position by hand)
+    private final List<CompactGame> checkpoints = new ArrayList<>();
+
+    // every ChessModel created afterwards shares this cache (null for none)
+    public static void setDefaultPositionCache(PositionCache cache) {
+        defaultCache = cache;
+    }
+
+    public void setPositionCache(PositionCache cache) {
+        this.positionCache = cache;
+        currentEntry = null;
+    }
 
     public void reset() {
+        currentEntry = null;
         piecesBox.clear();
 
         for (int i = 0; i < 2; i++) {
@@ -71,16 +117,98 @@ public class ChessModel {
         halfMoveClock = 0;
         positionCount.clear();
         updatePositionCount();
+        startHistory();
+    }
+
+    // the current position becomes ply 0 of an empty history
+    void startHistory() {
+        historySize = 0;
+        ply = 0;
+        checkpoints.clear();
+        checkpoints.add(CompactGame.of(this, null));
     }
 
     public MoveResult movePiece(int fromCol, int fromRow, int toCol, int toRow, Rank promotionRank) {
-        ChessPiece movingPiece = pieceAt(fromCol, fromRow);
-        if (!isValidMove(movingPiece, fromCol, fromRow, toCol, toRow)) {
-            return MoveResult.INVALID_MOVE;
+        MoveResult result = applyMove(fromCol, fromRow, toCol, toRow, promotionRank);
+        if (result != MoveResult.INVALID_MOVE && result != MoveResult.STILL_IN_CHECK && !checkpoints.isEmpty()) {
+            int promotion = promotionRank != null ? promotionRank.ordinal() + 1 : 0;
+            recordMove(CompactGame.pack(fromRow * 8 + fromCol, toRow * 8 + toCol, promotion), result);
+        }
+        return result;
+    }
+
+    private void recordMove(int packed, MoveResult result) {
+        // replaying the move that comes next keeps the rest of the line
+        if (ply < historySize && historyMoves[ply] == (short) packed) {
+            ply++;
+            return;
+        }
+        // anything else starts a new line from here
+        historySize = ply;
+        while (checkpoints.size() > ply / CHECKPOINT_INTERVAL + 1) {
+            checkpoints.remove(checkpoints.size() - 1);
+        }
+        if (ply == historyMoves.length) {
+            historyMoves = Arrays.copyOf(historyMoves, ply * 2);
+            historyResults = Arrays.copyOf(historyResults, ply * 2);
+        }
+        historyMoves[ply] = (short) packed;
+        historyResults[ply] = (byte) result.ordinal();
+        historySize = ++ply;
+        if (ply % CHECKPOINT_INTERVAL == 0) checkpoints.add(CompactGame.of(this, null));
+    }
+
+    // plies played to reach the position on the board
+    public int getPly() {
+        return ply;
+    }
+
+    // plies in the history, including those stepped back over
+    public int getHistorySize() {
+        return historySize;
+    }
+
+    public List<Move> getMoveHistory() {
+        List<Move> moves = new ArrayList<>(historySize);
+        for (int i = 0; i < historySize; i++) {
+            moves.add(CompactGame.unpack(historyMoves[i]));
+        }
+        return moves;
+    }
+
+    // puts the board at ply target of the history (0 = where it started): restores the checkpoint
+    // at or before it, unless the board is already between the two, and replays the moves from
+    // there, at most CHECKPOINT_INTERVAL - 1 of them. the history is kept, so any ply can be
+    // reached again until a different move is played. returns the result of the move that led to
+    // the ply, null at ply 0
+    public MoveResult goToPly(int target) {
+        if (target < 0 || target > historySize || checkpoints.isEmpty()) {
+            throw new IllegalArgumentException("No ply " + target + " in a history of " + historySize);
+        }
+        int checkpoint = target / CHECKPOINT_INTERVAL;
+        if (target < ply || checkpoint > ply / CHECKPOINT_INTERVAL) {
+            checkpoints.get(checkpoint).restore(this);
+            ply = checkpoint * CHECKPOINT_INTERVAL;
         }
-        if (isSelfCheck(movingPiece, fromCol, fromRow, toCol, toRow)) {
-            return MoveResult.STILL_IN_CHECK;
+        while (ply < target) {
+            movePiece(CompactGame.unpack(historyMoves[ply]));
+        }
+        return target > 0 ? MoveResult.values()[historyResults[target - 1]] : null;
+    }
+
+    private MoveResult applyMove(int fromCol, int fromRow, int toCol, int toRow, Rank promotionRank) {
+        ChessPiece movingPiece = pieceAt(fromCol, fromRow);
+        // a cached legal move needs no checking; anything else is checked to say why it fails
+        // (or, for the side not in turn, which the cache does not cover, whether it does)
+        if (!isCachedLegalMove(movingPiece, fromCol, fromRow, toCol, toRow)) {
+            if (!isValidMove(movingPiece, fromCol, fromRow, toCol, toRow)) {
+                return MoveResult.INVALID_MOVE;
+            }
+            if (isSelfCheck(movingPiece, fromCol, fromRow, toCol, toRow)) {
+                return MoveResult.STILL_IN_CHECK;
+            }
         }
+        currentEntry = null;
 
         boolean isPromotion = false;
         if (movingPiece.getRank() == Rank.PAWN &&
@@ -183,6 +311,7 @@ public class ChessModel {
 
         if (movingPiece.getRank() == Rank.PAWN || isCapture || isPromotion) {
             halfMoveClock = 0;
+            positionCount.clear();
         } else {
             halfMoveClock++;
         }
@@ -191,6 +320,9 @@ public class ChessModel {
 
         updatePositionCount();
 
+        if (positionCache != null) {
+            return statusFromCache(isPromotion);
+        }
         if (isStalemate(playerInTurn)) {
             return MoveResult.STALEMATE;
         }
@@ -212,25 +344,70 @@ public class ChessModel {
         return MoveResult.SUCCESS;
     }
 
+    // same checks in the same order as the end of applyMove
+    private MoveResult statusFromCache(boolean isPromotion) {
+        PositionCache.Entry entry = cachedEntry();
+        if (!entry.hasLegalMove && !entry.inCheck) return MoveResult.STALEMATE;
+        if (entry.insufficientMaterial) return MoveResult.DRAW_INSUFFICIENT_MATERIAL;
+        if (isThreefoldRepetition()) return MoveResult.DRAW_THREEFOLD_REPETITION;
+        if (halfMoveClock >= 100) return MoveResult.DRAW_50_MOVES;
+        if (!entry.hasLegalMove) return MoveResult.CHECKMATE;
+        if (isPromotion) return MoveResult.PROMOTION;
+        return MoveResult.SUCCESS;
+    }
+
+    private boolean isCachedLegalMove(ChessPiece piece, int fromCol, int fromRow, int toCol, int toRow) {
+        if (positionCache == null || piece == null || piece.getPlayer() != playerInTurn) return false;
+        // the list is only there if getLegalMoves asked for it; working it out here would cost
+        // more than checking the one move
+        int[] moves = cachedEntry().moves;
+        return moves != null && PositionCache.Entry.contains(moves, fromCol, fromRow, toCol, toRow);
+    }
+
+    // the cache entry for the current position, worked out and added on a miss
+    private PositionCache.Entry cachedEntry() {
+        if (currentEntry != null) return currentEntry;
+        long key = getPositionHash();
+        PositionCache.Entry entry = positionCache.get(key);
+        if (entry == null) {
+            entry = new PositionCache.Entry(hasLegalMove(playerInTurn), isKingChecked(playerInTurn), isInsufficientMaterial());
+            positionCache.put(key, entry);
+        }
+        currentEntry = entry;
+        return entry;
+    }
+
+    private boolean hasLegalMove(Player player) {
+        for (ChessPiece p : new ArrayList<>(piecesBox)) {
+            if (p.getPlayer() != player) continue;
+            for (int toCol = 0; toCol < 8; toCol++) {
+                for (int toRow = 0; toRow < 8; toRow++) {
+                    if (isValidMove(p, p.getCol(), p.getRow(), toCol, toRow) &&
+                        !isSelfCheck(p, p.getCol(), p.getRow(), toCol, toRow)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
     private void updatePositionCount() {
-        String fen = getSimpleFEN();
-        positionCount.put(fen, positionCount.getOrDefault(fen, 0) + 1);
+        positionCount.merge(getRepetitionKey(), 1, Integer::sum);
     }
 
-    private String getSimpleFEN() {
-        StringBuilder sb = new StringBuilder();
-        ChessPiece[] arr = piecesBox.toArray(new ChessPiece[0]);
-        Arrays.sort(arr, Comparator.comparingInt(ChessPiece::getRow).thenComparingInt(ChessPiece::getCol));
-        for (ChessPiece p : arr) {
-            sb.append(p.getPlayer()).append(p.getRank()).append(p.getCol()).append(p.getRow()).append(";");
+    // pieces and side to move, which is what counts for threefold repetition here
+    private long getRepetitionKey() {
+        long key = 0;
+        for (ChessPiece p : piecesBox) {
+            key ^= Zobrist.piece(p.getPlayer(), p.getRank(), p.getCol(), p.getRow());
         }
-        sb.append(playerInTurn);
-        return sb.toString();
+        if (playerInTurn == Player.BLACK) key ^= Zobrist.blackToMove();
+        return key;
     }
 
     private boolean isThreefoldRepetition() {
-        String fen = getSimpleFEN();
-        return positionCount.getOrDefault(fen, 0) >= 3;
+        return positionCount.getOrDefault(getRepetitionKey(), 0) >= 3;
     }
 
     private boolean isInsufficientMaterial() {
@@ -309,6 +486,107 @@ public class ChessModel {
         return playerInTurn;
     }
 
+    // Zobrist hash of pieces, side to move, castling rights and en passant square
+    public long getPositionHash() {
+        long hash = 0;
+        for (ChessPiece p : piecesBox) {
+            hash ^= Zobrist.piece(p.getPlayer(), p.getRank(), p.getCol(), p.getRow());
+        }
+        if (playerInTurn == Player.BLACK) hash ^= Zobrist.blackToMove();
+        if (!whiteKingMoved && !whiteRookRightMoved) hash ^= Zobrist.castling(0);
+        if (!whiteKingMoved && !whiteRookLeftMoved) hash ^= Zobrist.castling(1);
+        if (!blackKingMoved && !blackRookRightMoved) hash ^= Zobrist.castling(2);
+        if (!blackKingMoved && !blackRookLeftMoved) hash ^= Zobrist.castling(3);
+        if (enPassantCol >= 0) hash ^= Zobrist.enPassant(enPassantCol);
+        return hash;
+    }
+
+    // castling state for CompactGame: bit 0 white king moved, 1 white a-rook, 2 white h-rook,
+    // 3 black king, 4 black a-rook, 5 black h-rook
+    int getMovedFlags() {
+        return (whiteKingMoved ? 1 : 0) | (whiteRookLeftMoved ? 2 : 0) | (whiteRookRightMoved ? 4 : 0)
+                | (blackKingMoved ? 8 : 0) | (blackRookLeftMoved ? 16 : 0) | (blackRookRightMoved ? 32 : 0);
+    }
+
+    // column of the pawn that just moved two squares, or -1
+    int getEnPassantCol() {
+        return enPassantCol;
+    }
+
+    int getHalfMoveClock() {
+        return halfMoveClock;
+    }
+
+    Map<Long, Integer> getRepetitionCounts() {
+        return positionCount;
+    }
+
+    // puts the model into a state saved by CompactGame
+    void restore(List<ChessPiece> pieces, Player playerInTurn, int movedFlags, int enPassantCol, int halfMoveClock,
+                 Map<Long, Integer> repetitionCounts) {
+        currentEntry = null;
+        piecesBox.clear();
+        piecesBox.addAll(pieces);
+        this.playerInTurn = playerInTurn;
+        whiteKingMoved = (movedFlags & 1) != 0;
+        whiteRookLeftMoved = (movedFlags & 2) != 0;
+        whiteRookRightMoved = (movedFlags & 4) != 0;
+        blackKingMoved = (movedFlags & 8) != 0;
+        blackRookLeftMoved = (movedFlags & 16) != 0;
+        blackRookRightMoved = (movedFlags & 32) != 0;
+        this.enPassantCol = enPassantCol;
+        // the pawn that moved belongs to the side not in turn
+        this.enPassantRow = enPassantCol < 0 ? -1 : playerInTurn == Player.BLACK ? 2 : 5;
+        this.halfMoveClock = halfMoveClock;
+        positionCount.clear();
+        positionCount.putAll(repetitionCounts);
+    }
+
+    public List<ChessPiece> getPieces() {
+        return new ArrayList<>(piecesBox);
+    }
+
+    public MoveResult movePiece(Move move) {
+        return movePiece(move.getFromCol(), move.getFromRow(), move.getToCol(), move.getToRow(), move.getPromotionRank());
+    }
+
+    public List<Move> getLegalMoves() {
+        if (positionCache == null) return computeLegalMoves();
+        PositionCache.Entry entry = cachedEntry();
+        int[] cached = entry.moves;
+        if (cached == null) cached = entry.setMoves(computeLegalMoves());
+        List<Move> moves = new ArrayList<>(cached.length);
+        for (int m : cached) {
+            moves.add(PositionCache.Entry.toMove(m));
+        }
+        return moves;
+    }
+
+    private List<Move> computeLegalMoves() {
+        List<Move> moves = new ArrayList<>();
+        ChessPiece[] arr = piecesBox.toArray(new ChessPiece[0]);
+        Arrays.sort(arr, Comparator.comparingInt(ChessPiece::getRow).thenComparingInt(ChessPiece::getCol));
+        for (ChessPiece p : arr) {
+            if (p.getPlayer() != playerInTurn) continue;
+            for (int toCol = 0; toCol < 8; toCol++) {
+                for (int toRow = 0; toRow < 8; toRow++) {
+                    if (isValidMove(p, p.getCol(), p.getRow(), toCol, toRow) &&
+                        !isSelfCheck(p, p.getCol(), p.getRow(), toCol, toRow)) {
+                        if (p.getRank() == Rank.PAWN && (toRow == 7 || toRow == 0)) {
+                            moves.add(new Move(p.getCol(), p.getRow(), toCol, toRow, Rank.QUEEN));
+                            moves.add(new Move(p.getCol(), p.getRow(), toCol, toRow, Rank.ROOK));
+                            moves.add(new Move(p.getCol(), p.getRow(), toCol, toRow, Rank.BISHOP));
+                            moves.add(new Move(p.getCol(), p.getRow(), toCol, toRow, Rank.KNIGHT));
+                        } else {
+                            moves.add(new Move(p.getCol(), p.getRow(), toCol, toRow, null));
+                        }
+                    }
+                }
+            }
+        }
+        return moves;
+    }
+
     public boolean isValidMove(ChessPiece piece, int fromCol, int fromRow, int toCol, int toRow) {
         if (piece == null) return false;
         if (fromCol == toCol && fromRow == toRow) return false;
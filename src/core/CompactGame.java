@@ -0,0 +1,191 @@
+package core;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// a game packed into one byte array, for keeping many paused games in memory; inflate() turns it
+// back into a live ChessModel. layout:
+//   long occupied squares, then a 4-bit code (color << 3 | rank) per occupied square in square order
+//   byte: bit 0 black to move, bits 1-6 ChessModel moved flags; byte: en passant column + 1 (0 = none)
+//   varint half-move clock
+//   varint n, then n x (long repetition key, byte count): positions since the last pawn move or capture
+//   varint n, then n x short moves (from | to << 6 | promotion << 12), the whole game from the start
+// the position part is 27 bytes with all 32 pieces on the board
+public final class CompactGame {
+    private static final Rank[] RANKS = Rank.values();
+    // image name per 4-bit piece code
+    private static final String[] IMAGES = {
+        ChessConstants.wKing, ChessConstants.wQueen, ChessConstants.wBishop,
+        ChessConstants.wRook, ChessConstants.wKnight, ChessConstants.wPawn, null, null,
+        ChessConstants.bKing, ChessConstants.bQueen, ChessConstants.bBishop,
+        ChessConstants.bRook, ChessConstants.bKnight, ChessConstants.bPawn
+    };
+
+    private final byte[] data;
+
+    private CompactGame(byte[] data) {
+        this.data = data;
+    }
+
+    // moves may be null when the history is not needed
+    public static CompactGame of(ChessModel model, List<Move> moves) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+        int[] codes = new int[64];
+        long occupied = 0;
+        for (ChessPiece p : model.getPieces()) {
+            int square = p.getRow() * 8 + p.getCol();
+            occupied |= 1L << square;
+            codes[square] = (p.getPlayer() == Player.BLACK ? 8 : 0) | p.getRank().ordinal();
+        }
+        writeLong(out, occupied);
+        int pending = -1;
+        for (long bits = occupied; bits != 0; bits &= bits - 1) {
+            int code = codes[Long.numberOfTrailingZeros(bits)];
+            if (pending < 0) {
+                pending = code << 4;
+            } else {
+                out.write(pending | code);
+                pending = -1;
+            }
+        }
+        if (pending >= 0) out.write(pending);
+
+        out.write((model.getPlayerInTurn() == Player.BLACK ? 1 : 0) | model.getMovedFlags() << 1);
+        out.write(model.getEnPassantCol() + 1);
+        writeVarInt(out, model.getHalfMoveClock());
+
+        Map<Long, Integer> repetitions = model.getRepetitionCounts();
+        writeVarInt(out, repetitions.size());
+        for (Map.Entry<Long, Integer> e : repetitions.entrySet()) {
+            writeLong(out, e.getKey());
+            out.write(Math.min(e.getValue(), 255));
+        }
+
+        List<Move> history = moves != null ? moves : Collections.emptyList();
+        writeVarInt(out, history.size());
+        for (Move m : history) {
+            int packed = pack(m);
+            out.write(packed >>> 8);
+            out.write(packed);
+        }
+        return new CompactGame(out.toByteArray());
+    }
+
+    public static CompactGame fromBytes(byte[] data) {
+        return new CompactGame(data.clone());
+    }
+
+    public byte[] toBytes() {
+        return data.clone();
+    }
+
+    // bytes held, not counting the object and array headers
+    public int size() {
+        return data.length;
+    }
+
+    public ChessModel inflate() {
+        ChessModel model = new ChessModel();
+        restore(model);
+        model.startHistory();
+        return model;
+    }
+
+    // puts the saved position on model, leaving its move history alone
+    void restore(ChessModel model) {
+        int[] pos = {0};
+        long occupied = readLong(pos);
+        List<ChessPiece> pieces = new ArrayList<>(Long.bitCount(occupied));
+        int i = 0;
+        for (long bits = occupied; bits != 0; bits &= bits - 1, i++) {
+            int square = Long.numberOfTrailingZeros(bits);
+            int b = data[pos[0] + i / 2] & 0xFF;
+            int code = i % 2 == 0 ? b >>> 4 : b & 15;
+            pieces.add(new ChessPiece(square & 7, square >>> 3, (code & 8) != 0 ? Player.BLACK : Player.WHITE,
+                    RANKS[code & 7], IMAGES[code]));
+        }
+        pos[0] += (i + 1) / 2;
+
+        int state = data[pos[0]++] & 0xFF;
+        int enPassantCol = (data[pos[0]++] & 0xFF) - 1;
+        int halfMoveClock = readVarInt(pos);
+        int n = readVarInt(pos);
+        Map<Long, Integer> repetitions = new HashMap<>(n * 2);
+        for (int k = 0; k < n; k++) {
+            long key = readLong(pos);
+            repetitions.put(key, data[pos[0]++] & 0xFF);
+        }
+
+        model.restore(pieces, (state & 1) != 0 ? Player.BLACK : Player.WHITE, state >>> 1, enPassantCol,
+                halfMoveClock, repetitions);
+    }
+
+    public List<Move> getMoves() {
+        int[] pos = {0};
+        long occupied = readLong(pos);
+        pos[0] += (Long.bitCount(occupied) + 1) / 2 + 2;
+        readVarInt(pos);
+        int repetitions = readVarInt(pos);
+        pos[0] += repetitions * 9;
+        int n = readVarInt(pos);
+        List<Move> moves = new ArrayList<>(n);
+        for (int k = 0; k < n; k++) {
+            int packed = (data[pos[0]] & 0xFF) << 8 | data[pos[0] + 1] & 0xFF;
+            pos[0] += 2;
+            moves.add(unpack(packed));
+        }
+        return moves;
+    }
+
+    static int pack(Move m) {
+        int promotion = m.getPromotionRank() != null ? m.getPromotionRank().ordinal() + 1 : 0;
+        return pack(m.getFromRow() * 8 + m.getFromCol(), m.getToRow() * 8 + m.getToCol(), promotion);
+    }
+
+    // promotion: rank ordinal + 1, 0 for none
+    static int pack(int from, int to, int promotion) {
+        return from | to << 6 | promotion << 12;
+    }
+
+    static Move unpack(int packed) {
+        int from = packed & 63;
+        int to = (packed >>> 6) & 63;
+        int promotion = (packed >>> 12) & 7;
+        return new Move(from & 7, from >>> 3, to & 7, to >>> 3, promotion > 0 ? RANKS[promotion - 1] : null);
+    }
+
+    private static void writeLong(ByteArrayOutputStream out, long v) {
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            out.write((int) (v >>> shift));
+        }
+    }
+
+    private long readLong(int[] pos) {
+        long v = 0;
+        for (int k = 0; k < 8; k++) {
+            v = v << 8 | data[pos[0]++] & 0xFF;
+        }
+        return v;
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream out, int v) {
+        while ((v & ~0x7F) != 0) {
+            out.write((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        out.write(v);
+    }
+
+    private int readVarInt(int[] pos) {
+        int v = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = data[pos[0]++] & 0xFF;
+            v |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return v;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package core;
+
+// static evaluation: material plus piece-square tables, in centipawns from the side to move's view
+public class Evaluator {
+    // indexed by Board piece type: KING, QUEEN, BISHOP, ROOK, KNIGHT, PAWN
+    public static final int[] VALUES = {0, 900, 330, 500, 320, 100};
+
+    // from white's side, rank 8 first as usually printed; black uses the mirrored square
+    private static final int[][] TABLES = {
+        { // king
+            -30, -40, -40, -50, -50, -40, -40, -30,
+            -30, -40, -40, -50, -50, -40, -40, -30,
+            -30, -40, -40, -50, -50, -40, -40, -30,
+            -30, -40, -40, -50, -50, -40, -40, -30,
+            -20, -30, -30, -40, -40, -30, -30, -20,
+            -10, -20, -20, -20, -20, -20, -20, -10,
+             20,  20,   0,   0,   0,   0,  20,  20,
+             20,  30,  10,   0,   0,  10,  30,  20,
+        },
+        { // queen
+            -20, -10, -10,  -5,  -5, -10, -10, -20,
+            -10,   0,   0,   0,   0,   0,   0, -10,
+            -10,   0,   5,   5,   5,   5,   0, -10,
+             -5,   0,   5,   5,   5,   5,   0,  -5,
+              0,   0,   5,   5,   5,   5,   0,  -5,
+            -10,   5,   5,   5,   5,   5,   0, -10,
+            -10,   0,   5,   0,   0,   0,   0, -10,
+            -20, -10, -10,  -5,  -5, -10, -10, -20,
+        },
+        { // bishop
+            -20, -10, -10, -10, -10, -10, -10, -20,
+            -10,   0,   0,   0,   0,   0,   0, -10,
+            -10,   0,   5,  10,  10,   5,   0, -10,
+            -10,   5,   5,  10,  10,   5,   5, -10,
+            -10,   0,  10,  10,  10,  10,   0, -10,
+            -10,  10,  10,  10,  10,  10,  10, -10,
+            -10,   5,   0,   0,   0,   0,   5, -10,
+            -20, -10, -10, -10, -10, -10, -10, -20,
+        },
+        { // rook
+              0,   0,   0,   0,   0,   0,   0,   0,
+              5,  10,  10,  10,  10,  10,  10,   5,
+             -5,   0,   0,   0,   0,   0,   0,  -5,
+             -5,   0,   0,   0,   0,   0,   0,  -5,
+             -5,   0,   0,   0,   0,   0,   0,  -5,
+             -5,   0,   0,   0,   0,   0,   0,  -5,
+             -5,   0,   0,   0,   0,   0,   0,  -5,
+              0,   0,   0,   5,   5,   0,   0,   0,
+        },
+        { // knight
+            -50, -40, -30, -30, -30, -30, -40, -50,
+            -40, -20,   0,   0,   0,   0, -20, -40,
+            -30,   0,  10,  15,  15,  10,   0, -30,
+            -30,   5,  15,  20,  20,  15,   5, -30,
+            -30,   0,  15,  20,  20,  15,   0, -30,
+            -30,   5,  10,  15,  15,  10,   5, -30,
+            -40, -20,   0,   5,   5,   0, -20, -40,
+            -50, -40, -30, -30, -30, -30, -40, -50,
+        },
+        { // pawn
+              0,   0,   0,   0,   0,   0,   0,   0,
+             50,  50,  50,  50,  50,  50,  50,  50,
+             10,  10,  20,  30,  30,  20,  10,  10,
+              5,   5,  10,  25,  25,  10,   5,   5,
+              0,   0,   0,  20,  20,   0,   0,   0,
+              5,  -5, -10,   0,   0, -10,  -5,   5,
+              5,  10,  10, -20, -20,  10,  10,   5,
+              0,   0,   0,   0,   0,   0,   0,   0,
+        },
+    };
+
+    // per color, type and square: material + table value, so evaluate() is a sum of lookups
+    private static final int[][][] SCORES = new int[2][6][64];
+
+    static {
+        for (int type = 0; type < 6; type++) {
+            for (int sq = 0; sq < 64; sq++) {
+                int row = sq >> 3;
+                int col = sq & 7;
+                SCORES[Board.WHITE][type][sq] = VALUES[type] + TABLES[type][(7 - row) * 8 + col];
+                SCORES[Board.BLACK][type][sq] = VALUES[type] + TABLES[type][row * 8 + col];
+            }
+        }
+    }
+
+    private Evaluator() {
+    }
+
+    // material + table value of a piece on sq, from its own side's view
+    static int score(int color, int type, int sq) {
+        return SCORES[color][type][sq];
+    }
+
+    public static int evaluate(Board board) {
+        int score = 0;
+        for (int type = 0; type < 6; type++) {
+            long white = board.getPieces(Board.WHITE, type);
+            while (white != 0) {
+                score += SCORES[Board.WHITE][type][Long.numberOfTrailingZeros(white)];
+                white &= white - 1;
+            }
+            long black = board.getPieces(Board.BLACK, type);
+            while (black != 0) {
+                score -= SCORES[Board.BLACK][type][Long.numberOfTrailingZeros(black)];
+                black &= black - 1;
+            }
+        }
+        return board.getSideToMove() == Board.WHITE ? score : -score;
+    }
+}
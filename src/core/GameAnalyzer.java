@@ -0,0 +1,106 @@
+package core;
+
+// annotates one game at a time: every position is searched to a fixed depth, moves that lose
+// against the best move get a NAG and a comment, and the way the game ended goes into an "Ending"
+// tag. keeps its own Board and Search, so use one GameAnalyzer per thread
+public class GameAnalyzer {
+    public static final int INACCURACY = 50;
+    public static final int MISTAKE = 100;
+    public static final int BLUNDER = 250;
+
+    private final Board board = new Board();
+    private final Search search = new Search(board);
+    private final int depth;
+    private final long nodesPerPosition;
+
+    public GameAnalyzer(int depth, long nodesPerPosition) {
+        this.depth = depth;
+        this.nodesPerPosition = nodesPerPosition;
+    }
+
+    // returns the number of positions searched, or -1 if a move is illegal or the game starts from a FEN
+    public int analyze(PgnGame game) {
+        if (game.getTags().containsKey("FEN") && !"0".equals(game.getTag("SetUp"))) {
+            return -1;
+        }
+        board.reset();
+        int plies = game.getSanMoves().size();
+        int[] moves = new int[plies];
+        for (int i = 0; i < plies; i++) {
+            moves[i] = board.parseSan(game.getSanMoves().get(i));
+            if (moves[i] == 0) return -1;
+            board.makeMove(moves[i]);
+        }
+        ChessModel.MoveResult status = board.getStatus();
+
+        // score[i] is the best score of position i (before move i) for the side to move there
+        int[] scores = new int[plies + 1];
+        int[] best = new int[plies + 1];
+        for (int i = plies; i >= 0; i--) {
+            Search.Result result = search.search(depth, 0, nodesPerPosition);
+            scores[i] = result.getScore();
+            best[i] = result.getMove();
+            if (i > 0) board.unmakeMove();
+        }
+        // board is back at the start; replay to name the best moves
+        int whiteErrors = 0;
+        int blackErrors = 0;
+        for (int i = 0; i < plies; i++) {
+            // the played move scores -scores[i + 1] for the mover
+            int loss = clamp(scores[i]) + clamp(scores[i + 1]);
+            if (best[i] != 0 && best[i] != moves[i] && loss >= INACCURACY) {
+                int nag = loss >= BLUNDER ? 4 : loss >= MISTAKE ? 2 : 6;
+                String label = loss >= BLUNDER ? "Blunder" : loss >= MISTAKE ? "Mistake" : "Inaccuracy";
+                int whiteScore = i % 2 == 0 ? scores[i] : -scores[i];
+                game.annotate(i, nag, label + ". Best was " + board.toSan(best[i]) + " (" + formatScore(whiteScore) + ")");
+                if (loss >= MISTAKE) {
+                    if (i % 2 == 0) whiteErrors++;
+                    else blackErrors++;
+                }
+            }
+            board.makeMove(moves[i]);
+        }
+
+        game.setTag("Ending", classifyEnding(game, status));
+        game.setTag("Annotator", "GameAnalyzer depth " + depth);
+        game.setTag("WhiteMistakes", String.valueOf(whiteErrors));
+        game.setTag("BlackMistakes", String.valueOf(blackErrors));
+        return plies + 1;
+    }
+
+    // mate scores would swamp the loss; anything beyond a queen and a half is just "lost"
+    private static int clamp(int score) {
+        return Math.max(-1500, Math.min(1500, score));
+    }
+
+    // "+0.35", "-1.20", "#3", "#-2" from white's view
+    public static String formatScore(int score) {
+        if (Math.abs(score) > Search.MATE - 128) {
+            int plies = Search.MATE - Math.abs(score);
+            return score > 0 ? "#" + (plies + 1) / 2 : "#-" + (plies + 1) / 2;
+        }
+        return String.format("%+.2f", score / 100.0);
+    }
+
+    private static String classifyEnding(PgnGame game, ChessModel.MoveResult status) {
+        switch (status) {
+            case CHECKMATE: return "checkmate";
+            case STALEMATE: return "stalemate";
+            case DRAW_THREEFOLD_REPETITION: return "threefold repetition";
+            case DRAW_50_MOVES: return "fifty-move rule";
+            case DRAW_INSUFFICIENT_MATERIAL: return "insufficient material";
+            default: break;
+        }
+        String termination = game.getTag("Termination");
+        if (termination != null && termination.toLowerCase().contains("time")) return "time forfeit";
+        switch (game.getResult()) {
+            case "1-0":
+            case "0-1":
+                return "resignation";
+            case "1/2-1/2":
+                return "draw agreed";
+            default:
+                return "unfinished";
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// read-only view of a segment written by IndexSegmentWriter. the file is memory-mapped in 1GB
+// chunks, lookups binary-search the key table, so nothing but the mapping itself lives on the heap
+class IndexSegment {
+    private static final int CHUNK_BITS = 30;
+    private static final long KEYS_PER_CHUNK = (1L << CHUNK_BITS) / IndexSegmentWriter.KEY_SIZE;
+
+    // (hash, posting) pairs in ascending order, for merging segments and runs
+    interface Cursor {
+        boolean next() throws IOException;
+
+        long hash();
+
+        long posting();
+    }
+
+    private final Path path;
+    private final long keyCount;
+    private final long postingCount;
+    private final MappedByteBuffer[] postingChunks;
+    private final MappedByteBuffer[] keyChunks;
+
+    IndexSegment(Path path) throws IOException {
+        this.path = path;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < IndexSegmentWriter.HEADER_SIZE) throw new IOException("truncated segment " + path);
+            ByteBuffer header = ByteBuffer.allocate(IndexSegmentWriter.HEADER_SIZE);
+            channel.read(header, 0);
+            header.flip();
+            if (header.getInt() != IndexSegmentWriter.MAGIC) throw new IOException("not a position index segment: " + path);
+            int version = header.getInt();
+            if (version != IndexSegmentWriter.VERSION) throw new IOException("unsupported segment version " + version);
+            keyCount = header.getLong();
+            postingCount = header.getLong();
+            long keysOffset = header.getLong();
+            if (keysOffset + keyCount * IndexSegmentWriter.KEY_SIZE > channel.size()) {
+                throw new IOException("truncated segment " + path);
+            }
+
+            long postingsSize = keysOffset - IndexSegmentWriter.HEADER_SIZE;
+            postingChunks = new MappedByteBuffer[(int) ((postingsSize + (1L << CHUNK_BITS) - 1) >> CHUNK_BITS)];
+            for (int i = 0; i < postingChunks.length; i++) {
+                long start = (long) i << CHUNK_BITS;
+                postingChunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, IndexSegmentWriter.HEADER_SIZE + start,
+                        Math.min(1L << CHUNK_BITS, postingsSize - start));
+            }
+            keyChunks = new MappedByteBuffer[(int) ((keyCount + KEYS_PER_CHUNK - 1) / KEYS_PER_CHUNK)];
+            for (int i = 0; i < keyChunks.length; i++) {
+                long first = i * KEYS_PER_CHUNK;
+                keyChunks[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+                        keysOffset + first * IndexSegmentWriter.KEY_SIZE,
+                        Math.min(KEYS_PER_CHUNK, keyCount - first) * IndexSegmentWriter.KEY_SIZE);
+            }
+        }
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    long getKeyCount() {
+        return keyCount;
+    }
+
+    long getPostingCount() {
+        return postingCount;
+    }
+
+    // postings for a position hash in ascending order, empty if the position is not in this segment
+    long[] lookup(long hash) {
+        long key = find(hash);
+        if (key < 0) return new long[0];
+        long[] result = new long[postingCountAt(key)];
+        long offset = postingOffsetAt(key);
+        long value = 0;
+        for (int i = 0; i < result.length; i++) {
+            long delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = postingByte(offset++);
+                delta |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            value = i == 0 ? delta : value + delta;
+            result[i] = value;
+        }
+        return result;
+    }
+
+    int count(long hash) {
+        long key = find(hash);
+        return key < 0 ? 0 : postingCountAt(key);
+    }
+
+    private long find(long hash) {
+        long lo = 0;
+        long hi = keyCount - 1;
+        while (lo <= hi) {
+            long mid = (lo + hi) >>> 1;
+            int cmp = Long.compare(hashAt(mid), hash);
+            if (cmp < 0) lo = mid + 1;
+            else if (cmp > 0) hi = mid - 1;
+            else return mid;
+        }
+        return -1;
+    }
+
+    private long hashAt(long key) {
+        return keyChunks[(int) (key / KEYS_PER_CHUNK)].getLong((int) (key % KEYS_PER_CHUNK) * IndexSegmentWriter.KEY_SIZE);
+    }
+
+    private long postingOffsetAt(long key) {
+        return keyChunks[(int) (key / KEYS_PER_CHUNK)].getLong((int) (key % KEYS_PER_CHUNK) * IndexSegmentWriter.KEY_SIZE + 8);
+    }
+
+    private int postingCountAt(long key) {
+        return keyChunks[(int) (key / KEYS_PER_CHUNK)].getInt((int) (key % KEYS_PER_CHUNK) * IndexSegmentWriter.KEY_SIZE + 16);
+    }
+
+    private byte postingByte(long offset) {
+        return postingChunks[(int) (offset >>> CHUNK_BITS)].get((int) (offset & ((1L << CHUNK_BITS) - 1)));
+    }
+
+    // walks every (hash, posting) pair in order
+    Cursor cursor() {
+        return new Cursor() {
+            private long key = -1;
+            private int remaining = 0;
+            private long offset;
+            private long hash;
+            private long posting;
+
+            @Override
+            public boolean next() {
+                if (remaining == 0) {
+                    if (++key >= keyCount) return false;
+                    hash = hashAt(key);
+                    remaining = postingCountAt(key);
+                    offset = postingOffsetAt(key);
+                    posting = 0;
+                }
+                long delta = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = postingByte(offset++);
+                    delta |= (long) (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                posting += delta;
+                remaining--;
+                return true;
+            }
+
+            @Override
+            public long hash() {
+                return hash;
+            }
+
+            @Override
+            public long posting() {
+                return posting;
+            }
+        };
+    }
+}
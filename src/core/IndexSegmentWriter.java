@@ -0,0 +1,134 @@
+package core;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+// writes one immutable IndexSegment from (hash, posting) pairs that arrive sorted by hash, then posting.
+// layout: header | postings (varint deltas per hash) | key table (hash, postings offset, count).
+// the file appears under its final name only after finish()
+class IndexSegmentWriter implements Closeable {
+    static final int MAGIC = 0x43504958; // "CPIX"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    static final int KEY_SIZE = 20;
+
+    private final Path target;
+    private final Path tmp;
+    private final Path keysTmp;
+    private final FileChannel channel;
+    private final OutputStream postings;
+    private final DataOutputStream keys;
+
+    private long postingsBytes = 0;
+    private long keyCount = 0;
+    private long postingCount = 0;
+
+    private boolean hasKey = false;
+    private long currentHash;
+    private long currentOffset;
+    private int currentCount;
+    private long lastPosting;
+
+    IndexSegmentWriter(Path target) throws IOException {
+        this.target = target;
+        this.tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        this.keysTmp = target.resolveSibling(target.getFileName() + ".keys.tmp");
+        channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.READ, StandardOpenOption.TRUNCATE_EXISTING);
+        channel.position(HEADER_SIZE);
+        postings = new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16);
+        keys = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(keysTmp), 1 << 16));
+    }
+
+    // pairs must be ascending: hash by Long.compare, then posting; exact duplicates are dropped
+    void add(long hash, long posting) throws IOException {
+        if (hasKey && hash == currentHash) {
+            if (posting < lastPosting) throw new IllegalStateException("postings out of order");
+            if (posting == lastPosting) return;
+            writeVarint(posting - lastPosting);
+        } else {
+            if (hasKey && Long.compare(hash, currentHash) < 0) throw new IllegalStateException("hashes out of order");
+            endKey();
+            hasKey = true;
+            currentHash = hash;
+            currentOffset = postingsBytes;
+            currentCount = 0;
+            writeVarint(posting);
+        }
+        lastPosting = posting;
+        currentCount++;
+        postingCount++;
+    }
+
+    private void endKey() throws IOException {
+        if (!hasKey) return;
+        keys.writeLong(currentHash);
+        keys.writeLong(currentOffset);
+        keys.writeInt(currentCount);
+        keyCount++;
+    }
+
+    private void writeVarint(long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            postings.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+            postingsBytes++;
+        }
+        postings.write((int) value);
+        postingsBytes++;
+    }
+
+    // writes the key table and header and moves the file to its final name; returns the number of keys
+    long finish() throws IOException {
+        endKey();
+        hasKey = false;
+        postings.flush();
+        keys.close();
+
+        long keysOffset = HEADER_SIZE + postingsBytes;
+        channel.position(keysOffset);
+        try (FileChannel keyChannel = FileChannel.open(keysTmp, StandardOpenOption.READ)) {
+            long size = keyChannel.size();
+            long done = 0;
+            while (done < size) {
+                done += keyChannel.transferTo(done, size - done, channel);
+            }
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putLong(keyCount).putLong(postingCount).putLong(keysOffset);
+        header.flip();
+        channel.write(header, 0);
+        channel.force(true);
+        channel.close();
+
+        Files.deleteIfExists(keysTmp);
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return keyCount;
+    }
+
+    long getPostingCount() {
+        return postingCount;
+    }
+
+    // drops an unfinished segment
+    @Override
+    public void close() throws IOException {
+        if (channel.isOpen()) {
+            keys.close();
+            channel.close();
+            Files.deleteIfExists(tmp);
+            Files.deleteIfExists(keysTmp);
+        }
+    }
+}
@@ -0,0 +1,572 @@
+package core;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// proves or refutes "the side to move mates in n" with depth-first proof-number search (df-pn)
+// on a Board. every node has a proof number (how many leaves must still turn out mates for the
+// attacker to win) and a disproof number (how many must turn out escapes); the search always
+// expands the most-proving node, going deeper only while that node's numbers stay under
+// thresholds handed down from its parent, and stores numbers on the way back up. numbers are
+// kept as phi/delta, from the side to move's view: phi = pn at attacker nodes, dn at defender nodes.
+// the node store is a fixed-size open-addressing table (20 bytes a node, sized by a memory
+// budget) keyed by position and plies left; when it fills up, a garbage collection drops the
+// nodes whose subtrees took the least work, solved ones first, and rebuilds the table.
+// one MateSolver per thread; main() screens files of positions on several threads
+public class MateSolver {
+    public enum Outcome {
+        MATE,
+        NO_MATE,
+        // the node limit ran out first
+        UNKNOWN
+    }
+
+    public static class Result {
+        private final Outcome outcome;
+        private final int mateIn;
+        private final int[] line;
+        private final long nodes;
+
+        Result(Outcome outcome, int mateIn, int[] line, long nodes) {
+            this.outcome = outcome;
+            this.mateIn = mateIn;
+            this.line = line;
+            this.nodes = nodes;
+        }
+
+        public Outcome getOutcome() {
+            return outcome;
+        }
+
+        // moves of the side to move until mate; 0 unless MATE
+        public int getMateIn() {
+            return mateIn;
+        }
+
+        // a mating line, attacker and defender moves alternating (the defence is the one that
+        // held out longest in the search, not necessarily the best)
+        public int[] getLine() {
+            return line;
+        }
+
+        public long getNodes() {
+            return nodes;
+        }
+    }
+
+    // "FEN; mate n" (0 = none within CHECK_MATE_IN) for main --check
+    private static final String[] CHECKS = {
+        "7k/8/6K1/8/8/8/8/5Q2 w - - 0 1; 1",
+        "6k1/5ppp/8/8/8/8/5PPP/3R2K1 w - - 0 1; 1",
+        // black is stalemated, not mated
+        "7k/5Q2/6K1/8/8/8/8/8 b - - 0 1; 0",
+        "k7/8/1QK5/8/8/8/8/8 b - - 0 1; 0"
+    };
+    private static final int CHECK_MATE_IN = 3;
+
+    private static final int INF = Integer.MAX_VALUE / 4;
+    private static final int BYTES_PER_NODE = 20;
+    // a full table is collected down to this share of its capacity
+    private static final double FILL_LIMIT = 0.85;
+    // attacker moves that give check are tried first
+    private static final int QUIET_MOVE_PN = 2;
+
+    private final int mask;
+    private final long[] keys;
+    private final int[] phis;
+    private final int[] deltas;
+    private final int[] works;
+    private int size = 0;
+    private long collections = 0;
+    private long collected = 0;
+
+    private Board board;
+    // per plies left: moves, and the children's keys and first guesses
+    private int[][] moveBuffers = new int[0][];
+    private long[][] childKeys = new long[0][];
+    private int[][] childPhis = new int[0][];
+    private int[][] childDeltas = new int[0][];
+    private long nodes;
+    private long nodeLimit;
+    private boolean aborted;
+
+    // memoryBytes: the node store's budget (rounded down to a power-of-two node count)
+    public MateSolver(long memoryBytes) {
+        long capacity = Long.highestOneBit(Math.max(1024, memoryBytes / BYTES_PER_NODE));
+        int n = (int) Math.min(capacity, 1 << 30);
+        mask = n - 1;
+        keys = new long[n];
+        phis = new int[n];
+        deltas = new int[n];
+        works = new int[n];
+    }
+
+    // the store keeps what it learnt across solves, so positions from the same game get cheaper
+    public Result solve(Board board, int mateIn, long maxNodes) {
+        if (mateIn < 1) throw new IllegalArgumentException("mateIn must be at least 1: " + mateIn);
+        this.board = board;
+        int plies = 2 * mateIn - 1;
+        if (moveBuffers.length < plies + 1) {
+            moveBuffers = new int[plies + 1][Board.MAX_MOVES];
+            childKeys = new long[plies + 1][Board.MAX_MOVES];
+            childPhis = new int[plies + 1][Board.MAX_MOVES];
+            childDeltas = new int[plies + 1][Board.MAX_MOVES];
+        }
+        nodes = 0;
+        nodeLimit = maxNodes > 0 ? maxNodes : Long.MAX_VALUE;
+        aborted = false;
+        int[] root = {0, 0};
+        mid(plies, INF, INF);
+        lookup(key(plies), root);
+        if (root[0] == 0 && root[1] >= INF) {
+            // phi = pn = 0 at the root: proven
+            return new Result(Outcome.MATE, mateIn, line(plies), nodes);
+        }
+        if (root[1] == 0) return new Result(Outcome.NO_MATE, 0, new int[0], nodes);
+        return new Result(Outcome.UNKNOWN, 0, new int[0], nodes);
+    }
+
+    // the shortest mate up to maxMateIn, trying 1, 2, ... moves; UNKNOWN as soon as one depth
+    // runs out of nodes (maxNodes is for all depths together)
+    public Result solveShortest(Board board, int maxMateIn, long maxNodes) {
+        long spent = 0;
+        for (int n = 1; n <= maxMateIn; n++) {
+            Result r = solve(board, n, maxNodes > 0 ? Math.max(1, maxNodes - spent) : 0);
+            spent += r.getNodes();
+            if (r.getOutcome() != Outcome.NO_MATE) return new Result(r.getOutcome(), r.getMateIn(), r.getLine(), spent);
+        }
+        return new Result(Outcome.NO_MATE, 0, new int[0], spent);
+    }
+
+    // nodes the store holds now, and garbage collections so far (with the nodes they dropped)
+    public int getStoredNodes() {
+        return size;
+    }
+
+    public long getCollections() {
+        return collections;
+    }
+
+    public long getCollectedNodes() {
+        return collected;
+    }
+
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    // the side to move attacks when plies is odd; plies = moves left for both sides together
+    private void mid(int plies, int thPhi, int thDelta) {
+        if (++nodes >= nodeLimit) aborted = true;
+        if (aborted) return;
+        long key = key(plies);
+        long startNodes = nodes;
+        int[] moves = moveBuffers[plies];
+        int n = board.generateLegalMoves(moves);
+        boolean attacker = (plies & 1) == 1;
+        if (n == 0 || plies == 0) {
+            // phi = INF is a loss for the side to move: an attacker without moves has failed, mated
+            // or stalemated; a defender has lost only when mated, stalemate and running out of
+            // plies both hold
+            boolean lost = attacker || n == 0 && board.isInCheck();
+            store(key, lost ? INF : 0, lost ? 0 : INF, 1);
+            return;
+        }
+        long[] keys = childKeys[plies];
+        int[] firstPhis = childPhis[plies];
+        int[] firstDeltas = childDeltas[plies];
+        for (int i = 0; i < n; i++) {
+            board.makeMove(moves[i]);
+            keys[i] = key(plies - 1);
+            firstGuess(plies - 1, attacker, firstPhis, firstDeltas, i);
+            board.unmakeMove();
+        }
+        int[] child = new int[2];
+        while (true) {
+            int phi = INF;
+            int delta = 0;
+            int best = -1;
+            int bestPhi = 0;
+            int secondDelta = INF;
+            for (int i = 0; i < n; i++) {
+                // a child the collector dropped starts over from its first guess
+                if (!lookup(keys[i], child)) {
+                    child[0] = firstPhis[i];
+                    child[1] = firstDeltas[i];
+                }
+                if (child[1] < phi) {
+                    secondDelta = phi;
+                    phi = child[1];
+                    best = i;
+                    bestPhi = child[0];
+                } else if (child[1] < secondDelta) {
+                    secondDelta = child[1];
+                }
+                if (delta < INF) delta = child[0] >= INF ? INF : Math.min(INF - 1, delta + child[0]);
+            }
+            if (phi >= thPhi || delta >= thDelta || aborted) {
+                store(key, phi, delta, (int) Math.min(Integer.MAX_VALUE, work(key) + nodes - startNodes));
+                return;
+            }
+            int childThPhi = (int) Math.min(INF, (long) thDelta - delta + bestPhi);
+            int childThDelta = (int) Math.min(thPhi, secondDelta + 1L);
+            board.makeMove(moves[best]);
+            mid(plies - 1, childThPhi, childThDelta);
+            board.unmakeMove();
+        }
+    }
+
+    // {phi, delta} to start the position on the board (just moved into) from, when it is not stored
+    private void firstGuess(int plies, boolean parentAttacker, int[] phis, int[] deltas, int i) {
+        if (plies == 0) {
+            // a defender out of plies: only mate counts, and that is cheap to settle now
+            nodes++;
+            boolean mated = board.isInCheck() && !board.hasLegalMove();
+            phis[i] = mated ? INF : 0;
+            deltas[i] = mated ? 0 : INF;
+            return;
+        }
+        phis[i] = 1;
+        // the child's delta is the parent's phi contribution: pn after an attacker move
+        deltas[i] = parentAttacker && !board.isInCheck() ? QUIET_MOVE_PN : 1;
+    }
+
+    private long key(int plies) {
+        return board.getHash() ^ (plies + 1) * 0x9E3779B97F4A7C15L;
+    }
+
+    private int slot(long key) {
+        long h = key * 0xBF58476D1CE4E5B9L;
+        return (int) (h ^ h >>> 31) & mask;
+    }
+
+    private boolean lookup(long key, int[] out) {
+        for (int i = slot(key); ; i = (i + 1) & mask) {
+            if (works[i] == 0) return false;
+            if (keys[i] == key) {
+                out[0] = phis[i];
+                out[1] = deltas[i];
+                return true;
+            }
+        }
+    }
+
+    private int work(long key) {
+        for (int i = slot(key); ; i = (i + 1) & mask) {
+            if (works[i] == 0) return 0;
+            if (keys[i] == key) return works[i];
+        }
+    }
+
+    // work > 0 marks a slot in use
+    private void store(long key, int phi, int delta, int work) {
+        int i = slot(key);
+        for (; works[i] != 0; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                phis[i] = phi;
+                deltas[i] = delta;
+                works[i] = Math.max(1, work);
+                return;
+            }
+        }
+        if (size + 1 > FILL_LIMIT * (mask + 1)) {
+            collect();
+            i = slot(key);
+            while (works[i] != 0) i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        phis[i] = phi;
+        deltas[i] = delta;
+        works[i] = Math.max(1, work);
+        size++;
+    }
+
+    // drops about half the nodes: those whose subtrees took the least work, where a solved
+    // node's work counts a quarter (its result is final, but whatever hangs below it in the
+    // store is only needed again to print a line). survivors are reinserted in place
+    private void collect() {
+        int[] perLevel = new int[33];
+        for (int i = 0; i <= mask; i++) {
+            if (works[i] != 0) perLevel[level(i)]++;
+        }
+        int threshold = 0;
+        int dropping = perLevel[0];
+        while (dropping < size / 2 && threshold < 32) {
+            dropping += perLevel[++threshold];
+        }
+        List<long[]> survivors = new ArrayList<>(size - dropping + 16);
+        for (int i = 0; i <= mask; i++) {
+            if (works[i] == 0) continue;
+            if (level(i) > threshold) survivors.add(new long[] {keys[i], phis[i], deltas[i], works[i]});
+            works[i] = 0;
+        }
+        collections++;
+        collected += size - survivors.size();
+        size = 0;
+        for (long[] s : survivors) {
+            int i = slot(s[0]);
+            while (works[i] != 0) i = (i + 1) & mask;
+            keys[i] = s[0];
+            phis[i] = (int) s[1];
+            deltas[i] = (int) s[2];
+            works[i] = (int) s[3];
+            size++;
+        }
+    }
+
+    private int level(int i) {
+        boolean solved = phis[i] == 0 || deltas[i] == 0;
+        int work = solved ? Math.max(1, works[i] >>> 2) : works[i];
+        return 32 - Integer.numberOfLeadingZeros(work);
+    }
+
+    // follows proven nodes from the root: at attacker nodes a mating move, at defender nodes the
+    // defence that holds out longest. nodes the collector dropped are proven again
+    private int[] line(int plies) {
+        nodeLimit = Long.MAX_VALUE;
+        int[] result = new int[plies];
+        int length = 0;
+        for (int left = plies; left > 0; left--) {
+            int[] moves = new int[Board.MAX_MOVES];
+            int n = board.generateLegalMoves(moves);
+            boolean attacker = (left & 1) == 1;
+            int chosen = -1;
+            int longest = -1;
+            for (int i = 0; i < n && (chosen < 0 || !attacker); i++) {
+                board.makeMove(moves[i]);
+                if (attacker) {
+                    // the defender lost (phi = INF) within the plies left
+                    if (prove(left - 1)[0] >= INF) chosen = i;
+                } else {
+                    // the fewest plies the attacker still mates in (phi = 0) after this defence
+                    int mateIn = 1;
+                    while (mateIn < left - 1 && prove(mateIn)[0] != 0) mateIn += 2;
+                    if (mateIn > longest) {
+                        chosen = i;
+                        longest = mateIn;
+                    }
+                }
+                board.unmakeMove();
+            }
+            if (chosen < 0) break;
+            result[length++] = moves[chosen];
+            board.makeMove(moves[chosen]);
+        }
+        for (int i = 0; i < length; i++) {
+            board.unmakeMove();
+        }
+        return Arrays.copyOf(result, length);
+    }
+
+    // {phi, delta} of the position on the board with the given plies left, searched to the end
+    private int[] prove(int plies) {
+        int[] numbers = new int[2];
+        long key = key(plies);
+        if (!lookup(key, numbers) || numbers[0] != 0 && numbers[1] != 0) {
+            mid(plies, INF, INF);
+            lookup(key, numbers);
+        }
+        return numbers;
+    }
+
+    // usage: MateSolver (--fen positions.txt | --pgn games.pgn) [--mate n] [--nodes n] [--threads n]
+    //                   [--memory mb] [--out mates.txt]
+    //        MateSolver --check
+    // screens every position (one FEN per line, or every position of every game) for a mate of the
+    // side to move in at most n moves, and prints "FEN; mate n; line" for each one found.
+    // --check solves a few known positions (mates and stalemates) and exits with 1 on a wrong answer
+    public static void main(String[] args) throws Exception {
+        if (args.length == 1 && args[0].equals("--check")) {
+            if (!check()) System.exit(1);
+            return;
+        }
+        Path fens = null;
+        Path pgn = null;
+        int mateIn = 3;
+        long maxNodes = 20_000;
+        int threads = Runtime.getRuntime().availableProcessors();
+        long memory = 64L << 20;
+        Path outPath = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--fen") && i + 1 < args.length) fens = Paths.get(args[++i]);
+            else if (args[i].equals("--pgn") && i + 1 < args.length) pgn = Paths.get(args[++i]);
+            else if (args[i].equals("--mate") && i + 1 < args.length) mateIn = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--nodes") && i + 1 < args.length) maxNodes = Long.parseLong(args[++i]);
+            else if (args[i].equals("--threads") && i + 1 < args.length) threads = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--memory") && i + 1 < args.length) memory = Long.parseLong(args[++i]) << 20;
+            else if (args[i].equals("--out") && i + 1 < args.length) outPath = Paths.get(args[++i]);
+        }
+        if (fens == null && pgn == null || mateIn < 1 || threads < 1) {
+            System.err.println("usage: MateSolver (--fen positions.txt | --pgn games.pgn) [--mate n] [--nodes n] [--threads n] [--memory mb] [--out mates.txt]");
+            return;
+        }
+        PrintStream out = outPath != null ? new PrintStream(Files.newOutputStream(outPath), false, "UTF-8") : System.out;
+        Batch batch = new Batch(mateIn, maxNodes, threads, memory / threads, out);
+        batch.run(fens, pgn);
+        if (outPath != null) out.close();
+    }
+
+    private static boolean check() {
+        MateSolver solver = new MateSolver(16L << 20);
+        Board board = new Board();
+        boolean ok = true;
+        for (String check : CHECKS) {
+            String[] parts = check.split(";");
+            int expected = Integer.parseInt(parts[1].trim());
+            board.setFen(parts[0].trim());
+            Result exact = solver.solve(board, Math.max(1, expected), 0);
+            board.setFen(parts[0].trim());
+            Result shortest = solver.solveShortest(board, CHECK_MATE_IN, 0);
+            boolean right = (exact.getOutcome() == Outcome.MATE) == (expected > 0)
+                    && shortest.getMateIn() == expected
+                    && (expected == 0 || shortest.getLine().length == 2 * expected - 1);
+            System.out.println((right ? "ok   " : "FAIL ") + parts[0].trim() + "; expected " + expected
+                    + ", got " + exact.getOutcome() + " / " + shortest.getOutcome() + " " + shortest.getMateIn());
+            ok &= right;
+        }
+        return ok;
+    }
+
+    // one reader thread feeds FENs to worker threads through a bounded queue; each worker has its
+    // own Board and MateSolver (so its own share of the memory budget)
+    private static class Batch {
+        private static final String END = "";
+
+        private final int mateIn;
+        private final long maxNodes;
+        private final int threads;
+        private final long memoryPerThread;
+        private final PrintStream out;
+        private final BlockingQueue<String> queue = new ArrayBlockingQueue<>(4096);
+        private final AtomicLong positions = new AtomicLong();
+        private final AtomicLong unknown = new AtomicLong();
+        // positions a worker threw on, skipped
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong nodes = new AtomicLong();
+        private final AtomicLong collections = new AtomicLong();
+        // mates found by length
+        private final AtomicLongArray mates;
+
+        Batch(int mateIn, long maxNodes, int threads, long memoryPerThread, PrintStream out) {
+            this.mateIn = mateIn;
+            this.maxNodes = maxNodes;
+            this.threads = threads;
+            this.memoryPerThread = memoryPerThread;
+            this.out = out;
+            this.mates = new AtomicLongArray(mateIn + 1);
+        }
+
+        void run(Path fens, Path pgn) throws IOException, InterruptedException {
+            long start = System.nanoTime();
+            List<Thread> workers = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                Thread t = new Thread(this::work, "mate-" + (i + 1));
+                workers.add(t);
+                t.start();
+            }
+            try {
+                if (fens != null) readFens(fens);
+                else readPgn(pgn);
+            } finally {
+                for (int i = 0; i < threads; i++) {
+                    queue.put(END);
+                }
+                for (Thread t : workers) {
+                    t.join();
+                }
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            long found = 0;
+            StringBuilder byLength = new StringBuilder();
+            for (int n = 1; n <= mateIn; n++) {
+                found += mates.get(n);
+                byLength.append(n > 1 ? ", " : "").append("mate in ").append(n).append(": ").append(mates.get(n));
+            }
+            System.err.println(String.format("%d positions in %.1f s (%.0f/s), %d mates (%s), %d unknown, %d failed, %.0f nodes/s, %d collections",
+                    positions.get(), seconds, positions.get() / seconds, found, byLength, unknown.get(), failed.get(),
+                    nodes.get() / seconds, collections.get()));
+        }
+
+        private void readFens(Path path) throws IOException, InterruptedException {
+            try (BufferedReader in = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    line = line.trim();
+                    if (!line.isEmpty() && !line.startsWith("#")) queue.put(line);
+                }
+            }
+        }
+
+        // every position after a move, where the side that just moved has not already mated
+        private void readPgn(Path path) throws IOException, InterruptedException {
+            Board board = new Board();
+            try (PgnReader reader = new PgnReader(path)) {
+                PgnGame game;
+                while ((game = reader.next()) != null) {
+                    board.reset();
+                    for (String san : game.getSanMoves()) {
+                        int move = board.parseSan(san);
+                        if (move == 0) break;
+                        board.makeMove(move);
+                        if (board.hasLegalMove()) queue.put(board.toFen());
+                    }
+                }
+            }
+        }
+
+        private void work() {
+            MateSolver solver = new MateSolver(memoryPerThread);
+            Board board = new Board();
+            try {
+                String fen;
+                while ((fen = queue.take()) != END) {
+                    try {
+                        board.setFen(fen);
+                    } catch (RuntimeException e) {
+                        System.err.println("Bad FEN: " + fen);
+                        continue;
+                    }
+                    Result r;
+                    try {
+                        r = solver.solveShortest(board, mateIn, maxNodes);
+                    } catch (RuntimeException e) {
+                        // a dead worker would leave run() waiting on a full queue; the store may be
+                        // half updated, so the next position gets a fresh solver
+                        System.err.println("Failed on " + fen + ": " + e);
+                        failed.incrementAndGet();
+                        collections.addAndGet(solver.getCollections());
+                        solver = new MateSolver(memoryPerThread);
+                        continue;
+                    }
+                    positions.incrementAndGet();
+                    nodes.addAndGet(r.getNodes());
+                    if (r.getOutcome() == Outcome.UNKNOWN) unknown.incrementAndGet();
+                    if (r.getOutcome() != Outcome.MATE) continue;
+                    mates.incrementAndGet(r.getMateIn());
+                    StringBuilder line = new StringBuilder();
+                    for (int m : r.getLine()) {
+                        line.append(line.length() > 0 ? " " : "").append(Board.toUci(m));
+                    }
+                    synchronized (out) {
+                        out.println(fen + "; mate " + r.getMateIn() + "; " + line);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            collections.addAndGet(solver.getCollections());
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class Move {
+    private final int fromCol;
+    private final int fromRow;
+    private final int toCol;
+    private final int toRow;
+    private final Rank promotionRank;
+
+    public Move(int fromCol, int fromRow, int toCol, int toRow, Rank promotionRank) {
+        this.fromCol = fromCol;
+        this.fromRow = fromRow;
+        this.toCol = toCol;
+        this.toRow = toRow;
+        this.promotionRank = promotionRank;
+    }
+
+    // same "fromCol,fromRow,toCol,toRow[,RANK]" format the UI sends over the wire;
+    // anything after the first space (e.g. server clock state) is ignored
+    public static Move parse(String moveStr) {
+        int space = moveStr.indexOf(' ');
+        if (space >= 0) {
+            moveStr = moveStr.substring(0, space);
+        }
+        String[] parts = moveStr.split(",");
+        int fromCol = Integer.parseInt(parts[0]);
+        int fromRow = Integer.parseInt(parts[1]);
+        int toCol = Integer.parseInt(parts[2]);
+        int toRow = Integer.parseInt(parts[3]);
+        Rank promotionRank = parts.length > 4 ? Rank.valueOf(parts[4]) : null;
+        return new Move(fromCol, fromRow, toCol, toRow, promotionRank);
+    }
+
+    // the moves of a "SYNC <move> <move> ... [CLOCK w b]" line, which a server sends instead of
+    // a backlog the client fell behind on
+    public static List<Move> parseSync(String syncStr) {
+        List<Move> moves = new ArrayList<>();
+        String[] parts = syncStr.trim().split(" ");
+        for (int i = 1; i < parts.length && !parts[i].equals("CLOCK"); i++) {
+            moves.add(parse(parts[i]));
+        }
+        return moves;
+    }
+
+    public int getFromCol() {
+        return fromCol;
+    }
+
+    public int getFromRow() {
+        return fromRow;
+    }
+
+    public int getToCol() {
+        return toCol;
+    }
+
+    public int getToRow() {
+        return toRow;
+    }
+
+    public Rank getPromotionRank() {
+        return promotionRank;
+    }
+
+    @Override
+    public String toString() {
+        String msg = fromCol + "," + fromRow + "," + toCol + "," + toRow;
+        if (promotionRank != null) {
+            msg += "," + promotionRank.name();
+        }
+        return msg;
+    }
+}
@@ -0,0 +1,69 @@
+package core;
+
+import java.util.Random;
+
+// picks the move to play from the legal moves of a Board, for self-play. a chooser may keep state
+// tied to its board (e.g. a Search), so use one per board and thread
+public interface MoveChooser {
+    // moves[0..count) are legal in board's current position; count > 0
+    int choose(Board board, int[] moves, int count);
+
+    // "random", "greedy" (best capture or promotion by value, else random) or "engine[:depth[:nodes]]"
+    static MoveChooser create(String spec, Board board, Random random) {
+        String[] parts = spec.split(":");
+        switch (parts[0]) {
+            case "random":
+                return (b, moves, count) -> moves[random.nextInt(count)];
+            case "greedy":
+                return new Greedy(random);
+            case "engine": {
+                int depth = parts.length > 1 ? Integer.parseInt(parts[1]) : 2;
+                long nodes = parts.length > 2 ? Long.parseLong(parts[2]) : 0;
+                Search search = new Search(board);
+                return (b, moves, count) -> {
+                    int best = search.search(depth, 0, nodes).getMove();
+                    return best != 0 ? best : moves[random.nextInt(count)];
+                };
+            }
+            default:
+                throw new IllegalArgumentException("unknown chooser " + spec);
+        }
+    }
+
+    class Greedy implements MoveChooser {
+        private final Random random;
+
+        Greedy(Random random) {
+            this.random = random;
+        }
+
+        @Override
+        public int choose(Board board, int[] moves, int count) {
+            int best = -1;
+            int bestGain = 0;
+            int ties = 0;
+            for (int i = 0; i < count; i++) {
+                int gain = gain(board, moves[i]);
+                if (gain <= 0) continue;
+                if (gain > bestGain) {
+                    best = i;
+                    bestGain = gain;
+                    ties = 1;
+                } else if (gain == bestGain && random.nextInt(++ties) == 0) {
+                    // uniform among equal gains
+                    best = i;
+                }
+            }
+            return best >= 0 ? moves[best] : moves[random.nextInt(count)];
+        }
+
+        // most valuable victim first, cheapest attacker breaking ties; promotions count the new piece
+        private static int gain(Board board, int move) {
+            int victim = Board.flag(move) == Board.FLAG_EN_PASSANT ? Board.PAWN
+                    : board.pieceAt(Board.to(move)) != 0 ? Board.pieceType(board.pieceAt(Board.to(move))) : -1;
+            int gain = victim >= 0 ? Evaluator.VALUES[victim] * 16 - Evaluator.VALUES[Board.pieceType(board.pieceAt(Board.from(move)))] / 10 : 0;
+            if (Board.promotion(move) >= 0) gain += Evaluator.VALUES[Board.promotion(move)] * 16;
+            return gain;
+        }
+    }
+}
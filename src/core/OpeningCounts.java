@@ -0,0 +1,180 @@
+package core;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+// in-memory (position hash, move) -> white wins, draws, black wins: a thread's partial counts while
+// an opening tree is built, or the games an OpeningExplorer has not merged into its file yet.
+// open addressing over parallel arrays, probing from the slot of the hash alone, so the moves of a
+// position lie on one probe run and are found without a second index; nothing is ever removed
+class OpeningCounts {
+    private long[] hashes;
+    private int[] moves;
+    private int[] whites;
+    private int[] draws;
+    private int[] blacks;
+    private boolean[] used;
+    private int mask;
+    private int size = 0;
+
+    OpeningCounts(int capacity) {
+        allocate(Integer.highestOneBit(Math.max(16, capacity - 1)) * 2);
+    }
+
+    private void allocate(int capacity) {
+        hashes = new long[capacity];
+        moves = new int[capacity];
+        whites = new int[capacity];
+        draws = new int[capacity];
+        blacks = new int[capacity];
+        used = new boolean[capacity];
+        mask = capacity - 1;
+    }
+
+    int size() {
+        return size;
+    }
+
+    // probe runs get long past three quarters
+    boolean isFull() {
+        return size >= (mask + 1) / 4 * 3;
+    }
+
+    void add(long hash, int move, int white, int draw, int black) {
+        int i = slot(hash);
+        while (used[i] && (hashes[i] != hash || moves[i] != move)) i = (i + 1) & mask;
+        if (used[i]) {
+            whites[i] += white;
+            draws[i] += draw;
+            blacks[i] += black;
+            return;
+        }
+        used[i] = true;
+        hashes[i] = hash;
+        moves[i] = move;
+        whites[i] = white;
+        draws[i] = draw;
+        blacks[i] = black;
+        size++;
+    }
+
+    // twice the room, same entries
+    void grow() {
+        long[] oldHashes = hashes;
+        int[] oldMoves = moves;
+        int[] oldWhites = whites;
+        int[] oldDraws = draws;
+        int[] oldBlacks = blacks;
+        boolean[] oldUsed = used;
+        allocate((mask + 1) * 2);
+        size = 0;
+        for (int i = 0; i < oldUsed.length; i++) {
+            if (oldUsed[i]) add(oldHashes[i], oldMoves[i], oldWhites[i], oldDraws[i], oldBlacks[i]);
+        }
+    }
+
+    void addAll(OpeningCounts other) {
+        for (int i = 0; i <= other.mask; i++) {
+            if (!other.used[i]) continue;
+            add(other.hashes[i], other.moves[i], other.whites[i], other.draws[i], other.blacks[i]);
+            if (isFull()) grow();
+        }
+    }
+
+    void clear() {
+        Arrays.fill(used, false);
+        size = 0;
+    }
+
+    // calls back with {move, white, draws, black} of every move counted in the position
+    void forEach(long hash, Consumer<int[]> action) {
+        for (int i = slot(hash); used[i]; i = (i + 1) & mask) {
+            if (hashes[i] == hash) action.accept(new int[] {moves[i], whites[i], draws[i], blacks[i]});
+        }
+    }
+
+    private int slot(long hash) {
+        long h = hash * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 40) & mask;
+    }
+
+    // the entries in (hash, move) order; the table must not change while the cursor is used
+    OpeningTree.Cursor sortedCursor() {
+        int[] order = new int[size];
+        int n = 0;
+        for (int i = 0; i <= mask; i++) {
+            if (used[i]) order[n++] = i;
+        }
+        sort(order, 0, n - 1);
+        return new OpeningTree.Cursor() {
+            private int k = -1;
+
+            @Override
+            public boolean next() {
+                return ++k < order.length;
+            }
+
+            @Override
+            public long hash() {
+                return hashes[order[k]];
+            }
+
+            @Override
+            public int move() {
+                return moves[order[k]];
+            }
+
+            @Override
+            public int white() {
+                return whites[order[k]];
+            }
+
+            @Override
+            public int draws() {
+                return draws[order[k]];
+            }
+
+            @Override
+            public int black() {
+                return blacks[order[k]];
+            }
+        };
+    }
+
+    private int compare(int a, int b) {
+        int cmp = Long.compare(hashes[a], hashes[b]);
+        return cmp != 0 ? cmp : Integer.compare(moves[a], moves[b]);
+    }
+
+    private void sort(int[] order, int lo, int hi) {
+        while (hi - lo > 16) {
+            int pivot = order[(lo + hi) >>> 1];
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (compare(order[i], pivot) < 0) i++;
+                while (compare(order[j], pivot) > 0) j--;
+                if (i <= j) {
+                    int t = order[i];
+                    order[i++] = order[j];
+                    order[j--] = t;
+                }
+            }
+            // recurse into the smaller half so the stack stays shallow
+            if (j - lo < hi - i) {
+                sort(order, lo, j);
+                lo = i;
+            } else {
+                sort(order, i, hi);
+                hi = j;
+            }
+        }
+        for (int i = lo + 1; i <= hi; i++) {
+            for (int j = i; j > lo && compare(order[j], order[j - 1]) < 0; j--) {
+                int t = order[j];
+                order[j] = order[j - 1];
+                order[j - 1] = t;
+            }
+        }
+    }
+}
@@ -0,0 +1,370 @@
+package core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// for any position (by ChessModel.getPositionHash()), the moves played from it in archived games,
+// each with how many games white won, drew and black won after it. the directory holds one
+// memory-mapped OpeningTree (built by OpeningTreeBuilder); games finished since then are counted in
+// memory and merged into a new tree file in the background once there are enough of them, so
+// lookups never wait for a merge. only the first maxPly moves of each game are counted
+public class OpeningExplorer implements Closeable {
+    public static final int DEFAULT_MAX_PLY = 40;
+    private static final int DEFAULT_MERGE_THRESHOLD = 1 << 16;
+    private static final long START_HASH;
+
+    static {
+        ChessModel model = new ChessModel();
+        model.reset();
+        START_HASH = model.getPositionHash();
+    }
+
+    public static class MoveStats {
+        private final Move move;
+        private final long white;
+        private final long draws;
+        private final long black;
+
+        MoveStats(Move move, long white, long draws, long black) {
+            this.move = move;
+            this.white = white;
+            this.draws = draws;
+            this.black = black;
+        }
+
+        public Move getMove() {
+            return move;
+        }
+
+        public long getWhiteWins() {
+            return white;
+        }
+
+        public long getDraws() {
+            return draws;
+        }
+
+        public long getBlackWins() {
+            return black;
+        }
+
+        public long getGames() {
+            return white + draws + black;
+        }
+    }
+
+    private final Path dir;
+    private final int mergeThreshold;
+    private final int maxPly;
+
+    // all guarded by this: the tree on disk, the counts being merged into the next one (null when
+    // no merge runs), and the counts of games since
+    private OpeningTree tree;
+    private OpeningCounts merging;
+    private OpeningCounts pending;
+    private long games;
+    private int nextTreeId = 1;
+    private Thread merger;
+
+    public OpeningExplorer(Path dir) throws IOException {
+        this(dir, DEFAULT_MAX_PLY, DEFAULT_MERGE_THRESHOLD);
+    }
+
+    // maxPly only matters for a new directory; an existing tree keeps the depth it was built with
+    public OpeningExplorer(Path dir, int maxPly, int mergeThreshold) throws IOException {
+        this.dir = dir;
+        this.mergeThreshold = mergeThreshold;
+        Files.createDirectories(dir);
+
+        // the newest complete tree wins; older ones are leftovers of a merge or a crash
+        List<Path> trees = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "tree-*")) {
+            for (Path file : files) trees.add(file);
+        }
+        trees.sort(null);
+        for (Path file : trees) {
+            nextTreeId = Math.max(nextTreeId, treeId(file.getFileName().toString()) + 1);
+        }
+        for (int i = trees.size() - 1; i >= 0; i--) {
+            Path file = trees.get(i);
+            if (tree == null && file.getFileName().toString().endsWith(".bin")) {
+                tree = new OpeningTree(file);
+            } else {
+                deleteQuietly(file);
+            }
+        }
+        this.maxPly = tree != null ? tree.getMaxPly() : maxPly;
+        games = tree != null ? tree.getGames() : 0;
+        pending = new OpeningCounts(mergeThreshold * 2);
+    }
+
+    // hash of the position before each move of a validated game, and the move
+    static void count(PgnGame game, int maxPly, OpeningCounts counts) {
+        String result = game.getResult();
+        int white = result.equals("1-0") ? 1 : 0;
+        int draw = result.equals("1/2-1/2") ? 1 : 0;
+        int black = result.equals("0-1") ? 1 : 0;
+        if (white + draw + black == 0) return;
+        List<Move> moves = game.getMoves();
+        long[] hashes = game.getPositionHashes();
+        for (int i = 0; i < Math.min(maxPly, moves.size()); i++) {
+            counts.add(i == 0 ? START_HASH : hashes[i - 1], CompactGame.pack(moves.get(i)), white, draw, black);
+        }
+    }
+
+    // counts one finished game (validated, e.g. from GameArchive); gameNumber is its position in
+    // the archive, so a later catchUp() knows where to start
+    public synchronized void add(long gameNumber, PgnGame game) {
+        count(game, maxPly, pending);
+        if (pending.isFull()) pending.grow();
+        games = Math.max(games, gameNumber + 1);
+        if (pending.size() >= mergeThreshold && merger == null) startMerge();
+    }
+
+    // the moves played in the position, most played first
+    public List<MoveStats> lookup(long hash) {
+        OpeningTree snapshot;
+        Map<Integer, long[]> byMove = new HashMap<>();
+        synchronized (this) {
+            snapshot = tree;
+            if (merging != null) merging.forEach(hash, e -> addTo(byMove, e[0], e[1], e[2], e[3]));
+            pending.forEach(hash, e -> addTo(byMove, e[0], e[1], e[2], e[3]));
+        }
+        if (snapshot != null) {
+            long entry = snapshot.find(hash);
+            for (; entry >= 0 && entry < snapshot.getEntryCount() && snapshot.hashAt(entry) == hash; entry++) {
+                addTo(byMove, snapshot.moveAt(entry), snapshot.whiteAt(entry), snapshot.drawsAt(entry), snapshot.blackAt(entry));
+            }
+        }
+        List<MoveStats> result = new ArrayList<>(byMove.size());
+        for (Map.Entry<Integer, long[]> e : byMove.entrySet()) {
+            long[] c = e.getValue();
+            result.add(new MoveStats(CompactGame.unpack(e.getKey()), c[0], c[1], c[2]));
+        }
+        result.sort((a, b) -> Long.compare(b.getGames(), a.getGames()));
+        return result;
+    }
+
+    private static void addTo(Map<Integer, long[]> byMove, int move, long white, long draws, long black) {
+        long[] c = byMove.computeIfAbsent(move, m -> new long[3]);
+        c[0] += white;
+        c[1] += draws;
+        c[2] += black;
+    }
+
+    // archive games counted so far (in the tree or in memory)
+    public synchronized long getGames() {
+        return games;
+    }
+
+    public int getMaxPly() {
+        return maxPly;
+    }
+
+    // (hash, move) entries in the tree file
+    public synchronized long getTreeEntries() {
+        return tree != null ? tree.getEntryCount() : 0;
+    }
+
+    public synchronized int getPendingEntries() {
+        return pending.size() + (merging != null ? merging.size() : 0);
+    }
+
+    // counts the games of the archive that are not in the explorer yet, e.g. after a crash lost the
+    // in-memory counts. returns the number of games added
+    public long catchUp(Path pgn) throws IOException {
+        long from = getGames();
+        long added = 0;
+        ChessModel model = new ChessModel();
+        try (PgnReader reader = new PgnReader(pgn)) {
+            PgnGame game;
+            while ((game = reader.next()) != null) {
+                if (game.getNumber() < from) continue;
+                if (game.validate(model)) {
+                    add(game.getNumber(), game);
+                    added++;
+                } else {
+                    synchronized (this) {
+                        games = Math.max(games, game.getNumber() + 1);
+                    }
+                }
+            }
+        }
+        return added;
+    }
+
+    // merges whatever is in memory into a new tree file now, after any merge already running
+    public void flush() throws IOException {
+        OpeningCounts counts;
+        long upTo;
+        while (true) {
+            Thread running;
+            synchronized (this) {
+                running = merger;
+                if (running == null) {
+                    if (pending.size() == 0 && tree != null && tree.getGames() >= games) return;
+                    // adds meanwhile must not start a merge of their own
+                    merger = Thread.currentThread();
+                    counts = freeze();
+                    upTo = games;
+                    break;
+                }
+            }
+            join(running);
+        }
+        try {
+            merge(counts, upTo);
+        } catch (IOException e) {
+            unfreeze();
+            throw e;
+        } finally {
+            synchronized (this) {
+                merger = null;
+            }
+        }
+    }
+
+    // called with the lock held; lookups see the frozen counts until the new tree replaces them
+    private void startMerge() {
+        OpeningCounts counts = freeze();
+        long upTo = games;
+        merger = new Thread(() -> {
+            try {
+                merge(counts, upTo);
+            } catch (IOException e) {
+                System.err.println("Opening tree merge failed: " + e.getMessage());
+                unfreeze();
+            } finally {
+                synchronized (this) {
+                    merger = null;
+                }
+            }
+        }, "opening-merge");
+        merger.setDaemon(true);
+        merger.start();
+    }
+
+    private synchronized OpeningCounts freeze() {
+        merging = pending;
+        pending = new OpeningCounts(mergeThreshold * 2);
+        return merging;
+    }
+
+    // a failed merge: its counts go into the next one
+    private synchronized void unfreeze() {
+        merging.addAll(pending);
+        pending = merging;
+        merging = null;
+    }
+
+    // writes tree + counts as the next tree file and switches to it
+    private void merge(OpeningCounts counts, long upTo) throws IOException {
+        OpeningTree old;
+        Path path;
+        synchronized (this) {
+            old = tree;
+            path = dir.resolve(treeName(nextTreeId++));
+        }
+        try (OpeningTreeWriter writer = new OpeningTreeWriter(path)) {
+            List<OpeningTree.Cursor> inputs = new ArrayList<>();
+            if (old != null) inputs.add(old.cursor());
+            inputs.add(counts.sortedCursor());
+            OpeningTreeWriter.merge(inputs, writer);
+            writer.finish(upTo, maxPly);
+        }
+        OpeningTree merged = new OpeningTree(path);
+        synchronized (this) {
+            tree = merged;
+            merging = null;
+        }
+        // still mapped by in-flight lookups on some platforms; older files are removed on the next open
+        if (old != null) deleteQuietly(old.getPath());
+    }
+
+    // installs a tree built outside the explorer (see OpeningTreeBuilder)
+    synchronized Path newTreePath() {
+        return dir.resolve(treeName(nextTreeId++));
+    }
+
+    synchronized void install(Path path) throws IOException {
+        OpeningTree old = tree;
+        tree = new OpeningTree(path);
+        games = Math.max(games, tree.getGames());
+        if (old != null) deleteQuietly(old.getPath());
+    }
+
+    private static String treeName(int id) {
+        return String.format("tree-%06d.bin", id);
+    }
+
+    private static int treeId(String name) {
+        try {
+            return Integer.parseInt(name.substring(5, 11));
+        } catch (RuntimeException e) {
+            return 0;
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            // left for the next open
+        }
+    }
+
+    private static void join(Thread thread) {
+        if (thread == null) return;
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+
+    // usage: OpeningExplorer <dir> [SAN moves...]   e.g. OpeningExplorer openings e4 e5 Nf3
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: OpeningExplorer <dir> [SAN moves...]");
+            return;
+        }
+        ChessModel model = new ChessModel();
+        model.reset();
+        for (int i = 1; i < args.length; i++) {
+            Move move = San.toMove(model, args[i]);
+            if (move == null) {
+                System.err.println("Illegal move: " + args[i]);
+                return;
+            }
+            model.movePiece(move);
+        }
+
+        OpeningExplorer explorer = new OpeningExplorer(Paths.get(args[0]));
+        long start = System.nanoTime();
+        List<MoveStats> moves = explorer.lookup(model.getPositionHash());
+        double micros = (System.nanoTime() - start) / 1e3;
+        long total = 0;
+        for (MoveStats m : moves) total += m.getGames();
+        System.out.println(String.format("%d games, %d moves (%d games counted to ply %d, %d entries, %.0fus)",
+                total, moves.size(), explorer.getGames(), explorer.getMaxPly(), explorer.getTreeEntries(), micros));
+        for (MoveStats m : moves) {
+            double n = Math.max(1, m.getGames());
+            System.out.println(String.format("  %-7s %8d  white %5.1f%%  draw %5.1f%%  black %5.1f%%",
+                    San.toSan(model, m.getMove()), m.getGames(), m.getWhiteWins() * 100 / n,
+                    m.getDraws() * 100 / n, m.getBlackWins() * 100 / n));
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// read-only view of a move tree written by OpeningTreeWriter: fixed-size entries (position hash,
+// move, white wins, draws, black wins) sorted by hash then move, so the moves of a position are
+// adjacent and found by binary search. the file is memory-mapped in 1GB chunks
+class OpeningTree {
+    private static final int CHUNK_BITS = 30;
+    private static final long ENTRIES_PER_CHUNK = (1L << CHUNK_BITS) / OpeningTreeWriter.ENTRY_SIZE;
+
+    // entries in ascending (hash, move) order, for merging trees
+    interface Cursor {
+        boolean next() throws IOException;
+
+        long hash();
+
+        int move();
+
+        int white();
+
+        int draws();
+
+        int black();
+    }
+
+    private final Path path;
+    private final long entryCount;
+    private final long games;
+    private final int maxPly;
+    private final MappedByteBuffer[] chunks;
+
+    OpeningTree(Path path) throws IOException {
+        this.path = path;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < OpeningTreeWriter.HEADER_SIZE) throw new IOException("truncated move tree " + path);
+            ByteBuffer header = ByteBuffer.allocate(OpeningTreeWriter.HEADER_SIZE);
+            channel.read(header, 0);
+            header.flip();
+            if (header.getInt() != OpeningTreeWriter.MAGIC) throw new IOException("not a move tree: " + path);
+            int version = header.getInt();
+            if (version != OpeningTreeWriter.VERSION) throw new IOException("unsupported move tree version " + version);
+            entryCount = header.getLong();
+            games = header.getLong();
+            maxPly = header.getInt();
+            if (OpeningTreeWriter.HEADER_SIZE + entryCount * OpeningTreeWriter.ENTRY_SIZE > channel.size()) {
+                throw new IOException("truncated move tree " + path);
+            }
+            chunks = new MappedByteBuffer[(int) ((entryCount + ENTRIES_PER_CHUNK - 1) / ENTRIES_PER_CHUNK)];
+            for (int i = 0; i < chunks.length; i++) {
+                long first = i * ENTRIES_PER_CHUNK;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+                        OpeningTreeWriter.HEADER_SIZE + first * OpeningTreeWriter.ENTRY_SIZE,
+                        Math.min(ENTRIES_PER_CHUNK, entryCount - first) * OpeningTreeWriter.ENTRY_SIZE);
+            }
+        }
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    long getEntryCount() {
+        return entryCount;
+    }
+
+    // games 0 .. games - 1 of the archive are counted (unfinished ones are skipped)
+    long getGames() {
+        return games;
+    }
+
+    // moves are counted up to this ply of each game
+    int getMaxPly() {
+        return maxPly;
+    }
+
+    // first entry of the position, or -1 if it is not in the tree
+    long find(long hash) {
+        long lo = 0;
+        long hi = entryCount;
+        while (lo < hi) {
+            long mid = (lo + hi) >>> 1;
+            if (Long.compare(hashAt(mid), hash) < 0) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo < entryCount && hashAt(lo) == hash ? lo : -1;
+    }
+
+    long hashAt(long entry) {
+        return chunk(entry).getLong(offset(entry));
+    }
+
+    int moveAt(long entry) {
+        return chunk(entry).getInt(offset(entry) + 8);
+    }
+
+    int whiteAt(long entry) {
+        return chunk(entry).getInt(offset(entry) + 12);
+    }
+
+    int drawsAt(long entry) {
+        return chunk(entry).getInt(offset(entry) + 16);
+    }
+
+    int blackAt(long entry) {
+        return chunk(entry).getInt(offset(entry) + 20);
+    }
+
+    private MappedByteBuffer chunk(long entry) {
+        return chunks[(int) (entry / ENTRIES_PER_CHUNK)];
+    }
+
+    private static int offset(long entry) {
+        return (int) (entry % ENTRIES_PER_CHUNK) * OpeningTreeWriter.ENTRY_SIZE;
+    }
+
+    Cursor cursor() {
+        return new Cursor() {
+            private long entry = -1;
+
+            @Override
+            public boolean next() {
+                return ++entry < entryCount;
+            }
+
+            @Override
+            public long hash() {
+                return hashAt(entry);
+            }
+
+            @Override
+            public int move() {
+                return moveAt(entry);
+            }
+
+            @Override
+            public int white() {
+                return whiteAt(entry);
+            }
+
+            @Override
+            public int draws() {
+                return drawsAt(entry);
+            }
+
+            @Override
+            public int black() {
+                return blackAt(entry);
+            }
+        };
+    }
+}
@@ -0,0 +1,144 @@
+package core;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// builds the move tree of an OpeningExplorer from a PGN archive as a map-reduce: PgnImporter replays
+// the games through ChessModel in parallel, each worker adds them up in its own OpeningCounts (the
+// same openings come up in game after game, so a table stays far smaller than the games) and
+// spills it as a sorted run when full; at the end the runs and the workers' last tables are merged
+// into one tree, adding up the counts of equal (position, move) keys. memory is threads * run size
+public class OpeningTreeBuilder {
+    private static final int DEFAULT_RUN_SIZE = 1 << 20;
+
+    private final int threads;
+    private final int runSize;
+    private final int maxPly;
+    private final AtomicInteger runCount = new AtomicInteger();
+    private final ConcurrentLinkedQueue<OpeningCounts> tables = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Path> runs = new ConcurrentLinkedQueue<>();
+    private Path tmpDir;
+    private ThreadLocal<OpeningCounts> localTable;
+
+    public OpeningTreeBuilder(int threads, int maxPly) {
+        this(threads, maxPly, DEFAULT_RUN_SIZE);
+    }
+
+    public OpeningTreeBuilder(int threads, int maxPly, int runSize) {
+        this.threads = threads;
+        this.maxPly = maxPly;
+        this.runSize = runSize;
+    }
+
+    // counts every valid game of the archive into a new tree for the explorer; returns its entries.
+    // if a spill fails, its exception is thrown and the explorer keeps the tree it had
+    public long build(Path pgn, OpeningExplorer explorer, PgnImporter importer) throws IOException, InterruptedException {
+        tmpDir = Files.createTempDirectory(pgn.toAbsolutePath().getParent(), "opening-runs");
+        localTable = ThreadLocal.withInitial(() -> {
+            OpeningCounts table = new OpeningCounts(runSize * 4 / 3 + 1);
+            tables.add(table);
+            return table;
+        });
+        try {
+            importer.importFile(pgn, game -> {
+                try {
+                    OpeningCounts table = localTable.get();
+                    // a game adds at most maxPly entries; spill before they can overfill the table
+                    if (table.size() + maxPly >= runSize) spill(table);
+                    OpeningExplorer.count(game, maxPly, table);
+                } catch (IOException e) {
+                    // rethrown by importFile, before anything is written or installed
+                    throw new UncheckedIOException(e);
+                }
+            }, null);
+
+            Path path = explorer.newTreePath();
+            long entries;
+            List<OpeningTree> runTrees = new ArrayList<>();
+            try (OpeningTreeWriter writer = new OpeningTreeWriter(path)) {
+                List<OpeningTree.Cursor> inputs = new ArrayList<>();
+                for (Path run : runs) {
+                    OpeningTree tree = new OpeningTree(run);
+                    runTrees.add(tree);
+                    inputs.add(tree.cursor());
+                }
+                for (OpeningCounts table : tables) {
+                    if (table.size() > 0) inputs.add(table.sortedCursor());
+                }
+                OpeningTreeWriter.merge(inputs, writer);
+                entries = writer.finish(importer.getValidGames() + importer.getInvalidGames(), maxPly);
+            }
+            explorer.install(path);
+            return entries;
+        } finally {
+            deleteRuns();
+        }
+    }
+
+    // every file in the run directory, including one a failed spill left half written
+    private void deleteRuns() throws IOException {
+        if (!Files.isDirectory(tmpDir)) return;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(tmpDir)) {
+            for (Path file : files) Files.deleteIfExists(file);
+        }
+        Files.deleteIfExists(tmpDir);
+    }
+
+    public int getRunCount() {
+        return runCount.get();
+    }
+
+    // a run is a small tree of its own
+    private void spill(OpeningCounts table) throws IOException {
+        Path run = tmpDir.resolve("run-" + runCount.incrementAndGet());
+        try (OpeningTreeWriter writer = new OpeningTreeWriter(run)) {
+            List<OpeningTree.Cursor> inputs = new ArrayList<>();
+            inputs.add(table.sortedCursor());
+            OpeningTreeWriter.merge(inputs, writer);
+            writer.finish(0, maxPly);
+        }
+        runs.add(run);
+        table.clear();
+    }
+
+    // usage: OpeningTreeBuilder <archive.pgn> <dir> [--threads n] [--max-ply n] [--run-size n]
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: OpeningTreeBuilder <archive.pgn> <dir> [--threads n] [--max-ply n] [--run-size n]");
+            return;
+        }
+        Path pgn = Paths.get(args[0]);
+        Path dir = Paths.get(args[1]);
+        int threads = Runtime.getRuntime().availableProcessors();
+        int maxPly = OpeningExplorer.DEFAULT_MAX_PLY;
+        int runSize = DEFAULT_RUN_SIZE;
+        for (int i = 2; i + 1 < args.length; i += 2) {
+            if (args[i].equals("--threads")) threads = Integer.parseInt(args[i + 1]);
+            else if (args[i].equals("--max-ply")) maxPly = Integer.parseInt(args[i + 1]);
+            else if (args[i].equals("--run-size")) runSize = Integer.parseInt(args[i + 1]);
+        }
+
+        try (OpeningExplorer explorer = new OpeningExplorer(dir, maxPly, 1 << 16)) {
+            if (explorer.getGames() > 0) {
+                System.err.println("Opening tree " + dir + " already exists; delete it to rebuild");
+                return;
+            }
+            PgnImporter importer = new PgnImporter(threads);
+            OpeningTreeBuilder builder = new OpeningTreeBuilder(threads, maxPly, runSize);
+            long start = System.nanoTime();
+            long entries = builder.build(pgn, explorer, importer);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.println(String.format("%d games (%d invalid), %d plies in %.1fs: %.0f games/s, %d entries, %d runs, %d threads",
+                    importer.getValidGames() + importer.getInvalidGames(), importer.getInvalidGames(), importer.getPlies(),
+                    seconds, importer.getValidGames() / seconds, entries, builder.getRunCount(), threads));
+        }
+    }
+}
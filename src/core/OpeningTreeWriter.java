@@ -0,0 +1,119 @@
+package core;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.PriorityQueue;
+
+// writes one immutable OpeningTree from entries that arrive sorted by (hash, move); entries with
+// the same key are added up, so partial counts can simply be merged into it.
+// layout: header | entries (hash, move, white, draws, black). the file appears under its final
+// name only after finish()
+class OpeningTreeWriter implements Closeable {
+    static final int MAGIC = 0x43504F54; // "CPOT"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    static final int ENTRY_SIZE = 24;
+
+    private final Path target;
+    private final Path tmp;
+    private final FileChannel channel;
+    private final DataOutputStream out;
+    private long entryCount = 0;
+
+    private boolean hasEntry = false;
+    private long hash;
+    private int move;
+    private long white;
+    private long draws;
+    private long black;
+
+    OpeningTreeWriter(Path target) throws IOException {
+        this.target = target;
+        this.tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        channel.position(HEADER_SIZE);
+        out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+    }
+
+    void add(long hash, int move, long white, long draws, long black) throws IOException {
+        if (hasEntry && hash == this.hash && move == this.move) {
+            this.white += white;
+            this.draws += draws;
+            this.black += black;
+            return;
+        }
+        if (hasEntry) {
+            int cmp = Long.compare(hash, this.hash);
+            if (cmp < 0 || cmp == 0 && move < this.move) throw new IllegalStateException("entries out of order");
+            endEntry();
+        }
+        hasEntry = true;
+        this.hash = hash;
+        this.move = move;
+        this.white = white;
+        this.draws = draws;
+        this.black = black;
+    }
+
+    private void endEntry() throws IOException {
+        out.writeLong(hash);
+        out.writeInt(move);
+        out.writeInt((int) Math.min(Integer.MAX_VALUE, white));
+        out.writeInt((int) Math.min(Integer.MAX_VALUE, draws));
+        out.writeInt((int) Math.min(Integer.MAX_VALUE, black));
+        entryCount++;
+    }
+
+    // games: archive games covered (see OpeningTree.getGames()); returns the number of entries
+    long finish(long games, int maxPly) throws IOException {
+        if (hasEntry) endEntry();
+        hasEntry = false;
+        out.flush();
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putLong(entryCount).putLong(games).putInt(maxPly);
+        header.clear();
+        channel.write(header, 0);
+        channel.force(true);
+        channel.close();
+
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return entryCount;
+    }
+
+    // k-way merge of sorted trees or runs; the writer adds up what meets
+    static void merge(List<OpeningTree.Cursor> inputs, OpeningTreeWriter out) throws IOException {
+        PriorityQueue<OpeningTree.Cursor> queue = new PriorityQueue<>(Math.max(1, inputs.size()), (a, b) -> {
+            int cmp = Long.compare(a.hash(), b.hash());
+            return cmp != 0 ? cmp : Integer.compare(a.move(), b.move());
+        });
+        for (OpeningTree.Cursor cursor : inputs) {
+            if (cursor.next()) queue.add(cursor);
+        }
+        while (!queue.isEmpty()) {
+            OpeningTree.Cursor cursor = queue.poll();
+            out.add(cursor.hash(), cursor.move(), cursor.white(), cursor.draws(), cursor.black());
+            if (cursor.next()) queue.add(cursor);
+        }
+    }
+
+    // drops an unfinished tree
+    @Override
+    public void close() throws IOException {
+        if (channel.isOpen()) {
+            out.close();
+            Files.deleteIfExists(tmp);
+        }
+    }
+}
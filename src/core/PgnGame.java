@@ -0,0 +1,166 @@
+package core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class PgnGame {
+    private final Map<String, String> tags = new LinkedHashMap<>();
+    private final List<String> sanMoves = new ArrayList<>();
+    private String result = "*";
+    private long number = -1;
+
+    // filled in by validate()
+    private List<Move> moves;
+    private long[] positionHashes;
+
+    // optional per-move annotations, by move index; written out by PgnWriter
+    private int[] nags;
+    private String[] comments;
+    private ChessModel.MoveResult finalResult;
+    private String error;
+
+    public Map<String, String> getTags() {
+        return tags;
+    }
+
+    public String getTag(String name) {
+        return tags.get(name);
+    }
+
+    public void setTag(String name, String value) {
+        tags.put(name, value);
+    }
+
+    public List<String> getSanMoves() {
+        return sanMoves;
+    }
+
+    public String getResult() {
+        return result;
+    }
+
+    public void setResult(String result) {
+        this.result = result;
+        tags.put("Result", result);
+    }
+
+    // 0-based position of the game in the file it was read from, -1 if not read from a file
+    public long getNumber() {
+        return number;
+    }
+
+    public void setNumber(long number) {
+        this.number = number;
+    }
+
+    public List<Move> getMoves() {
+        return moves != null ? moves : Collections.emptyList();
+    }
+
+    // ChessModel.getPositionHash() after each move: index 0 is the position after ply 1
+    public long[] getPositionHashes() {
+        return positionHashes != null ? positionHashes : new long[0];
+    }
+
+    // MoveResult of the last move, null if not validated or no moves
+    public ChessModel.MoveResult getFinalResult() {
+        return finalResult;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    // attaches a NAG (e.g. 2 = "?", 4 = "??", 0 = none) and/or a comment to the move at index
+    public void annotate(int index, int nag, String comment) {
+        if (nags == null) {
+            nags = new int[sanMoves.size()];
+            comments = new String[sanMoves.size()];
+        }
+        nags[index] = nag;
+        comments[index] = comment;
+    }
+
+    public int getNag(int index) {
+        return nags != null && index < nags.length ? nags[index] : 0;
+    }
+
+    public String getComment(int index) {
+        return comments != null && index < comments.length ? comments[index] : null;
+    }
+
+    // replays the SAN moves through a ChessModel; on failure getError() says which move was rejected
+    public boolean validate() {
+        return validate(new ChessModel());
+    }
+
+    // reuses the caller's model (e.g. one per worker thread); it is reset first
+    public boolean validate(ChessModel model) {
+        if (tags.containsKey("FEN") && !"0".equals(tags.get("SetUp"))) {
+            error = "games from a FEN start position are not supported";
+            return false;
+        }
+        model.reset();
+        moves = new ArrayList<>(sanMoves.size());
+        positionHashes = new long[sanMoves.size()];
+        finalResult = null;
+        error = null;
+        for (int i = 0; i < sanMoves.size(); i++) {
+            String san = sanMoves.get(i);
+            Move move = San.toMove(model, san);
+            if (move == null) {
+                error = "illegal or ambiguous move " + (i / 2 + 1) + (i % 2 == 0 ? ". " : "... ") + san;
+                return false;
+            }
+            finalResult = model.movePiece(move);
+            moves.add(move);
+            positionHashes[i] = model.getPositionHash();
+            if (finalResult.isGameOver() && i + 1 < sanMoves.size()) {
+                error = "moves after the game ended at " + (i / 2 + 1) + (i % 2 == 0 ? ". " : "... ") + san;
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // builds a game from played moves (e.g. a finished server game), filling SAN and the result
+    public static PgnGame fromMoves(List<Move> moves, Map<String, String> tags) {
+        PgnGame game = new PgnGame();
+        game.tags.putAll(tags);
+        ChessModel model = new ChessModel();
+        model.reset();
+        game.moves = new ArrayList<>(moves.size());
+        long[] hashes = new long[moves.size()];
+        for (Move move : moves) {
+            String san = San.toSan(model, move);
+            ChessModel.MoveResult result = san != null ? model.movePiece(move) : ChessModel.MoveResult.INVALID_MOVE;
+            if (result == ChessModel.MoveResult.INVALID_MOVE || result == ChessModel.MoveResult.STILL_IN_CHECK) {
+                game.error = "illegal move " + move;
+                break;
+            }
+            game.sanMoves.add(san + San.suffix(model, result));
+            hashes[game.moves.size()] = model.getPositionHash();
+            game.moves.add(move);
+            game.finalResult = result;
+            if (result.isGameOver()) break;
+        }
+        game.positionHashes = Arrays.copyOf(hashes, game.moves.size());
+
+        String result = tags.get("Result");
+        if (result == null) {
+            result = "*";
+            if (game.finalResult == ChessModel.MoveResult.CHECKMATE) {
+                // the side now to move is the one that got mated
+                result = model.getPlayerInTurn() == Player.WHITE ? "0-1" : "1-0";
+            } else if (game.finalResult != null && game.finalResult.isGameOver()) {
+                result = "1/2-1/2";
+            }
+        }
+        game.setResult(result);
+        return game;
+    }
+}
@@ -0,0 +1,169 @@
+package core;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+// reads a PGN file on one thread and validates games on a fork-join pool.
+// at most a few batches are in flight, so memory stays flat for any archive size
+public class PgnImporter {
+    private static final int BATCH_SIZE = 512;
+    private static final int SPLIT_THRESHOLD = 32;
+
+    private final int threads;
+    private final AtomicLong validGames = new AtomicLong();
+    private final AtomicLong invalidGames = new AtomicLong();
+    private final AtomicLong plies = new AtomicLong();
+    private final ThreadLocal<ChessModel> models = ThreadLocal.withInitial(ChessModel::new);
+
+    public PgnImporter(int threads) {
+        this.threads = threads;
+    }
+
+    // onValid/onInvalid are called from worker threads, in no particular order. the first exception
+    // one of them throws stops reading; it is rethrown here once the batches in flight are done
+    // (an UncheckedIOException as its IOException)
+    public void importFile(Path path, Consumer<PgnGame> onValid, Consumer<PgnGame> onInvalid)
+            throws IOException, InterruptedException {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        int maxInFlight = threads * 2;
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        try (PgnReader reader = new PgnReader(path)) {
+            while (failure.get() == null) {
+                List<PgnGame> batch = new ArrayList<>(BATCH_SIZE);
+                PgnGame game;
+                while (batch.size() < BATCH_SIZE && (game = reader.next()) != null) {
+                    batch.add(game);
+                }
+                if (batch.isEmpty()) break;
+
+                inFlight.acquire();
+                pool.execute(new ValidateTask(batch, 0, batch.size(), onValid, onInvalid, inFlight, failure));
+            }
+        } finally {
+            inFlight.acquire(maxInFlight);
+            pool.shutdown();
+        }
+        Throwable t = failure.get();
+        if (t instanceof UncheckedIOException) throw ((UncheckedIOException) t).getCause();
+        if (t instanceof RuntimeException) throw (RuntimeException) t;
+        if (t instanceof Error) throw (Error) t;
+        if (t != null) throw new RuntimeException(t);
+    }
+
+    private class ValidateTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<PgnGame> games;
+        private final int from;
+        private final int to;
+        private final Consumer<PgnGame> onValid;
+        private final Consumer<PgnGame> onInvalid;
+        private final Semaphore inFlight;
+        // set on root tasks only: where the first failure of the import goes
+        private final AtomicReference<Throwable> failure;
+
+        ValidateTask(List<PgnGame> games, int from, int to, Consumer<PgnGame> onValid,
+                     Consumer<PgnGame> onInvalid, Semaphore inFlight, AtomicReference<Throwable> failure) {
+            this.games = games;
+            this.from = from;
+            this.to = to;
+            this.onValid = onValid;
+            this.onInvalid = onInvalid;
+            this.inFlight = inFlight;
+            this.failure = failure;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                if (to - from <= SPLIT_THRESHOLD) {
+                    ChessModel model = models.get();
+                    for (int i = from; i < to; i++) {
+                        PgnGame game = games.get(i);
+                        if (game.validate(model)) {
+                            validGames.incrementAndGet();
+                            plies.addAndGet(game.getMoves().size());
+                            if (onValid != null) onValid.accept(game);
+                        } else {
+                            invalidGames.incrementAndGet();
+                            if (onInvalid != null) onInvalid.accept(game);
+                        }
+                    }
+                    return;
+                }
+                int mid = (from + to) >>> 1;
+                invokeAll(new ValidateTask(games, from, mid, onValid, onInvalid, inFlight, null),
+                          new ValidateTask(games, mid, to, onValid, onInvalid, inFlight, null));
+            } catch (RuntimeException | Error e) {
+                // nobody joins a root task, so its exception would be lost
+                if (failure == null) throw e;
+                failure.compareAndSet(null, e);
+            } finally {
+                if (failure != null) inFlight.release();
+            }
+        }
+    }
+
+    public long getValidGames() {
+        return validGames.get();
+    }
+
+    public long getInvalidGames() {
+        return invalidGames.get();
+    }
+
+    public long getPlies() {
+        return plies.get();
+    }
+
+    // usage: PgnImporter <file.pgn> [--threads n] [--export out.pgn]
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: PgnImporter <file.pgn> [--threads n] [--export out.pgn]");
+            return;
+        }
+        Path input = Paths.get(args[0]);
+        int threads = Runtime.getRuntime().availableProcessors();
+        Path export = null;
+        for (int i = 1; i + 1 < args.length; i += 2) {
+            if (args[i].equals("--threads")) threads = Integer.parseInt(args[i + 1]);
+            else if (args[i].equals("--export")) export = Paths.get(args[i + 1]);
+        }
+
+        PgnImporter importer = new PgnImporter(threads);
+        AtomicLong errorsShown = new AtomicLong();
+        long start = System.nanoTime();
+
+        try (PgnWriter writer = export != null ? PgnWriter.open(export, false) : null) {
+            importer.importFile(input, game -> {
+                if (writer == null) return;
+                try {
+                    writer.write(game);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, game -> {
+                if (errorsShown.incrementAndGet() <= 10) {
+                    System.err.println("Invalid game (" + game.getTag("White") + " - " + game.getTag("Black") + "): " + game.getError());
+                }
+            });
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long games = importer.getValidGames() + importer.getInvalidGames();
+        System.out.println(String.format("%d games (%d valid, %d invalid), %d plies in %.1fs: %.0f games/min, %.0f plies/s, %d threads",
+                games, importer.getValidGames(), importer.getInvalidGames(), importer.getPlies(), seconds,
+                games / seconds * 60, importer.getPlies() / seconds, threads));
+    }
+}
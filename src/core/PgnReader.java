@@ -0,0 +1,208 @@
+package core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// streams games out of a PGN file through a sliding memory-mapped window, so archives
+// of any size are read without pulling them onto the heap. not thread safe
+public class PgnReader implements Closeable {
+    private static final long WINDOW_SIZE = 64L << 20;
+
+    private final FileChannel channel;
+    private final long fileSize;
+    private MappedByteBuffer window;
+    private long windowStart = 0;
+    private long windowSize = WINDOW_SIZE;
+    private int pos = 0;
+    private long gamesRead = 0;
+
+    public PgnReader(Path path) throws IOException {
+        this(path, 0, 0);
+    }
+
+    // starts at a game boundary saved from getPosition(), e.g. to resume a batch job;
+    // firstGameNumber is the number that game gets
+    public PgnReader(Path path, long offset, long firstGameNumber) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        fileSize = channel.size();
+        gamesRead = firstGameNumber;
+        map(Math.min(offset, fileSize));
+    }
+
+    // next game in the file, or null at the end; only split into tags and SAN tokens, not validated
+    public PgnGame next() throws IOException {
+        while (true) {
+            skipBlank();
+            if (windowStart + pos >= fileSize) return null;
+
+            int end = findGameEnd(pos);
+            if (end < 0) {
+                // the game runs past the window: slide the window to start at this game and retry
+                long gameOffset = windowStart + pos;
+                if (gameOffset == windowStart) windowSize *= 2;
+                map(gameOffset);
+                continue;
+            }
+
+            byte[] bytes = new byte[end - pos];
+            window.position(pos);
+            window.get(bytes);
+            pos = end;
+            PgnGame game = parse(new String(bytes, StandardCharsets.UTF_8));
+            game.setNumber(gamesRead++);
+            return game;
+        }
+    }
+
+    public long getGamesRead() {
+        return gamesRead;
+    }
+
+    // byte offset of the next unread game, for progress reporting and resuming
+    public long getPosition() {
+        return windowStart + pos;
+    }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    private void map(long offset) throws IOException {
+        windowStart = offset;
+        long size = Math.min(windowSize, fileSize - offset);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+        pos = 0;
+    }
+
+    private void skipBlank() throws IOException {
+        while (true) {
+            int limit = window.limit();
+            while (pos < limit && isSpace(window.get(pos))) pos++;
+            if (pos < limit || windowStart + limit >= fileSize) return;
+            map(windowStart + pos);
+        }
+    }
+
+    // a game ends where the next tag section begins (a '[' line after movetext), or at end of file.
+    // returns -1 if the end is not inside the current window
+    private int findGameEnd(int from) {
+        int limit = window.limit();
+        boolean inMoves = false;
+        int commentDepth = 0;
+        int i = from;
+        while (i < limit) {
+            int lineStart = i;
+            byte first = window.get(i);
+            if (commentDepth == 0 && inMoves && first == '[') {
+                return lineStart;
+            }
+            while (i < limit && window.get(i) != '\n') {
+                byte b = window.get(i);
+                if (b == '{') commentDepth++;
+                else if (b == '}' && commentDepth > 0) commentDepth--;
+                i++;
+            }
+            if (i >= limit) {
+                return windowStart + limit >= fileSize ? limit : -1;
+            }
+            i++;
+            if (first != '[' && first != '%' && !isLineBlank(lineStart, i)) {
+                inMoves = true;
+            }
+        }
+        return windowStart + limit >= fileSize ? limit : -1;
+    }
+
+    private boolean isLineBlank(int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (!isSpace(window.get(i))) return false;
+        }
+        return true;
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+    }
+
+    // tag pairs, then movetext with comments, variations, NAGs and move numbers skipped
+    static PgnGame parse(String text) {
+        PgnGame game = new PgnGame();
+        int i = 0;
+        int n = text.length();
+        while (i < n) {
+            char c = text.charAt(i);
+            if (c == '[') {
+                int close = text.indexOf(']', i);
+                if (close < 0) close = n;
+                parseTag(game, text.substring(i + 1, close));
+                i = close + 1;
+            } else if (c == '{') {
+                int close = text.indexOf('}', i);
+                i = close < 0 ? n : close + 1;
+            } else if (c == ';' || (c == '%' && (i == 0 || text.charAt(i - 1) == '\n'))) {
+                int eol = text.indexOf('\n', i);
+                i = eol < 0 ? n : eol + 1;
+            } else if (c == '(') {
+                int depth = 0;
+                while (i < n) {
+                    char d = text.charAt(i++);
+                    if (d == '(') depth++;
+                    else if (d == ')' && --depth == 0) break;
+                    else if (d == '{') {
+                        int close = text.indexOf('}', i);
+                        i = close < 0 ? n : close + 1;
+                    }
+                }
+            } else if (Character.isWhitespace(c) || c == ')') {
+                i++;
+            } else {
+                int start = i;
+                while (i < n && !Character.isWhitespace(text.charAt(i)) && "{;()".indexOf(text.charAt(i)) < 0) i++;
+                addToken(game, text.substring(start, i));
+            }
+        }
+        return game;
+    }
+
+    private static void parseTag(PgnGame game, String tag) {
+        int space = tag.indexOf(' ');
+        if (space < 0) return;
+        String name = tag.substring(0, space);
+        String value = tag.substring(space + 1).trim();
+        if (value.length() >= 2 && value.charAt(0) == '"') {
+            value = value.substring(1, value.lastIndexOf('"') > 0 ? value.lastIndexOf('"') : value.length());
+            value = value.replace("\\\"", "\"").replace("\\\\", "\\");
+        }
+        game.setTag(name, value);
+        if (name.equals("Result")) game.setResult(value);
+    }
+
+    private static void addToken(PgnGame game, String token) {
+        if (token.equals("1-0") || token.equals("0-1") || token.equals("1/2-1/2") || token.equals("*")) {
+            game.setResult(token);
+            return;
+        }
+        if (token.charAt(0) == '$') return;
+        // "12." / "12..." / "12.e4"
+        int i = 0;
+        while (i < token.length() && Character.isDigit(token.charAt(i))) i++;
+        if (i > 0 && i < token.length() && token.charAt(i) == '.') {
+            while (i < token.length() && token.charAt(i) == '.') i++;
+            token = token.substring(i);
+        } else if (i == token.length()) {
+            return;
+        }
+        if (token.isEmpty() || token.equals("..")) return;
+        game.getSanMoves().add(token);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
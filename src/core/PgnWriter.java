@@ -0,0 +1,105 @@
+package core;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+
+// export format PGN: seven tag roster first, movetext wrapped at 80 columns. safe to share between threads
+public class PgnWriter implements Closeable, Flushable {
+    private static final String[] SEVEN_TAG_ROSTER = {"Event", "Site", "Date", "Round", "White", "Black", "Result"};
+    private static final int LINE_WIDTH = 79;
+
+    private final Writer out;
+
+    public PgnWriter(Writer out) {
+        this.out = out;
+    }
+
+    public static PgnWriter open(Path path, boolean append) throws IOException {
+        return new PgnWriter(new BufferedWriter(Files.newBufferedWriter(path, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                append ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING), 1 << 16));
+    }
+
+    public void write(PgnGame game) throws IOException {
+        StringBuilder sb = new StringBuilder(1024);
+        Map<String, String> tags = game.getTags();
+        for (String name : SEVEN_TAG_ROSTER) {
+            String value = name.equals("Result") ? game.getResult() : tags.get(name);
+            appendTag(sb, name, value != null ? value : "?");
+        }
+        for (Map.Entry<String, String> tag : tags.entrySet()) {
+            if (!isRosterTag(tag.getKey())) {
+                appendTag(sb, tag.getKey(), tag.getValue());
+            }
+        }
+        sb.append('\n');
+
+        int lineStart = sb.length();
+        int ply = 0;
+        boolean afterComment = false;
+        for (String san : game.getSanMoves()) {
+            String token = ply % 2 == 0 ? (ply / 2 + 1) + ". " + san
+                    : afterComment ? (ply / 2 + 1) + "... " + san : san;
+            lineStart = appendWrapped(sb, token, lineStart);
+            if (game.getNag(ply) > 0) {
+                lineStart = appendWrapped(sb, "$" + game.getNag(ply), lineStart);
+            }
+            String comment = game.getComment(ply);
+            afterComment = comment != null;
+            if (comment != null) {
+                lineStart = appendWrapped(sb, "{" + comment.replace('}', ')') + "}", lineStart);
+            }
+            ply++;
+        }
+        appendWrapped(sb, game.getResult(), lineStart);
+        sb.append("\n\n");
+
+        synchronized (this) {
+            out.write(sb.toString());
+        }
+    }
+
+    private static int appendWrapped(StringBuilder sb, String token, int lineStart) {
+        if (sb.length() > lineStart) {
+            if (sb.length() - lineStart + 1 + token.length() > LINE_WIDTH) {
+                sb.append('\n');
+                lineStart = sb.length();
+            } else {
+                sb.append(' ');
+            }
+        }
+        sb.append(token);
+        return lineStart;
+    }
+
+    private static void appendTag(StringBuilder sb, String name, String value) {
+        sb.append('[').append(name).append(" \"")
+          .append(value.replace("\\", "\\\\").replace("\"", "\\\""))
+          .append("\"]\n");
+    }
+
+    private static boolean isRosterTag(String name) {
+        for (String roster : SEVEN_TAG_ROSTER) {
+            if (roster.equals(name)) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+}
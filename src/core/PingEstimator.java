@@ -0,0 +1,155 @@
+package core;
+
+import java.time.Instant;
+import java.util.Arrays;
+
+// round-trip time and clock offset of one connection, from NTP-style timestamped pings:
+//   PING <seq> <t0>              t0: sender's clock when sent
+//   PONG <seq> <t0> <t1> <t2>    t1, t2: responder's clock when the ping was read and answered
+// with t3 the sender's clock when the pong arrives, rtt = (t3 - t0) - (t2 - t1) and the
+// responder's clock is ahead by ((t1 - t0) + (t2 - t3)) / 2, exact when both directions take as
+// long. the offset estimate comes from the fastest of the last few samples, which queued least.
+// all times are wall-clock microseconds; either side of a connection may ping the other
+public class PingEstimator {
+    // samples kept for percentiles, and for picking the offset from
+    private static final int WINDOW = 64;
+    private static final int OFFSET_SAMPLES = 8;
+
+    private long nextSeq = 1;
+    // -1 when no ping is waiting for its pong
+    private long pendingSeq = -1;
+    private long lastPingMicros;
+    private long samples = 0;
+    private long lost = 0;
+
+    private long lastRtt;
+    private long minRtt = Long.MAX_VALUE;
+    // as RFC 6298: smoothed rtt (gain 1/8) and mean deviation (gain 1/4), the jitter
+    private double smoothedRtt;
+    private double jitter;
+
+    private final long[] rtts = new long[WINDOW];
+    private final long[] offsets = new long[WINDOW];
+
+    public static long nowMicros() {
+        Instant now = Instant.now();
+        return now.getEpochSecond() * 1_000_000 + now.getNano() / 1000;
+    }
+
+    // the answer to a PING line read at receivedMicros, stamped now; null for a malformed ping
+    public static String pong(String ping, long receivedMicros) {
+        String[] parts = ping.trim().split(" ");
+        if (parts.length < 3) return null;
+        try {
+            return "PONG " + Long.parseLong(parts[1]) + " " + Long.parseLong(parts[2]) + " " + receivedMicros + " " + nowMicros();
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // the next PING line to send; a ping still unanswered counts as lost
+    public synchronized String ping() {
+        if (pendingSeq >= 0) lost++;
+        pendingSeq = nextSeq++;
+        lastPingMicros = nowMicros();
+        return "PING " + pendingSeq + " " + lastPingMicros;
+    }
+
+    // true when the last ping is at least intervalMillis old; a pong later than that is lost
+    public synchronized boolean isDue(long intervalMillis) {
+        return nowMicros() - lastPingMicros >= intervalMillis * 1000;
+    }
+
+    // false for a malformed pong, or one to a ping this side no longer waits for
+    public synchronized boolean onPong(String pong) {
+        long t3 = nowMicros();
+        String[] parts = pong.trim().split(" ");
+        if (parts.length < 5) return false;
+        long t0;
+        long t1;
+        long t2;
+        try {
+            if (Long.parseLong(parts[1]) != pendingSeq) return false;
+            t0 = Long.parseLong(parts[2]);
+            t1 = Long.parseLong(parts[3]);
+            t2 = Long.parseLong(parts[4]);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        pendingSeq = -1;
+        long rtt = Math.max(0, (t3 - t0) - (t2 - t1));
+        long offset = ((t1 - t0) + (t2 - t3)) / 2;
+
+        if (samples == 0) {
+            smoothedRtt = rtt;
+            jitter = rtt / 2.0;
+        } else {
+            jitter += (Math.abs(rtt - smoothedRtt) - jitter) / 4;
+            smoothedRtt += (rtt - smoothedRtt) / 8;
+        }
+        rtts[(int) (samples % WINDOW)] = rtt;
+        offsets[(int) (samples % WINDOW)] = offset;
+        samples++;
+        lastRtt = rtt;
+        minRtt = Math.min(minRtt, rtt);
+        return true;
+    }
+
+    public synchronized long getSamples() {
+        return samples;
+    }
+
+    // pings that got no pong before the next one was sent
+    public synchronized long getLost() {
+        return lost;
+    }
+
+    public synchronized long getLastRttMicros() {
+        return lastRtt;
+    }
+
+    public synchronized long getSmoothedRttMicros() {
+        return (long) smoothedRtt;
+    }
+
+    public synchronized long getJitterMicros() {
+        return (long) jitter;
+    }
+
+    public synchronized long getMinRttMicros() {
+        return samples > 0 ? minRtt : 0;
+    }
+
+    // how far the other side's clock is ahead of ours, from the fastest recent sample; adding it
+    // to a local time gives the other side's time, e.g. to compensate a clock for lag
+    public synchronized long getClockOffsetMicros() {
+        long best = Long.MAX_VALUE;
+        long offset = 0;
+        for (long s = Math.max(0, samples - OFFSET_SAMPLES); s < samples; s++) {
+            int i = (int) (s % WINDOW);
+            if (rtts[i] < best) {
+                best = rtts[i];
+                offset = offsets[i];
+            }
+        }
+        return offset;
+    }
+
+    // rtt below which the given fraction (0..1) of the last WINDOW samples fall
+    public synchronized long getRttPercentileMicros(double fraction) {
+        int n = (int) Math.min(samples, WINDOW);
+        if (n == 0) return 0;
+        long[] sorted = Arrays.copyOf(rtts, n);
+        Arrays.sort(sorted);
+        int rank = Math.max(1, (int) Math.ceil(fraction * n));
+        return sorted[Math.min(n, rank) - 1];
+    }
+
+    @Override
+    public synchronized String toString() {
+        if (samples == 0) return "no rtt samples, " + lost + " lost";
+        return String.format("rtt %.1f ms (min %.1f, p50 %.1f, p90 %.1f, max %.1f), jitter %.1f ms, clock offset %+.1f ms, %d samples, %d lost",
+                smoothedRtt / 1000, minRtt / 1000.0, getRttPercentileMicros(0.5) / 1000.0, getRttPercentileMicros(0.9) / 1000.0,
+                getRttPercentileMicros(1) / 1000.0, jitter / 1000, getClockOffsetMicros() / 1000.0, samples, lost);
+    }
+}
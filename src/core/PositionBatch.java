@@ -0,0 +1,75 @@
+package core;
+
+// many positions packed for BatchEvaluator: one array per piece kind (white king .. black pawn, in
+// Board's order) indexed by position, so a kernel walks each array front to back
+public class PositionBatch {
+    private final long[][] pieces = new long[12][];
+    // Board.WHITE or Board.BLACK per position
+    private final int[] sides;
+    private int size = 0;
+
+    public PositionBatch(int capacity) {
+        for (int i = 0; i < 12; i++) {
+            pieces[i] = new long[capacity];
+        }
+        sides = new int[capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return sides.length;
+    }
+
+    public boolean isFull() {
+        return size == sides.length;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    // returns the position's index in the batch
+    public int add(Board board) {
+        int i = size++;
+        for (int color = 0; color < 2; color++) {
+            for (int type = 0; type < 6; type++) {
+                pieces[color * 6 + type][i] = board.getPieces(color, type);
+            }
+        }
+        sides[i] = board.getSideToMove();
+        return i;
+    }
+
+    public int add(ChessModel model) {
+        int i = size++;
+        for (long[] plane : pieces) {
+            plane[i] = 0;
+        }
+        for (ChessPiece p : model.getPieces()) {
+            int color = p.getPlayer() == Player.WHITE ? Board.WHITE : Board.BLACK;
+            pieces[color * 6 + p.getRank().ordinal()][i] |= 1L << (p.getRow() * 8 + p.getCol());
+        }
+        sides[i] = model.getPlayerInTurn() == Player.WHITE ? Board.WHITE : Board.BLACK;
+        return i;
+    }
+
+    public long getPieces(int index, int color, int type) {
+        return pieces[color * 6 + type][index];
+    }
+
+    public int getSideToMove(int index) {
+        return sides[index];
+    }
+
+    // the array of one piece kind, for kernels
+    long[] plane(int color, int type) {
+        return pieces[color * 6 + type];
+    }
+
+    int[] sides() {
+        return sides;
+    }
+}
@@ -0,0 +1,133 @@
+package core;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// the position-only parts of the game status (any legal move, check, insufficient material) and,
+// once some model asked for them, the legal moves, by ChessModel.getPositionHash, shared by every
+// model that uses it. lookups take no lock; a miss inserts under the cache's lock and,
+// when full, evicts with CLOCK: a hand sweeps the slots, giving entries used since its last pass
+// a second chance and evicting the first one that was not
+public class PositionCache {
+    static final class Entry {
+        final boolean hasLegalMove;
+        final boolean inCheck;
+        final boolean insufficientMaterial;
+        // from | to << 6 | (promotion rank + 1) << 12, in ChessModel.getLegalMoves order; null
+        // until getLegalMoves is called in the position
+        volatile int[] moves;
+        // set on a hit, cleared by the clock hand
+        volatile boolean referenced;
+
+        Entry(boolean hasLegalMove, boolean inCheck, boolean insufficientMaterial) {
+            this.hasLegalMove = hasLegalMove;
+            this.inCheck = inCheck;
+            this.insufficientMaterial = insufficientMaterial;
+        }
+
+        // two models racing here store equal arrays
+        int[] setMoves(List<Move> legal) {
+            int[] encoded = new int[legal.size()];
+            for (int i = 0; i < encoded.length; i++) {
+                Move m = legal.get(i);
+                encoded[i] = m.getFromRow() * 8 + m.getFromCol() | (m.getToRow() * 8 + m.getToCol()) << 6
+                        | (m.getPromotionRank() != null ? m.getPromotionRank().ordinal() + 1 : 0) << 12;
+            }
+            moves = encoded;
+            return encoded;
+        }
+
+        // any promotion rank matches, as ChessModel accepts every rank for a legal promotion square
+        static boolean contains(int[] moves, int fromCol, int fromRow, int toCol, int toRow) {
+            int squares = fromRow * 8 + fromCol | (toRow * 8 + toCol) << 6;
+            for (int m : moves) {
+                if ((m & 0xFFF) == squares) return true;
+            }
+            return false;
+        }
+
+        static Move toMove(int m) {
+            int promotion = (m >>> 12) - 1;
+            return new Move(m & 7, m >>> 3 & 7, m >>> 6 & 7, m >>> 9 & 7, promotion >= 0 ? Rank.values()[promotion] : null);
+        }
+    }
+
+    private final int capacity;
+    private final Map<Long, Entry> entries = new ConcurrentHashMap<>();
+    // guarded by this: the key in each clock slot, slots in use, and the hand
+    private final long[] slots;
+    private int used = 0;
+    private int hand = 0;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public PositionCache(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        this.slots = new long[this.capacity];
+    }
+
+    Entry get(long key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        // skip the write when it is already set, so hot entries don't bounce between cores
+        if (!entry.referenced) entry.referenced = true;
+        return entry;
+    }
+
+    synchronized void put(long key, Entry entry) {
+        if (entries.putIfAbsent(key, entry) != null) return;
+        if (used < capacity) {
+            slots[used++] = key;
+            return;
+        }
+        while (true) {
+            Entry old = entries.get(slots[hand]);
+            if (old != null && old.referenced) {
+                old.referenced = false;
+            } else {
+                entries.remove(slots[hand]);
+                evictions.increment();
+                slots[hand] = key;
+                hand = (hand + 1) % capacity;
+                return;
+            }
+            hand = (hand + 1) % capacity;
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public double getHitRate() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total > 0 ? (double) h / total : 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d/%d positions, %d hits, %d misses (%.1f%% hit rate), %d evictions",
+                size(), capacity, getHits(), getMisses(), getHitRate() * 100, getEvictions());
+    }
+}
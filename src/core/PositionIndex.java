@@ -0,0 +1,349 @@
+package core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+// on-disk index from position hash (ChessModel.getPositionHash()) to the games and plies where the
+// position occurred. the index directory holds immutable memory-mapped segments listed in a
+// "segments" manifest; newly finished games go to an in-memory table that is flushed as a small
+// segment, and segments are merged in the background when there are too many of them.
+// a posting packs (gameId, ply): gameId is the game's 0-based position in the PGN archive
+public class PositionIndex implements Closeable {
+    private static final String MANIFEST = "segments";
+    private static final int DEFAULT_FLUSH_THRESHOLD = 1 << 20;
+    private static final int MAX_SEGMENTS = 8;
+
+    private final Path dir;
+    private final int flushThreshold;
+    private final Object compactLock = new Object();
+
+    // all guarded by this
+    private List<IndexSegment> segments = new ArrayList<>();
+    private Map<Long, PostingList> memtable = new HashMap<>();
+    private int memtablePostings = 0;
+    private long indexedGames = 0;
+    private int nextSegmentId = 1;
+    private Thread compactor;
+
+    public PositionIndex(Path dir) throws IOException {
+        this(dir, DEFAULT_FLUSH_THRESHOLD);
+    }
+
+    public PositionIndex(Path dir, int flushThreshold) throws IOException {
+        this.dir = dir;
+        this.flushThreshold = flushThreshold;
+        Files.createDirectories(dir);
+
+        List<String> live = new ArrayList<>();
+        Path manifest = dir.resolve(MANIFEST);
+        if (Files.exists(manifest)) {
+            for (String line : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+                line = line.trim();
+                if (line.startsWith("games ")) indexedGames = Long.parseLong(line.substring(6).trim());
+                else if (!line.isEmpty()) live.add(line);
+            }
+        }
+        for (String name : live) {
+            segments.add(new IndexSegment(dir.resolve(name)));
+            nextSegmentId = Math.max(nextSegmentId, segmentId(name) + 1);
+        }
+
+        // leftovers of a crash or of a compaction whose old files could not be deleted
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "seg-*")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (!live.contains(name)) {
+                    nextSegmentId = Math.max(nextSegmentId, segmentId(name) + 1);
+                    deleteQuietly(file);
+                }
+            }
+        }
+    }
+
+    public static long posting(long gameId, int ply) {
+        return gameId << 16 | ply;
+    }
+
+    public static long gameIdOf(long posting) {
+        return posting >>> 16;
+    }
+
+    public static int plyOf(long posting) {
+        return (int) (posting & 0xFFFF);
+    }
+
+    // indexes one game; positionHashes[i] is the position after ply i + 1 (see PgnGame.getPositionHashes())
+    public synchronized void add(long gameId, long[] positionHashes) throws IOException {
+        for (int i = 0; i < positionHashes.length; i++) {
+            PostingList list = memtable.computeIfAbsent(positionHashes[i], h -> new PostingList());
+            list.add(posting(gameId, i + 1));
+        }
+        memtablePostings += positionHashes.length;
+        indexedGames = Math.max(indexedGames, gameId + 1);
+        if (memtablePostings >= flushThreshold) flush();
+    }
+
+    // sorted postings of every game that reached the position
+    public long[] lookup(long hash) {
+        List<IndexSegment> snapshot;
+        long[] fresh;
+        synchronized (this) {
+            snapshot = segments;
+            PostingList list = memtable.get(hash);
+            fresh = list != null ? Arrays.copyOf(list.items, list.size) : new long[0];
+        }
+
+        List<long[]> parts = new ArrayList<>(snapshot.size() + 1);
+        int total = fresh.length;
+        parts.add(fresh);
+        for (IndexSegment segment : snapshot) {
+            long[] part = segment.lookup(hash);
+            parts.add(part);
+            total += part.length;
+        }
+        long[] result = new long[total];
+        int n = 0;
+        for (long[] part : parts) {
+            System.arraycopy(part, 0, result, n, part.length);
+            n += part.length;
+        }
+        Arrays.sort(result);
+        return result;
+    }
+
+    // number of games recorded so far; game ids below this are either indexed or had no valid moves
+    public synchronized long getIndexedGames() {
+        return indexedGames;
+    }
+
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    // writes the in-memory table as a new segment
+    public synchronized void flush() throws IOException {
+        if (memtablePostings > 0) {
+            long[] hashes = new long[memtable.size()];
+            int n = 0;
+            for (Long hash : memtable.keySet()) hashes[n++] = hash;
+            Arrays.sort(hashes);
+
+            Path path = dir.resolve(segmentName(nextSegmentId++));
+            try (IndexSegmentWriter writer = new IndexSegmentWriter(path)) {
+                for (long hash : hashes) {
+                    PostingList list = memtable.get(hash);
+                    Arrays.sort(list.items, 0, list.size);
+                    for (int i = 0; i < list.size; i++) writer.add(hash, list.items[i]);
+                }
+                writer.finish();
+            }
+            List<IndexSegment> updated = new ArrayList<>(segments);
+            updated.add(new IndexSegment(path));
+            segments = updated;
+            memtable = new HashMap<>();
+            memtablePostings = 0;
+        }
+        writeManifest();
+
+        if (segments.size() > MAX_SEGMENTS && (compactor == null || !compactor.isAlive())) {
+            compactor = new Thread(() -> {
+                try {
+                    compact();
+                } catch (IOException e) {
+                    System.err.println("Position index compaction failed: " + e.getMessage());
+                }
+            }, "index-compactor");
+            compactor.setDaemon(true);
+            compactor.start();
+        }
+    }
+
+    // merges all current segments into one; lookups and adds keep working meanwhile
+    public void compact() throws IOException {
+        synchronized (compactLock) {
+            List<IndexSegment> merging;
+            Path path;
+            synchronized (this) {
+                merging = segments;
+                if (merging.size() <= 1) return;
+                path = dir.resolve(segmentName(nextSegmentId++));
+            }
+
+            try (IndexSegmentWriter writer = new IndexSegmentWriter(path)) {
+                List<IndexSegment.Cursor> cursors = new ArrayList<>();
+                for (IndexSegment segment : merging) cursors.add(segment.cursor());
+                merge(cursors, writer);
+                writer.finish();
+            }
+            IndexSegment merged = new IndexSegment(path);
+
+            synchronized (this) {
+                List<IndexSegment> updated = new ArrayList<>();
+                updated.add(merged);
+                for (IndexSegment segment : segments) {
+                    if (!merging.contains(segment)) updated.add(segment);
+                }
+                segments = updated;
+                writeManifest();
+            }
+            // still mapped by in-flight lookups on some platforms; unlisted files are removed on the next open
+            for (IndexSegment segment : merging) deleteQuietly(segment.getPath());
+        }
+    }
+
+    // indexes the games of the archive that are not in the index yet, e.g. after a crash lost the
+    // in-memory table. returns the number of games added
+    public long catchUp(Path pgn) throws IOException {
+        long from = getIndexedGames();
+        long added = 0;
+        ChessModel model = new ChessModel();
+        try (PgnReader reader = new PgnReader(pgn)) {
+            PgnGame game;
+            while ((game = reader.next()) != null) {
+                if (game.getNumber() < from) continue;
+                if (game.validate(model)) {
+                    add(game.getNumber(), game.getPositionHashes());
+                    added++;
+                } else {
+                    synchronized (this) {
+                        indexedGames = Math.max(indexedGames, game.getNumber() + 1);
+                    }
+                }
+            }
+        }
+        return added;
+    }
+
+    // k-way merge of sorted (hash, posting) streams into a segment
+    static void merge(List<IndexSegment.Cursor> inputs, IndexSegmentWriter out) throws IOException {
+        PriorityQueue<IndexSegment.Cursor> queue = new PriorityQueue<>(Math.max(1, inputs.size()), (a, b) -> {
+            int cmp = Long.compare(a.hash(), b.hash());
+            return cmp != 0 ? cmp : Long.compare(a.posting(), b.posting());
+        });
+        for (IndexSegment.Cursor cursor : inputs) {
+            if (cursor.next()) queue.add(cursor);
+        }
+        while (!queue.isEmpty()) {
+            IndexSegment.Cursor cursor = queue.poll();
+            out.add(cursor.hash(), cursor.posting());
+            if (cursor.next()) queue.add(cursor);
+        }
+    }
+
+    // adds a segment built outside the index (see PositionIndexBuilder)
+    synchronized Path newSegmentPath() {
+        return dir.resolve(segmentName(nextSegmentId++));
+    }
+
+    synchronized void addSegment(Path path, long games) throws IOException {
+        List<IndexSegment> updated = new ArrayList<>(segments);
+        updated.add(new IndexSegment(path));
+        segments = updated;
+        indexedGames = Math.max(indexedGames, games);
+        writeManifest();
+    }
+
+    private void writeManifest() throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add("games " + indexedGames);
+        for (IndexSegment segment : segments) lines.add(segment.getPath().getFileName().toString());
+        Path tmp = dir.resolve(MANIFEST + ".tmp");
+        Files.write(tmp, lines, StandardCharsets.UTF_8);
+        Files.move(tmp, dir.resolve(MANIFEST), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String segmentName(int id) {
+        return String.format("seg-%06d.idx", id);
+    }
+
+    private static int segmentId(String name) {
+        try {
+            return Integer.parseInt(name.substring(4, 10));
+        } catch (RuntimeException e) {
+            return 0;
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            // left for the next open
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        Thread running;
+        synchronized (this) {
+            flush();
+            running = compactor;
+        }
+        if (running != null) {
+            try {
+                running.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static class PostingList {
+        long[] items = new long[2];
+        int size;
+
+        void add(long posting) {
+            if (size == items.length) items = Arrays.copyOf(items, size * 2);
+            items[size++] = posting;
+        }
+    }
+
+    // usage: PositionIndex <indexDir> [SAN moves...]   e.g. PositionIndex games.idx e4 e5 Nf3 Nc6
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: PositionIndex <indexDir> [SAN moves...]");
+            return;
+        }
+        ChessModel model = new ChessModel();
+        model.reset();
+        for (int i = 1; i < args.length; i++) {
+            Move move = San.toMove(model, args[i]);
+            if (move == null) {
+                System.err.println("Illegal move: " + args[i]);
+                return;
+            }
+            model.movePiece(move);
+        }
+
+        try (PositionIndex index = new PositionIndex(Paths.get(args[0]))) {
+            long start = System.nanoTime();
+            long[] postings = index.lookup(model.getPositionHash());
+            double micros = (System.nanoTime() - start) / 1e3;
+
+            long games = 0;
+            long lastGame = -1;
+            for (long p : postings) {
+                if (gameIdOf(p) != lastGame) games++;
+                lastGame = gameIdOf(p);
+            }
+            System.out.println(String.format("%d games, %d occurrences (%d games indexed, %d segments, %.0fus)",
+                    games, postings.length, index.getIndexedGames(), index.getSegmentCount(), micros));
+            for (int i = 0; i < Math.min(20, postings.length); i++) {
+                System.out.println("  game " + gameIdOf(postings[i]) + " ply " + plyOf(postings[i]));
+            }
+            if (postings.length > 20) System.out.println("  ...");
+        }
+    }
+}
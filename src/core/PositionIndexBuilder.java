@@ -0,0 +1,251 @@
+package core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// builds a PositionIndex from a PGN archive. games are validated in parallel by PgnImporter; each
+// worker collects (hash, posting) pairs in its own buffer, sorts it and spills it as a run file when
+// full, and the runs are merged into one segment at the end. memory is threads * run size
+public class PositionIndexBuilder {
+    private static final int DEFAULT_RUN_SIZE = 1 << 20;
+
+    private final int threads;
+    private final int runSize;
+    private final AtomicInteger runCount = new AtomicInteger();
+    private final ConcurrentLinkedQueue<RunBuffer> buffers = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Path> runs = new ConcurrentLinkedQueue<>();
+    private Path tmpDir;
+    private ThreadLocal<RunBuffer> localBuffer;
+
+    public PositionIndexBuilder(int threads) {
+        this(threads, DEFAULT_RUN_SIZE);
+    }
+
+    public PositionIndexBuilder(int threads, int runSize) {
+        this.threads = threads;
+        this.runSize = runSize;
+    }
+
+    // indexes every valid game of the archive into a new segment of the index; returns the number of postings.
+    // if a spill fails, its exception is thrown and no segment is added
+    public long build(Path pgn, PositionIndex index, PgnImporter importer) throws IOException, InterruptedException {
+        tmpDir = Files.createTempDirectory(pgn.toAbsolutePath().getParent(), "index-runs");
+        localBuffer = ThreadLocal.withInitial(() -> {
+            RunBuffer buffer = new RunBuffer(runSize);
+            buffers.add(buffer);
+            return buffer;
+        });
+        try {
+            importer.importFile(pgn, game -> {
+                try {
+                    RunBuffer buffer = localBuffer.get();
+                    long[] hashes = game.getPositionHashes();
+                    for (int i = 0; i < hashes.length; i++) {
+                        if (buffer.isFull()) spill(buffer);
+                        buffer.add(hashes[i], PositionIndex.posting(game.getNumber(), i + 1));
+                    }
+                } catch (IOException e) {
+                    // importFile rethrows it, so no segment is merged or added
+                    throw new UncheckedIOException(e);
+                }
+            }, null);
+            for (RunBuffer buffer : buffers) {
+                if (buffer.size > 0) spill(buffer);
+            }
+
+            Path path = index.newSegmentPath();
+            long postings;
+            List<RunReader> readers = new ArrayList<>();
+            try (IndexSegmentWriter writer = new IndexSegmentWriter(path)) {
+                for (Path run : runs) readers.add(new RunReader(run));
+                PositionIndex.merge(new ArrayList<>(readers), writer);
+                writer.finish();
+                postings = writer.getPostingCount();
+            } finally {
+                for (RunReader reader : readers) reader.close();
+            }
+            index.addSegment(path, importer.getValidGames() + importer.getInvalidGames());
+            return postings;
+        } finally {
+            deleteRuns();
+        }
+    }
+
+    // every file in the run directory, including one a failed spill left half written
+    private void deleteRuns() throws IOException {
+        if (!Files.isDirectory(tmpDir)) return;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(tmpDir)) {
+            for (Path file : files) Files.deleteIfExists(file);
+        }
+        Files.deleteIfExists(tmpDir);
+    }
+
+    public int getRunCount() {
+        return runCount.get();
+    }
+
+    private void spill(RunBuffer buffer) throws IOException {
+        buffer.sort();
+        Path run = tmpDir.resolve("run-" + runCount.incrementAndGet());
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), 1 << 16))) {
+            for (int i = 0; i < buffer.size; i++) {
+                out.writeLong(buffer.hashes[i]);
+                out.writeLong(buffer.postings[i]);
+            }
+        }
+        runs.add(run);
+        buffer.size = 0;
+    }
+
+    // parallel arrays sorted together by (hash, posting)
+    private static class RunBuffer {
+        final long[] hashes;
+        final long[] postings;
+        int size;
+
+        RunBuffer(int capacity) {
+            hashes = new long[capacity];
+            postings = new long[capacity];
+        }
+
+        boolean isFull() {
+            return size == hashes.length;
+        }
+
+        void add(long hash, long posting) {
+            hashes[size] = hash;
+            postings[size] = posting;
+            size++;
+        }
+
+        void sort() {
+            quickSort(0, size - 1);
+        }
+
+        private void quickSort(int lo, int hi) {
+            while (hi - lo > 16) {
+                int mid = (lo + hi) >>> 1;
+                if (less(mid, lo)) swap(mid, lo);
+                if (less(hi, lo)) swap(hi, lo);
+                if (less(hi, mid)) swap(hi, mid);
+                long pivotHash = hashes[mid];
+                long pivotPosting = postings[mid];
+                int i = lo;
+                int j = hi;
+                while (i <= j) {
+                    while (compare(i, pivotHash, pivotPosting) < 0) i++;
+                    while (compare(j, pivotHash, pivotPosting) > 0) j--;
+                    if (i <= j) swap(i++, j--);
+                }
+                // recurse into the smaller half so the stack stays shallow
+                if (j - lo < hi - i) {
+                    quickSort(lo, j);
+                    lo = i;
+                } else {
+                    quickSort(i, hi);
+                    hi = j;
+                }
+            }
+            for (int i = lo + 1; i <= hi; i++) {
+                for (int j = i; j > lo && less(j, j - 1); j--) swap(j, j - 1);
+            }
+        }
+
+        private int compare(int i, long hash, long posting) {
+            int cmp = Long.compare(hashes[i], hash);
+            return cmp != 0 ? cmp : Long.compare(postings[i], posting);
+        }
+
+        private boolean less(int i, int j) {
+            return compare(i, hashes[j], postings[j]) < 0;
+        }
+
+        private void swap(int i, int j) {
+            long h = hashes[i];
+            hashes[i] = hashes[j];
+            hashes[j] = h;
+            long p = postings[i];
+            postings[i] = postings[j];
+            postings[j] = p;
+        }
+    }
+
+    private static class RunReader implements IndexSegment.Cursor {
+        private final DataInputStream in;
+        private long hash;
+        private long posting;
+
+        RunReader(Path run) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run), 1 << 16));
+        }
+
+        @Override
+        public boolean next() throws IOException {
+            try {
+                hash = in.readLong();
+                posting = in.readLong();
+                return true;
+            } catch (EOFException e) {
+                return false;
+            }
+        }
+
+        @Override
+        public long hash() {
+            return hash;
+        }
+
+        @Override
+        public long posting() {
+            return posting;
+        }
+
+        void close() throws IOException {
+            in.close();
+        }
+    }
+
+    // usage: PositionIndexBuilder <archive.pgn> <indexDir> [--threads n] [--run-size n]
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: PositionIndexBuilder <archive.pgn> <indexDir> [--threads n] [--run-size n]");
+            return;
+        }
+        Path pgn = Paths.get(args[0]);
+        Path dir = Paths.get(args[1]);
+        int threads = Runtime.getRuntime().availableProcessors();
+        int runSize = DEFAULT_RUN_SIZE;
+        for (int i = 2; i + 1 < args.length; i += 2) {
+            if (args[i].equals("--threads")) threads = Integer.parseInt(args[i + 1]);
+            else if (args[i].equals("--run-size")) runSize = Integer.parseInt(args[i + 1]);
+        }
+
+        try (PositionIndex index = new PositionIndex(dir)) {
+            if (index.getSegmentCount() > 0 || index.getIndexedGames() > 0) {
+                System.err.println("Index " + dir + " already exists; delete it to rebuild");
+                return;
+            }
+            PgnImporter importer = new PgnImporter(threads);
+            PositionIndexBuilder builder = new PositionIndexBuilder(threads, runSize);
+            long start = System.nanoTime();
+            long postings = builder.build(pgn, index, importer);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.println(String.format("%d games (%d invalid), %d positions in %.1fs: %.0f positions/s, %d runs, %d threads",
+                    importer.getValidGames() + importer.getInvalidGames(), importer.getInvalidGames(), postings,
+                    seconds, postings / seconds, builder.getRunCount(), threads));
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package core;
+
+// standard algebraic notation <-> Move, resolved against the position in a ChessModel.
+// col 0..7 = files a..h, row 0..7 = ranks 1..8
+public class San {
+    private San() {
+    }
+
+    // null if the SAN does not name exactly one legal move in this position
+    public static Move toMove(ChessModel model, String san) {
+        String s = stripSuffixes(san);
+        if (s.isEmpty()) return null;
+        Player player = model.getPlayerInTurn();
+        int homeRow = player == Player.WHITE ? 0 : 7;
+
+        if (s.equals("O-O") || s.equals("0-0")) {
+            return legalOrNull(model, 4, homeRow, 6, homeRow, Rank.KING, null);
+        }
+        if (s.equals("O-O-O") || s.equals("0-0-0")) {
+            return legalOrNull(model, 4, homeRow, 2, homeRow, Rank.KING, null);
+        }
+
+        Rank promotion = null;
+        int eq = s.indexOf('=');
+        if (eq >= 0 && eq + 1 < s.length()) {
+            promotion = rankOf(s.charAt(eq + 1));
+            s = s.substring(0, eq);
+        } else if (s.length() >= 3 && rankOf(s.charAt(s.length() - 1)) != null && Character.isDigit(s.charAt(s.length() - 2))) {
+            promotion = rankOf(s.charAt(s.length() - 1));
+            s = s.substring(0, s.length() - 1);
+        }
+        if (s.length() < 2) return null;
+
+        Rank rank = Rank.PAWN;
+        int start = 0;
+        if (Character.isUpperCase(s.charAt(0))) {
+            rank = rankOf(s.charAt(0));
+            if (rank == null) return null;
+            start = 1;
+        }
+
+        int toCol = s.charAt(s.length() - 2) - 'a';
+        int toRow = s.charAt(s.length() - 1) - '1';
+        if (toCol < 0 || toCol > 7 || toRow < 0 || toRow > 7) return null;
+
+        int fromColHint = -1;
+        int fromRowHint = -1;
+        for (int i = start; i < s.length() - 2; i++) {
+            char c = s.charAt(i);
+            if (c >= 'a' && c <= 'h') fromColHint = c - 'a';
+            else if (c >= '1' && c <= '8') fromRowHint = c - '1';
+            else if (c != 'x' && c != '-' && c != ':') return null;
+        }
+
+        Move found = null;
+        for (ChessPiece p : model.getPieces()) {
+            if (p.getPlayer() != player || p.getRank() != rank) continue;
+            if (fromColHint >= 0 && p.getCol() != fromColHint) continue;
+            if (fromRowHint >= 0 && p.getRow() != fromRowHint) continue;
+            if (model.isValidMove(p, p.getCol(), p.getRow(), toCol, toRow) &&
+                !model.isSelfCheck(p, p.getCol(), p.getRow(), toCol, toRow)) {
+                if (found != null) return null;
+                Rank promo = null;
+                if (rank == Rank.PAWN && (toRow == 7 || toRow == 0)) {
+                    promo = promotion != null ? promotion : Rank.QUEEN;
+                }
+                found = new Move(p.getCol(), p.getRow(), toCol, toRow, promo);
+            }
+        }
+        return found;
+    }
+
+    // SAN without the check/mate suffix; see suffix() for that once the move is played
+    public static String toSan(ChessModel model, Move move) {
+        ChessPiece p = model.pieceAt(move.getFromCol(), move.getFromRow());
+        if (p == null) return null;
+
+        if (p.getRank() == Rank.KING && Math.abs(move.getToCol() - move.getFromCol()) == 2) {
+            return move.getToCol() == 6 ? "O-O" : "O-O-O";
+        }
+
+        StringBuilder sb = new StringBuilder(8);
+        boolean capture = model.pieceAt(move.getToCol(), move.getToRow()) != null ||
+                (p.getRank() == Rank.PAWN && move.getFromCol() != move.getToCol());
+
+        if (p.getRank() == Rank.PAWN) {
+            if (capture) sb.append(fileChar(move.getFromCol()));
+        } else {
+            sb.append(letterOf(p.getRank()));
+            boolean ambiguous = false;
+            boolean sameFile = false;
+            boolean sameRow = false;
+            for (ChessPiece other : model.getPieces()) {
+                if (other == p || other.getPlayer() != p.getPlayer() || other.getRank() != p.getRank()) continue;
+                if (model.isValidMove(other, other.getCol(), other.getRow(), move.getToCol(), move.getToRow()) &&
+                    !model.isSelfCheck(other, other.getCol(), other.getRow(), move.getToCol(), move.getToRow())) {
+                    ambiguous = true;
+                    if (other.getCol() == p.getCol()) sameFile = true;
+                    if (other.getRow() == p.getRow()) sameRow = true;
+                }
+            }
+            if (ambiguous) {
+                if (!sameFile) sb.append(fileChar(move.getFromCol()));
+                else if (!sameRow) sb.append(rankChar(move.getFromRow()));
+                else sb.append(fileChar(move.getFromCol())).append(rankChar(move.getFromRow()));
+            }
+        }
+
+        if (capture) sb.append('x');
+        sb.append(fileChar(move.getToCol())).append(rankChar(move.getToRow()));
+        if (move.getPromotionRank() != null) {
+            sb.append('=').append(letterOf(move.getPromotionRank()));
+        }
+        return sb.toString();
+    }
+
+    // "+" or "#" for a move that has just been played
+    public static String suffix(ChessModel model, ChessModel.MoveResult result) {
+        if (result == ChessModel.MoveResult.CHECKMATE) return "#";
+        if (model.isKingChecked(model.getPlayerInTurn())) return "+";
+        return "";
+    }
+
+    public static String squareName(int col, int row) {
+        return "" + fileChar(col) + rankChar(row);
+    }
+
+    private static Move legalOrNull(ChessModel model, int fromCol, int fromRow, int toCol, int toRow, Rank rank, Rank promotion) {
+        ChessPiece p = model.pieceAt(fromCol, fromRow);
+        if (p == null || p.getRank() != rank || p.getPlayer() != model.getPlayerInTurn()) return null;
+        if (!model.isValidMove(p, fromCol, fromRow, toCol, toRow) || model.isSelfCheck(p, fromCol, fromRow, toCol, toRow)) {
+            return null;
+        }
+        return new Move(fromCol, fromRow, toCol, toRow, promotion);
+    }
+
+    private static String stripSuffixes(String san) {
+        int end = san.length();
+        while (end > 0) {
+            char c = san.charAt(end - 1);
+            if (c == '+' || c == '#' || c == '!' || c == '?') end--;
+            else break;
+        }
+        return san.substring(0, end);
+    }
+
+    private static Rank rankOf(char c) {
+        switch (c) {
+            case 'K': return Rank.KING;
+            case 'Q': return Rank.QUEEN;
+            case 'R': return Rank.ROOK;
+            case 'B': return Rank.BISHOP;
+            case 'N': return Rank.KNIGHT;
+            default: return null;
+        }
+    }
+
+    private static char letterOf(Rank rank) {
+        switch (rank) {
+            case KING: return 'K';
+            case QUEEN: return 'Q';
+            case ROOK: return 'R';
+            case BISHOP: return 'B';
+            case KNIGHT: return 'N';
+            default: return 'P';
+        }
+    }
+
+    private static char fileChar(int col) {
+        return (char) ('a' + col);
+    }
+
+    private static char rankChar(int row) {
+        return (char) ('1' + row);
+    }
+}
@@ -0,0 +1,206 @@
+package core;
+
+import java.util.function.Consumer;
+
+// iterative deepening alpha-beta over a Board, with quiescence search on captures.
+// one Search per thread; stop() may be called from any thread
+public class Search {
+    public static final int MATE = 30000;
+    public static final int INFINITE = 32000;
+    private static final int MAX_PLY = 128;
+
+    public static class Result {
+        private final int move;
+        private final int score;
+        private final int depth;
+        private final long nodes;
+
+        Result(int move, int score, int depth, long nodes) {
+            this.move = move;
+            this.score = score;
+            this.depth = depth;
+            this.nodes = nodes;
+        }
+
+        // best move, 0 if the position has no legal move
+        public int getMove() {
+            return move;
+        }
+
+        // centipawns from the side to move's view; |score| > MATE - MAX_PLY means a forced mate
+        public int getScore() {
+            return score;
+        }
+
+        public int getDepth() {
+            return depth;
+        }
+
+        public long getNodes() {
+            return nodes;
+        }
+
+        public boolean isMate() {
+            return Math.abs(score) > MATE - MAX_PLY;
+        }
+
+        // moves until mate, negative if the side to move gets mated
+        public int getMateIn() {
+            int plies = MATE - Math.abs(score);
+            return score > 0 ? (plies + 1) / 2 : -(plies + 1) / 2;
+        }
+    }
+
+    private final Board board;
+    private final int[][] moveBuffers = new int[MAX_PLY][Board.MAX_MOVES];
+    private final int[][] scoreBuffers = new int[MAX_PLY][Board.MAX_MOVES];
+    private volatile boolean stopped;
+    private long nodes;
+    private long nodeLimit;
+    private long deadline;
+    private int rootBest;
+    private Consumer<Result> onIteration;
+
+    public Search(Board board) {
+        this.board = board;
+    }
+
+    public Board getBoard() {
+        return board;
+    }
+
+    // called after every completed depth, e.g. to print UCI "info" lines
+    public void setOnIteration(Consumer<Result> onIteration) {
+        this.onIteration = onIteration;
+    }
+
+    public void stop() {
+        stopped = true;
+    }
+
+    public Result search(int maxDepth) {
+        return search(maxDepth, 0, 0);
+    }
+
+    // limits of 0 mean no limit; the result comes from the deepest fully searched depth
+    public Result search(int maxDepth, long timeMillis, long maxNodes) {
+        stopped = false;
+        nodes = 0;
+        nodeLimit = maxNodes > 0 ? maxNodes : Long.MAX_VALUE;
+        deadline = timeMillis > 0 ? System.nanoTime() + timeMillis * 1_000_000 : Long.MAX_VALUE;
+        rootBest = 0;
+
+        Result result = null;
+        for (int depth = 1; depth <= Math.max(1, maxDepth) && depth < MAX_PLY; depth++) {
+            int score = negamax(depth, 0, -INFINITE, INFINITE);
+            if (stopped && result != null) break;
+            result = new Result(rootBest, score, depth, nodes);
+            if (onIteration != null) onIteration.accept(result);
+            if (stopped || result.isMate()) break;
+        }
+        return result;
+    }
+
+    public long getNodes() {
+        return nodes;
+    }
+
+    private int negamax(int depth, int ply, int alpha, int beta) {
+        if (ply > 0 && (board.isRepetition() || board.getHalfMoveClock() >= 100 || board.isInsufficientMaterial())) {
+            return 0;
+        }
+        boolean inCheck = board.isInCheck();
+        if (depth <= 0 && !inCheck) return quiesce(ply, alpha, beta);
+        if (ply >= MAX_PLY - 1) return Evaluator.evaluate(board);
+
+        int[] moves = moveBuffers[ply];
+        int n = board.generateMoves(moves, false);
+        orderMoves(moves, scoreBuffers[ply], n, ply == 0 ? rootBest : 0);
+
+        int legal = 0;
+        int best = -INFINITE;
+        for (int i = 0; i < n; i++) {
+            int move = moves[i];
+            board.makeMove(move);
+            if (board.leftKingInCheck()) {
+                board.unmakeMove();
+                continue;
+            }
+            legal++;
+            nodes++;
+            int score = -negamax(depth - 1, ply + 1, -beta, -alpha);
+            board.unmakeMove();
+            if (checkLimits()) return best > -INFINITE ? best : score;
+
+            if (score > best) {
+                best = score;
+                if (ply == 0) rootBest = move;
+            }
+            if (score > alpha) alpha = score;
+            if (alpha >= beta) break;
+        }
+        if (legal == 0) return inCheck ? -MATE + ply : 0;
+        return best;
+    }
+
+    private int quiesce(int ply, int alpha, int beta) {
+        int standPat = Evaluator.evaluate(board);
+        if (standPat >= beta || ply >= MAX_PLY - 1) return standPat;
+        if (standPat > alpha) alpha = standPat;
+
+        int[] moves = moveBuffers[ply];
+        int n = board.generateMoves(moves, true);
+        orderMoves(moves, scoreBuffers[ply], n, 0);
+        for (int i = 0; i < n; i++) {
+            board.makeMove(moves[i]);
+            if (board.leftKingInCheck()) {
+                board.unmakeMove();
+                continue;
+            }
+            nodes++;
+            int score = -quiesce(ply + 1, -beta, -alpha);
+            board.unmakeMove();
+            if (checkLimits()) return alpha;
+            if (score >= beta) return score;
+            if (score > alpha) alpha = score;
+        }
+        return alpha;
+    }
+
+    private boolean checkLimits() {
+        if ((nodes & 1023) == 0 && (nodes >= nodeLimit || System.nanoTime() >= deadline)) stopped = true;
+        return stopped;
+    }
+
+    // first move first, then captures by most valuable victim / least valuable attacker, promotions, quiet moves
+    private void orderMoves(int[] moves, int[] scores, int n, int first) {
+        for (int i = 0; i < n; i++) {
+            int move = moves[i];
+            int victim = board.pieceAt(Board.to(move));
+            int score = 0;
+            if (move == first) {
+                score = 1_000_000;
+            } else if (victim != 0) {
+                score = 10_000 + Evaluator.VALUES[Board.pieceType(victim)] * 10
+                        - Evaluator.VALUES[Board.pieceType(board.pieceAt(Board.from(move)))] / 10;
+            } else if (Board.flag(move) == Board.FLAG_EN_PASSANT) {
+                score = 10_000 + 1000;
+            }
+            if (Board.promotion(move) >= 0) score += Evaluator.VALUES[Board.promotion(move)];
+            scores[i] = score;
+        }
+        // insertion sort, move lists are short
+        for (int i = 1; i < n; i++) {
+            int move = moves[i];
+            int score = scores[i];
+            int j = i - 1;
+            while (j >= 0 && scores[j] < score) {
+                moves[j + 1] = moves[j];
+                scores[j + 1] = scores[j];
+                j--;
+            }
+            moves[j + 1] = move;
+            scores[j + 1] = score;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package core;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// streams the events of a traffic capture (written by server.TrafficCapture) one at a time, so a
+// capture of any size is replayed without holding it on the heap. not thread safe.
+// layout: int magic, int version, long wall-clock start millis, then one record per event:
+//   byte type, varint micros since the previous record, varint session, byte player,
+//   MOVE: short (from | to << 6 | promotion << 12), LINE: modified UTF-8 string
+public class TrafficReader implements Closeable {
+    public static final int MAGIC = 0x43545243; // "CTRC"
+    public static final int VERSION = 1;
+
+    public static final int CONNECT = 1;
+    public static final int MOVE = 2;
+    // a line that is not a plain move, kept as text; read back as a MOVE event
+    public static final int LINE = 3;
+    public static final int DISCONNECT = 4;
+
+    private static final Rank[] RANKS = Rank.values();
+    private static final Player[] PLAYERS = Player.values();
+
+    public static class Event {
+        private final int type;
+        private final long micros;
+        private final long session;
+        private final Player player;
+        private final String line;
+
+        Event(int type, long micros, long session, Player player, String line) {
+            this.type = type;
+            this.micros = micros;
+            this.session = session;
+            this.player = player;
+            this.line = line;
+        }
+
+        public int getType() {
+            return type;
+        }
+
+        // since the capture started
+        public long getMicros() {
+            return micros;
+        }
+
+        public long getSession() {
+            return session;
+        }
+
+        public Player getPlayer() {
+            return player;
+        }
+
+        // what the player sent, for MOVE events
+        public String getLine() {
+            return line;
+        }
+    }
+
+    private final DataInputStream in;
+    private final long startMillis;
+    private long micros = 0;
+    private long eventsRead = 0;
+
+    public TrafficReader(Path path) throws IOException {
+        in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16));
+        try {
+            if (in.readInt() != MAGIC) throw new IOException("not a traffic capture: " + path);
+            int version = in.readInt();
+            if (version != VERSION) throw new IOException("unsupported capture version " + version);
+            startMillis = in.readLong();
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    // the next event in recording order, or null at the end; a torn last record (crash) is ignored
+    public Event next() throws IOException {
+        int type = in.read();
+        if (type < 0) return null;
+        try {
+            micros += readVarLong(in);
+            long session = readVarLong(in);
+            Player player = PLAYERS[in.readUnsignedByte()];
+            String line = null;
+            if (type == MOVE) line = unpack(in.readUnsignedShort());
+            else if (type == LINE) line = in.readUTF();
+            eventsRead++;
+            return new Event(type == LINE ? MOVE : type, micros, session, player, line);
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    // wall-clock time the capture started
+    public long getStartMillis() {
+        return startMillis;
+    }
+
+    public long getEventsRead() {
+        return eventsRead;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    // the MOVE encoding of a line, -1 if it would not come back identical and must be kept as text
+    public static int pack(String line) {
+        Move move;
+        try {
+            move = Move.parse(line);
+        } catch (RuntimeException e) {
+            return -1;
+        }
+        if (!move.toString().equals(line)) return -1;
+        int from = move.getFromRow() * 8 + move.getFromCol();
+        int to = move.getToRow() * 8 + move.getToCol();
+        if (from < 0 || from > 63 || to < 0 || to > 63) return -1;
+        int promotion = move.getPromotionRank() != null ? move.getPromotionRank().ordinal() + 1 : 0;
+        return from | to << 6 | promotion << 12;
+    }
+
+    private static String unpack(int packed) {
+        int from = packed & 63;
+        int to = (packed >> 6) & 63;
+        int promotion = (packed >> 12) & 7;
+        return new Move(from & 7, from >> 3, to & 7, to >> 3, promotion > 0 ? RANKS[promotion - 1] : null).toString();
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+    }
+}
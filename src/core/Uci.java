@@ -0,0 +1,293 @@
+package core;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.concurrent.CountDownLatch;
+
+// headless engine speaking UCI on stdin/stdout, for GUIs, match runners and scripted benchmarks.
+// the search and perft run on a Board, the bitboard twin of ChessModel that Arena checks the rules
+// against. supported: uci, isready, ucinewgame, position (startpos | fen ...) [moves ...],
+// go [depth n] [movetime ms] [nodes n] [wtime/btime/winc/binc/movestogo] [infinite],
+// go perft n, stop, bench [depth], d (print the position), quit. after go infinite the bestmove
+// waits for stop, as UCI wants, even when the search ends by itself.
+// arguments are run as one command before exiting, e.g. Uci bench 6, for scripts
+public class Uci {
+    private static final String NAME = "Chess";
+    private static final int BENCH_DEPTH = 5;
+    // middlegames and endgames with the usual perft traps (castling, en passant, promotions)
+    private static final String[] BENCH_FENS = {
+        Board.START_FEN,
+        "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+        "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+        "r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1",
+        "rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8",
+        "r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10",
+        "r1bq1rk1/pp2bppp/2n1pn2/3p4/2PP4/2N1PN2/PP1B1PPP/R2QKB1R w KQ - 0 8",
+        "4rrk1/pp1n3p/3q2pQ/2p1pb2/2PP4/2P3N1/P2B2PP/4RRK1 b - - 7 19",
+        "6k1/6p1/6Pp/ppp5/3pn2P/1P3K2/1PP2P2/3N4 b - - 0 1",
+        "8/8/8/8/5kp1/P7/8/1K1N4 w - - 0 1",
+    };
+
+    private final PrintStream out;
+    private final Board board = new Board();
+    private final Search search = new Search(board);
+    private Thread searcher;
+    // go infinite: the searcher holds its bestmove until this is released; null otherwise
+    private CountDownLatch held;
+
+    public Uci(PrintStream out) {
+        this.out = out;
+    }
+
+    public void run(BufferedReader in) throws IOException {
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (!execute(line)) break;
+        }
+        stopSearch();
+    }
+
+    // false after quit
+    public boolean execute(String line) {
+        try {
+            return command(line);
+        } catch (NumberFormatException e) {
+            out.println("info string bad number in: " + line.trim());
+            out.flush();
+            return true;
+        }
+    }
+
+    private boolean command(String line) {
+        String[] words = line.trim().split("\\s+");
+        switch (words[0]) {
+            case "uci":
+                out.println("id name " + NAME);
+                out.println("id author " + NAME + " authors");
+                out.println("uciok");
+                break;
+            case "isready":
+                out.println("readyok");
+                break;
+            case "ucinewgame":
+                stopSearch();
+                board.reset();
+                break;
+            case "position":
+                stopSearch();
+                position(words);
+                break;
+            case "go":
+                stopSearch();
+                if (words.length > 1 && words[1].equals("perft")) {
+                    if (words.length > 2) perft(Integer.parseInt(words[2]));
+                    else out.println("info string go perft needs a depth");
+                } else {
+                    go(words);
+                }
+                break;
+            case "stop":
+                stopSearch();
+                break;
+            case "bench":
+                stopSearch();
+                bench(words.length > 1 ? Integer.parseInt(words[1]) : BENCH_DEPTH);
+                break;
+            case "d":
+                stopSearch();
+                out.println(board.toFen());
+                break;
+            case "quit":
+                return false;
+            case "":
+                break;
+            default:
+                out.println("info string unknown command: " + line.trim());
+        }
+        out.flush();
+        return true;
+    }
+
+    private void position(String[] words) {
+        int i = 1;
+        if (i < words.length && words[i].equals("startpos")) {
+            board.reset();
+            i++;
+        } else if (i < words.length && words[i].equals("fen")) {
+            StringBuilder fen = new StringBuilder();
+            for (i++; i < words.length && !words[i].equals("moves"); i++) {
+                fen.append(words[i]).append(' ');
+            }
+            try {
+                board.setFen(fen.toString());
+            } catch (RuntimeException e) {
+                out.println("info string bad fen: " + fen.toString().trim());
+                board.reset();
+                return;
+            }
+        }
+        if (i < words.length && words[i].equals("moves")) {
+            for (i++; i < words.length; i++) {
+                int move = board.parseUci(words[i]);
+                if (move == 0) {
+                    out.println("info string illegal move " + words[i] + " in " + board.toFen());
+                    return;
+                }
+                board.makeMove(move);
+            }
+        }
+    }
+
+    private void go(String[] words) {
+        int depth = 64;
+        long movetime = 0;
+        long nodes = 0;
+        long time = -1;
+        long increment = 0;
+        int movesToGo = 30;
+        boolean infinite = false;
+        boolean white = board.getSideToMove() == Board.WHITE;
+        for (int i = 1; i < words.length; i++) {
+            if (words[i].equals("infinite")) infinite = true;
+        }
+        for (int i = 1; i + 1 < words.length; i++) {
+            switch (words[i]) {
+                case "depth": depth = Integer.parseInt(words[++i]); break;
+                case "movetime": movetime = Long.parseLong(words[++i]); break;
+                case "nodes": nodes = Long.parseLong(words[++i]); break;
+                case "wtime": if (white) time = Long.parseLong(words[i + 1]); i++; break;
+                case "btime": if (!white) time = Long.parseLong(words[i + 1]); i++; break;
+                case "winc": if (white) increment = Long.parseLong(words[i + 1]); i++; break;
+                case "binc": if (!white) increment = Long.parseLong(words[i + 1]); i++; break;
+                case "movestogo": movesToGo = Math.max(1, Integer.parseInt(words[++i])); break;
+                default: break;
+            }
+        }
+        // on a clock: an even share of what is left plus most of the increment, never over half of it
+        if (movetime == 0 && time >= 0 && !infinite) {
+            movetime = Math.max(1, Math.min(time / 2, time / movesToGo + increment * 3 / 4));
+        }
+        int maxDepth = depth;
+        long timeLimit = movetime;
+        long nodeLimit = nodes;
+        long start = System.nanoTime();
+        CountDownLatch hold = infinite ? new CountDownLatch(1) : null;
+        held = hold;
+        search.setOnIteration(r -> info(r, start));
+        searcher = new Thread(() -> {
+            Search.Result result = search.search(maxDepth, timeLimit, nodeLimit);
+            if (hold != null) {
+                try {
+                    hold.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            synchronized (out) {
+                out.println("bestmove " + (result == null || result.getMove() == 0 ? "0000" : Board.toUci(result.getMove())));
+                out.flush();
+            }
+        }, "uci-search");
+        searcher.setDaemon(true);
+        searcher.start();
+    }
+
+    private void info(Search.Result r, long start) {
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        String score = r.isMate() ? "mate " + r.getMateIn() : "cp " + r.getScore();
+        synchronized (out) {
+            out.println("info depth " + r.getDepth() + " score " + score + " nodes " + r.getNodes()
+                    + " nps " + r.getNodes() * 1000 / Math.max(1, millis) + " time " + millis
+                    + (r.getMove() != 0 ? " pv " + Board.toUci(r.getMove()) : ""));
+            out.flush();
+        }
+    }
+
+    // a stop can land before the search has cleared its flag, so keep asking until it ends
+    private void stopSearch() {
+        if (searcher == null) return;
+        if (held != null) held.countDown();
+        try {
+            while (searcher.isAlive()) {
+                search.stop();
+                searcher.join(10);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        searcher = null;
+        held = null;
+        search.setOnIteration(null);
+    }
+
+    // lets a search started by go run to its own limits; nobody sends stop here, so go infinite
+    // answers once its search ends
+    private void waitForSearch() {
+        if (searcher == null) return;
+        if (held != null) held.countDown();
+        try {
+            searcher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        stopSearch();
+    }
+
+    // node counts per root move (as "divide" in other engines), then the total
+    private void perft(int depth) {
+        long start = System.nanoTime();
+        long total = 0;
+        if (depth <= 0) {
+            total = 1;
+        } else {
+            int[] moves = new int[Board.MAX_MOVES];
+            int n = board.generateLegalMoves(moves);
+            for (int i = 0; i < n; i++) {
+                board.makeMove(moves[i]);
+                long count = board.perft(depth - 1);
+                board.unmakeMove();
+                out.println(Board.toUci(moves[i]) + ": " + count);
+                total += count;
+            }
+        }
+        printTotals(total, System.nanoTime() - start);
+    }
+
+    // searches every bench position to a fixed depth from a fresh board; the node total is a
+    // signature of the search (it changes when the search does), nodes/second a speed to compare
+    private void bench(int depth) {
+        long start = System.nanoTime();
+        long total = 0;
+        for (int i = 0; i < BENCH_FENS.length; i++) {
+            board.setFen(BENCH_FENS[i]);
+            Search.Result result = search.search(depth);
+            total += search.getNodes();
+            out.println(String.format("Position %2d/%d: %s %d nodes", i + 1, BENCH_FENS.length,
+                    result.getMove() != 0 ? Board.toUci(result.getMove()) : "0000", search.getNodes()));
+        }
+        board.reset();
+        printTotals(total, System.nanoTime() - start);
+    }
+
+    private void printTotals(long nodes, long nanos) {
+        long millis = Math.max(1, nanos / 1_000_000);
+        out.println();
+        out.println("Time (ms)     : " + millis);
+        out.println("Nodes searched: " + nodes);
+        out.println("Nodes/second  : " + nodes * 1000 / millis);
+    }
+
+    // usage: Uci [command ...]   with no arguments it reads UCI commands from stdin; a go given as
+    // arguments runs until its depth, time or node limit
+    public static void main(String[] args) throws IOException {
+        Uci uci = new Uci(System.out);
+        if (args.length > 0) {
+            uci.execute(String.join(" ", args));
+            uci.waitForSearch();
+            return;
+        }
+        uci.run(new BufferedReader(new InputStreamReader(System.in)));
+    }
+}
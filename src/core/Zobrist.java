@@ -0,0 +1,50 @@
+package core;
+
+// fixed Zobrist keys for 64-bit position hashes. the seed never changes, so hashes
+// stored on disk (e.g. in a PositionIndex) stay valid across runs and JVMs
+public final class Zobrist {
+    private static final long[] PIECES = new long[2 * 6 * 64];
+    private static final long BLACK_TO_MOVE;
+    private static final long[] CASTLING = new long[4];
+    private static final long[] EN_PASSANT = new long[8];
+
+    static {
+        long[] state = {0x5EEDC0FFEE15C0DEL};
+        for (int i = 0; i < PIECES.length; i++) PIECES[i] = splitMix64(state);
+        BLACK_TO_MOVE = splitMix64(state);
+        for (int i = 0; i < CASTLING.length; i++) CASTLING[i] = splitMix64(state);
+        for (int i = 0; i < EN_PASSANT.length; i++) EN_PASSANT[i] = splitMix64(state);
+    }
+
+    private Zobrist() {
+    }
+
+    public static long piece(Player player, Rank rank, int col, int row) {
+        return PIECES[(player.ordinal() * 6 + rank.ordinal()) * 64 + row * 8 + col];
+    }
+
+    // pieceIndex = player * 6 + rank ordinal, square = row * 8 + col (see Board)
+    static long piece(int pieceIndex, int square) {
+        return PIECES[pieceIndex * 64 + square];
+    }
+
+    public static long blackToMove() {
+        return BLACK_TO_MOVE;
+    }
+
+    // 0 = white king side, 1 = white queen side, 2 = black king side, 3 = black queen side
+    public static long castling(int right) {
+        return CASTLING[right];
+    }
+
+    public static long enPassant(int col) {
+        return EN_PASSANT[col];
+    }
+
+    private static long splitMix64(long[] state) {
+        long z = (state[0] += 0x9E3779B97F4A7C15L);
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,363 @@
+package server;
+
+import core.Board;
+import core.Move;
+import core.Search;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+// position analysis for clients (hints during a game, post-game review, bulk jobs) on a pool of
+// its own low-priority threads, so a search never runs on a thread that relays moves. requests
+// wait in one bounded queue per priority class and a free worker takes the oldest request of the
+// highest class. a connection may have a few requests queued or running; what it asked for is
+// cancelled when it goes away, a running search included. lines, on a game's connection:
+//   ANALYZE <id> <hint|review|bulk> [depth n] [movetime ms] [game | startpos | fen <fen>] [moves <uci> ...]
+//   CANCEL <id>
+// "game" (the default) is the position of the game the line came in on. answers:
+//   ANALYSIS <id> <bestmove uci|0000> <cp n|mate n> depth n nodes n wait ms cpu ms
+//   ANALYSIS <id> CANCELLED
+//   ANALYSIS <id> ERROR <reason>
+class AnalysisService {
+    enum Priority {
+        // a player waiting in a live game
+        HINT,
+        // going over a finished game
+        REVIEW,
+        // anything else, e.g. a batch of positions
+        BULK
+    }
+
+    static final int DEFAULT_DEPTH = 6;
+    static final int MAX_DEPTH = 10;
+    // every search is cut off after this, whatever it asked for
+    static final long MAX_MILLIS = 5000;
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private static final class Request {
+        final Object owner;
+        final String id;
+        final Priority priority;
+        final String[] words;
+        // the game's moves for "game", else null
+        final List<String> gameMoves;
+        final Consumer<String> reply;
+        final long submitted = System.nanoTime();
+        volatile boolean cancelled;
+        // no answer once the owner is gone
+        volatile boolean quiet;
+        // set while a worker searches it
+        volatile Search search;
+
+        Request(Object owner, String id, Priority priority, String[] words, List<String> gameMoves, Consumer<String> reply) {
+            this.owner = owner;
+            this.id = id;
+            this.priority = priority;
+            this.words = words;
+            this.gameMoves = gameMoves;
+            this.reply = reply;
+        }
+
+        void cancel(boolean quietly) {
+            quiet |= quietly;
+            cancelled = true;
+            Search s = search;
+            if (s != null) s.stop();
+        }
+    }
+
+    private final int queueCapacity;
+    private final int perConnectionLimit;
+    private final AnalysisStats stats = new AnalysisStats();
+    private final List<Worker> workers = new ArrayList<>();
+
+    // guarded by this: queued requests by class, and queued or running requests by owner
+    private final List<ArrayDeque<Request>> queues = new ArrayList<>();
+    private final Map<Object, List<Request>> byOwner = new HashMap<>();
+    private boolean stopped = false;
+
+    // queueCapacity: requests waiting per class; perConnectionLimit: requests queued or running per connection
+    AnalysisService(int threads, int queueCapacity, int perConnectionLimit) {
+        this.queueCapacity = queueCapacity;
+        this.perConnectionLimit = perConnectionLimit;
+        for (int i = 0; i < Priority.values().length; i++) {
+            queues.add(new ArrayDeque<>());
+        }
+        for (int i = 0; i < threads; i++) {
+            Worker worker = new Worker("analysis-" + (i + 1));
+            workers.add(worker);
+            worker.start();
+        }
+    }
+
+    static boolean isCommand(String line) {
+        return line.startsWith("ANALYZE ") || line.startsWith("CANCEL ");
+    }
+
+    // answers a command that reached a server or game without the service
+    static void unavailable(String line, Consumer<String> reply) {
+        String[] words = line.trim().split("\\s+");
+        reply.accept("ANALYSIS " + (words.length > 1 ? words[1] : "?") + " ERROR analysis not available");
+    }
+
+    // owner: the connection the line came in on, which limits and cancellation go by;
+    // gameMoves: the moves of the game it came in on, if any
+    void handle(Object owner, String line, Supplier<List<String>> gameMoves, Consumer<String> reply) {
+        String[] words = line.trim().split("\\s+");
+        if (words.length < 2) {
+            reply.accept("ANALYSIS ? ERROR missing id");
+            return;
+        }
+        String id = words[1];
+        if (words[0].equals("CANCEL")) {
+            cancel(owner, id);
+            return;
+        }
+        Priority priority;
+        try {
+            priority = Priority.valueOf(words.length > 2 ? words[2].toUpperCase() : "");
+        } catch (IllegalArgumentException e) {
+            reply.accept("ANALYSIS " + id + " ERROR unknown priority class");
+            return;
+        }
+        boolean fromGame = true;
+        for (int i = 3; i < words.length; i++) {
+            if (words[i].equals("startpos") || words[i].equals("fen")) fromGame = false;
+        }
+        List<String> moves = null;
+        if (fromGame) {
+            moves = gameMoves != null ? gameMoves.get() : null;
+            if (moves == null) {
+                reply.accept("ANALYSIS " + id + " ERROR no game here");
+                return;
+            }
+        }
+        submit(new Request(owner, id, priority, words, moves, reply));
+    }
+
+    private void submit(Request request) {
+        String error = null;
+        synchronized (this) {
+            List<Request> owned = byOwner.computeIfAbsent(request.owner, o -> new ArrayList<>());
+            ArrayDeque<Request> queue = queues.get(request.priority.ordinal());
+            if (stopped) {
+                error = "server stopping";
+            } else if (owned.size() >= perConnectionLimit) {
+                error = "too many requests";
+            } else if (queue.size() >= queueCapacity) {
+                error = "busy";
+            } else {
+                owned.add(request);
+                queue.addLast(request);
+                notify();
+            }
+            if (owned.isEmpty()) byOwner.remove(request.owner);
+        }
+        if (error != null) {
+            stats.rejected(request.priority);
+            request.reply.accept("ANALYSIS " + request.id + " ERROR " + error);
+        }
+    }
+
+    private void cancel(Object owner, String id) {
+        List<Request> dropped = new ArrayList<>();
+        synchronized (this) {
+            List<Request> owned = byOwner.get(owner);
+            if (owned == null) return;
+            for (Request r : new ArrayList<>(owned)) {
+                if (!r.id.equals(id)) continue;
+                r.cancel(false);
+                // queued ones are answered here, running ones by their worker
+                if (queues.get(r.priority.ordinal()).remove(r)) {
+                    owned.remove(r);
+                    dropped.add(r);
+                }
+            }
+            if (owned.isEmpty()) byOwner.remove(owner);
+        }
+        for (Request r : dropped) {
+            stats.dropped(r.priority);
+            r.reply.accept("ANALYSIS " + r.id + " CANCELLED");
+        }
+    }
+
+    // the owner's connection is gone: drops its queued requests and stops its running ones
+    void cancelAll(Object owner) {
+        synchronized (this) {
+            List<Request> owned = byOwner.remove(owner);
+            if (owned == null) return;
+            for (Request r : owned) {
+                r.cancel(true);
+                if (queues.get(r.priority.ordinal()).remove(r)) stats.dropped(r.priority);
+            }
+        }
+    }
+
+    // waits for the highest-priority request; null once stopped
+    private synchronized Request take() throws InterruptedException {
+        while (!stopped) {
+            for (ArrayDeque<Request> queue : queues) {
+                Request r = queue.pollFirst();
+                if (r != null) return r;
+            }
+            wait();
+        }
+        return null;
+    }
+
+    private synchronized void done(Request request) {
+        List<Request> owned = byOwner.get(request.owner);
+        if (owned == null) return;
+        owned.remove(request);
+        if (owned.isEmpty()) byOwner.remove(request.owner);
+    }
+
+    synchronized int getQueued() {
+        int queued = 0;
+        for (ArrayDeque<Request> queue : queues) {
+            queued += queue.size();
+        }
+        return queued;
+    }
+
+    AnalysisStats getStats() {
+        return stats;
+    }
+
+    // queued requests are dropped unanswered; running searches are stopped
+    void stop() {
+        synchronized (this) {
+            stopped = true;
+            for (ArrayDeque<Request> queue : queues) {
+                queue.clear();
+            }
+            for (List<Request> owned : byOwner.values()) {
+                for (Request r : owned) {
+                    r.cancel(true);
+                }
+            }
+            byOwner.clear();
+            notifyAll();
+        }
+        for (Worker worker : workers) {
+            try {
+                worker.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return workers.size() + " workers, " + getQueued() + " queued; " + stats;
+    }
+
+    // one Board and Search per worker, reused for every request
+    private class Worker extends Thread {
+        private final Board board = new Board();
+        private final Search search = new Search(board);
+
+        Worker(String name) {
+            super(name);
+            setDaemon(true);
+            // the relay threads come first when the machine is busy
+            setPriority(Thread.MIN_PRIORITY);
+        }
+
+        @Override
+        public void run() {
+            boolean cpuTimed = THREADS.isCurrentThreadCpuTimeSupported();
+            while (true) {
+                Request request;
+                try {
+                    request = take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (request == null) return;
+                long wait = System.nanoTime() - request.submitted;
+                long cpuStart = cpuTimed ? THREADS.getCurrentThreadCpuTime() : 0;
+                String answer;
+                try {
+                    answer = analyze(request, wait);
+                } catch (RuntimeException e) {
+                    answer = "ERROR " + e.getMessage();
+                }
+                long cpu = cpuTimed ? THREADS.getCurrentThreadCpuTime() - cpuStart : -1;
+                request.search = null;
+                done(request);
+                stats.finished(request.priority, wait, cpu, request.cancelled);
+                if (request.cancelled) answer = "CANCELLED";
+                else if (!answer.startsWith("ERROR")) answer += " cpu " + (cpu >= 0 ? cpu / 1_000_000 : -1);
+                if (!request.quiet) request.reply.accept("ANALYSIS " + request.id + " " + answer);
+            }
+        }
+
+        private String analyze(Request request, long wait) {
+            String error = setPosition(request);
+            if (error != null) return "ERROR " + error;
+            int depth = DEFAULT_DEPTH;
+            long millis = MAX_MILLIS;
+            String[] words = request.words;
+            for (int i = 3; i + 1 < words.length; i++) {
+                if (words[i].equals("depth")) depth = Math.max(1, Math.min(MAX_DEPTH, Integer.parseInt(words[++i])));
+                else if (words[i].equals("movetime")) millis = Math.max(1, Math.min(MAX_MILLIS, Long.parseLong(words[++i])));
+            }
+            request.search = search;
+            // a cancel that came before the search was visible would otherwise be missed, and one
+            // in the moment before the search cleared its stop flag is caught after the next depth
+            if (request.cancelled) return "CANCELLED";
+            search.setOnIteration(r -> {
+                if (request.cancelled) search.stop();
+            });
+            Search.Result result = search.search(depth, millis, 0);
+            String move = result.getMove() != 0 ? Board.toUci(result.getMove()) : "0000";
+            String score = result.isMate() ? "mate " + result.getMateIn() : "cp " + result.getScore();
+            return move + " " + score + " depth " + result.getDepth() + " nodes " + result.getNodes()
+                    + " wait " + wait / 1_000_000;
+        }
+
+        // null, or what is wrong with the request's position
+        private String setPosition(Request request) {
+            board.reset();
+            if (request.gameMoves != null) {
+                for (String line : request.gameMoves) {
+                    int move = board.findMove(Move.parse(line));
+                    if (move == 0) return "game move " + line + " is not legal";
+                    board.makeMove(move);
+                }
+            }
+            String[] words = request.words;
+            int i = 3;
+            while (i < words.length && !words[i].equals("startpos") && !words[i].equals("fen") && !words[i].equals("moves")) {
+                i++;
+            }
+            if (i < words.length && words[i].equals("startpos")) {
+                i++;
+            } else if (i < words.length && words[i].equals("fen")) {
+                StringBuilder fen = new StringBuilder();
+                for (i++; i < words.length && !words[i].equals("moves"); i++) {
+                    fen.append(words[i]).append(' ');
+                }
+                board.setFen(fen.toString());
+            }
+            if (i < words.length && words[i].equals("moves")) {
+                for (i++; i < words.length; i++) {
+                    int move = board.parseUci(words[i]);
+                    if (move == 0) return "illegal move " + words[i];
+                    board.makeMove(move);
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package server;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// counters of an AnalysisService, per priority class
+public class AnalysisStats {
+    private static final int CLASSES = AnalysisService.Priority.values().length;
+
+    private final LongAdder[] done = adders();
+    private final LongAdder[] cancelled = adders();
+    private final LongAdder[] rejected = adders();
+    private final LongAdder[] waitNanos = adders();
+    private final LongAdder[] cpuNanos = adders();
+    private final AtomicLongArray maxWaitNanos = new AtomicLongArray(CLASSES);
+    private final AtomicLongArray maxCpuNanos = new AtomicLongArray(CLASSES);
+
+    private static LongAdder[] adders() {
+        LongAdder[] adders = new LongAdder[CLASSES];
+        for (int i = 0; i < adders.length; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    // a request left the queue for a worker after waiting; cpu is -1 where the JVM can't measure it
+    void finished(AnalysisService.Priority priority, long wait, long cpu, boolean wasCancelled) {
+        int c = priority.ordinal();
+        (wasCancelled ? cancelled : done)[c].increment();
+        waitNanos[c].add(wait);
+        maxWaitNanos.accumulateAndGet(c, wait, Math::max);
+        if (cpu >= 0) {
+            cpuNanos[c].add(cpu);
+            maxCpuNanos.accumulateAndGet(c, cpu, Math::max);
+        }
+    }
+
+    // cancelled while still queued
+    void dropped(AnalysisService.Priority priority) {
+        cancelled[priority.ordinal()].increment();
+    }
+
+    // turned away: queue full or the connection at its limit
+    void rejected(AnalysisService.Priority priority) {
+        rejected[priority.ordinal()].increment();
+    }
+
+    public long getDone(AnalysisService.Priority priority) {
+        return done[priority.ordinal()].sum();
+    }
+
+    public long getCancelled(AnalysisService.Priority priority) {
+        return cancelled[priority.ordinal()].sum();
+    }
+
+    public long getRejected(AnalysisService.Priority priority) {
+        return rejected[priority.ordinal()].sum();
+    }
+
+    // mean time from submission to a worker picking the request up, over requests that ran
+    public double getAverageWaitMillis(AnalysisService.Priority priority) {
+        long ran = done[priority.ordinal()].sum() + cancelled[priority.ordinal()].sum();
+        return ran > 0 ? waitNanos[priority.ordinal()].sum() / 1e6 / ran : 0;
+    }
+
+    public double getMaxWaitMillis(AnalysisService.Priority priority) {
+        return maxWaitNanos.get(priority.ordinal()) / 1e6;
+    }
+
+    // mean thread CPU time spent searching per request that ran
+    public double getAverageCpuMillis(AnalysisService.Priority priority) {
+        long ran = done[priority.ordinal()].sum() + cancelled[priority.ordinal()].sum();
+        return ran > 0 ? cpuNanos[priority.ordinal()].sum() / 1e6 / ran : 0;
+    }
+
+    public double getMaxCpuMillis(AnalysisService.Priority priority) {
+        return maxCpuNanos.get(priority.ordinal()) / 1e6;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (AnalysisService.Priority p : AnalysisService.Priority.values()) {
+            if (sb.length() > 0) sb.append("; ");
+            sb.append(String.format("%s %d done, %d cancelled, %d rejected, wait avg %.1f max %.1f ms, cpu avg %.1f max %.1f ms",
+                    p.name().toLowerCase(), getDone(p), getCancelled(p), getRejected(p), getAverageWaitMillis(p),
+                    getMaxWaitMillis(p), getAverageCpuMillis(p), getMaxCpuMillis(p)));
+        }
+        return sb.toString();
+    }
+}
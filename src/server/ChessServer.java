@@ -1,42 +1,119 @@
 package server;
 
+import core.ChessModel;
+import core.OpeningExplorer;
+import core.PositionCache;
+import core.Player;
+import core.PositionIndex;
+
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class ChessServer {
-    private static final int PORT = 50000;
+    private static final int DEFAULT_PORT = 50000;
+    private final int port;
     private ServerSocket serverSocket;
-    private List<GameSession> activeSessions;
-    private boolean isRunning = false;
+    // by game id, for observers
+    private Map<Long, GameSession> activeSessions;
+    private volatile boolean isRunning = false;
+    private volatile int waitingPlayers = 0;
+
+    // null = untimed games
+    private TimeControl timeControl;
+    private GameClockService clockService;
+
+    // null = finished games are not saved
+    private GameArchive archive;
+    // null = finished games are not indexed
+    private PositionIndex positionIndex;
+    // null = finished games are not counted for the opening explorer
+    private OpeningExplorer openingExplorer;
+
+    // null = traffic is not recorded
+    private TrafficCapture capture;
+
+    // null = no cache of legal moves and status shared by the server's ChessModels
+    private PositionCache positionCache;
+
+    // a multiplexed connection's queue carries many games
+    private static final int MUX_QUEUE_FACTOR = 16;
+    private ServerSocket muxSocket;
+    private final Set<MuxConnection> muxConnections = ConcurrentHashMap.newKeySet();
+    // guarded by this
+    private MuxLink waitingMux;
+
+    private OutboundQueue.Policy slowPeerPolicy = OutboundQueue.Policy.DISCONNECT;
+    private int sendQueueCapacity = 64;
+    private final OutboundStats outboundStats = new OutboundStats();
+
+    // journal, stats and observers run off the relay path, each on its own consumer thread
+    private static final int EVENT_RING_SIZE = 1 << 14;
+    private final EventRing events = new EventRing(EVENT_RING_SIZE);
+    private final EventStats eventStats = new EventStats();
+
+    // searches for clients run on the analysis pool, never on relay threads; null = no analysis
+    private static final int ANALYSIS_QUEUE = 64;
+    private static final int ANALYSIS_PER_CONNECTION = 2;
+    private AnalysisService analysis;
+
+    // games players adjourned, until they resume them; lost when the server stops
+    private static final int ADJOURNED_HOT = 1024;
+    private final SuspendedGames suspended = new SuspendedGames(ADJOURNED_HOT);
+    // guarded by this: by adjourned game id, {white, black} links that sent RESUME
+    private final Map<Long, MuxLink[]> resuming = new HashMap<>();
 
     public ChessServer() {
-        activeSessions = new ArrayList<>();
+        this(DEFAULT_PORT, null);
+    }
+
+    public ChessServer(TimeControl timeControl) {
+        this(DEFAULT_PORT, timeControl);
+    }
+
+    public ChessServer(int port, TimeControl timeControl) {
+        this.port = port;
+        activeSessions = new ConcurrentHashMap<>();
+        events.addConsumer("events-journal", new EventJournal());
+        events.addConsumer("events-stats", eventStats);
+        events.addConsumer("events-broadcast", GameSession::broadcast);
+        this.timeControl = timeControl;
+        if (timeControl != null) {
+            clockService = new GameClockService();
+            clockService.start();
+        }
     }
 
     public void start() {
         try {
-            serverSocket = new ServerSocket(PORT);
+            serverSocket = new ServerSocket(port);
             isRunning = true;
-            System.out.println("Chess Server started on port " + PORT);
+            System.out.println("Chess Server started on port " + port);
+            if (timeControl != null) {
+                System.out.println("Time control: " + timeControl);
+            }
 
             while (isRunning) {
                 try {
                     System.out.println("Waiting for players...");
                     
                     Socket player1Socket = serverSocket.accept();
+                    greet(player1Socket);
+                    waitingPlayers = 1;
                     System.out.println("Player 1 (White) connected: " + player1Socket.getInetAddress());
 
                     Socket player2Socket = serverSocket.accept();
+                    greet(player2Socket);
+                    waitingPlayers = 0;
                     System.out.println("Player 2 (Black) connected: " + player2Socket.getInetAddress());
 
-                    GameSession session = new GameSession(player1Socket, player2Socket);
-                    activeSessions.add(session);
-                    session.start();
-
-                    System.out.println("Game session started!");
+                    startSession(new GameSession(player1Socket, player2Socket, timeControl, clockService));
 
                 } catch (IOException e) {
                     if (isRunning) {
@@ -50,13 +127,136 @@ public class ChessServer {
     }
 
 
+    void startSession(GameSession session) {
+        activeSessions.put(session.getId(), session);
+        session.setOnFinished(() -> activeSessions.remove(session.getId()));
+        session.setArchive(archive);
+        session.setCapture(capture);
+        session.setEvents(events);
+        session.setAnalysis(analysis);
+        session.setSuspended(suspended);
+        session.setOutbound(slowPeerPolicy, sendQueueCapacity, outboundStats);
+        session.start();
+
+        System.out.println("Game session " + session.getId() + " started!");
+    }
+
+    // multiplexed connections: each one carries any number of games, see MuxConnection
+    public void startMux(int muxPort) throws IOException {
+        muxSocket = new ServerSocket(muxPort);
+        Thread acceptor = new Thread(() -> {
+            while (!muxSocket.isClosed()) {
+                try {
+                    Socket socket = muxSocket.accept();
+                    MuxConnection connection = new MuxConnection(this, socket, sendQueueCapacity * MUX_QUEUE_FACTOR, outboundStats);
+                    muxConnections.add(connection);
+                    connection.start();
+                } catch (IOException e) {
+                    if (!muxSocket.isClosed()) {
+                        System.err.println("Error accepting mux connection: " + e.getMessage());
+                    }
+                }
+            }
+        }, "mux-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        System.out.println("Multiplexed connections on port " + muxPort);
+    }
+
+    // a NEW game from a multiplexed connection plays the next one, on whatever connection
+    synchronized void joinMux(MuxLink link) {
+        if (waitingMux == null || !waitingMux.isOpen()) {
+            waitingMux = link;
+            return;
+        }
+        MuxLink white = waitingMux;
+        waitingMux = null;
+        startSession(new GameSession(white, link, timeControl, clockService));
+    }
+
+    // RESUME <id> <color> from a multiplexed connection: the adjourned game goes on once both
+    // colors asked for it, whoever asks (the id is all it takes). null, or why not
+    synchronized String resumeMux(MuxLink link, long gameId, Player color) {
+        if (suspended.getSnapshot(gameId) == null) return "no such adjourned game";
+        MuxLink[] seats = resuming.computeIfAbsent(gameId, id -> new MuxLink[2]);
+        int seat = color == Player.WHITE ? 0 : 1;
+        if (seats[seat] != null && seats[seat].isOpen()) return "already resumed as " + color;
+        seats[seat] = link;
+        MuxLink other = seats[1 - seat];
+        if (other == null || !other.isOpen()) return null;
+        resuming.remove(gameId);
+        GameSession session = new GameSession(seats[0], seats[1], timeControl, clockService);
+        session.resume(suspended.getSnapshot(gameId).getMoves(), suspended.getClockMillis(gameId));
+        suspended.remove(gameId);
+        startSession(session);
+        return null;
+    }
+
+    void removeMuxConnection(MuxConnection connection) {
+        muxConnections.remove(connection);
+    }
+
+    GameSession getSession(long id) {
+        return activeSessions.get(id);
+    }
+
+    TimeControl getTimeControl() {
+        return timeControl;
+    }
+
+    GameClockService getClockService() {
+        return clockService;
+    }
+
+    // tells ChessClient it reached a game server rather than a router
+    private void greet(Socket socket) throws IOException {
+        new PrintWriter(socket.getOutputStream(), true).println("HELLO");
+    }
+
+
     public void stopServer() {
         isRunning = false;
         try {
-            for (GameSession session : activeSessions) {
+            for (GameSession session : activeSessions.values()) {
                 session.stopSession(); 
             }
             activeSessions.clear();
+            if (muxSocket != null) {
+                muxSocket.close();
+            }
+            for (MuxConnection connection : muxConnections) {
+                connection.close();
+            }
+            if (clockService != null) {
+                clockService.shutdown();
+            }
+            if (archive != null) {
+                archive.close();
+            }
+            if (positionIndex != null) {
+                positionIndex.close();
+            }
+            if (openingExplorer != null) {
+                openingExplorer.close();
+            }
+            if (analysis != null) {
+                analysis.stop();
+                System.out.println("Analysis: " + analysis);
+            }
+            // sessions were stopped above; let the journal catch up before the capture closes
+            events.stop();
+            System.out.println("Events: " + events + "; " + eventStats);
+            System.out.println("Outbound: " + outboundStats);
+            if (suspended.size() > 0) {
+                System.out.println("Adjourned games dropped: " + suspended);
+            }
+            if (positionCache != null) {
+                System.out.println("Position cache: " + positionCache);
+            }
+            if (capture != null) {
+                System.out.println("Traffic capture: " + capture.getEvents() + " events");
+                capture.close();
+            }
 
             if (serverSocket != null && !serverSocket.isClosed()) {
                 serverSocket.close();
@@ -68,19 +268,197 @@ public class ChessServer {
     }
 
 
+    public void setArchive(GameArchive archive) {
+        this.archive = archive;
+    }
+
+    // indexes every archived game; catches up first on games the index missed (e.g. after a crash)
+    public void setPositionIndex(PositionIndex index) throws IOException {
+        if (archive == null) throw new IllegalStateException("a position index needs a game archive");
+        this.positionIndex = index;
+        if (index.getIndexedGames() < archive.getNextGameNumber()) {
+            long added = index.catchUp(archive.getPath());
+            System.out.println("Position index: caught up on " + added + " games");
+        }
+        archive.addOnArchived((number, game) -> {
+            try {
+                index.add(number, game.getPositionHashes());
+            } catch (IOException e) {
+                System.err.println("Cannot index game " + number + ": " + e.getMessage());
+            }
+        });
+    }
+
+    // counts every archived game into the explorer's move tree; catches up first on games it missed
+    public void setOpeningExplorer(OpeningExplorer explorer) throws IOException {
+        if (archive == null) throw new IllegalStateException("an opening explorer needs a game archive");
+        this.openingExplorer = explorer;
+        if (explorer.getGames() < archive.getNextGameNumber()) {
+            long added = explorer.catchUp(archive.getPath());
+            System.out.println("Opening explorer: caught up on " + added + " games");
+        }
+        archive.addOnArchived(explorer::add);
+    }
+
+    // every ChessModel the server creates from now on shares it. live games are relayed without
+    // one, so this only speeds up replaying games: finished ones for the archive (and the index
+    // and explorer catch-up), and a game's moves when it is adjourned
+    public void setPositionCache(PositionCache cache) {
+        this.positionCache = cache;
+        ChessModel.setDefaultPositionCache(cache);
+    }
+
+    // threads searching positions clients ask about (ANALYZE lines); 0 turns analysis off
+    public void setAnalysisThreads(int threads) {
+        if (analysis != null) analysis.stop();
+        analysis = threads > 0 ? new AnalysisService(threads, ANALYSIS_QUEUE, ANALYSIS_PER_CONNECTION) : null;
+    }
+
+    AnalysisService getAnalysis() {
+        return analysis;
+    }
+
+    public AnalysisStats getAnalysisStats() {
+        return analysis != null ? analysis.getStats() : null;
+    }
+
+    // records every session for client.TrafficReplay
+    public void setCapture(TrafficCapture capture) {
+        this.capture = capture;
+    }
+
+    // a player whose connection has capacity unsent messages is dropped, or (SNAPSHOT) gets the
+    // whole game as one SYNC line instead of the backlog
+    public void setSlowPeerPolicy(OutboundQueue.Policy policy, int capacity) {
+        this.slowPeerPolicy = policy;
+        this.sendQueueCapacity = capacity;
+    }
+
+    public OutboundStats getOutboundStats() {
+        return outboundStats;
+    }
+
+    public EventStats getEventStats() {
+        return eventStats;
+    }
+
     public int getActiveSessionCount() {
         return activeSessions.size();
     }
 
+    public int getWaitingPlayerCount() {
+        MuxLink waiting;
+        synchronized (this) {
+            waiting = waitingMux;
+        }
+        return waitingPlayers + (waiting != null && waiting.isOpen() ? 1 : 0);
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+
+    private static final String USAGE = "Usage: ChessServer [timeControl] [--port n] [--router host:port] [--pgn games.pgn [--index dir] [--openings dir]]"
+            + " [--slow-peer disconnect|snapshot] [--send-queue n] [--capture traffic.bin] [--mux-port n] [--position-cache n] [--analysis-threads n]";
+
+    // usage: ChessServer [timeControl] [--port n] [--router host:port] [--pgn games.pgn [--index dir] [--openings dir]]
+    //                   [--slow-peer disconnect|snapshot] [--send-queue n] [--capture traffic.bin] [--mux-port n]
+    //                   [--position-cache n] [--analysis-threads n]
+    // time control such as "5+3" (minutes + increment) or "5d3" (minutes, delay);
+    // --router makes this process a shard that reports its load to a SessionRouter;
+    // --pgn appends every finished game to a PGN file, --index keeps a PositionIndex of that file up to date,
+    // --openings the move tree of an OpeningExplorer (built with core.OpeningTreeBuilder, or empty);
+    // --slow-peer / --send-queue: what happens to a player n messages behind (default disconnect, 64);
+    // --capture records all client traffic for client.TrafficReplay;
+    // --mux-port also accepts connections that carry many games each (see MuxConnection);
+    // --position-cache keeps legal moves and status of up to n positions for replaying games
+    //   (archive, index and explorer catch-up, adjourning); moves in live games are not validated;
+    // --analysis-threads: workers for ANALYZE requests (default 1, 0 = off), see AnalysisService
+    public static void main(String[] args) throws IOException {
+        TimeControl timeControl = null;
+        int port = DEFAULT_PORT;
+        String router = null;
+        String pgn = null;
+        String index = null;
+        String openings = null;
+        OutboundQueue.Policy slowPeer = OutboundQueue.Policy.DISCONNECT;
+        int sendQueue = 64;
+        String capture = null;
+        int muxPort = -1;
+        int positionCache = 0;
+        int analysisThreads = 1;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--port") && i + 1 < args.length) {
+                port = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--router") && i + 1 < args.length) {
+                router = args[++i];
+            } else if (args[i].equals("--pgn") && i + 1 < args.length) {
+                pgn = args[++i];
+            } else if (args[i].equals("--index") && i + 1 < args.length) {
+                index = args[++i];
+            } else if (args[i].equals("--openings") && i + 1 < args.length) {
+                openings = args[++i];
+            } else if (args[i].equals("--slow-peer") && i + 1 < args.length) {
+                slowPeer = OutboundQueue.Policy.valueOf(args[++i].toUpperCase());
+            } else if (args[i].equals("--send-queue") && i + 1 < args.length) {
+                sendQueue = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--capture") && i + 1 < args.length) {
+                capture = args[++i];
+            } else if (args[i].equals("--mux-port") && i + 1 < args.length) {
+                muxPort = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--position-cache") && i + 1 < args.length) {
+                positionCache = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--analysis-threads") && i + 1 < args.length) {
+                analysisThreads = Integer.parseInt(args[++i]);
+            } else if (args[i].startsWith("--")) {
+                System.err.println("Unknown option or missing value: " + args[i]);
+                System.err.println(USAGE);
+                return;
+            } else {
+                try {
+                    timeControl = TimeControl.parse(args[i]);
+                } catch (NumberFormatException e) {
+                    System.err.println("Bad time control: " + args[i] + " (e.g. 5+3 or 5d3)");
+                    System.err.println(USAGE);
+                    return;
+                }
+            }
+        }
 
-    public static void main(String[] args) {
-        ChessServer server = new ChessServer();
+        ChessServer server = new ChessServer(port, timeControl);
+        server.setSlowPeerPolicy(slowPeer, sendQueue);
+        server.setAnalysisThreads(analysisThreads);
+        if (positionCache > 0) {
+            server.setPositionCache(new PositionCache(positionCache));
+        }
+        if (capture != null) {
+            server.setCapture(new TrafficCapture(Paths.get(capture)));
+        }
+        if (pgn != null) {
+            server.setArchive(new GameArchive(Paths.get(pgn)));
+            if (index != null) {
+                server.setPositionIndex(new PositionIndex(Paths.get(index)));
+            }
+            if (openings != null) {
+                server.setOpeningExplorer(new OpeningExplorer(Paths.get(openings)));
+            }
+        }
         
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             System.out.println("\nShutting down server...");
             server.stopServer();
         }));
 
+        if (muxPort >= 0) {
+            server.startMux(muxPort);
+        }
+
+        if (router != null) {
+            int sep = router.lastIndexOf(':');
+            new ShardReporter(server, router.substring(0, sep), Integer.parseInt(router.substring(sep + 1))).start();
+        }
+
         server.start();
     }
 }
\ No newline at end of file
@@ -0,0 +1,27 @@
+package server;
+
+// the per-move log lines and the traffic capture, written off the relay path. log lines of a
+// batch go out in one print
+class EventJournal implements EventRing.Handler {
+    private final StringBuilder batch = new StringBuilder();
+
+    @Override
+    public void onEvent(GameEvent event, boolean endOfBatch) {
+        TrafficCapture capture = event.session.getCapture();
+        switch (event.type) {
+            case MOVE:
+                batch.append(event.source).append(" move #").append(event.number).append(": ").append(event.move).append('\n');
+                if (capture != null) capture.line(event.session.getCaptureSession(), event.player, event.move, event.nanos);
+                break;
+            case LEFT:
+                if (capture != null) capture.disconnect(event.session.getCaptureSession(), event.player, event.nanos);
+                break;
+            default:
+                break;
+        }
+        if (endOfBatch && batch.length() > 0) {
+            System.out.print(batch);
+            batch.setLength(0);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package server;
+
+import core.Player;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+// a preallocated ring of GameEvents between the threads that relay moves and the threads that do
+// everything else with them (journal, stats, observers). publishing claims a slot with one atomic
+// increment, fills the reused event and marks the slot published: no allocation, no lock. each
+// consumer runs on its own thread with its own cursor and hands every ready event to its handler
+// in one batch, and an idle one spins, yields, parks briefly and then sleeps until a publish wakes
+// it. a producer that would lap the slowest consumer waits for it, so a stuck consumer slows
+// relaying down instead of losing events; claim() and publish() are separate so a caller can take
+// its place in the order under a lock and do that waiting after releasing it
+class EventRing {
+    interface Handler {
+        // endOfBatch: nothing more is ready for now, e.g. time to flush
+        void onEvent(GameEvent event, boolean endOfBatch);
+    }
+
+    private static final int SPINS = 100;
+    // short parks an idle consumer takes before it sleeps until woken
+    private static final int PARKS = 10;
+    private static final long PARK_NANOS = 100_000;
+
+    private final GameEvent[] slots;
+    private final int mask;
+    // the sequence last published in each slot; -1 until the first lap
+    private final AtomicLongArray published;
+    private final AtomicLong next = new AtomicLong();
+    private final List<Consumer> consumers = new CopyOnWriteArrayList<>();
+    private final AtomicLong producerWaits = new AtomicLong();
+    // consumers asleep in park(), so a publish only looks for them when there are some
+    private final AtomicInteger sleepers = new AtomicInteger();
+    private volatile boolean stopped = false;
+
+    // capacity is rounded up to a power of two
+    EventRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        slots = new GameEvent[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new GameEvent();
+        }
+        mask = size - 1;
+        published = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            published.set(i, -1);
+        }
+    }
+
+    // consumers must be added before the first publish, or they miss what came before
+    void addConsumer(String name, Handler handler) {
+        Consumer consumer = new Consumer(name, handler);
+        consumers.add(consumer);
+        consumer.start();
+    }
+
+    void publish(GameEvent.Type type, GameSession session, Player player, String line, String move,
+                 String source, int number, int index) {
+        publish(claim(), type, session, player, line, move, source, number, index);
+    }
+
+    // the sequence of the next event; consumers see events in claim order, and none after this
+    // one until it is published, so every claimed sequence must be published
+    long claim() {
+        return next.getAndIncrement();
+    }
+
+    // may wait for the slowest consumer to make room
+    void publish(long seq, GameEvent.Type type, GameSession session, Player player, String line, String move,
+                 String source, int number, int index) {
+        if (seq - slots.length >= minCursor()) {
+            producerWaits.incrementAndGet();
+            while (!stopped && seq - slots.length >= minCursor()) {
+                LockSupport.parkNanos(PARK_NANOS);
+            }
+        }
+        int slot = (int) seq & mask;
+        slots[slot].set(type, session, player, line, move, source, number, index);
+        // the volatile write makes the event's fields visible to consumers that see the sequence
+        published.set(slot, seq);
+        // a consumer counts itself in before its last look, so either it sees this event or we see it
+        if (sleepers.get() > 0) {
+            for (Consumer consumer : consumers) {
+                if (consumer.sleeping) LockSupport.unpark(consumer);
+            }
+        }
+    }
+
+    private long minCursor() {
+        long min = Long.MAX_VALUE;
+        for (Consumer consumer : consumers) {
+            min = Math.min(min, consumer.cursor);
+        }
+        return min;
+    }
+
+    // lets the consumers drain what was published, then ends them
+    void stop() {
+        stopped = true;
+        for (Consumer consumer : consumers) {
+            consumer.interrupt();
+            try {
+                consumer.join(2000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return next.get() + " events in " + slots.length + " slots, " + producerWaits.get() + " publishes waited";
+    }
+
+    private class Consumer extends Thread {
+        private final Handler handler;
+        // next sequence to handle; everything before it may be overwritten
+        volatile long cursor = 0;
+        volatile boolean sleeping = false;
+
+        Consumer(String name, Handler handler) {
+            super(name);
+            setDaemon(true);
+            this.handler = handler;
+        }
+
+        @Override
+        public void run() {
+            int idle = 0;
+            while (true) {
+                long start = cursor;
+                long end = start;
+                while (end - start < slots.length && published.get((int) end & mask) == end) {
+                    end++;
+                }
+                if (end == start) {
+                    if (stopped && next.get() <= start) break;
+                    // spin briefly for bursts, then back off, then sleep until a publish or stop()
+                    if (++idle < SPINS) Thread.onSpinWait();
+                    else if (idle < SPINS * 2) Thread.yield();
+                    else if (idle < SPINS * 2 + PARKS) LockSupport.parkNanos(PARK_NANOS);
+                    else sleepUntilPublished(start);
+                    continue;
+                }
+                idle = 0;
+                for (long seq = start; seq < end; seq++) {
+                    try {
+                        handler.onEvent(slots[(int) seq & mask], seq == end - 1);
+                    } catch (RuntimeException e) {
+                        System.err.println(getName() + ": " + e);
+                    }
+                }
+                cursor = end;
+            }
+        }
+
+        private void sleepUntilPublished(long seq) {
+            sleeping = true;
+            sleepers.incrementAndGet();
+            if (published.get((int) seq & mask) != seq && !stopped) LockSupport.park(this);
+            sleepers.decrementAndGet();
+            sleeping = false;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package server;
+
+// counts what the EventRing carried; only its consumer thread writes, anyone may read
+public class EventStats implements EventRing.Handler {
+    private volatile long moves;
+    private volatile long flags;
+    private volatile long disconnects;
+    private volatile long finished;
+    private volatile long batches;
+    private volatile long maxBatch;
+    private long batchSize;
+
+    @Override
+    public void onEvent(GameEvent event, boolean endOfBatch) {
+        switch (event.type) {
+            case MOVE:
+                moves++;
+                break;
+            case FLAG:
+                flags++;
+                break;
+            case LEFT:
+                disconnects++;
+                break;
+            case FINISHED:
+                finished++;
+                break;
+        }
+        batchSize++;
+        if (endOfBatch) {
+            batches++;
+            if (batchSize > maxBatch) maxBatch = batchSize;
+            batchSize = 0;
+        }
+    }
+
+    public long getMoves() {
+        return moves;
+    }
+
+    public long getFinishedGames() {
+        return finished;
+    }
+
+    @Override
+    public String toString() {
+        long events = moves + flags + disconnects + finished;
+        return moves + " moves, " + flags + " flags, " + disconnects + " disconnects, " + finished + " games finished; "
+                + batches + " batches (avg " + (batches > 0 ? events / batches : 0) + ", max " + maxBatch + ")";
+    }
+}
@@ -0,0 +1,108 @@
+package server;
+
+import core.Move;
+import core.PgnGame;
+import core.PgnReader;
+import core.PgnWriter;
+import core.Player;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiConsumer;
+
+// appends every finished server game to a PGN file
+public class GameArchive implements Closeable {
+    private final PgnWriter writer;
+    private final Path path;
+    private long gamesWritten = 0;
+    // number the next game gets: its 0-based position in the file
+    private long nextGameNumber = 0;
+    private final List<BiConsumer<Long, PgnGame>> onArchived = new CopyOnWriteArrayList<>();
+
+    public GameArchive(Path path) throws IOException {
+        this.path = path;
+        if (Files.exists(path)) {
+            try (PgnReader reader = new PgnReader(path)) {
+                while (reader.next() != null) {
+                    nextGameNumber++;
+                }
+            }
+        }
+        this.writer = PgnWriter.open(path, true);
+    }
+
+    // called with the game number and the game after each game is written, e.g. to update a
+    // PositionIndex or an OpeningExplorer; listeners run in the order they were added
+    public void addOnArchived(BiConsumer<Long, PgnGame> listener) {
+        onArchived.add(listener);
+    }
+
+    // wireMoves are the relayed lines ("fromCol,fromRow,toCol,toRow[,RANK]"); flagged is null unless a clock ran out
+    public void record(String white, String black, List<String> wireMoves, Player flagged) {
+        List<Move> moves = new ArrayList<>(wireMoves.size());
+        for (String line : wireMoves) {
+            try {
+                moves.add(Move.parse(line));
+            } catch (RuntimeException e) {
+                // not a move line
+            }
+        }
+
+        Map<String, String> tags = new LinkedHashMap<>();
+        tags.put("Event", "Online game");
+        tags.put("Site", "ChessServer");
+        tags.put("Date", new SimpleDateFormat("yyyy.MM.dd").format(new Date()));
+        tags.put("Round", "-");
+        tags.put("White", white);
+        tags.put("Black", black);
+        if (flagged != null) {
+            tags.put("Result", flagged == Player.WHITE ? "0-1" : "1-0");
+            tags.put("Termination", "time forfeit");
+        }
+
+        PgnGame game = PgnGame.fromMoves(moves, tags);
+        long number;
+        try {
+            // numbers must follow file order
+            synchronized (this) {
+                writer.write(game);
+                writer.flush();
+                gamesWritten++;
+                number = nextGameNumber++;
+            }
+        } catch (IOException e) {
+            System.err.println("Cannot archive game: " + e.getMessage());
+            return;
+        }
+        game.setNumber(number);
+        for (BiConsumer<Long, PgnGame> listener : onArchived) {
+            listener.accept(number, game);
+        }
+    }
+
+    public synchronized long getGamesWritten() {
+        return gamesWritten;
+    }
+
+    public synchronized long getNextGameNumber() {
+        return nextGameNumber;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
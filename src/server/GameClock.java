@@ -0,0 +1,128 @@
+package server;
+
+import core.Player;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// server-side chess clock for one game. white's clock starts after white's first move
+public class GameClock {
+    public enum MoveTiming {
+        ACCEPTED,
+        // not the player's turn: the line is not a move, and is not charged or relayed
+        OUT_OF_TURN,
+        // the mover had already run out of time
+        FLAGGED
+    }
+
+    private final TimeControl timeControl;
+    private final GameClockService service;
+    private final Consumer<Player> onFlag;
+
+    private long whiteRemainingNanos;
+    private long blackRemainingNanos;
+    private Player toMove = Player.WHITE;
+    private long turnStartedAt = -1;
+    private boolean flagged = false;
+    private TimingWheel.Timeout flagTimeout;
+
+    public GameClock(TimeControl timeControl, GameClockService service, Consumer<Player> onFlag) {
+        this.timeControl = timeControl;
+        this.service = service;
+        this.onFlag = onFlag;
+        this.whiteRemainingNanos = TimeUnit.MILLISECONDS.toNanos(timeControl.getBaseMillis());
+        this.blackRemainingNanos = whiteRemainingNanos;
+    }
+
+    public synchronized MoveTiming onMove(Player player) {
+        if (flagged) return MoveTiming.FLAGGED;
+        if (player != toMove) return MoveTiming.OUT_OF_TURN;
+
+        long now = System.nanoTime();
+        if (turnStartedAt >= 0) {
+            long charged = Math.max(0, now - turnStartedAt - TimeUnit.MILLISECONDS.toNanos(timeControl.getDelayMillis()));
+            long remaining = remaining(player) - charged;
+            if (remaining <= 0) {
+                setRemaining(player, 0);
+                flag(player);
+                return MoveTiming.FLAGGED;
+            }
+            setRemaining(player, remaining + TimeUnit.MILLISECONDS.toNanos(timeControl.getIncrementMillis()));
+        }
+
+        toMove = player == Player.WHITE ? Player.BLACK : Player.WHITE;
+        turnStartedAt = now;
+        service.cancel(flagTimeout);
+        long deadline = now + TimeUnit.MILLISECONDS.toNanos(timeControl.getDelayMillis()) + remaining(toMove);
+        flagTimeout = service.schedule(deadline, this::onTimeout);
+        return MoveTiming.ACCEPTED;
+    }
+
+    private synchronized void onTimeout() {
+        if (flagged || turnStartedAt < 0) return;
+        long charged = System.nanoTime() - turnStartedAt - TimeUnit.MILLISECONDS.toNanos(timeControl.getDelayMillis());
+        if (charged < remaining(toMove)) {
+            // a move got in just before the flag fell; its own timeout is already scheduled
+            return;
+        }
+        setRemaining(toMove, 0);
+        flag(toMove);
+    }
+
+    private void flag(Player player) {
+        flagged = true;
+        service.cancel(flagTimeout);
+        onFlag.accept(player);
+    }
+
+    public synchronized void stop() {
+        flagged = true;
+        service.cancel(flagTimeout);
+    }
+
+    // stops the clock of a game being adjourned: remaining millis {white, black} as of now, or
+    // null if a flag fell first
+    public synchronized long[] adjourn() {
+        if (flagged) return null;
+        long[] millis = snapshotMillis();
+        stop();
+        return millis;
+    }
+
+    // an adjourned game goes on, before any move: toMove's time runs from now, unless nobody
+    // has moved yet (white's clock starts after white's first move, as in a new game)
+    public synchronized void resume(long whiteMillis, long blackMillis, Player toMove, boolean started) {
+        whiteRemainingNanos = TimeUnit.MILLISECONDS.toNanos(whiteMillis);
+        blackRemainingNanos = TimeUnit.MILLISECONDS.toNanos(blackMillis);
+        this.toMove = toMove;
+        if (!started) return;
+        turnStartedAt = System.nanoTime();
+        long deadline = turnStartedAt + TimeUnit.MILLISECONDS.toNanos(timeControl.getDelayMillis()) + remaining(toMove);
+        flagTimeout = service.schedule(deadline, this::onTimeout);
+    }
+
+    // remaining time of both players as of now, for the clock message sent with each move
+    public synchronized long[] snapshotMillis() {
+        long white = whiteRemainingNanos;
+        long black = blackRemainingNanos;
+        if (!flagged && turnStartedAt >= 0) {
+            long charged = Math.max(0, System.nanoTime() - turnStartedAt - TimeUnit.MILLISECONDS.toNanos(timeControl.getDelayMillis()));
+            if (toMove == Player.WHITE) white = Math.max(0, white - charged);
+            else black = Math.max(0, black - charged);
+        }
+        return new long[] {TimeUnit.NANOSECONDS.toMillis(white), TimeUnit.NANOSECONDS.toMillis(black)};
+    }
+
+    public synchronized Player getPlayerToMove() {
+        return toMove;
+    }
+
+    private long remaining(Player player) {
+        return player == Player.WHITE ? whiteRemainingNanos : blackRemainingNanos;
+    }
+
+    private void setRemaining(Player player, long nanos) {
+        if (player == Player.WHITE) whiteRemainingNanos = nanos;
+        else blackRemainingNanos = nanos;
+    }
+}
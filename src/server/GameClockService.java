@@ -0,0 +1,61 @@
+package server;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+// one thread driving a TimingWheel for every game clock on the server
+public class GameClockService extends Thread {
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final TimingWheel wheel;
+    private final ConcurrentLinkedQueue<TimingWheel.Timeout> pendingAdds = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<TimingWheel.Timeout> pendingCancels = new ConcurrentLinkedQueue<>();
+    private volatile boolean running = true;
+
+    public GameClockService() {
+        super("game-clock");
+        setDaemon(true);
+        wheel = new TimingWheel(TICK_NANOS, System.nanoTime());
+    }
+
+    // safe to call from any thread; the task runs on the clock thread and must be short
+    public TimingWheel.Timeout schedule(long deadlineNanos, Runnable task) {
+        TimingWheel.Timeout timeout = new TimingWheel.Timeout(deadlineNanos, task);
+        pendingAdds.add(timeout);
+        return timeout;
+    }
+
+    public void cancel(TimingWheel.Timeout timeout) {
+        if (timeout == null || timeout.isCancelled()) return;
+        timeout.markCancelled();
+        pendingCancels.add(timeout);
+    }
+
+    @Override
+    public void run() {
+        long nextTick = System.nanoTime() + TICK_NANOS;
+        while (running) {
+            long now = System.nanoTime();
+            if (now < nextTick) {
+                LockSupport.parkNanos(nextTick - now);
+                continue;
+            }
+            nextTick = Math.max(nextTick + TICK_NANOS, now);
+
+            TimingWheel.Timeout t;
+            while ((t = pendingCancels.poll()) != null) {
+                wheel.remove(t);
+            }
+            while ((t = pendingAdds.poll()) != null) {
+                wheel.add(t);
+            }
+            wheel.advanceTo(now);
+        }
+    }
+
+    public void shutdown() {
+        running = false;
+        interrupt();
+    }
+}
@@ -0,0 +1,43 @@
+package server;
+
+import core.Player;
+
+// one slot of the EventRing. slots are allocated once and overwritten, so a handler must copy
+// whatever it keeps past its onEvent call
+final class GameEvent {
+    enum Type {
+        // a player's line was accepted and relayed
+        MOVE,
+        // the player to move ran out of time
+        FLAG,
+        // a player's connection to the game ended
+        LEFT,
+        // both players have left; the session is done
+        FINISHED
+    }
+
+    Type type;
+    GameSession session;
+    Player player;
+    // MOVE: the line as the opponent got it (with the clock), FLAG: the FLAG line
+    String line;
+    // MOVE: the player's raw line, for the journal
+    String move;
+    String source;
+    // MOVE: lines received by the session so far; index: position of the move in the session's log
+    int number;
+    int index;
+    long nanos;
+
+    void set(Type type, GameSession session, Player player, String line, String move, String source, int number, int index) {
+        this.type = type;
+        this.session = session;
+        this.player = player;
+        this.line = line;
+        this.move = move;
+        this.source = source;
+        this.number = number;
+        this.index = index;
+        this.nanos = System.nanoTime();
+    }
+}
@@ -1,95 +1,497 @@
 package server;
 
-import java.io.IOException;
-import java.io.PrintWriter;
+import core.ChessModel;
+import core.Move;
+import core.Player;
+
 import java.net.Socket;
-import java.util.Scanner;
-
-public class GameSession extends Thread {
-    private Socket player1Socket; 
-    private Socket player2Socket; 
-    
-    private PrintWriter player1Out;
-    private PrintWriter player2Out;
-    
-    private Scanner player1In;
-    private Scanner player2In;
-    
-    private boolean running = false;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+// one game: relays each player's lines to the other, runs the clock, and archives the game once
+// both players have left, unless they adjourned it (see onAdjourn). players are PlayerLinks, so a game can run on two sockets of its own or
+// on multiplexed connections shared with other games. with an EventRing set, logging, capture
+// and observers are fed from the ring on other threads; the relay path only publishes
+public class GameSession {
+    private static final AtomicLong nextId = new AtomicLong(1);
+    // archiving may be slow; it must not run on the clock thread that ends a game by flag
+    private static final ExecutorService finisher = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "session-finisher");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final long id = nextId.getAndIncrement();
+    private Socket player1Socket;
+    private Socket player2Socket;
+
+    private PlayerLink white;
+    private PlayerLink black;
+    private final List<Observer> observers = new CopyOnWriteArrayList<>();
+
+    private volatile boolean running = false;
+    private boolean stopped = false;
+    // guarded by this
+    private boolean whiteLeft = false;
+    private boolean blackLeft = false;
     private int moveCount = 0;
 
+    // null for untimed games
+    private GameClock clock;
+    private Runnable onFinished;
+
+    // moves as relayed, kept for the archive; also the lock every send happens under, so a
+    // snapshot never races a move being relayed
+    private final List<String> moveLog = Collections.synchronizedList(new ArrayList<>());
+    private volatile Player flaggedPlayer;
+    private volatile String lastClock;
+    private GameArchive archive;
+
+    private OutboundQueue.Policy slowPeerPolicy = OutboundQueue.Policy.DISCONNECT;
+    private int sendQueueCapacity = 64;
+    private OutboundStats outboundStats = new OutboundStats();
+
+    // null = traffic is not recorded
+    private TrafficCapture capture;
+    private long captureSession;
+    // null = side effects run inline on the caller's thread
+    private EventRing events;
+    // null = ANALYZE lines are answered with an error
+    private AnalysisService analysis;
+    // null = ADJOURN lines are refused
+    private SuspendedGames suspended;
+    // guarded by moveLog: who offered to adjourn (a move withdraws it)
+    private Player adjournOffer;
+    // set under moveLog
+    private volatile boolean adjourned = false;
+    // the game goes on from an adjourned one; its players get the moves so far as a SYNC line
+    private boolean resumed = false;
+
+    // an observer has every move up to syncedMoves (and the flag, if it fell) from its SYNC line
+    private static final class Observer {
+        final PlayerLink link;
+        final int syncedMoves;
+        final boolean syncedFlag;
+
+        Observer(PlayerLink link, int syncedMoves, boolean syncedFlag) {
+            this.link = link;
+            this.syncedMoves = syncedMoves;
+            this.syncedFlag = syncedFlag;
+        }
+    }
+
     public GameSession(Socket player1Socket, Socket player2Socket) {
+        this(player1Socket, player2Socket, null, null);
+    }
+
+    public GameSession(Socket player1Socket, Socket player2Socket, TimeControl timeControl, GameClockService clockService) {
         this.player1Socket = player1Socket;
         this.player2Socket = player2Socket;
+        if (timeControl != null && clockService != null) {
+            this.clock = new GameClock(timeControl, clockService, this::flagFell);
+        }
+    }
+
+    GameSession(PlayerLink white, PlayerLink black, TimeControl timeControl, GameClockService clockService) {
+        this.white = white;
+        this.black = black;
+        if (timeControl != null && clockService != null) {
+            this.clock = new GameClock(timeControl, clockService, this::flagFell);
+        }
     }
 
-    @Override
-    public void run() {
-        try {
-            player1Out = new PrintWriter(player1Socket.getOutputStream(), true);
-            player2Out = new PrintWriter(player2Socket.getOutputStream(), true);
-            
-            player1In = new Scanner(player1Socket.getInputStream());
-            player2In = new Scanner(player2Socket.getInputStream());
-            
-            running = true;
-            
-            Thread player1Thread = new Thread(() -> listenToPlayer(player1In, player2Out, "Player 1 (White)"));
-            Thread player2Thread = new Thread(() -> listenToPlayer(player2In, player1Out, "Player 2 (Black)"));
-            
-            player1Thread.start();
-            player2Thread.start();
-            
-            player1Thread.join();
-            player2Thread.join();
-            
-        } catch (IOException | InterruptedException e) {
-            System.err.println("Game session error: " + e.getMessage());
-        } finally {
-            stopSession();
-        }
-    }
-
-    private void listenToPlayer(Scanner in, PrintWriter opponentOut, String playerName) {
-        try {
-            while (running && in.hasNextLine()) {
-                String move = in.nextLine();
-                moveCount++;
-                
-                System.out.println(playerName + " move #" + moveCount + ": " + move);
-                
-                if (opponentOut != null && running) {
-                    opponentOut.println(move);
+    public void start() {
+        if (white == null) {
+            white = new SocketLink(player1Socket, "Player 1 (White)",
+                    new OutboundQueue(player1Socket, "Player 1 (White)", sendQueueCapacity, slowPeerPolicy, this::snapshot, outboundStats));
+            black = new SocketLink(player2Socket, "Player 2 (Black)",
+                    new OutboundQueue(player2Socket, "Player 2 (Black)", sendQueueCapacity, slowPeerPolicy, this::snapshot, outboundStats));
+        }
+        running = true;
+        if (capture != null) {
+            captureSession = capture.newSession();
+            capture.connect(captureSession, Player.WHITE);
+            capture.connect(captureSession, Player.BLACK);
+        }
+        white.start(this, Player.WHITE);
+        black.start(this, Player.BLACK);
+        if (resumed) {
+            synchronized (moveLog) {
+                for (String line : snapshot()) {
+                    white.send(line);
+                    black.send(line);
                 }
             }
-        } catch (Exception e) {
+        }
+
+        if (clock != null) {
+            sendClock(white);
+            sendClock(black);
+        }
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public void setOnFinished(Runnable onFinished) {
+        this.onFinished = onFinished;
+    }
+
+    public void setArchive(GameArchive archive) {
+        this.archive = archive;
+    }
+
+    public void setCapture(TrafficCapture capture) {
+        this.capture = capture;
+    }
+
+    void setEvents(EventRing events) {
+        this.events = events;
+    }
+
+    void setAnalysis(AnalysisService analysis) {
+        this.analysis = analysis;
+    }
+
+    void setSuspended(SuspendedGames suspended) {
+        this.suspended = suspended;
+    }
+
+    // before start: goes on with an adjourned game, its moves and clocks ({white, black} millis,
+    // null if it was untimed) as they were
+    void resume(List<Move> moves, long[] clockMillis) {
+        for (Move move : moves) {
+            moveLog.add(move.toString());
+        }
+        synchronized (this) {
+            moveCount = moves.size();
+        }
+        resumed = true;
+        if (clock != null && clockMillis != null) {
+            clock.resume(clockMillis[0], clockMillis[1], moves.size() % 2 == 0 ? Player.WHITE : Player.BLACK, !moves.isEmpty());
+        }
+    }
+
+    // a player's connection is gone, so is whatever it asked to have analysed
+    void cancelAnalysis(PlayerLink link) {
+        if (analysis != null) analysis.cancelAll(link.getConnection());
+    }
+
+    TrafficCapture getCapture() {
+        return capture;
+    }
+
+    long getCaptureSession() {
+        return captureSession;
+    }
+
+    // what to do when a player stops reading and capacity messages pile up for them
+    public void setOutbound(OutboundQueue.Policy slowPeerPolicy, int sendQueueCapacity, OutboundStats stats) {
+        this.slowPeerPolicy = slowPeerPolicy;
+        this.sendQueueCapacity = sendQueueCapacity;
+        this.outboundStats = stats;
+    }
+
+    // a line from a player; returns false once the player has nothing more to say in this game
+    boolean onLine(Player player, String move, String playerName) {
+        if (!running) return false;
+        // analysis requests share the connection but are not part of the game: no move, no clock
+        if (AnalysisService.isCommand(move)) {
+            PlayerLink own = player == Player.WHITE ? white : black;
+            if (analysis != null) analysis.handle(own.getConnection(), move, () -> new ArrayList<>(moveLog), line -> sendControl(own, line));
+            else AnalysisService.unavailable(move, line -> sendControl(own, line));
+            return true;
+        }
+        if (move.equals("ADJOURN")) {
+            onAdjourn(player);
+            return true;
+        }
+        if (clock != null) {
+            GameClock.MoveTiming timing = clock.onMove(player);
+            if (timing == GameClock.MoveTiming.FLAGGED) return false;
+            // a line out of turn would reach the opponent without costing any time
+            if (timing == GameClock.MoveTiming.OUT_OF_TURN) {
+                System.err.println(playerName + ": line out of turn dropped: " + move);
+                return true;
+            }
+        }
+        // only lines the clock took count as moves
+        int number;
+        synchronized (this) {
+            number = ++moveCount;
+        }
+        PlayerLink own = player == Player.WHITE ? white : black;
+        PlayerLink opponent = player == Player.WHITE ? black : white;
+        // clock state rides along with the relayed move; the mover gets it as a separate line
+        String clockStr = clock != null ? clockMessage() : null;
+        String relayed = clockStr != null ? move + " " + clockStr : move;
+        // ordered under moveLog, so observers get moves in log order
+        long seq;
+        int index;
+        synchronized (moveLog) {
+            // packed already, without this move
+            if (adjourned) return false;
+            moveLog.add(move);
+            adjournOffer = null;
             if (running) {
-                System.err.println(playerName + " disconnected: " + e.getMessage());
+                opponent.send(relayed);
+                if (clockStr != null) own.send(clockStr);
             }
-        } finally {
-            System.out.println(playerName + " stopped listening");
+            index = moveLog.size();
+            seq = claim();
+            if (events == null) publish(seq, GameEvent.Type.MOVE, player, relayed, move, playerName, number, index);
         }
+        if (events != null) publish(seq, GameEvent.Type.MOVE, player, relayed, move, playerName, number, index);
+        return true;
     }
 
-    public void stopSession() {
-        running = false;
-        try {
-            if (player1In != null) player1In.close();
-            if (player2In != null) player2In.close();
-            if (player1Out != null) player1Out.close();
-            if (player2Out != null) player2Out.close();
-            
-            if (player1Socket != null && !player1Socket.isClosed()) {
-                player1Socket.close();
+    // ADJOURN from one player goes to the other as an offer, and the same line back accepts it.
+    // the game is then packed into the server's SuspendedGames under this game's id, both players
+    // get "ADJOURNED <id>", and the session ends without archiving; two RESUME lines on a
+    // multiplexed connection go on with it (see MuxConnection). "ADJOURN FAILED <reason>" if not
+    private void onAdjourn(Player player) {
+        PlayerLink own = player == Player.WHITE ? white : black;
+        PlayerLink opponent = player == Player.WHITE ? black : white;
+        if (suspended == null) {
+            sendControl(own, "ADJOURN FAILED not available");
+            return;
+        }
+        ChessModel model = new ChessModel();
+        List<Move> moves = new ArrayList<>();
+        synchronized (moveLog) {
+            if (!running || adjourned) return;
+            if (adjournOffer == null || adjournOffer == player) {
+                adjournOffer = player;
+                opponent.send("ADJOURN");
+                return;
+            }
+            adjournOffer = null;
+            // the server relays lines as they come, so this is where they must all be legal moves
+            String error = replay(model, moves);
+            if (error != null) {
+                white.send("ADJOURN FAILED " + error);
+                black.send("ADJOURN FAILED " + error);
+                return;
+            }
+            adjourned = true;
+        }
+        // outside moveLog: the clock thread holds the clock while it takes moveLog in flagFell
+        long[] clockMillis = null;
+        if (clock != null) {
+            clockMillis = clock.adjourn();
+            // lost on time first; flagFell ends the game
+            if (clockMillis == null) return;
+        }
+        suspended.suspend(id, model, moves, clockMillis);
+        System.out.println("Game session " + id + " adjourned after " + moves.size() + " moves");
+        synchronized (moveLog) {
+            white.send("ADJOURNED " + id);
+            black.send("ADJOURNED " + id);
+        }
+        stopSession();
+    }
+
+    // plays moveLog on model; null, or what is wrong with it. called holding moveLog
+    private String replay(ChessModel model, List<Move> moves) {
+        model.reset();
+        for (String line : moveLog) {
+            Move move;
+            try {
+                move = Move.parse(line);
+            } catch (RuntimeException e) {
+                return "not a move: " + line;
             }
-            if (player2Socket != null && !player2Socket.isClosed()) {
-                player2Socket.close();
+            ChessModel.MoveResult result = model.movePiece(move);
+            if (result == ChessModel.MoveResult.INVALID_MOVE || result == ChessModel.MoveResult.STILL_IN_CHECK) {
+                return "illegal move: " + line;
+            }
+            if (result.isGameOver()) return "game is over";
+            moves.add(move);
+        }
+        return null;
+    }
+
+    // a player's connection to this game ended; the game is archived once both are gone
+    void onLeave(Player player) {
+        synchronized (this) {
+            if (player == Player.WHITE ? whiteLeft : blackLeft) return;
+            if (player == Player.WHITE) whiteLeft = true;
+            else blackLeft = true;
+        }
+        publish(GameEvent.Type.LEFT, player, null, null, null, 0, 0);
+        synchronized (this) {
+            if (!(whiteLeft && blackLeft)) return;
+        }
+        finisher.execute(this::finish);
+    }
+
+    private void finish() {
+        stopSession();
+        // observers are closed once they got everything before this
+        publish(GameEvent.Type.FINISHED, null, null, null, null, 0, 0);
+        if (archive != null && !adjourned && !moveLog.isEmpty()) {
+            archive.record(white.getAddress(), black.getAddress(), new ArrayList<>(moveLog), flaggedPlayer);
+        }
+        if (onFinished != null) {
+            onFinished.run();
+        }
+    }
+
+    // the observer gets the game so far as one SYNC line, then every relayed line; false if the game is over
+    boolean addObserver(PlayerLink observer) {
+        synchronized (moveLog) {
+            if (!running) return false;
+            for (String line : snapshot()) {
+                observer.send(line);
             }
-            
-            System.out.println("Game session stopped. Total moves: " + moveCount);
-        } catch (IOException e) {
-            System.err.println("Error stopping game session: " + e.getMessage());
+            observers.add(new Observer(observer, moveLog.size(), flaggedPlayer != null));
+        }
+        observer.start(this, null);
+        return true;
+    }
+
+    void removeObserver(PlayerLink observer) {
+        observers.removeIf(o -> o.link == observer);
+    }
+
+    // a place in the ring's order, taken under moveLog where that order matters; -1 without a ring.
+    // the ring's publish may wait for room, so it is called after moveLog is released; without a
+    // ring the event is handled inline, still under the lock
+    private long claim() {
+        return events != null ? events.claim() : -1;
+    }
+
+    private void publish(GameEvent.Type type, Player player, String line, String move, String source, int number, int index) {
+        publish(claim(), type, player, line, move, source, number, index);
+    }
+
+    private void publish(long seq, GameEvent.Type type, Player player, String line, String move, String source, int number, int index) {
+        if (events != null) {
+            events.publish(seq, type, this, player, line, move, source, number, index);
+            return;
+        }
+        switch (type) {
+            case MOVE:
+                System.out.println(source + " move #" + number + ": " + move);
+                if (capture != null) capture.line(captureSession, player, move);
+                break;
+            case LEFT:
+                if (capture != null) capture.disconnect(captureSession, player);
+                break;
+            default:
+                break;
+        }
+        broadcast(type, line, index);
+    }
+
+    // the EventRing's broadcast consumer
+    static void broadcast(GameEvent event, boolean endOfBatch) {
+        event.session.broadcast(event.type, event.line, event.index);
+    }
+
+    private void broadcast(GameEvent.Type type, String line, int index) {
+        switch (type) {
+            case MOVE:
+                for (Observer observer : observers) {
+                    if (index > observer.syncedMoves) observer.link.send(line);
+                }
+                break;
+            case FLAG:
+                for (Observer observer : observers) {
+                    if (!observer.syncedFlag) observer.link.send(line);
+                }
+                break;
+            case FINISHED:
+                for (Observer observer : observers) {
+                    observer.link.close();
+                }
+                observers.clear();
+                break;
+            default:
+                break;
+        }
+    }
+
+    // runs on the clock thread when the player to move runs out of time
+    private void flagFell(Player player) {
+        System.out.println("Flag fell: " + player + " lost on time");
+        flaggedPlayer = player;
+        String msg = "FLAG " + player.name();
+        long seq;
+        int index;
+        synchronized (moveLog) {
+            white.send(msg);
+            black.send(msg);
+            index = moveLog.size();
+            seq = claim();
+            if (events == null) publish(seq, GameEvent.Type.FLAG, player, msg, null, null, 0, index);
+        }
+        if (events != null) publish(seq, GameEvent.Type.FLAG, player, msg, null, null, 0, index);
+        stopSession();
+    }
+
+    // a line for one side that is not part of the game (a PONG, an ANALYSIS answer), from any
+    // thread; under moveLog like every send, since a full queue takes a snapshot, which reads moveLog
+    void sendControl(PlayerLink link, String line) {
+        synchronized (moveLog) {
+            link.sendControl(line);
+        }
+    }
+
+    private void sendClock(PlayerLink out) {
+        String msg = clockMessage();
+        synchronized (moveLog) {
+            out.send(msg);
+        }
+    }
+
+    private String clockMessage() {
+        long[] millis = clock.snapshotMillis();
+        lastClock = "CLOCK " + millis[0] + " " + millis[1];
+        return lastClock;
+    }
+
+    // replaces the backlog of a player who fell behind: "SYNC <move> <move> ... [CLOCK w b]", the
+    // whole game so far, plus the flag if it fell. runs with moveLog held, so it must not wait
+    // for the clock (the clock thread holds the clock while it takes moveLog in flagFell)
+    private List<String> snapshot() {
+        StringBuilder sync = new StringBuilder("SYNC");
+        for (String move : moveLog) {
+            sync.append(' ').append(move);
+        }
+        if (lastClock != null) {
+            sync.append(' ').append(lastClock);
+        }
+        List<String> lines = new ArrayList<>();
+        lines.add(sync.toString());
+        if (flaggedPlayer != null) {
+            lines.add("FLAG " + flaggedPlayer.name());
+        }
+        return lines;
+    }
+
+    public void stopSession() {
+        synchronized (this) {
+            if (stopped) return;
+            stopped = true;
+        }
+        running = false;
+        if (clock != null) clock.stop();
+        if (white != null) {
+            white.close();
+            black.close();
+        } else {
+            // never started
+            SocketLink.closeQuietly(player1Socket);
+            SocketLink.closeQuietly(player2Socket);
         }
+        System.out.println("Game session stopped. Total moves: " + moveCount);
     }
 
 
@@ -98,7 +500,7 @@ public class GameSession extends Thread {
     }
 
 
-    public int getMoveCount() {
+    public synchronized int getMoveCount() {
         return moveCount;
     }
 }
\ No newline at end of file
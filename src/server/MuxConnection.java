@@ -0,0 +1,190 @@
+package server;
+
+import core.PingEstimator;
+import core.Player;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// a client connection carrying many games. every line starts with a tag the client picked for
+// the game it belongs to:
+//   <tag> NEW            play the next game paired on the server
+//   <tag> PAIR <tag2>    start a game between two games of this connection (tag white, tag2 black)
+//   <tag> WATCH <id>     observe game <id>: a SYNC line, then every relayed line
+//   <tag> RESUME <id> <WHITE|BLACK>   play on in adjourned game <id> (see GameSession.onAdjourn)
+//                        once both colors asked: START, then a SYNC line with the game so far
+//   <tag> LEAVE          stop playing or watching
+//   <tag> <move>         a move in the game
+//   PING ... / PONG ...  untagged, for the whole connection (see PingEstimator)
+//   <tag> ANALYZE ... / <tag> CANCEL <id>   see AnalysisService; on a game's tag "game" is that game,
+//                        any other tag needs a startpos or fen
+// the server answers with "<tag> START <WHITE|BLACK> <id>", "<tag> END", "<tag> ERROR <reason>"
+// and the game's own lines (moves, CLOCK, FLAG, SYNC) prefixed with the tag
+class MuxConnection extends Thread {
+    private final ChessServer server;
+    private final Socket socket;
+    private final OutboundQueue out;
+    private final Map<String, MuxLink> links = new ConcurrentHashMap<>();
+    private final PingEstimator pings = new PingEstimator();
+
+    // one queue carries every game of the connection, so it is allowed a longer backlog; a
+    // snapshot cannot stand in for several games, so a peer that falls behind is dropped
+    MuxConnection(ChessServer server, Socket socket, int queueCapacity, OutboundStats stats) {
+        super("mux-" + socket.getInetAddress() + ":" + socket.getPort());
+        setDaemon(true);
+        this.server = server;
+        this.socket = socket;
+        this.out = new OutboundQueue(socket, getName(), queueCapacity, OutboundQueue.Policy.DISCONNECT, null, stats);
+    }
+
+    @Override
+    public void run() {
+        out.start();
+        out.send("HELLO MUX");
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.startsWith("PING ")) {
+                    String pong = PingEstimator.pong(line, PingEstimator.nowMicros());
+                    if (pong != null) send(pong);
+                    if (pings.isDue(PlayerLink.PING_INTERVAL_MILLIS)) send(pings.ping());
+                    continue;
+                }
+                if (line.startsWith("PONG ")) {
+                    pings.onPong(line);
+                    continue;
+                }
+                int space = line.indexOf(' ');
+                if (space <= 0) continue;
+                try {
+                    handle(line.substring(0, space), line.substring(space + 1));
+                } catch (RuntimeException e) {
+                    send(line.substring(0, space) + " ERROR " + reason(e));
+                }
+            }
+        } catch (IOException e) {
+            // connection dropped
+        } finally {
+            for (MuxLink link : links.values()) {
+                link.leave();
+            }
+            if (server.getAnalysis() != null) server.getAnalysis().cancelAll(this);
+            out.close();
+            server.removeMuxConnection(this);
+            if (pings.getSamples() > 0) System.out.println(getName() + " latency: " + pings);
+        }
+    }
+
+    private void handle(String tag, String rest) {
+        MuxLink link = links.get(tag);
+        if (link != null) {
+            if (rest.equals("LEAVE")) link.close();
+            else link.onLine(rest);
+            return;
+        }
+        String[] parts = rest.split(" ");
+        switch (parts[0]) {
+            case "NEW": {
+                MuxLink player = addLink(tag);
+                server.joinMux(player);
+                break;
+            }
+            case "PAIR": {
+                // the second tag is missing, this tag, or a game already running under it
+                if (parts.length < 2 || links.containsKey(parts[1]) || parts[1].equals(tag)) {
+                    send(tag + " ERROR bad pair");
+                    break;
+                }
+                MuxLink whiteLink = addLink(tag);
+                MuxLink blackLink = addLink(parts[1]);
+                try {
+                    server.startSession(new GameSession(whiteLink, blackLink, server.getTimeControl(), server.getClockService()));
+                } catch (RuntimeException e) {
+                    // the client opened a channel for each tag, so both are told
+                    links.remove(tag, whiteLink);
+                    links.remove(parts[1], blackLink);
+                    send(tag + " ERROR " + reason(e));
+                    send(parts[1] + " ERROR " + reason(e));
+                }
+                break;
+            }
+            case "WATCH": {
+                GameSession session = parts.length > 1 ? server.getSession(Long.parseLong(parts[1])) : null;
+                MuxLink observer = addLink(tag);
+                if (session == null || !session.addObserver(observer)) {
+                    links.remove(tag, observer);
+                    send(tag + " ERROR no such game");
+                }
+                break;
+            }
+            case "RESUME": {
+                Player color = parts.length > 2 && (parts[2].equals("WHITE") || parts[2].equals("BLACK"))
+                        ? Player.valueOf(parts[2]) : null;
+                if (color == null) {
+                    send(tag + " ERROR bad resume");
+                    break;
+                }
+                long gameId = Long.parseLong(parts[1]);
+                MuxLink player = addLink(tag);
+                String error = server.resumeMux(player, gameId, color);
+                if (error != null) {
+                    links.remove(tag, player);
+                    send(tag + " ERROR " + error);
+                }
+                break;
+            }
+            case "ANALYZE":
+            case "CANCEL":
+                analyze(tag, rest);
+                break;
+            default:
+                send(tag + " ERROR not playing");
+        }
+    }
+
+    // an analysis command on a tag with no game to analyse: it needs a startpos or fen
+    void analyze(String tag, String line) {
+        AnalysisService analysis = server.getAnalysis();
+        if (analysis != null) analysis.handle(this, line, null, reply -> send(tag + " " + reply));
+        else AnalysisService.unavailable(line, reply -> send(tag + " " + reply));
+    }
+
+    private static String reason(RuntimeException e) {
+        return e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+    }
+
+    private MuxLink addLink(String tag) {
+        MuxLink link = new MuxLink(this, tag);
+        links.put(tag, link);
+        return link;
+    }
+
+    MuxLink getLink(String tag) {
+        return links.get(tag);
+    }
+
+    // false if the link was already gone
+    boolean removeLink(MuxLink link) {
+        return links.remove(link.getTag(), link);
+    }
+
+    boolean send(String line) {
+        return out.send(line);
+    }
+
+    PingEstimator getPings() {
+        return pings;
+    }
+
+    String getAddress() {
+        return String.valueOf(socket.getInetAddress());
+    }
+
+    void close() {
+        out.close();
+    }
+}
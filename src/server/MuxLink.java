@@ -0,0 +1,86 @@
+package server;
+
+import core.PingEstimator;
+import core.Player;
+
+// one game (played or watched) on a multiplexed connection; lines carry the client's tag for it
+class MuxLink extends PlayerLink {
+    private final MuxConnection connection;
+    private final String tag;
+    private volatile GameSession session;
+    // null for observers
+    private volatile Player player;
+
+    MuxLink(MuxConnection connection, String tag) {
+        this.connection = connection;
+        this.tag = tag;
+    }
+
+    String getTag() {
+        return tag;
+    }
+
+    boolean isOpen() {
+        return connection.getLink(tag) == this;
+    }
+
+    @Override
+    boolean send(String line) {
+        return connection.send(tag + " " + line);
+    }
+
+    @Override
+    void start(GameSession session, Player player) {
+        this.session = session;
+        this.player = player;
+        if (player != null) send("START " + player.name() + " " + session.getId());
+    }
+
+    // lines from the client for this tag
+    void onLine(String line) {
+        GameSession s = session;
+        if (s == null || player == null) {
+            // waiting to be paired, or watching: analysis still works, on a given position
+            if (AnalysisService.isCommand(line)) connection.analyze(tag, line);
+            else send("ERROR not playing");
+            return;
+        }
+        if (!s.onLine(player, line, connection.getName() + " #" + tag)) {
+            leave();
+        }
+    }
+
+    // the session ended this game for us
+    @Override
+    void close() {
+        if (connection.removeLink(this)) send("END");
+        leave();
+    }
+
+    // the client left (LEAVE, or its connection dropped) or the game is over for us
+    void leave() {
+        connection.removeLink(this);
+        GameSession s = session;
+        if (s == null) return;
+        if (player != null) {
+            s.onLeave(player);
+        } else {
+            s.removeObserver(this);
+        }
+    }
+
+    @Override
+    String getAddress() {
+        return connection.getAddress();
+    }
+
+    @Override
+    PingEstimator getPings() {
+        return connection.getPings();
+    }
+
+    @Override
+    Object getConnection() {
+        return connection;
+    }
+}
@@ -0,0 +1,169 @@
+package server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+// outgoing side of one player connection. send() never blocks: messages go into a bounded queue
+// and this thread writes everything pending in a single write. a peer that stops reading fills the
+// queue, and the policy decides what happens then: drop the connection, or throw the backlog away
+// and send a snapshot of the game instead. lines that are not part of the game (PONG, ANALYSIS)
+// go through sendControl: a snapshot does not stand in for them, so they survive it
+public class OutboundQueue extends Thread {
+    public enum Policy {
+        DISCONNECT,
+        SNAPSHOT
+    }
+
+    // how long close() lets a stuck peer hold on to its pending messages
+    private static final long CLOSE_GRACE_MS = 2000;
+
+    private static final ScheduledExecutorService reaper = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "outbound-reaper");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final Socket socket;
+    private final String peerName;
+    private final int capacity;
+    private final Policy policy;
+    private final Supplier<List<String>> snapshot;
+    private final OutboundStats stats;
+
+    // guarded by this
+    private final ArrayDeque<String> queue = new ArrayDeque<>();
+    // control lines, written ahead of the game's lines pending with them
+    private final ArrayDeque<String> controls = new ArrayDeque<>();
+    private boolean closed = false;
+    private long writes = 0;
+    private long writesAtSnapshot = -1;
+
+    // snapshot is called under the queue's lock and returns the lines that replace the backlog
+    public OutboundQueue(Socket socket, String peerName, int capacity, Policy policy,
+                         Supplier<List<String>> snapshot, OutboundStats stats) {
+        super("outbound-" + peerName);
+        setDaemon(true);
+        this.socket = socket;
+        this.peerName = peerName;
+        this.capacity = capacity;
+        this.policy = policy;
+        this.snapshot = snapshot;
+        this.stats = stats;
+    }
+
+    // returns false if the message was not queued (connection closed, or dropped for falling behind)
+    public boolean send(String message) {
+        return offer(message, false);
+    }
+
+    // a line the game snapshot does not cover; it counts against capacity all the same
+    public boolean sendControl(String message) {
+        return offer(message, true);
+    }
+
+    private synchronized boolean offer(String message, boolean control) {
+        if (closed) return false;
+        int pending = queue.size() + controls.size();
+        if (pending >= capacity) {
+            stats.overflow();
+            // a snapshot only helps if the peer still reads (one that has not taken a single write
+            // since the last snapshot is gone) and if the backlog is not all control lines
+            if (policy == Policy.SNAPSHOT && snapshot != null && writes != writesAtSnapshot && !queue.isEmpty()) {
+                System.err.println(peerName + " is " + pending + " messages behind, sending a snapshot");
+                queue.clear();
+                queue.addAll(snapshot.get());
+                writesAtSnapshot = writes;
+                stats.snapshotSent();
+                // the snapshot covers a game line, but not a control line
+                if (control) {
+                    controls.add(message);
+                    stats.messageQueued();
+                }
+                notifyAll();
+                return true;
+            }
+            System.err.println(peerName + " is " + pending + " messages behind, disconnecting");
+            stats.slowPeerDisconnected();
+            queue.clear();
+            controls.clear();
+            closed = true;
+            notifyAll();
+            closeSocket();
+            return false;
+        }
+        if (control) controls.add(message);
+        else queue.add(message);
+        stats.messageQueued();
+        notifyAll();
+        return true;
+    }
+
+    // pending messages are still written, then the socket is closed; a peer that does not take
+    // them within the grace period is cut off
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        notifyAll();
+        reaper.schedule(this::closeSocket, CLOSE_GRACE_MS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void run() {
+        List<String> batch = new ArrayList<>();
+        StringBuilder text = new StringBuilder();
+        try {
+            OutputStream out = socket.getOutputStream();
+            while (true) {
+                synchronized (this) {
+                    while (queue.isEmpty() && controls.isEmpty() && !closed) {
+                        wait();
+                    }
+                    if (queue.isEmpty() && controls.isEmpty()) break;
+                    batch.addAll(controls);
+                    controls.clear();
+                    batch.addAll(queue);
+                    queue.clear();
+                }
+                text.setLength(0);
+                for (String message : batch) {
+                    text.append(message).append('\n');
+                }
+                batch.clear();
+                out.write(text.toString().getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                stats.batchWritten();
+                synchronized (this) {
+                    writes++;
+                }
+            }
+        } catch (IOException e) {
+            synchronized (this) {
+                if (!closed) System.err.println("Cannot write to " + peerName + ": " + e.getMessage());
+                closed = true;
+                queue.clear();
+                controls.clear();
+            }
+        } catch (InterruptedException e) {
+            // shutting down
+        } finally {
+            closeSocket();
+        }
+    }
+
+    private void closeSocket() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            System.err.println("Error closing " + peerName + ": " + e.getMessage());
+        }
+    }
+}
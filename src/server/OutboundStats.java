@@ -0,0 +1,60 @@
+package server;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// counters shared by every OutboundQueue of a server
+public class OutboundStats {
+    private final LongAdder messages = new LongAdder();
+    private final LongAdder writes = new LongAdder();
+    private final LongAdder overflows = new LongAdder();
+    private final LongAdder snapshots = new LongAdder();
+    private final LongAdder disconnects = new LongAdder();
+
+    void messageQueued() {
+        messages.increment();
+    }
+
+    void batchWritten() {
+        writes.increment();
+    }
+
+    void overflow() {
+        overflows.increment();
+    }
+
+    void snapshotSent() {
+        snapshots.increment();
+    }
+
+    void slowPeerDisconnected() {
+        disconnects.increment();
+    }
+
+    public long getMessages() {
+        return messages.sum();
+    }
+
+    // socket writes; less than getMessages() when pending messages were coalesced
+    public long getWrites() {
+        return writes.sum();
+    }
+
+    // times a peer fell a full queue behind
+    public long getOverflows() {
+        return overflows.sum();
+    }
+
+    public long getSnapshots() {
+        return snapshots.sum();
+    }
+
+    public long getDisconnects() {
+        return disconnects.sum();
+    }
+
+    @Override
+    public String toString() {
+        return getMessages() + " messages in " + getWrites() + " writes, " + getOverflows() + " overflows ("
+                + getSnapshots() + " snapshots, " + getDisconnects() + " disconnects)";
+    }
+}
@@ -0,0 +1,38 @@
+package server;
+
+import core.PingEstimator;
+import core.Player;
+
+// one side of a GameSession as the session sees it: a player or an observer on its own socket
+// (SocketLink) or one game on a shared multiplexed connection (MuxLink)
+abstract class PlayerLink {
+    // returns false if the line could not be queued
+    abstract boolean send(String line);
+
+    // a line that is not part of the game (PONG, ANALYSIS), which a snapshot of the game must not drop
+    boolean sendControl(String line) {
+        return send(line);
+    }
+
+    // starts feeding the player's lines to session.onLine; player is null for observers
+    abstract void start(GameSession session, Player player);
+
+    // the session is over for this side; pending lines are still delivered
+    abstract void close();
+
+    abstract String getAddress();
+
+    // the server pings a client at most this often, and only one that pings the server (so
+    // older clients never see a PING line)
+    static final long PING_INTERVAL_MILLIS = 2000;
+
+    // round trips to the client behind this side, see PingEstimator; null if it is not measured
+    PingEstimator getPings() {
+        return null;
+    }
+
+    // the client connection behind this side, which analysis limits and cancellation go by
+    Object getConnection() {
+        return this;
+    }
+}
@@ -0,0 +1,221 @@
+package server;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// cluster front door: sends each new game to the least-loaded ChessServer shard.
+// clients are redirected, so the router never sits on the move relay path. a shard pairs whoever
+// connects to it, in any order; the router only sees to it that players reach shards in twos: the
+// second player of a game follows the first, and a shard whose reports show a player left alone
+// (its partner never followed the redirect) gets the next one
+public class SessionRouter {
+    private static final int DEFAULT_CLIENT_PORT = 50000;
+    private static final int DEFAULT_CONTROL_PORT = 50100;
+
+    private final int clientPort;
+    private final int controlPort;
+    private final Map<String, Shard> shards = new ConcurrentHashMap<>();
+    private volatile boolean isRunning = false;
+
+    // shard holding the white player of a game that is still waiting for black
+    private Shard pendingShard;
+
+    public SessionRouter(int clientPort, int controlPort) {
+        this.clientPort = clientPort;
+        this.controlPort = controlPort;
+    }
+
+    private static class Shard {
+        private final String host;
+        private final int port;
+        private volatile int reportedPlayers = 0;
+        private volatile int reportedWaiting = 0;
+        private final AtomicInteger assignedSinceReport = new AtomicInteger();
+        private volatile boolean alive = true;
+
+        Shard(String host, int port) {
+            this.host = host;
+            this.port = port;
+        }
+
+        int load() {
+            return reportedPlayers + assignedSinceReport.get();
+        }
+
+        // someone there has no opponent yet, as far as the last report and the players sent since
+        // tell; a player still on its way when the report was made is missed until the next one
+        boolean hasLonePlayer() {
+            return (reportedWaiting + assignedSinceReport.get()) % 2 == 1;
+        }
+
+        String key() {
+            return host + ":" + port;
+        }
+    }
+
+    public void start() {
+        isRunning = true;
+        Thread control = new Thread(this::acceptShards, "router-control");
+        control.setDaemon(true);
+        control.start();
+
+        try (ServerSocket serverSocket = new ServerSocket(clientPort)) {
+            System.out.println("Session router on port " + clientPort + ", shards register on port " + controlPort);
+            while (isRunning) {
+                try {
+                    Socket client = serverSocket.accept();
+                    Shard shard = assign();
+                    try (Socket c = client) {
+                        PrintWriter out = new PrintWriter(c.getOutputStream(), true);
+                        if (shard == null) out.println("ERROR no shards available");
+                        else out.println("REDIRECT " + shard.host + " " + shard.port);
+                    }
+                } catch (IOException e) {
+                    if (isRunning) {
+                        System.err.println("Error accepting connection: " + e.getMessage());
+                    }
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Cannot start router: " + e.getMessage());
+        }
+    }
+
+    // both players of a game go to the same shard; a player left alone on a shard gets the next
+    // one; otherwise a new game goes to the least-loaded shard
+    private synchronized Shard assign() {
+        Shard shard = null;
+        if (pendingShard != null && pendingShard.alive) {
+            shard = pendingShard;
+            pendingShard = null;
+        } else {
+            for (Shard s : shards.values()) {
+                if (s.hasLonePlayer() && (shard == null || s.load() < shard.load())) {
+                    shard = s;
+                }
+            }
+            if (shard == null) {
+                for (Shard s : shards.values()) {
+                    if (shard == null || s.load() < shard.load()) {
+                        shard = s;
+                    }
+                }
+                pendingShard = shard;
+            }
+        }
+        if (shard != null) {
+            shard.assignedSinceReport.incrementAndGet();
+        }
+        return shard;
+    }
+
+    private void acceptShards() {
+        try (ServerSocket controlSocket = new ServerSocket(controlPort)) {
+            while (isRunning) {
+                Socket socket = controlSocket.accept();
+                Thread t = new Thread(() -> listenToShard(socket), "router-shard");
+                t.setDaemon(true);
+                t.start();
+            }
+        } catch (IOException e) {
+            System.err.println("Shard control port closed: " + e.getMessage());
+        }
+    }
+
+    // "REGISTER <port>" once, then "LOAD <sessions> <waitingPlayers>" periodically
+    private void listenToShard(Socket socket) {
+        Shard shard = null;
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] parts = line.split(" ");
+                if (parts[0].equals("REGISTER")) {
+                    shard = new Shard(socket.getInetAddress().getHostAddress(), Integer.parseInt(parts[1]));
+                    shards.put(shard.key(), shard);
+                    System.out.println("Shard registered: " + shard.key());
+                } else if (parts[0].equals("LOAD") && shard != null) {
+                    shard.reportedPlayers = Integer.parseInt(parts[1]) * 2 + Integer.parseInt(parts[2]);
+                    shard.reportedWaiting = Integer.parseInt(parts[2]);
+                    shard.assignedSinceReport.set(0);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Shard connection error: " + e.getMessage());
+        } finally {
+            if (shard != null) {
+                shard.alive = false;
+                shards.remove(shard.key(), shard);
+                System.out.println("Shard removed: " + shard.key());
+            }
+        }
+    }
+
+    public void stop() {
+        isRunning = false;
+    }
+
+    // starts local shard processes on consecutive ports, for running a cluster on one box
+    private static List<Process> spawnShards(int count, int firstPort, int controlPort, String timeControl) throws IOException {
+        List<Process> processes = new ArrayList<>();
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        for (int i = 0; i < count; i++) {
+            int port = firstPort + i;
+            List<String> command = new ArrayList<>();
+            command.add(java);
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add(ChessServer.class.getName());
+            command.add("--port");
+            command.add(String.valueOf(port));
+            command.add("--router");
+            command.add("localhost:" + controlPort);
+            if (timeControl != null) command.add(timeControl);
+
+            ProcessBuilder builder = new ProcessBuilder(command);
+            builder.redirectErrorStream(true);
+            builder.redirectOutput(new File("shard-" + port + ".log"));
+            processes.add(builder.start());
+            System.out.println("Started shard on port " + port + " (log: shard-" + port + ".log)");
+        }
+        return processes;
+    }
+
+    // usage: SessionRouter [--port n] [--control-port n] [--spawn count] [--time 5+3]
+    public static void main(String[] args) throws IOException {
+        int clientPort = DEFAULT_CLIENT_PORT;
+        int controlPort = DEFAULT_CONTROL_PORT;
+        int spawn = 0;
+        String timeControl = null;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--port": clientPort = Integer.parseInt(args[i + 1]); break;
+                case "--control-port": controlPort = Integer.parseInt(args[i + 1]); break;
+                case "--spawn": spawn = Integer.parseInt(args[i + 1]); break;
+                case "--time": timeControl = args[i + 1]; break;
+                default:
+                    System.err.println("Unknown option: " + args[i]);
+                    return;
+            }
+        }
+
+        SessionRouter router = new SessionRouter(clientPort, controlPort);
+        List<Process> shardProcesses = spawnShards(spawn, clientPort + 1, controlPort, timeControl);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            router.stop();
+            for (Process p : shardProcesses) {
+                p.destroy();
+            }
+        }));
+        router.start();
+    }
+}
@@ -0,0 +1,48 @@
+package server;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.Socket;
+
+// keeps a shard registered with the SessionRouter and reports its load once a second
+public class ShardReporter extends Thread {
+    private static final long REPORT_INTERVAL_MS = 1000;
+    private static final long RECONNECT_DELAY_MS = 2000;
+
+    private final ChessServer server;
+    private final String routerHost;
+    private final int routerPort;
+
+    public ShardReporter(ChessServer server, String routerHost, int routerPort) {
+        super("shard-reporter");
+        setDaemon(true);
+        this.server = server;
+        this.routerHost = routerHost;
+        this.routerPort = routerPort;
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            try (Socket socket = new Socket(routerHost, routerPort)) {
+                PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+                out.println("REGISTER " + server.getPort());
+                System.out.println("Registered with router " + routerHost + ":" + routerPort);
+                while (!out.checkError()) {
+                    out.println("LOAD " + server.getActiveSessionCount() + " " + server.getWaitingPlayerCount());
+                    Thread.sleep(REPORT_INTERVAL_MS);
+                }
+                System.err.println("Lost connection to router");
+            } catch (IOException e) {
+                System.err.println("Cannot reach router: " + e.getMessage());
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                Thread.sleep(RECONNECT_DELAY_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package server;
+
+import core.PingEstimator;
+import core.Player;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.Scanner;
+
+// a player with a socket of their own: a listener thread reads moves, an OutboundQueue writes
+class SocketLink extends PlayerLink {
+    private final Socket socket;
+    private final String name;
+    private final OutboundQueue out;
+    private final PingEstimator pings = new PingEstimator();
+
+    SocketLink(Socket socket, String name, OutboundQueue out) {
+        this.socket = socket;
+        this.name = name;
+        this.out = out;
+    }
+
+    @Override
+    boolean send(String line) {
+        return out.send(line);
+    }
+
+    @Override
+    boolean sendControl(String line) {
+        return out.sendControl(line);
+    }
+
+    @Override
+    void start(GameSession session, Player player) {
+        out.start();
+        Thread listener = new Thread(() -> listen(session, player), name);
+        listener.start();
+    }
+
+    private void listen(GameSession session, Player player) {
+        try {
+            Scanner in = new Scanner(socket.getInputStream());
+            while (session.isActive() && in.hasNextLine()) {
+                String line = in.nextLine();
+                if (onPing(session, line)) continue;
+                if (!session.onLine(player, line, name)) break;
+            }
+        } catch (IOException | RuntimeException e) {
+            if (session.isActive()) {
+                System.err.println(name + " disconnected: " + e.getMessage());
+            }
+        } finally {
+            System.out.println(name + " stopped listening");
+            if (pings.getSamples() > 0) System.out.println(name + " latency: " + pings);
+            session.cancelAnalysis(this);
+            session.onLeave(player);
+        }
+    }
+
+    // answers a client's PING (pinging back when due) and takes in PONGs; false for other lines.
+    // replies go through the session, as any send may overflow into a snapshot of the game
+    private boolean onPing(GameSession session, String line) {
+        if (line.startsWith("PING ")) {
+            String pong = PingEstimator.pong(line, PingEstimator.nowMicros());
+            if (pong != null) session.sendControl(this, pong);
+            if (pings.isDue(PING_INTERVAL_MILLIS)) session.sendControl(this, pings.ping());
+            return true;
+        }
+        if (line.startsWith("PONG ")) {
+            pings.onPong(line);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    PingEstimator getPings() {
+        return pings;
+    }
+
+    // the queue closes the socket once pending lines (e.g. FLAG) are out, which also ends the listener
+    @Override
+    void close() {
+        out.close();
+    }
+
+    @Override
+    String getAddress() {
+        return String.valueOf(socket.getInetAddress());
+    }
+
+    static void closeQuietly(Socket socket) {
+        try {
+            if (socket != null && !socket.isClosed()) {
+                socket.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Error closing socket: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package server;
+
+import core.ChessModel;
+import core.CompactGame;
+import core.Move;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// paused games by id: the games players ADJOURNED on this server (see GameSession), in memory
+// only. every game is kept as a CompactGame; the most recently used ones are also kept inflated as
+// live ChessModels, and a hot game leaving that tier is packed again if it changed
+public class SuspendedGames {
+    private static class Hot {
+        final ChessModel model;
+        final List<Move> moves;
+        boolean dirty;
+
+        Hot(ChessModel model, List<Move> moves) {
+            this.model = model;
+            this.moves = moves;
+        }
+    }
+
+    private final int hotCapacity;
+    // all guarded by this
+    private final Map<Long, CompactGame> packed = new HashMap<>();
+    // white's and black's remaining millis, for timed games
+    private final Map<Long, long[]> clocks = new HashMap<>();
+    private final LinkedHashMap<Long, Hot> hot;
+    private long packedBytes = 0;
+    private long hits = 0;
+    private long inflations = 0;
+    private long deflations = 0;
+
+    public SuspendedGames(int hotCapacity) {
+        this.hotCapacity = hotCapacity;
+        this.hot = new LinkedHashMap<Long, Hot>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Hot> eldest) {
+                if (size() <= SuspendedGames.this.hotCapacity) return false;
+                if (eldest.getValue().dirty) {
+                    store(eldest.getKey(), CompactGame.of(eldest.getValue().model, eldest.getValue().moves));
+                    deflations++;
+                }
+                return true;
+            }
+        };
+    }
+
+    // moves is the game so far, kept so the game can be archived when it ends; clockMillis is
+    // {white, black} remaining, null for an untimed game
+    public synchronized void suspend(long id, ChessModel model, List<Move> moves, long[] clockMillis) {
+        hot.remove(id);
+        store(id, CompactGame.of(model, moves));
+        if (clockMillis != null) clocks.put(id, clockMillis.clone());
+        else clocks.remove(id);
+    }
+
+    // the game as it stands, packed; null if unknown. the hot model itself is never handed out, as
+    // a change made to it outside move() would be lost when it is evicted; inflate() the snapshot
+    // for a model of your own
+    public synchronized CompactGame getSnapshot(long id) {
+        Hot h = hot.get(id);
+        if (h != null && h.dirty) {
+            store(id, CompactGame.of(h.model, h.moves));
+            h.dirty = false;
+            deflations++;
+        }
+        return packed.get(id);
+    }
+
+    // null for an untimed or unknown game
+    public synchronized long[] getClockMillis(long id) {
+        long[] millis = clocks.get(id);
+        return millis != null ? millis.clone() : null;
+    }
+
+    public synchronized List<Move> getMoves(long id) {
+        Hot h = touch(id);
+        return h != null ? new ArrayList<>(h.moves) : null;
+    }
+
+    // null if the game is unknown
+    public synchronized ChessModel.MoveResult move(long id, Move move) {
+        Hot h = touch(id);
+        if (h == null) return null;
+        ChessModel.MoveResult result = h.model.movePiece(move);
+        if (result != ChessModel.MoveResult.INVALID_MOVE && result != ChessModel.MoveResult.STILL_IN_CHECK) {
+            h.moves.add(move);
+            h.dirty = true;
+        }
+        return result;
+    }
+
+    public synchronized void remove(long id) {
+        hot.remove(id);
+        clocks.remove(id);
+        CompactGame old = packed.remove(id);
+        if (old != null) packedBytes -= old.size();
+    }
+
+    public synchronized int size() {
+        return packed.size();
+    }
+
+    // packed bytes of all games, not counting map and object overhead
+    public synchronized long getPackedBytes() {
+        return packedBytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return packed.size() + " games (" + packedBytes + " packed bytes), " + hot.size() + " hot, "
+                + hits + " hot hits, " + inflations + " inflations, " + deflations + " repacked";
+    }
+
+    private Hot touch(long id) {
+        Hot h = hot.get(id);
+        if (h != null) {
+            hits++;
+            return h;
+        }
+        CompactGame game = packed.get(id);
+        if (game == null) return null;
+        inflations++;
+        h = new Hot(game.inflate(), game.getMoves());
+        hot.put(id, h);
+        return h;
+    }
+
+    private void store(long id, CompactGame game) {
+        CompactGame old = packed.put(id, game);
+        if (old != null) packedBytes -= old.size();
+        packedBytes += game.size();
+    }
+}
@@ -0,0 +1,45 @@
+package server;
+
+// "5+3" = 5 minutes + 3 second increment, "5d3" = 5 minutes with a 3 second delay
+public class TimeControl {
+    private final long baseMillis;
+    private final long incrementMillis;
+    private final long delayMillis;
+
+    public TimeControl(long baseMillis, long incrementMillis, long delayMillis) {
+        this.baseMillis = baseMillis;
+        this.incrementMillis = incrementMillis;
+        this.delayMillis = delayMillis;
+    }
+
+    public static TimeControl parse(String spec) {
+        int sep = spec.indexOf('+');
+        if (sep < 0) sep = spec.indexOf('d');
+        double minutes = Double.parseDouble(sep < 0 ? spec : spec.substring(0, sep));
+        long extra = sep < 0 ? 0 : Long.parseLong(spec.substring(sep + 1)) * 1000;
+        long base = (long) (minutes * 60_000);
+        if (sep >= 0 && spec.charAt(sep) == 'd') {
+            return new TimeControl(base, 0, extra);
+        }
+        return new TimeControl(base, extra, 0);
+    }
+
+    public long getBaseMillis() {
+        return baseMillis;
+    }
+
+    public long getIncrementMillis() {
+        return incrementMillis;
+    }
+
+    public long getDelayMillis() {
+        return delayMillis;
+    }
+
+    @Override
+    public String toString() {
+        String base = baseMillis % 60_000 == 0 ? String.valueOf(baseMillis / 60_000) : String.valueOf(baseMillis / 60_000.0);
+        if (delayMillis > 0) return base + "d" + delayMillis / 1000;
+        return base + "+" + incrementMillis / 1000;
+    }
+}
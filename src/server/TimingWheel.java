@@ -0,0 +1,155 @@
+package server;
+
+// hierarchical timing wheel: O(1) schedule/cancel, cost per tick independent of the number of timers.
+// not thread safe - GameClockService owns it and is the only thread touching it
+public class TimingWheel {
+    private static final int LEVELS = 5;
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final long MAX_TICKS = (1L << (SLOT_BITS * LEVELS)) - 1;
+
+    private final long tickNanos;
+    private final long startNanos;
+    private final Timeout[][] buckets = new Timeout[LEVELS][SLOTS];
+    private long currentTick = 0;
+    private int size = 0;
+
+    public TimingWheel(long tickNanos, long startNanos) {
+        this.tickNanos = tickNanos;
+        this.startNanos = startNanos;
+    }
+
+    public static class Timeout {
+        private final long deadlineNanos;
+        private final Runnable task;
+        private long deadlineTick;
+        private Timeout prev;
+        private Timeout next;
+        private int level = -1;
+        private int slot = -1;
+        private volatile boolean cancelled = false;
+
+        public Timeout(long deadlineNanos, Runnable task) {
+            this.deadlineNanos = deadlineNanos;
+            this.task = task;
+        }
+
+        public long getDeadlineNanos() {
+            return deadlineNanos;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        void markCancelled() {
+            cancelled = true;
+        }
+    }
+
+    // timeouts already due are run immediately
+    public void add(Timeout timeout) {
+        if (timeout.cancelled) return;
+        long ticks = (timeout.deadlineNanos - startNanos + tickNanos - 1) / tickNanos;
+        timeout.deadlineTick = Math.min(ticks, currentTick + MAX_TICKS);
+        place(timeout);
+    }
+
+    public void remove(Timeout timeout) {
+        if (timeout.level < 0) return;
+        unlink(timeout);
+        size--;
+    }
+
+    // runs every timeout due at or before nowNanos
+    public void advanceTo(long nowNanos) {
+        long targetTick = (nowNanos - startNanos) / tickNanos;
+        while (currentTick < targetTick) {
+            currentTick++;
+            for (int level = LEVELS - 1; level > 0; level--) {
+                if ((currentTick & ((1L << (SLOT_BITS * level)) - 1)) == 0) {
+                    cascade(level, (int) ((currentTick >>> (SLOT_BITS * level)) & SLOT_MASK));
+                }
+            }
+            expire((int) (currentTick & SLOT_MASK));
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void place(Timeout timeout) {
+        long deadline = timeout.deadlineTick;
+        if (deadline <= currentTick) {
+            run(timeout);
+            return;
+        }
+        // lowest level whose enclosing block also contains the current tick,
+        // so the slot is always ahead of the wheel's position on that level
+        int level = 0;
+        while (level < LEVELS - 1 &&
+               (deadline >>> (SLOT_BITS * (level + 1))) != (currentTick >>> (SLOT_BITS * (level + 1)))) {
+            level++;
+        }
+        int slot = (int) ((deadline >>> (SLOT_BITS * level)) & SLOT_MASK);
+
+        timeout.level = level;
+        timeout.slot = slot;
+        timeout.prev = null;
+        timeout.next = buckets[level][slot];
+        if (timeout.next != null) timeout.next.prev = timeout;
+        buckets[level][slot] = timeout;
+        size++;
+    }
+
+    private void cascade(int level, int slot) {
+        Timeout t = detach(level, slot);
+        while (t != null) {
+            Timeout next = t.next;
+            t.prev = null;
+            t.next = null;
+            t.level = -1;
+            size--;
+            if (!t.cancelled) place(t);
+            t = next;
+        }
+    }
+
+    private void expire(int slot) {
+        Timeout t = detach(0, slot);
+        while (t != null) {
+            Timeout next = t.next;
+            t.prev = null;
+            t.next = null;
+            t.level = -1;
+            size--;
+            if (!t.cancelled) run(t);
+            t = next;
+        }
+    }
+
+    private Timeout detach(int level, int slot) {
+        Timeout head = buckets[level][slot];
+        buckets[level][slot] = null;
+        return head;
+    }
+
+    private void unlink(Timeout t) {
+        if (t.prev != null) t.prev.next = t.next;
+        else buckets[t.level][t.slot] = t.next;
+        if (t.next != null) t.next.prev = t.prev;
+        t.prev = null;
+        t.next = null;
+        t.level = -1;
+    }
+
+    private void run(Timeout timeout) {
+        try {
+            timeout.task.run();
+        } catch (RuntimeException e) {
+            System.err.println("Timer task failed: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package server;
+
+import core.Player;
+import core.TrafficReader;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+
+// records what clients do on a server (connect, each line they send, disconnect) to a compact
+// binary file that client.TrafficReplay can play back against another build. the format, and
+// the reader, are core.TrafficReader's
+public class TrafficCapture implements Closeable {
+    private final DataOutputStream out;
+    private final long startNanos = System.nanoTime();
+    private final AtomicLong nextSession = new AtomicLong();
+    // guarded by this
+    private long lastMicros = 0;
+    private long events = 0;
+    private boolean failed = false;
+
+    public TrafficCapture(Path path) throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16));
+        out.writeInt(TrafficReader.MAGIC);
+        out.writeInt(TrafficReader.VERSION);
+        out.writeLong(System.currentTimeMillis());
+    }
+
+    public long newSession() {
+        return nextSession.getAndIncrement();
+    }
+
+    public void connect(long session, Player player) {
+        write(TrafficReader.CONNECT, session, player, null, System.nanoTime());
+    }
+
+    public void line(long session, Player player, String line) {
+        line(session, player, line, System.nanoTime());
+    }
+
+    // nanos: System.nanoTime() when the line arrived, for callers that write it later
+    public void line(long session, Player player, String line, long nanos) {
+        write(TrafficReader.MOVE, session, player, line, nanos);
+    }
+
+    public void disconnect(long session, Player player) {
+        disconnect(session, player, System.nanoTime());
+    }
+
+    public void disconnect(long session, Player player, long nanos) {
+        write(TrafficReader.DISCONNECT, session, player, null, nanos);
+        // a finished session is a good moment to get the records on disk
+        synchronized (this) {
+            flush();
+        }
+    }
+
+    public synchronized long getEvents() {
+        return events;
+    }
+
+    private synchronized void write(int type, long session, Player player, String line, long nanos) {
+        if (failed) return;
+        // times never go backwards in the file, even when a caller writes late
+        long micros = (nanos - startNanos) / 1000;
+        int packed = type == TrafficReader.MOVE ? TrafficReader.pack(line) : 0;
+        if (type == TrafficReader.MOVE && packed < 0) type = TrafficReader.LINE;
+        try {
+            out.writeByte(type);
+            writeVarLong(out, Math.max(0, micros - lastMicros));
+            writeVarLong(out, session);
+            out.writeByte(player.ordinal());
+            if (type == TrafficReader.MOVE) out.writeShort(packed);
+            else if (type == TrafficReader.LINE) out.writeUTF(line.length() > 8192 ? line.substring(0, 8192) : line);
+            lastMicros = Math.max(lastMicros, micros);
+            events++;
+        } catch (IOException e) {
+            System.err.println("Traffic capture stopped: " + e.getMessage());
+            failed = true;
+        }
+    }
+
+    private void flush() {
+        if (failed) return;
+        try {
+            out.flush();
+        } catch (IOException e) {
+            System.err.println("Traffic capture stopped: " + e.getMessage());
+            failed = true;
+        }
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        failed = true;
+        out.close();
+    }
+}
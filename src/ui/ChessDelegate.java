@@ -1,10 +1,10 @@
 package ui;
 
 import core.ChessPiece;
-import core.ChessModel;
 
 public interface ChessDelegate {
     ChessPiece pieceAt(int col, int row);
     void movePiece(int fromCol, int fromRow, int toCol, int toRow);
-    ChessModel getChessModel(); 
+    // latest published state; the model itself lives on the game thread
+    GameSnapshot getSnapshot();
 }
\ No newline at end of file
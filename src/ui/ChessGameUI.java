@@ -6,14 +6,24 @@ import client.ChessClient;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.function.IntUnaryOperator;
 
 
 // logic UI 
 public class ChessGameUI implements ChessDelegate, ActionListener {
     private static final int PORT = 50000;
     
+    // chessModel is only touched on the game thread; the EDT sees published snapshots
     private ChessModel chessModel;
+    private final ExecutorService gameExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "game");
+        t.setDaemon(true);
+        return t;
+    });
+    private int snapshotVersion = 0;
+    private GameSnapshot snapshot;
     private ChessClient chessClient;
 
     private JFrame frame;
@@ -21,17 +31,30 @@ public class ChessGameUI implements ChessDelegate, ActionListener {
     private JButton resetBtn;
     private JButton serverBtn;
     private JButton clientBtn;
+    private JButton backBtn;
+    private JButton forwardBtn;
+    private JButton jumpBtn;
+    private JLabel plyLabel;
     private JLabel statusLabel;
+    private JLabel clockLabel;
 
     private boolean isFlipped = false; 
     private boolean gameOver = false;
 
+    // last clock state from the server; the side to move counts down locally between updates
+    private long whiteClockMillis = -1;
+    private long blackClockMillis = -1;
+    private long clockSyncedAt;
+    private boolean clockRunning = false;
+    private Timer clockTimer;
+
     public ChessGameUI() {
         chessModel = new ChessModel();
         chessModel.reset();
+        snapshot = new GameSnapshot(snapshotVersion, chessModel, null);
 
         frame = new JFrame("Chess Game");
-        frame.setSize(8 * 64 + 20, 8 * 64 + 100);
+        frame.setSize(8 * 64 + 20, 8 * 64 + 135);
         frame.setLocation(200, 130);
         frame.setLayout(new BorderLayout());
 
@@ -39,7 +62,13 @@ public class ChessGameUI implements ChessDelegate, ActionListener {
         frame.add(chessBoardPanel, BorderLayout.CENTER);
 
         statusLabel = new JLabel(" ");
-        frame.add(statusLabel, BorderLayout.NORTH);
+        clockLabel = new JLabel(" ");
+        JPanel topPanel = new JPanel(new BorderLayout());
+        topPanel.add(statusLabel, BorderLayout.CENTER);
+        topPanel.add(clockLabel, BorderLayout.EAST);
+        frame.add(topPanel, BorderLayout.NORTH);
+
+        clockTimer = new Timer(200, e -> updateClockLabel());
 
         JPanel buttonsPanel = new JPanel(new FlowLayout(FlowLayout.CENTER));
         
@@ -55,7 +84,29 @@ public class ChessGameUI implements ChessDelegate, ActionListener {
         clientBtn.addActionListener(this);
         buttonsPanel.add(clientBtn);
 
-        frame.add(buttonsPanel, BorderLayout.PAGE_END);
+        // moving through the moves played so far
+        JPanel historyPanel = new JPanel(new FlowLayout(FlowLayout.CENTER));
+
+        backBtn = new JButton("<");
+        backBtn.addActionListener(this);
+        historyPanel.add(backBtn);
+
+        plyLabel = new JLabel();
+        historyPanel.add(plyLabel);
+
+        forwardBtn = new JButton(">");
+        forwardBtn.addActionListener(this);
+        historyPanel.add(forwardBtn);
+
+        jumpBtn = new JButton("Go to...");
+        jumpBtn.addActionListener(this);
+        historyPanel.add(jumpBtn);
+        updateHistoryControls();
+
+        JPanel bottomPanel = new JPanel(new GridLayout(2, 1));
+        bottomPanel.add(historyPanel);
+        bottomPanel.add(buttonsPanel);
+        frame.add(bottomPanel, BorderLayout.PAGE_END);
 
         frame.setVisible(true);
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
@@ -71,17 +122,62 @@ public class ChessGameUI implements ChessDelegate, ActionListener {
     }
 
     public static void main(String[] args) {
+        // read the piece images while the window is being built
+        SpriteAtlas.getShared().load();
         SwingUtilities.invokeLater(() -> new ChessGameUI());
     }
 
     @Override
-    public ChessModel getChessModel() {
-        return chessModel;
+    public GameSnapshot getSnapshot() {
+        return snapshot;
     }
 
     @Override
     public ChessPiece pieceAt(int col, int row) {
-        return chessModel.pieceAt(col, row);
+        return snapshot.pieceAt(col, row);
+    }
+
+    // game thread: hands the new state (and the result of the move that led to it) to the EDT
+    private void publish(ChessModel.MoveResult result) {
+        GameSnapshot published = new GameSnapshot(++snapshotVersion, chessModel, result);
+        SwingUtilities.invokeLater(() -> {
+            snapshot = published;
+            chessBoardPanel.repaint();
+            updateHistoryControls();
+            if (result != null) updateStatus(result);
+        });
+    }
+
+    // game thread: like publish, for a position reached by moving through the history, so the
+    // result of the move that led there is shown without its dialogs
+    private void publishReview(ChessModel.MoveResult result) {
+        GameSnapshot published = new GameSnapshot(++snapshotVersion, chessModel, result);
+        SwingUtilities.invokeLater(() -> {
+            snapshot = published;
+            chessBoardPanel.repaint();
+            updateHistoryControls();
+            Player checked = snapshot.getCheckedPlayer();
+            statusLabel.setText(checked != null ? "Check! " + (checked == Player.WHITE ? "White" : "Black") + " king is in check!" : " ");
+            // playing on from an earlier position takes the later moves back, which only a local game allows;
+            // a networked game stays over once it is
+            if (chessClient == null) gameOver = result != null && result.isGameOver();
+        });
+    }
+
+    // moves the board to another ply of the game (see ChessModel.goToPly)
+    private void showPly(IntUnaryOperator target) {
+        gameExecutor.execute(() -> {
+            int ply = target.applyAsInt(chessModel.getPly());
+            if (ply < 0 || ply > chessModel.getHistorySize() || ply == chessModel.getPly()) return;
+            publishReview(chessModel.goToPly(ply));
+        });
+    }
+
+    private void updateHistoryControls() {
+        backBtn.setEnabled(snapshot.getPly() > 0);
+        forwardBtn.setEnabled(snapshot.isReviewing());
+        jumpBtn.setEnabled(snapshot.getHistorySize() > 0);
+        plyLabel.setText(snapshot.getPly() + "/" + snapshot.getHistorySize());
     }
 
     @Override
@@ -91,9 +187,14 @@ public class ChessGameUI implements ChessDelegate, ActionListener {
 
     public void movePiece(int fromCol, int fromRow, int toCol, int toRow, Rank promotionRank) {
         if (gameOver) return;
+        // the opponent is waiting on the latest position, not on the one being looked at
+        if (chessClient != null && snapshot.isReviewing()) {
+            statusLabel.setText("Đang xem lại ván cờ, bấm > để về nước mới nhất.");
+            return;
+        }
 
-        ChessPiece movingPiece = chessModel.pieceAt(fromCol, fromRow);
-        if (movingPiece == null || movingPiece.getPlayer() != chessModel.getPlayerInTurn()) {
+        ChessPiece movingPiece = snapshot.pieceAt(fromCol, fromRow);
+        if (movingPiece == null || movingPiece.getPlayer() != snapshot.getPlayerInTurn()) {
             return;
         }
 
@@ -117,46 +218,120 @@ public class ChessGameUI implements ChessDelegate, ActionListener {
             return;
         }
 
-        ChessModel.MoveResult result = chessModel.movePiece(fromCol, fromRow, toCol, toRow, promotionRank);
-        chessBoardPanel.repaint();
-
-        if (chessClient != null && chessClient.isConnected() && (
-                result == ChessModel.MoveResult.SUCCESS ||
-                result == ChessModel.MoveResult.PROMOTION ||
-                result == ChessModel.MoveResult.CHECKMATE ||
-                result == ChessModel.MoveResult.STALEMATE ||
-                result == ChessModel.MoveResult.DRAW_50_MOVES ||
-                result == ChessModel.MoveResult.DRAW_INSUFFICIENT_MATERIAL ||
-                result == ChessModel.MoveResult.DRAW_THREEFOLD_REPETITION
-        )) {
-            String msg = fromCol + "," + fromRow + "," + toCol + "," + toRow;
-            if (promotionRank != null) {
-                msg += "," + promotionRank.name();
+        ChessClient client = chessClient;
+        gameExecutor.execute(() -> {
+            // a received move may have been applied since the snapshot the user acted on
+            ChessPiece piece = chessModel.pieceAt(fromCol, fromRow);
+            if (piece == null || piece.getPlayer() != chessModel.getPlayerInTurn()) {
+                return;
+            }
+            if (client != null && chessModel.getPly() < chessModel.getHistorySize()) {
+                return;
+            }
+            ChessModel.MoveResult result = chessModel.movePiece(fromCol, fromRow, toCol, toRow, promotionRank);
+
+            if (client != null && client.isConnected() && (
+                    result == ChessModel.MoveResult.SUCCESS ||
+                    result == ChessModel.MoveResult.PROMOTION ||
+                    result == ChessModel.MoveResult.CHECKMATE ||
+                    result == ChessModel.MoveResult.STALEMATE ||
+                    result == ChessModel.MoveResult.DRAW_50_MOVES ||
+                    result == ChessModel.MoveResult.DRAW_INSUFFICIENT_MATERIAL ||
+                    result == ChessModel.MoveResult.DRAW_THREEFOLD_REPETITION
+            )) {
+                String msg = fromCol + "," + fromRow + "," + toCol + "," + toRow;
+                if (promotionRank != null) {
+                    msg += "," + promotionRank.name();
+                }
+                client.sendMove(msg);
             }
-            chessClient.sendMove(msg);
-        }
 
-        updateStatus(result);
+            publish(result);
+        });
     }
 
     public void receiveMove(String moveStr) {
-        String[] parts = moveStr.split(",");
-        int fromCol = Integer.parseInt(parts[0]);
-        int fromRow = Integer.parseInt(parts[1]);
-        int toCol = Integer.parseInt(parts[2]);
-        int toRow = Integer.parseInt(parts[3]);
-        Rank promotionRank = parts.length > 4 ? Rank.valueOf(parts[4]) : null;
+        if (moveStr.startsWith("CLOCK")) {
+            receiveClock(moveStr);
+            return;
+        }
+        if (moveStr.startsWith("FLAG")) {
+            Player loser = Player.valueOf(moveStr.substring(5).trim());
+            SwingUtilities.invokeLater(() -> {
+                gameOver = true;
+                clockRunning = false;
+                if (loser == Player.WHITE) whiteClockMillis = 0;
+                else blackClockMillis = 0;
+                updateClockLabel();
+                JOptionPane.showMessageDialog(frame, loser == Player.WHITE ? "Hết giờ! Trắng thua." : "Hết giờ! Đen thua.");
+            });
+            return;
+        }
+        int clockAt = moveStr.indexOf(" CLOCK ");
+        if (clockAt >= 0) {
+            receiveClock(moveStr.substring(clockAt + 1));
+        }
+        if (moveStr.startsWith("SYNC")) {
+            // we fell behind and the server sent the whole game instead of the missed moves
+            java.util.List<Move> moves = Move.parseSync(moveStr);
+            gameExecutor.execute(() -> {
+                chessModel.reset();
+                ChessModel.MoveResult result = null;
+                for (Move m : moves) {
+                    result = chessModel.movePiece(m);
+                }
+                publish(result);
+            });
+            return;
+        }
+        Move move = Move.parse(moveStr);
 
+        gameExecutor.execute(() -> {
+            // the opponent's move follows the latest position, wherever the board was being reviewed
+            chessModel.goToPly(chessModel.getHistorySize());
+            publish(chessModel.movePiece(move));
+        });
+    }
+
+    // "CLOCK <whiteMillis> <blackMillis>", sent by timed servers at game start and after every move
+    private void receiveClock(String clockStr) {
+        String[] parts = clockStr.trim().split(" ");
+        long white = Long.parseLong(parts[1]);
+        long black = Long.parseLong(parts[2]);
         SwingUtilities.invokeLater(() -> {
-            ChessModel.MoveResult result = chessModel.movePiece(fromCol, fromRow, toCol, toRow, promotionRank);
-            chessBoardPanel.repaint();
-            updateStatus(result);
+            // the first sync is the starting time; the clock runs once a move has been made
+            clockRunning = whiteClockMillis >= 0 && !gameOver;
+            whiteClockMillis = white;
+            blackClockMillis = black;
+            clockSyncedAt = System.currentTimeMillis();
+            if (!clockTimer.isRunning()) clockTimer.start();
+            updateClockLabel();
         });
     }
 
+    private void updateClockLabel() {
+        if (whiteClockMillis < 0) {
+            clockLabel.setText(" ");
+            return;
+        }
+        long white = whiteClockMillis;
+        long black = blackClockMillis;
+        if (clockRunning && !gameOver) {
+            long elapsed = System.currentTimeMillis() - clockSyncedAt;
+            if (snapshot.getPlayerInTurn() == Player.WHITE) white = Math.max(0, white - elapsed);
+            else black = Math.max(0, black - elapsed);
+        }
+        clockLabel.setText("White " + formatClock(white) + "  |  Black " + formatClock(black) + " ");
+    }
+
+    private static String formatClock(long millis) {
+        long seconds = (millis + 999) / 1000;
+        return String.format("%d:%02d", seconds / 60, seconds % 60);
+    }
+
     private void updateStatus(ChessModel.MoveResult result) {
-        Player checked = chessModel.getPlayerInTurn() == Player.WHITE ? Player.BLACK : Player.WHITE;
-        if (chessModel.isKingChecked(checked)) {
+        Player checked = snapshot.getCheckedPlayer();
+        if (checked != null) {
             statusLabel.setText("Check! " + (checked == Player.WHITE ? "White" : "Black") + " king is in check!");
         } else {
             statusLabel.setText(" ");
@@ -171,7 +346,7 @@ public class ChessGameUI implements ChessDelegate, ActionListener {
                 break;
             case CHECKMATE:
                 JOptionPane.showMessageDialog(frame, 
-                    chessModel.getPlayerInTurn() == Player.WHITE ? "Chiếu hết!" : "Chiếu hết!");
+                    snapshot.getPlayerInTurn() == Player.WHITE ? "Chiếu hết!" : "Chiếu hết!");
                 gameOver = true;
                 break;
             case STALEMATE:
@@ -195,7 +370,21 @@ public class ChessGameUI implements ChessDelegate, ActionListener {
 
     @Override
     public void actionPerformed(ActionEvent e) {
-        if (e.getSource() == resetBtn) {
+        if (e.getSource() == backBtn) {
+            showPly(ply -> ply - 1);
+        } else if (e.getSource() == forwardBtn) {
+            showPly(ply -> ply + 1);
+        } else if (e.getSource() == jumpBtn) {
+            String input = JOptionPane.showInputDialog(frame, "Đi tới nước thứ (0-" + snapshot.getHistorySize() + "):",
+                    snapshot.getPly());
+            if (input == null) return;
+            try {
+                int ply = Integer.parseInt(input.trim());
+                showPly(current -> ply);
+            } catch (NumberFormatException ex) {
+                JOptionPane.showMessageDialog(frame, "Số nước không hợp lệ!");
+            }
+        } else if (e.getSource() == resetBtn) {
             Executors.newSingleThreadExecutor().execute(() -> {
                 if (chessClient != null) {
                     chessClient.disconnect();
@@ -203,7 +392,10 @@ public class ChessGameUI implements ChessDelegate, ActionListener {
                 }
             });
 
-            chessModel.reset();
+            gameExecutor.execute(() -> {
+                chessModel.reset();
+                publish(null);
+            });
             isFlipped = false; 
             frame.remove(chessBoardPanel);
             chessBoardPanel = new ChessView(this, isFlipped);
@@ -212,6 +404,11 @@ public class ChessGameUI implements ChessDelegate, ActionListener {
             frame.repaint();
             statusLabel.setText(" ");
             gameOver = false;
+            clockTimer.stop();
+            whiteClockMillis = -1;
+            blackClockMillis = -1;
+            clockRunning = false;
+            clockLabel.setText(" ");
 
             serverBtn.setEnabled(true);
             clientBtn.setEnabled(true);
@@ -1,17 +1,20 @@
 package ui;
 
 import core.*;
-import javax.imageio.ImageIO;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
-import java.io.File;
-import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
+import java.awt.image.VolatileImage;
 
 public class ChessView extends JPanel implements MouseListener, MouseMotionListener {
-    private final int cellSize = 64;
+    private static final Color LIGHT = new Color(240, 217, 181);
+    private static final Color DARK = new Color(181, 136, 99);
+    private static final Color TARGET = new Color(20, 85, 30, 110);
+
+    private static final int DEFAULT_CELL_SIZE = 64;
+
+    // follows the panel size
+    private int cellSize = DEFAULT_CELL_SIZE;
     private final int originX = 0;
     private final int originY = 0;
 
@@ -23,73 +26,148 @@ public class ChessView extends JPanel implements MouseListener, MouseMotionListe
     private int movingPieceX = -1;
     private int movingPieceY = -1;
     private ChessPiece movingPiece = null;
+    // legal destinations of the picked-up piece, from the snapshot
+    private long highlightTargets = 0;
 
-    private Map<String, Image> imageCache = new HashMap<>();
+    private final SpriteAtlas atlas = SpriteAtlas.getShared();
+    private final Runnable onSpritesReady = () -> SwingUtilities.invokeLater(this::repaint);
+
+    // squares and resting pieces, redrawn only when the position or the dragged square changes;
+    // paintComponent just copies it (the clip limits the copy to the dirty area)
+    private VolatileImage boardLayer;
+    private int layerVersion = -1;
+    private int layerHidden = -2;
+    private int layerAtlasVersion = -1;
 
     public ChessView(ChessDelegate chessDelegate, boolean isFlipped) {
         this.chessDelegate = chessDelegate;
         this.isFlipped = isFlipped;
-        setPreferredSize(new Dimension(8 * cellSize, 8 * cellSize));
+        setPreferredSize(new Dimension(8 * DEFAULT_CELL_SIZE, 8 * DEFAULT_CELL_SIZE));
         addMouseListener(this);
         addMouseMotionListener(this);
+        addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentResized(ComponentEvent e) {
+                cellSize = Math.max(8, Math.min(getWidth(), getHeight()) / 8);
+                atlas.prepare(cellSize);
+            }
+        });
+        atlas.prepare(cellSize);
+    }
+
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        atlas.addListener(onSpritesReady);
+    }
+
+    @Override
+    public void removeNotify() {
+        atlas.removeListener(onSpritesReady);
+        super.removeNotify();
     }
 
     @Override
     protected void paintComponent(Graphics g) {
         super.paintComponent(g);
-        drawBoard(g);
-        drawPieces(g);
+        if (!paintBoardLayer(g)) {
+            // no accelerated image (e.g. not displayable yet): draw directly
+            drawBoard(g);
+            drawPieces(g, chessDelegate.getSnapshot());
+        }
+        drawMovingPiece(g);
+    }
+
+    private boolean paintBoardLayer(Graphics g) {
+        int size = 8 * cellSize;
+        GameSnapshot snapshot = chessDelegate.getSnapshot();
+        int hidden = fromCol != -1 ? fromRow * 8 + fromCol : -1;
+        int atlasVersion = atlas.getVersion();
+        do {
+            if (boardLayer != null && boardLayer.getWidth() != size) {
+                boardLayer.flush();
+                boardLayer = null;
+            }
+            if (boardLayer == null) {
+                boardLayer = createVolatileImage(size, size);
+                if (boardLayer == null) return false;
+                layerHidden = -2;
+            }
+            int status = boardLayer.validate(getGraphicsConfiguration());
+            if (status == VolatileImage.IMAGE_INCOMPATIBLE) {
+                boardLayer = null;
+                continue;
+            }
+            if (status == VolatileImage.IMAGE_RESTORED || snapshot.getVersion() != layerVersion || hidden != layerHidden
+                    || atlasVersion != layerAtlasVersion) {
+                Graphics2D lg = boardLayer.createGraphics();
+                drawBoard(lg);
+                drawPieces(lg, snapshot);
+                lg.dispose();
+                layerVersion = snapshot.getVersion();
+                layerHidden = hidden;
+                layerAtlasVersion = atlasVersion;
+            }
+            g.drawImage(boardLayer, originX, originY, null);
+        } while (boardLayer == null || boardLayer.contentsLost());
+        return true;
     }
 
     private void drawBoard(Graphics g) {
         for (int row = 0; row < 8; row++) {
             for (int col = 0; col < 8; col++) {
                 boolean isLight = (row + col) % 2 != 0;
-                g.setColor(isLight ? new Color(240, 217, 181) : new Color(181, 136, 99));
-                g.fillRect(originX + col * cellSize, originY + (7 - row) * cellSize, cellSize, cellSize);
+                g.setColor(isLight ? LIGHT : DARK);
+                g.fillRect(col * cellSize, (7 - row) * cellSize, cellSize, cellSize);
             }
         }
     }
 
-    private void drawPieces(Graphics g) {
-        for (int row = 0; row < 8; row++) {
-            for (int col = 0; col < 8; col++) {
-                ChessPiece piece = chessDelegate.pieceAt(col, row);
-                if (piece != null && !(fromCol == col && fromRow == row)) {
-                    int displayRow = isFlipped ? 7 - row : row;
-                    int displayCol = isFlipped ? 7 - col : col;
-                    drawPieceAt(g, displayCol, displayRow, piece.getImgName());
-                }
+    private void drawPieces(Graphics g, GameSnapshot snapshot) {
+        if (highlightTargets != 0) {
+            ((Graphics2D) g).setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g.setColor(TARGET);
+            int dot = cellSize / 3;
+            for (long targets = highlightTargets; targets != 0; targets &= targets - 1) {
+                int sq = Long.numberOfTrailingZeros(targets);
+                int displayCol = isFlipped ? 7 - (sq & 7) : sq & 7;
+                int displayRow = isFlipped ? 7 - (sq >> 3) : sq >> 3;
+                g.fillOval(displayCol * cellSize + (cellSize - dot) / 2, (7 - displayRow) * cellSize + (cellSize - dot) / 2, dot, dot);
+            }
+        }
+        for (ChessPiece piece : snapshot.getPieces()) {
+            int col = piece.getCol();
+            int row = piece.getRow();
+            if (!(fromCol == col && fromRow == row)) {
+                int displayRow = isFlipped ? 7 - row : row;
+                int displayCol = isFlipped ? 7 - col : col;
+                drawPieceAt(g, displayCol, displayRow, piece.getImgName());
             }
         }
+    }
 
+    private void drawMovingPiece(Graphics g) {
         if (fromCol != -1 && fromRow != -1 && movingPieceX != -1 && movingPieceY != -1 && movingPiece != null) {
-            Image img = loadImage(movingPiece.getImgName());
-            if (img != null) {
-                g.drawImage(img, movingPieceX - cellSize / 2, movingPieceY - cellSize / 2, cellSize, cellSize, null);
-            }
+            drawSprite(g, movingPiece.getImgName(), movingPieceX - cellSize / 2, movingPieceY - cellSize / 2);
         }
     }
 
+    // area covered by the dragged piece
+    private void repaintMovingPiece() {
+        repaint(movingPieceX - cellSize / 2, movingPieceY - cellSize / 2, cellSize, cellSize);
+    }
+
     private void drawPieceAt(Graphics g, int col, int row, String imgName) {
-        Image img = loadImage(imgName);
-        if (img != null) {
-            g.drawImage(img, originX + col * cellSize, originY + (7 - row) * cellSize, cellSize, cellSize, null);
-        }
+        drawSprite(g, imgName, col * cellSize, (7 - row) * cellSize);
     }
 
-    private Image loadImage(String imgName) {
-        if (imageCache.containsKey(imgName)) {
-            return imageCache.get(imgName);
-        }
-        try {
-            String path = "res/img/" + imgName + ".png";
-            Image img = ImageIO.read(new File(path));
-            imageCache.put(imgName, img);
-            return img;
-        } catch (IOException e) {
-            System.err.println("Cannot load image: " + imgName);
-            return null;
+    private void drawSprite(Graphics g, String imgName, int x, int y) {
+        Image img = atlas.getSprite(imgName, cellSize);
+        if (img == null) return; // still loading; the atlas repaints us when ready
+        if (img.getWidth(null) == cellSize && img.getHeight(null) == cellSize) {
+            g.drawImage(img, x, y, null);
+        } else {
+            g.drawImage(img, x, y, cellSize, cellSize, null);
         }
     }
 
@@ -104,17 +182,26 @@ public class ChessView extends JPanel implements MouseListener, MouseMotionListe
         }
 
         if (col >= 0 && col < 8 && row >= 0 && row < 8) {
-            ChessPiece p = chessDelegate.pieceAt(col, row);
+            GameSnapshot snapshot = chessDelegate.getSnapshot();
+            ChessPiece p = snapshot.pieceAt(col, row);
             if (p != null) {
                 Player myPlayer = isFlipped ? Player.BLACK : Player.WHITE;
-                ChessModel model = chessDelegate.getChessModel();
-                if (p.getPlayer() == myPlayer && model.getPlayerInTurn() == myPlayer) {
+                if (p.getPlayer() == myPlayer && snapshot.getPlayerInTurn() == myPlayer) {
                     fromCol = col;
                     fromRow = row;
                     movingPiece = p;
+                    highlightTargets = snapshot.getLegalTargets(col, row);
                     movingPieceX = e.getX();
                     movingPieceY = e.getY();
-                    repaint();
+                    // the piece leaves its square in the layer
+                    int displayCol = isFlipped ? 7 - col : col;
+                    int displayRow = isFlipped ? 7 - row : row;
+                    if (highlightTargets != 0) {
+                        repaint();
+                    } else {
+                        repaint(originX + displayCol * cellSize, originY + (7 - displayRow) * cellSize, cellSize, cellSize);
+                        repaintMovingPiece();
+                    }
                 }
             }
         }
@@ -139,6 +226,7 @@ public class ChessView extends JPanel implements MouseListener, MouseMotionListe
         fromCol = -1;
         fromRow = -1;
         movingPiece = null;
+        highlightTargets = 0;
         movingPieceX = -1;
         movingPieceY = -1;
         repaint();
@@ -147,9 +235,11 @@ public class ChessView extends JPanel implements MouseListener, MouseMotionListe
     @Override
     public void mouseDragged(MouseEvent e) {
         if (fromCol != -1 && fromRow != -1) {
+            // only where the piece was and where it is now
+            repaintMovingPiece();
             movingPieceX = e.getX();
             movingPieceY = e.getY();
-            repaint();
+            repaintMovingPiece();
         }
     }
 
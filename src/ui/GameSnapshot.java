@@ -0,0 +1,93 @@
+package ui;
+
+import core.ChessModel;
+import core.ChessPiece;
+import core.Move;
+import core.Player;
+
+import java.util.Collections;
+import java.util.List;
+
+// immutable picture of the game, built on the game thread after every change and handed to the
+// EDT, so painting and mouse handling never touch ChessModel
+public final class GameSnapshot {
+    private final int version;
+    private final ChessPiece[] squares = new ChessPiece[64];
+    private final List<ChessPiece> pieces;
+    private final Player playerInTurn;
+    private final Player checkedPlayer;
+    private final ChessModel.MoveResult lastResult;
+    private final int ply;
+    private final int historySize;
+    // bit (toRow * 8 + toCol) is set for every legal destination of the piece on a square
+    private final long[] legalTargets = new long[64];
+
+    GameSnapshot(int version, ChessModel model, ChessModel.MoveResult lastResult) {
+        this.version = version;
+        this.pieces = Collections.unmodifiableList(model.getPieces());
+        for (ChessPiece p : pieces) {
+            squares[p.getRow() * 8 + p.getCol()] = p;
+        }
+        this.playerInTurn = model.getPlayerInTurn();
+        Player opponent = playerInTurn == Player.WHITE ? Player.BLACK : Player.WHITE;
+        this.checkedPlayer = model.isKingChecked(playerInTurn) ? playerInTurn
+                : model.isKingChecked(opponent) ? opponent : null;
+        this.lastResult = lastResult;
+        this.ply = model.getPly();
+        this.historySize = model.getHistorySize();
+        if (lastResult == null || !lastResult.isGameOver()) {
+            for (Move m : model.getLegalMoves()) {
+                legalTargets[m.getFromRow() * 8 + m.getFromCol()] |= 1L << (m.getToRow() * 8 + m.getToCol());
+            }
+        }
+    }
+
+    // increases with every published snapshot
+    public int getVersion() {
+        return version;
+    }
+
+    public ChessPiece pieceAt(int col, int row) {
+        return squares[row * 8 + col];
+    }
+
+    public List<ChessPiece> getPieces() {
+        return pieces;
+    }
+
+    public Player getPlayerInTurn() {
+        return playerInTurn;
+    }
+
+    // the side whose king is attacked, or null
+    public Player getCheckedPlayer() {
+        return checkedPlayer;
+    }
+
+    // result of the move that led here, null after a reset
+    public ChessModel.MoveResult getLastResult() {
+        return lastResult;
+    }
+
+    // plies played to reach this position, and in the whole history
+    public int getPly() {
+        return ply;
+    }
+
+    public int getHistorySize() {
+        return historySize;
+    }
+
+    // true when moves were stepped back over, i.e. this is not the latest position
+    public boolean isReviewing() {
+        return ply < historySize;
+    }
+
+    public long getLegalTargets(int col, int row) {
+        return legalTargets[row * 8 + col];
+    }
+
+    public boolean isLegalTarget(int fromCol, int fromRow, int toCol, int toRow) {
+        return (legalTargets[fromRow * 8 + fromCol] & 1L << (toRow * 8 + toCol)) != 0;
+    }
+}
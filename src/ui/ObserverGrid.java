@@ -0,0 +1,328 @@
+package ui;
+
+import client.ChessClient;
+import client.GameChannel;
+import core.Board;
+import core.ChessConstants;
+import core.ChessModel;
+import core.Move;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+// many live games at once (a simul, a bot run), each a small board in a grid. game lines are
+// applied on whatever thread delivers them, to a Board per game, and leave an immutable picture
+// behind; a tile whose picture changed is queued once, however many moves come in meanwhile. a
+// Swing timer ticking at the frame rate drains the queue and repaints just those tiles, so the
+// EDT gets one event per frame, not one per move. every tile draws the shared SpriteAtlas sprites
+// over one checkerboard image
+public class ObserverGrid extends JPanel {
+    private static final long serialVersionUID = 1L;
+
+    public static final int DEFAULT_FPS = 20;
+    private static final Color LIGHT = new Color(240, 217, 181);
+    private static final Color DARK = new Color(181, 136, 99);
+    private static final Color LAST_MOVE = new Color(205, 210, 60, 120);
+    // Board piece codes - 1, in Board's type order
+    private static final String[] NAMES = {
+        ChessConstants.wKing, ChessConstants.wQueen, ChessConstants.wBishop,
+        ChessConstants.wRook, ChessConstants.wKnight, ChessConstants.wPawn,
+        ChessConstants.bKing, ChessConstants.bQueen, ChessConstants.bBishop,
+        ChessConstants.bRook, ChessConstants.bKnight, ChessConstants.bPawn
+    };
+
+    private final SpriteAtlas atlas = SpriteAtlas.getShared();
+    private final Runnable onSpritesReady = () -> SwingUtilities.invokeLater(this::repaint);
+    private final List<Game> games = new ArrayList<>();
+    private final ConcurrentLinkedQueue<Game> changed = new ConcurrentLinkedQueue<>();
+    private final Timer frameTimer;
+    private final LongAdder lines = new LongAdder();
+    private final LongAdder frames = new LongAdder();
+    private final LongAdder tilePaints = new LongAdder();
+
+    // EDT only: the empty board at the tiles' current cell size
+    private BufferedImage squares;
+
+    public ObserverGrid(int columns, int fps) {
+        super(new GridLayout(0, columns, 4, 4));
+        setBackground(Color.DARK_GRAY);
+        frameTimer = new Timer(1000 / Math.max(1, fps), e -> frame());
+        // a tick the EDT could not keep up with is dropped, not queued behind
+        frameTimer.setCoalesce(true);
+    }
+
+    // EDT: a tile for a game whose lines are fed to the returned Game
+    public Game addGame(String title) {
+        Game game = new Game(title);
+        games.add(game);
+        add(game.tile);
+        revalidate();
+        return game;
+    }
+
+    public int getGameCount() {
+        return games.size();
+    }
+
+    // game lines received, frames that repainted something, and tiles repainted, so far
+    public long getLines() {
+        return lines.sum();
+    }
+
+    public long getFrames() {
+        return frames.sum();
+    }
+
+    public long getTilePaints() {
+        return tilePaints.sum();
+    }
+
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        atlas.addListener(onSpritesReady);
+        frameTimer.start();
+    }
+
+    @Override
+    public void removeNotify() {
+        frameTimer.stop();
+        atlas.removeListener(onSpritesReady);
+        super.removeNotify();
+    }
+
+    // timer tick on the EDT: one repaint per changed tile, painted together by the RepaintManager
+    private void frame() {
+        int n = 0;
+        Game game;
+        while ((game = changed.poll()) != null) {
+            game.queued.set(false);
+            game.tile.repaint();
+            n++;
+        }
+        if (n > 0) frames.increment();
+    }
+
+    private BufferedImage squares(int cell) {
+        if (squares == null || squares.getWidth() != 8 * cell) {
+            squares = new BufferedImage(8 * cell, 8 * cell, BufferedImage.TYPE_INT_RGB);
+            Graphics g = squares.createGraphics();
+            for (int row = 0; row < 8; row++) {
+                for (int col = 0; col < 8; col++) {
+                    g.setColor((row + col) % 2 != 0 ? LIGHT : DARK);
+                    g.fillRect(col * cell, (7 - row) * cell, cell, cell);
+                }
+            }
+            g.dispose();
+            atlas.prepare(cell);
+        }
+        return squares;
+    }
+
+    // what a tile shows; a new one replaces it after every line that changed the game
+    private static final class Picture {
+        final byte[] pieces;
+        final int lastFrom;
+        final int lastTo;
+        final int ply;
+        final String status;
+
+        Picture(Board board, int lastFrom, int lastTo, String status) {
+            pieces = new byte[64];
+            for (int sq = 0; sq < 64; sq++) {
+                pieces[sq] = (byte) board.pieceAt(sq);
+            }
+            this.lastFrom = lastFrom;
+            this.lastTo = lastTo;
+            this.ply = board.getPly();
+            this.status = status;
+        }
+    }
+
+    // one observed game. receive() and ended() may be called from any thread, one at a time
+    public final class Game {
+        private final String title;
+        private final Board board = new Board();
+        private final Tile tile = new Tile(this);
+        private final AtomicBoolean queued = new AtomicBoolean();
+        private volatile Picture picture;
+        private boolean over = false;
+
+        Game(String title) {
+            this.title = title;
+            picture = new Picture(board, -1, -1, "");
+        }
+
+        // a line of the game as an observer gets it: SYNC, a move (with or without CLOCK), CLOCK, FLAG
+        public synchronized void receive(String line) {
+            lines.increment();
+            if (line.startsWith("CLOCK")) return;
+            if (line.startsWith("FLAG")) {
+                over = true;
+                show(picture.lastFrom, picture.lastTo, line.substring(5).trim().equals("WHITE") ? "0-1 (hết giờ)" : "1-0 (hết giờ)");
+                return;
+            }
+            int from = -1;
+            int to = -1;
+            if (line.startsWith("SYNC")) {
+                board.reset();
+                for (Move m : Move.parseSync(line)) {
+                    int move = board.findMove(m);
+                    if (move == 0) break;
+                    board.makeMove(move);
+                    from = Board.from(move);
+                    to = Board.to(move);
+                }
+            } else {
+                int move;
+                try {
+                    move = board.findMove(Move.parse(line));
+                } catch (RuntimeException e) {
+                    return; // not a move line
+                }
+                if (move == 0) return;
+                board.makeMove(move);
+                from = Board.from(move);
+                to = Board.to(move);
+            }
+            show(from, to, status());
+        }
+
+        // the server closed the game (or the connection dropped)
+        public synchronized void ended() {
+            if (over) return;
+            over = true;
+            show(picture.lastFrom, picture.lastTo, "kết thúc");
+        }
+
+        private String status() {
+            ChessModel.MoveResult result = board.getStatus();
+            if (result == ChessModel.MoveResult.CHECKMATE) {
+                over = true;
+                return board.getSideToMove() == Board.WHITE ? "0-1" : "1-0";
+            }
+            if (result.isGameOver()) {
+                over = true;
+                return "1/2-1/2";
+            }
+            return board.isInCheck() ? "chiếu" : "";
+        }
+
+        private void show(int from, int to, String status) {
+            picture = new Picture(board, from, to, status);
+            if (queued.compareAndSet(false, true)) changed.add(this);
+        }
+    }
+
+    private final class Tile extends JComponent {
+        private static final long serialVersionUID = 1L;
+
+        private final Game game;
+
+        Tile(Game game) {
+            this.game = game;
+            setPreferredSize(new Dimension(8 * 16, 8 * 16 + 16));
+            setOpaque(true);
+        }
+
+        @Override
+        protected void paintComponent(Graphics g) {
+            tilePaints.increment();
+            Picture p = game.picture;
+            FontMetrics metrics = g.getFontMetrics();
+            int caption = metrics.getHeight();
+            int cell = Math.max(4, Math.min(getWidth(), getHeight() - caption) / 8);
+            int size = 8 * cell;
+            int x = (getWidth() - size) / 2;
+
+            g.setColor(getParent() != null ? getParent().getBackground() : Color.DARK_GRAY);
+            g.fillRect(0, 0, getWidth(), getHeight());
+            g.setColor(Color.WHITE);
+            String text = game.title + "  " + (p.ply + 1) / 2 + (p.status.isEmpty() ? "" : "  " + p.status);
+            g.drawString(text, x, metrics.getAscent());
+
+            g.drawImage(squares(cell), x, caption, null);
+            if (p.lastFrom >= 0) {
+                g.setColor(LAST_MOVE);
+                g.fillRect(x + (p.lastFrom & 7) * cell, caption + (7 - (p.lastFrom >> 3)) * cell, cell, cell);
+                g.fillRect(x + (p.lastTo & 7) * cell, caption + (7 - (p.lastTo >> 3)) * cell, cell, cell);
+            }
+            for (int sq = 0; sq < 64; sq++) {
+                if (p.pieces[sq] == 0) continue;
+                Image img = atlas.getSprite(NAMES[p.pieces[sq] - 1], cell);
+                if (img == null) continue; // still loading; the atlas repaints us when ready
+                int px = x + (sq & 7) * cell;
+                int py = caption + (7 - (sq >> 3)) * cell;
+                if (img.getWidth(null) == cell) g.drawImage(img, px, py, null);
+                else g.drawImage(img, px, py, cell, cell, null);
+            }
+        }
+    }
+
+    // usage: ObserverGrid <host> <muxPort> <firstGameId> [count] [--fps n] [--columns n]
+    // watches games firstGameId .. firstGameId + count - 1 (default 100) on one multiplexed connection
+    public static void main(String[] args) {
+        if (args.length < 3) {
+            System.err.println("Usage: ObserverGrid <host> <muxPort> <firstGameId> [count] [--fps n] [--columns n]");
+            return;
+        }
+        String host = args[0];
+        int port = Integer.parseInt(args[1]);
+        long first = Long.parseLong(args[2]);
+        int count = 100;
+        int fps = DEFAULT_FPS;
+        int columns = 0;
+        for (int i = 3; i < args.length; i++) {
+            if (args[i].equals("--fps") && i + 1 < args.length) fps = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--columns") && i + 1 < args.length) columns = Integer.parseInt(args[++i]);
+            else count = Integer.parseInt(args[i]);
+        }
+        ChessClient client = new ChessClient(host, port);
+        if (!client.connect() || !client.isMultiplexed()) {
+            System.err.println("Need a multiplexed server port (ChessServer --mux-port)");
+            client.disconnect();
+            return;
+        }
+        SpriteAtlas.getShared().load();
+        int total = count;
+        int perRow = columns > 0 ? columns : (int) Math.ceil(Math.sqrt(count));
+        int frameRate = fps;
+        SwingUtilities.invokeLater(() -> {
+            ObserverGrid grid = new ObserverGrid(perRow, frameRate);
+            for (int i = 0; i < total; i++) {
+                long id = first + i;
+                Game game = grid.addGame("#" + id);
+                GameChannel channel = client.watch(id, game::receive);
+                channel.setOnDisconnected(game::ended);
+            }
+
+            JLabel statusLabel = new JLabel(" ");
+            long[] last = new long[3];
+            new Timer(1000, e -> {
+                long l = grid.getLines();
+                long f = grid.getFrames();
+                long t = grid.getTilePaints();
+                statusLabel.setText(String.format(" %d ván, %d dòng/s, %d khung hình/s, %d bàn cờ vẽ lại/s",
+                        grid.getGameCount(), l - last[0], f - last[1], t - last[2]));
+                last[0] = l;
+                last[1] = f;
+                last[2] = t;
+            }).start();
+
+            JFrame frame = new JFrame("Chess Observer");
+            frame.setLayout(new BorderLayout());
+            frame.add(statusLabel, BorderLayout.NORTH);
+            frame.add(new JScrollPane(grid), BorderLayout.CENTER);
+            frame.setSize(1200, 900);
+            frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+            frame.setVisible(true);
+        });
+        Runtime.getRuntime().addShutdownHook(new Thread(client::disconnect));
+    }
+}
@@ -0,0 +1,168 @@
+package ui;
+
+import core.ChessConstants;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// the 12 piece images, read once in the background from the classpath (/res/img/...) and kept as
+// display-compatible images pre-scaled to each cell size in use, so painting never reads files
+// or scales. shared by every ChessView
+public class SpriteAtlas {
+    private static final String[] NAMES = {
+        ChessConstants.wKing, ChessConstants.wQueen, ChessConstants.wBishop,
+        ChessConstants.wRook, ChessConstants.wKnight, ChessConstants.wPawn,
+        ChessConstants.bKing, ChessConstants.bQueen, ChessConstants.bBishop,
+        ChessConstants.bRook, ChessConstants.bKnight, ChessConstants.bPawn
+    };
+    // a window being resized asks for many sizes; only the latest few are kept
+    private static final int MAX_SIZES = 4;
+
+    private static final SpriteAtlas SHARED = new SpriteAtlas();
+
+    private final ExecutorService loader = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "sprite-loader");
+        t.setDaemon(true);
+        return t;
+    });
+    private final CopyOnWriteArrayList<Runnable> listeners = new CopyOnWriteArrayList<>();
+    private volatile Map<String, BufferedImage> originals;
+    private volatile int version = 0;
+    private boolean loading = false;
+
+    // size -> name -> sprite; guarded by this
+    private final Map<Integer, Map<String, Image>> scaled = new LinkedHashMap<Integer, Map<String, Image>>(8, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Map<String, Image>> eldest) {
+            return size() > MAX_SIZES;
+        }
+    };
+
+    public static SpriteAtlas getShared() {
+        return SHARED;
+    }
+
+    // starts reading the images in the background; later calls do nothing
+    public synchronized void load() {
+        if (loading) return;
+        loading = true;
+        loader.execute(() -> {
+            Map<String, BufferedImage> images = new HashMap<>();
+            for (String name : NAMES) {
+                BufferedImage img = read(name);
+                if (img != null) images.put(name, img);
+            }
+            originals = images;
+            changed();
+        });
+    }
+
+    // scales every sprite to size in the background, if not done yet
+    public synchronized void prepare(int size) {
+        if (size <= 0 || scaled.containsKey(size)) return;
+        load();
+        scaled.put(size, new HashMap<>());
+        loader.execute(() -> {
+            Map<String, BufferedImage> images = originals;
+            Map<String, Image> sprites = new HashMap<>();
+            for (Map.Entry<String, BufferedImage> e : images.entrySet()) {
+                sprites.put(e.getKey(), scale(e.getValue(), size));
+            }
+            synchronized (this) {
+                if (!scaled.containsKey(size)) return; // evicted meanwhile
+                scaled.put(size, sprites);
+            }
+            changed();
+        });
+    }
+
+    // the sprite at exactly size x size, or the unscaled original while scaling is still running
+    // (the caller scales it when drawing), or null before the images are read
+    public Image getSprite(String name, int size) {
+        Map<String, Image> sprites;
+        synchronized (this) {
+            sprites = scaled.get(size);
+        }
+        if (sprites == null) {
+            prepare(size);
+        } else {
+            Image sprite = sprites.get(name);
+            if (sprite != null) return sprite;
+        }
+        Map<String, BufferedImage> images = originals;
+        return images != null ? images.get(name) : null;
+    }
+
+    // bumped whenever images become available, so views know their cached drawing is stale
+    public int getVersion() {
+        return version;
+    }
+
+    // called on the loader thread after images were read or scaled
+    public void addListener(Runnable listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Runnable listener) {
+        listeners.remove(listener);
+    }
+
+    private void changed() {
+        version++;
+        for (Runnable listener : listeners) {
+            listener.run();
+        }
+    }
+
+    private static BufferedImage read(String name) {
+        String resource = "/res/img/" + name + ".png";
+        try (InputStream in = SpriteAtlas.class.getResourceAsStream(resource)) {
+            if (in != null) return ImageIO.read(in);
+            // not on the classpath: running from the project folder
+            return ImageIO.read(new File("res/img/" + name + ".png"));
+        } catch (IOException e) {
+            System.err.println("Cannot load image: " + name);
+            return null;
+        }
+    }
+
+    private static Image scale(BufferedImage source, int size) {
+        BufferedImage target = createCompatible(size);
+        // halve in steps for large reductions, a single bilinear pass loses too much detail
+        BufferedImage current = source;
+        while (current.getWidth() / 2 >= size && current.getHeight() / 2 >= size) {
+            BufferedImage half = new BufferedImage(current.getWidth() / 2, current.getHeight() / 2, BufferedImage.TYPE_INT_ARGB_PRE);
+            drawScaled(current, half);
+            current = half;
+        }
+        drawScaled(current, target);
+        return target;
+    }
+
+    private static void drawScaled(BufferedImage source, BufferedImage target) {
+        Graphics2D g = target.createGraphics();
+        g.setComposite(AlphaComposite.Src);
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+        g.drawImage(source, 0, 0, target.getWidth(), target.getHeight(), null);
+        g.dispose();
+    }
+
+    private static BufferedImage createCompatible(int size) {
+        if (GraphicsEnvironment.isHeadless()) {
+            return new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB_PRE);
+        }
+        return GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice()
+                .getDefaultConfiguration().createCompatibleImage(size, size, Transparency.TRANSLUCENT);
+    }
+}